@@ -0,0 +1,479 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.benchmark;
+
+import com.saemann.gulli.core.model.surface.Surface;
+import com.saemann.gulli.core.model.timeline.array.TimeIndexContainer;
+import com.saemann.gulli.core.model.topology.Connection_Manhole_Pipe;
+import com.saemann.gulli.core.model.topology.Manhole;
+import com.saemann.gulli.core.model.topology.Network;
+import com.saemann.gulli.core.model.topology.Pipe;
+import com.saemann.gulli.core.model.topology.Position;
+import com.saemann.gulli.core.model.topology.profile.CircularProfile;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Generated input data for the benchmarks: regular triangle meshes with a
+ * homogeneous flow field, simple pipe networks and result files in the SWMM
+ * *.out and HYSTEM EXTRAN SQLite format. All fixtures are deterministic, so
+ * numbers of different runs can be compared.
+ *
+ * @author saemann
+ */
+public class Fixtures {
+
+    /**
+     * Origin of the generated meshes in EPSG:25832 [m].
+     */
+    public static final double ORIGIN_X = 550000, ORIGIN_Y = 5800000;
+
+    /**
+     * Number of reported variables per node, link and for the system in the
+     * SWMM files of {@link #writeSWMMOut(File, int, int, int, int)}.
+     */
+    public static final int SWMM_NODE_VARIABLES = 6, SWMM_LINK_VARIABLES = 5, SWMM_SYSTEM_VARIABLES = 14;
+
+    /**
+     * Equidistant time steps starting at 0.
+     *
+     * @param numberOfTimes
+     * @param intervalSeconds
+     * @return
+     */
+    public static TimeIndexContainer createTimes(int numberOfTimes, double intervalSeconds) {
+        long[] times = new long[numberOfTimes];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = (long) (i * intervalSeconds * 1000);
+        }
+        return new TimeIndexContainer(times);
+    }
+
+    /**
+     * Creates a rectangular surface of cellsX*cellsY squares, each split into
+     * two triangles. The neighbour of a triangle with index i is located on
+     * the edge opposite to the triangle's node i, as it is expected by the
+     * ParticleSurfaceComputing2D. The whole border is a no-flow boundary (-1).
+     * All triangles share the same velocity timeline (vx,vy) and the surface
+     * is slightly inclined in x direction.
+     *
+     * @param cellsX number of squares in x direction
+     * @param cellsY number of squares in y direction
+     * @param cellSize edge length of a square [m]
+     * @param vx velocity in x direction [m/s]
+     * @param vy velocity in y direction [m/s]
+     * @param times time steps of the velocity field
+     * @return surface with 2*cellsX*cellsY triangles
+     */
+    public static Surface createRegularMesh(int cellsX, int cellsY, double cellSize, float vx, float vy, TimeIndexContainer times) {
+        double[][] vertices = new double[(cellsX + 1) * (cellsY + 1)][3];
+        for (int ix = 0; ix <= cellsX; ix++) {
+            for (int iy = 0; iy <= cellsY; iy++) {
+                double[] v = vertices[ix * (cellsY + 1) + iy];
+                v[0] = ORIGIN_X + ix * cellSize;
+                v[1] = ORIGIN_Y + iy * cellSize;
+                v[2] = 10 - ix * cellSize * 0.001;
+            }
+        }
+        int[][] triangleNodes = new int[cellsX * cellsY * 2][3];
+        int[][] neighbours = new int[triangleNodes.length][3];
+        double[][] triangleMids = new double[triangleNodes.length][3];
+        for (int ix = 0; ix < cellsX; ix++) {
+            for (int iy = 0; iy < cellsY; iy++) {
+                int ll = ix * (cellsY + 1) + iy;
+                int ul = ll + 1;
+                int lr = ll + cellsY + 1;
+                int ur = lr + 1;
+                int a = (ix * cellsY + iy) * 2;
+                int b = a + 1;
+                //lower triangle
+                triangleNodes[a][0] = ll;
+                triangleNodes[a][1] = lr;
+                triangleNodes[a][2] = ul;
+                neighbours[a][0] = b;//diagonal
+                neighbours[a][1] = ix > 0 ? ((ix - 1) * cellsY + iy) * 2 + 1 : -1;//left
+                neighbours[a][2] = iy > 0 ? (ix * cellsY + iy - 1) * 2 + 1 : -1;//bottom
+                //upper triangle
+                triangleNodes[b][0] = lr;
+                triangleNodes[b][1] = ur;
+                triangleNodes[b][2] = ul;
+                neighbours[b][0] = iy < cellsY - 1 ? (ix * cellsY + iy + 1) * 2 : -1;//top
+                neighbours[b][1] = a;//diagonal
+                neighbours[b][2] = ix < cellsX - 1 ? ((ix + 1) * cellsY + iy) * 2 : -1;//right
+            }
+        }
+        for (int t = 0; t < triangleNodes.length; t++) {
+            for (int n = 0; n < 3; n++) {
+                double[] v = vertices[triangleNodes[t][n]];
+                for (int d = 0; d < 3; d++) {
+                    triangleMids[t][d] += v[d] / 3.;
+                }
+            }
+        }
+        Surface surface = new Surface(vertices, triangleNodes, neighbours, null, "EPSG:25832");
+        surface.setTriangleMids(triangleMids);
+        surface.setTimeContainer(times);
+
+        //All triangles reference the same timeline to keep large meshes small.
+        float[][] velocity = new float[times.getNumberOfTimes()][2];
+        for (float[] v : velocity) {
+            v[0] = vx;
+            v[1] = vy;
+        }
+        float[][][] triangleVelocity = new float[triangleNodes.length][][];
+        float[] maxVelocity = new float[triangleNodes.length];
+        float vmax = (float) Math.sqrt(vx * vx + vy * vy);
+        for (int i = 0; i < triangleVelocity.length; i++) {
+            triangleVelocity[i] = velocity;
+            maxVelocity[i] = vmax;
+        }
+        surface.setTriangleVelocity(triangleVelocity);
+        surface.setTriangleMaxVelocity(maxVelocity);
+        return surface;
+    }
+
+    /**
+     * Creates a straight chain of pipes. Manholes are named "N&lt;i&gt;",
+     * pipes "L&lt;i&gt;", manual IDs are the indices i. The names and IDs
+     * match the generated result files.
+     *
+     * @param numberOfPipes
+     * @return network with numberOfPipes pipes and numberOfPipes+1 manholes
+     */
+    public static Network createPipeChain(int numberOfPipes) {
+        CircularProfile profile = new CircularProfile(0.5);
+        ArrayList<Manhole> manholes = new ArrayList<>(numberOfPipes + 1);
+        ArrayList<Pipe> pipes = new ArrayList<>(numberOfPipes);
+        Manhole last = null;
+        for (int i = 0; i <= numberOfPipes; i++) {
+            double x = i * 50;
+            Manhole mh = new Manhole(new Position(9.7 + i * 0.0007, 52.37, ORIGIN_X + x, ORIGIN_Y), "N" + i, new CircularProfile(1));
+            mh.setManualID(i);
+            mh.setSole_height((float) (10 - x * 0.005));
+            mh.setTop_height(mh.getSole_height() + 2);
+            mh.setSurface_height(mh.getTop_height());
+            manholes.add(mh);
+            if (last != null) {
+                Connection_Manhole_Pipe start = new Connection_Manhole_Pipe(last, last.getSole_height());
+                Connection_Manhole_Pipe end = new Connection_Manhole_Pipe(mh, mh.getSole_height());
+                Pipe pipe = new Pipe(start, end, profile);
+                last.addConnection(start);
+                mh.addConnection(end);
+                pipe.setManualID(i - 1);
+                pipe.setName("L" + (i - 1));
+                pipe.setLength(50);
+                pipes.add(pipe);
+            }
+            last = mh;
+        }
+        last.setAsOutlet(true);
+        return new Network(pipes, manholes);
+    }
+
+    /**
+     * Creates a grid of n x n manholes. Pipes are oriented to the right and
+     * downwards to the outlet in the lower right corner. Manual IDs of the
+     * manholes are i*n+j, the top left manhole has ID 0.
+     *
+     * @param n
+     * @return network with n*n manholes and 2*n*(n-1) pipes
+     */
+    public static Network createGridNetwork(int n) {
+        CircularProfile profile = new CircularProfile(0.5);
+        Manhole[][] grid = new Manhole[n][n];
+        ArrayList<Manhole> manholes = new ArrayList<>(n * n);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                Manhole mh = new Manhole(new Position(0, 0, ORIGIN_X + j * 50, ORIGIN_Y - i * 50), "MH" + i + "_" + j, new CircularProfile(1));
+                mh.setManualID(i * n + j);
+                mh.setSole_height(100 - i - j);
+                grid[i][j] = mh;
+                manholes.add(mh);
+            }
+        }
+        ArrayList<Pipe> pipes = new ArrayList<>(2 * n * n);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (j + 1 < n) {
+                    pipes.add(createPipe(grid[i][j], grid[i][j + 1], profile, pipes.size()));
+                }
+                if (i + 1 < n) {
+                    pipes.add(createPipe(grid[i][j], grid[i + 1][j], profile, pipes.size()));
+                }
+            }
+        }
+        grid[n - 1][n - 1].setAsOutlet(true);
+        return new Network(pipes, manholes);
+    }
+
+    private static Pipe createPipe(Manhole from, Manhole to, CircularProfile profile, int id) {
+        //The connections register themselves at the manholes.
+        Connection_Manhole_Pipe start = new Connection_Manhole_Pipe(from, from.getSole_height());
+        Connection_Manhole_Pipe end = new Connection_Manhole_Pipe(to, to.getSole_height());
+        Pipe pipe = new Pipe(start, end, profile);
+        pipe.setManualID(id);
+        pipe.setName("P" + id);
+        pipe.setLength(50);
+        return pipe;
+    }
+
+    /**
+     * Discharge of the generated hydrograph [m^3/s].
+     */
+    static float discharge(int element, int period, int periods) {
+        double wave = Math.sin(Math.PI * period / (double) Math.max(1, periods - 1));
+        return (float) (0.01 + 0.2 * wave * wave * (1 + (element % 7) * 0.1));
+    }
+
+    /**
+     * Writes a SWMM 5 binary result file with the given number of nodes and
+     * links and a synthetic hydrograph. There are no subcatchments and no
+     * pollutants. Nodes are named "N&lt;i&gt;", links "L&lt;i&gt;".
+     *
+     * @param file
+     * @param numberOfNodes
+     * @param numberOfLinks
+     * @param periods number of reporting periods
+     * @param reportStepSeconds
+     * @return the file
+     * @throws IOException
+     */
+    public static File writeSWMMOut(File file, int numberOfNodes, int numberOfLinks, int periods, int reportStepSeconds) throws IOException {
+        final int magic = 516114522;
+        final int nodeVariables = SWMM_NODE_VARIABLES, linkVariables = SWMM_LINK_VARIABLES, systemVariables = SWMM_SYSTEM_VARIABLES;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            //Header: magic, version, flow units, subcatchments, nodes, links, pollutants
+            ByteBuffer bb = littleEndian(7 * 4);
+            bb.putInt(magic).putInt(51000).putInt(0).putInt(0).putInt(numberOfNodes).putInt(numberOfLinks).putInt(0);
+            write(channel, bb);
+            int idStart = (int) channel.position();
+            for (int i = 0; i < numberOfNodes; i++) {
+                writeName(channel, "N" + i);
+            }
+            for (int i = 0; i < numberOfLinks; i++) {
+                writeName(channel, "L" + i);
+            }
+            //Input properties of subcatchments, nodes & links
+            int inputStart = (int) channel.position();
+            bb = littleEndian(4 * (2 + 4 + 3 * numberOfNodes + 6 + 5 * numberOfLinks));
+            bb.putInt(1).putInt(1);
+            bb.putInt(3).putInt(0).putInt(2).putInt(3);
+            for (int i = 0; i < numberOfNodes; i++) {
+                bb.putFloat(0).putFloat(10 - i * 0.25f).putFloat(2);
+            }
+            bb.putInt(5).putInt(0).putInt(4).putInt(4).putInt(3).putInt(5);
+            for (int i = 0; i < numberOfLinks; i++) {
+                bb.putFloat(0).putFloat(0).putFloat(0).putFloat(0.5f).putFloat(50);
+            }
+            write(channel, bb);
+            //Reported variables
+            bb = littleEndian(4 * (1 + 8 + 1 + nodeVariables + 1 + linkVariables + 1 + systemVariables));
+            bb.putInt(8);
+            for (int i = 0; i < 8; i++) {
+                bb.putInt(i);
+            }
+            bb.putInt(nodeVariables);
+            for (int i = 0; i < nodeVariables; i++) {
+                bb.putInt(i);
+            }
+            bb.putInt(linkVariables);
+            for (int i = 0; i < linkVariables; i++) {
+                bb.putInt(i);
+            }
+            bb.putInt(systemVariables);
+            for (int i = 0; i < systemVariables; i++) {
+                bb.putInt(i);
+            }
+            write(channel, bb);
+            //Start date (days since 1899-12-30) and report step
+            bb = littleEndian(8 + 4);
+            bb.putDouble(45000.).putInt(reportStepSeconds);
+            write(channel, bb);
+            int outputStart = (int) channel.position();
+            //Periods
+            bb = littleEndian(8 + 4 * (numberOfNodes * nodeVariables + numberOfLinks * linkVariables + systemVariables));
+            for (int p = 0; p < periods; p++) {
+                bb.clear();
+                bb.putDouble(45000. + p * reportStepSeconds / 86400.);
+                for (int i = 0; i < numberOfNodes; i++) {
+                    float q = discharge(i, p, periods);
+                    bb.putFloat(q * 2);//depth
+                    bb.putFloat(10 - i * 0.25f + q * 2);//head
+                    bb.putFloat(q * 3);//volume
+                    bb.putFloat(q * 0.1f);//lateral inflow
+                    bb.putFloat(q);//total inflow
+                    bb.putFloat(0);//flooding
+                }
+                for (int i = 0; i < numberOfLinks; i++) {
+                    float q = discharge(i, p, periods);
+                    bb.putFloat(q);//flow
+                    bb.putFloat(q * 2);//depth
+                    bb.putFloat(0.3f + q * 4);//velocity
+                    bb.putFloat(q * 100);//volume
+                    bb.putFloat(q * 4);//capacity
+                }
+                for (int i = 0; i < systemVariables; i++) {
+                    bb.putFloat(0);
+                }
+                write(channel, bb);
+            }
+            //Closing record
+            bb = littleEndian(6 * 4);
+            bb.putInt(idStart).putInt(inputStart).putInt(outputStart).putInt(periods).putInt(0).putInt(magic);
+            write(channel, bb);
+        }
+        return file;
+    }
+
+    /**
+     * Writes a HYSTEM EXTRAN result database (SQLite, *.idbr) that contains
+     * the timeline tables read by the HE_Database: LAU_GL_EL for pipes,
+     * LAU_GL_S and KNOTENLAUFEND2D for manholes. IDs are the indices of the
+     * elements.
+     *
+     * @param file should end with .idbr
+     * @param numberOfManholes
+     * @param numberOfPipes
+     * @param periods number of time steps
+     * @param intervalSeconds
+     * @return the file
+     * @throws SQLException
+     */
+    public static File writeHEResultDatabase(File file, int numberOfManholes, int numberOfPipes, int periods, int intervalSeconds) throws SQLException {
+        if (file.exists()) {
+            file.delete();
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long start = 1577836800000L;//2020-01-01
+        String[] timestamps = new String[periods];
+        for (int p = 0; p < periods; p++) {
+            timestamps[p] = format.format(new Date(start + p * intervalSeconds * 1000L));
+        }
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath())) {
+            try (Statement st = con.createStatement()) {
+                st.executeUpdate("CREATE TABLE LAU_GL_EL (ID INTEGER, ZEITPUNKT TEXT, GESCHWINDIGKEIT REAL, DURCHFLUSS REAL, WASSERSTAND REAL)");
+                st.executeUpdate("CREATE TABLE LAU_GL_S (ID INTEGER, ZEITPUNKT TEXT, WASSERSTAND REAL)");
+                st.executeUpdate("CREATE TABLE KNOTENLAUFEND2D (ID INTEGER, ZEITPUNKT TEXT, ABFLUSS REAL, ZUFLUSS REAL)");
+            }
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement("INSERT INTO LAU_GL_EL VALUES (?,?,?,?,?)")) {
+                for (int i = 0; i < numberOfPipes; i++) {
+                    for (int p = 0; p < periods; p++) {
+                        float q = discharge(i, p, periods);
+                        ps.setInt(1, i);
+                        ps.setString(2, timestamps[p]);
+                        ps.setFloat(3, 0.3f + q * 4);
+                        ps.setFloat(4, q);
+                        ps.setFloat(5, 10 - i * 0.25f + q * 2);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            try (PreparedStatement ps = con.prepareStatement("INSERT INTO LAU_GL_S VALUES (?,?,?)");
+                    PreparedStatement ps2D = con.prepareStatement("INSERT INTO KNOTENLAUFEND2D VALUES (?,?,?,?)")) {
+                for (int i = 0; i < numberOfManholes; i++) {
+                    for (int p = 0; p < periods; p++) {
+                        float q = discharge(i, p, periods);
+                        ps.setInt(1, i);
+                        ps.setString(2, timestamps[p]);
+                        ps.setFloat(3, 10 - i * 0.25f + q * 2);
+                        ps.addBatch();
+                        ps2D.setInt(1, i);
+                        ps2D.setString(2, timestamps[p]);
+                        ps2D.setFloat(3, 0);
+                        ps2D.setFloat(4, 0);
+                        ps2D.addBatch();
+                    }
+                    ps.executeBatch();
+                    ps2D.executeBatch();
+                }
+            }
+            try (Statement st = con.createStatement()) {
+                st.executeUpdate("CREATE INDEX IDX_LAU_GL_EL ON LAU_GL_EL (ID, ZEITPUNKT)");
+                st.executeUpdate("CREATE INDEX IDX_LAU_GL_S ON LAU_GL_S (ID, ZEITPUNKT)");
+                st.executeUpdate("CREATE INDEX IDX_KNOTENLAUFEND2D ON KNOTENLAUFEND2D (ID, ZEITPUNKT)");
+            }
+            con.commit();
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the directory with all generated files.
+     *
+     * @param directory
+     */
+    public static void delete(File directory) {
+        if (directory == null || !directory.exists()) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    delete(f);
+                } else {
+                    f.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+
+    private static ByteBuffer littleEndian(int capacity) {
+        ByteBuffer bb = ByteBuffer.allocate(capacity);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        return bb;
+    }
+
+    private static void writeName(FileChannel channel, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer bb = littleEndian(4 + bytes.length);
+        bb.putInt(bytes.length).put(bytes);
+        write(channel, bb);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer bb) throws IOException {
+        bb.flip();
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.benchmark;
+
+import com.saemann.gulli.core.model.topology.Manhole;
+import com.saemann.gulli.core.model.topology.Network;
+import com.saemann.gulli.core.model.topology.graph.GraphSearch;
+import com.saemann.gulli.core.model.topology.graph.NetworkGraph;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Graph searches on a grid network of size x size manholes, starting at the
+ * top left manhole: the object based searches of {@link GraphSearch} compared
+ * to the index based searches of {@link NetworkGraph}.
+ *
+ * @author saemann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NetworkGraphBenchmark {
+
+    /**
+     * Number of manholes per row and column of the grid.
+     */
+    @Param({"50", "150"})
+    public int size;
+
+    private Network network;
+
+    private NetworkGraph graph;
+
+    private Manhole top;
+
+    private int topIndex;
+
+    @Setup
+    public void setup() {
+        network = Fixtures.createGridNetwork(size);
+        top = network.getManholeByManualID(0);
+        graph = network.getGraph();
+        topIndex = graph.indexOf(top);
+    }
+
+    @Benchmark
+    public NetworkGraph buildGraph() {
+        return new NetworkGraph(network.getPipes(), network.getManholes());
+    }
+
+    @Benchmark
+    public int downstreamPipesObjects() {
+        return GraphSearch.findDownstreamPipes(top).size();
+    }
+
+    @Benchmark
+    public int downstreamPipesGraph() {
+        return graph.findDownstreamPipes(topIndex).length;
+    }
+
+    @Benchmark
+    public int longestPathsObjects() {
+        return GraphSearch.findLongestPaths(top).size();
+    }
+
+    @Benchmark
+    public int longestPathsGraph() {
+        return GraphSearch.findLongestPaths(network, top).size();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.benchmark;
+
+import com.saemann.gulli.core.io.NumberConverter;
+import java.io.BufferedReader;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of the text surface files (coordinates "x y z" and triangles "i j
+ * k" per line) with the NumberConverter, compared to String.split and
+ * Double.parseDouble as it would be done without it. The score is the time
+ * to parse the whole text.
+ *
+ * @author saemann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NumberConverterBenchmark {
+
+    /**
+     * Number of lines in each text.
+     */
+    @Param({"100000"})
+    public int lines;
+
+    private char[] coordinates;
+
+    private char[] triangles;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        StringBuilder str = new StringBuilder(lines * 40);
+        for (int i = 0; i < lines; i++) {
+            str.append(String.format(Locale.US, "%.3f %.3f %.4f", Fixtures.ORIGIN_X + random.nextDouble() * 5000, Fixtures.ORIGIN_Y + random.nextDouble() * 5000, 30 + random.nextDouble() * 20));
+            str.append('\n');
+        }
+        coordinates = str.toString().toCharArray();
+
+        str = new StringBuilder(lines * 24);
+        for (int i = 0; i < lines; i++) {
+            str.append(random.nextInt(lines)).append(' ').append(random.nextInt(lines)).append(' ').append(random.nextInt(lines)).append('\n');
+        }
+        triangles = str.toString().toCharArray();
+    }
+
+    @Benchmark
+    public double readNextLineDoubles() throws IOException {
+        NumberConverter nc = new NumberConverter(new BufferedReader(new CharArrayReader(coordinates)));
+        double[] values = new double[3];
+        double sum = 0;
+        for (int i = 0; i < lines; i++) {
+            nc.readNextLineDoubles(values);
+            sum += values[0] + values[1] + values[2];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double splitParseDouble() throws IOException {
+        BufferedReader br = new BufferedReader(new CharArrayReader(coordinates));
+        double sum = 0;
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] values = line.split(" ");
+            sum += Double.parseDouble(values[0]) + Double.parseDouble(values[1]) + Double.parseDouble(values[2]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long readNextLineInteger() throws IOException {
+        NumberConverter nc = new NumberConverter(new BufferedReader(new CharArrayReader(triangles)));
+        int[] values = new int[3];
+        long sum = 0;
+        for (int i = 0; i < lines; i++) {
+            nc.readNextLineInteger(values);
+            sum += values[0] + values[1] + values[2];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long splitParseInteger() throws IOException {
+        BufferedReader br = new BufferedReader(new CharArrayReader(triangles));
+        long sum = 0;
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] values = line.split(" ");
+            sum += Integer.parseInt(values[0]) + Integer.parseInt(values[1]) + Integer.parseInt(values[2]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.benchmark;
+
+import com.saemann.gulli.core.control.maths.RandomGenerator;
+import com.saemann.gulli.core.control.particlecontrol.ParticlePipeComputing;
+import com.saemann.gulli.core.control.scenario.Scenario;
+import com.saemann.gulli.core.io.AnalyticalChannel;
+import com.saemann.gulli.core.model.material.dispersion.pipe.Dispersion1D_Constant;
+import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.timeline.array.ArrayTimeLineMeasurementContainer;
+import com.saemann.gulli.core.model.topology.Network;
+import com.saemann.gulli.core.model.topology.Pipe;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transport of particles through the pipe network
+ * (ParticlePipeComputing.moveParticle) in the 10 km long analytical channel.
+ * The score is the time for one particle step. Particles that left the
+ * network are placed at the start of the channel again.
+ *
+ * @author saemann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PipeTransportBenchmark {
+
+    private static final int PARTICLES = 10000;
+
+    private static final long SEED = 1;
+
+    /**
+     * Length of the channel segments [m]. Shorter segments make particles
+     * pass more manholes per step.
+     */
+    @Param({"1", "10", "100"})
+    public float segmentLength;
+
+    /**
+     * Timestep [s].
+     */
+    @Param({"1", "10"})
+    public double dt;
+
+    private ParticlePipeComputing computing;
+
+    private Pipe startPipe;
+
+    private Particle[] particles;
+
+    private int respawned;
+
+    @Setup
+    public void setup() throws Exception {
+        AnalyticalChannel channel = new AnalyticalChannel(1, 10000, 3600, 300);
+        channel.material.setDispersionCalculatorPipe(new Dispersion1D_Constant(0.5));
+        Network network = channel.createNetwork(segmentLength);
+        Scenario scenario = channel.getScenario();
+
+        //Creates the measurement timelines of all pipes.
+        ArrayTimeLineMeasurementContainer measurements = new ArrayTimeLineMeasurementContainer(network, 300000, 0, 3600000, 1);
+        for (Pipe pipe : network.getPipes()) {
+            if (startPipe == null || pipe.getManualID() < startPipe.getManualID()) {
+                startPipe = pipe;
+            }
+        }
+        scenario.setActualTime(0);
+        measurements.setActualTime(0);
+
+        computing = new ParticlePipeComputing();
+        computing.setDeltaTime(dt);
+        computing.setRandomNumberGenerator(new RandomGenerator(SEED));
+        computing.setSimulationTime(0);
+
+        particles = new Particle[PARTICLES];
+        for (int i = 0; i < particles.length; i++) {
+            particles[i] = new Particle(channel.material, null, 1);
+            respawn(particles[i]);
+        }
+    }
+
+    private void respawn(Particle p) {
+        p.setInPipenetwork();
+        p.setSurrounding_actual(startPipe);
+        //Spread the particles over the first pipe.
+        p.setPosition1d_actual(startPipe.getLength() * (respawned++ % 100) / 100.);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTICLES)
+    public double moveParticle() {
+        double sum = 0;
+        for (Particle p : particles) {
+            if (!p.isInPipeNetwork()) {
+                respawn(p);
+            }
+            computing.moveParticle(p, dt);
+            sum += p.getPosition1d_actual();
+        }
+        return sum;
+    }
+}
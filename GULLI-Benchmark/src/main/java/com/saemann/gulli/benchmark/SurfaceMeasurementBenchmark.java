@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.benchmark;
+
+import com.saemann.gulli.core.model.material.Material;
+import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.surface.Surface;
+import com.saemann.gulli.core.model.surface.measurement.SurfaceMeasurementTriangleRaster;
+import com.saemann.gulli.core.model.timeline.array.TimeIndexContainer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Sampling of particles in the triangle raster
+ * (SurfaceMeasurementTriangleRaster.measureParticle) by several particle
+ * threads at once. Compares the locked writing into the shared measurements
+ * with the thread local buffers. The number of threads can be changed with
+ * the -t option.
+ *
+ * @author saemann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SurfaceMeasurementBenchmark {
+
+    private static final int PARTICLES = 4096;
+
+    /**
+     * Raster shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedRaster {
+
+        /**
+         * Number of squares per side of the mesh.
+         */
+        @Param({"200"})
+        public int cells;
+
+        /**
+         * Use thread local buffers instead of locks.
+         */
+        @Param({"false", "true"})
+        public boolean threadLocal;
+
+        Surface surface;
+
+        SurfaceMeasurementTriangleRaster raster;
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup(BenchmarkParams params) {
+            SurfaceMeasurementTriangleRaster.threadLocalMeasures = threadLocal;
+            SurfaceMeasurementTriangleRaster.synchronizeMeasures = true;
+            TimeIndexContainer times = Fixtures.createTimes(13, 300);
+            surface = Fixtures.createRegularMesh(cells, cells, 5, 0.5f, 0, times);
+            raster = new SurfaceMeasurementTriangleRaster(surface, 1, times, params.getThreads());
+            raster.setNumberOfThreads(params.getThreads());
+            surface.setMeasurementRaster(raster);
+        }
+
+        /**
+         * Merges the thread buffers, as the synchronization step of the
+         * simulation does.
+         */
+        @TearDown(Level.Iteration)
+        public void synchronize() {
+            raster.synchronizeMeasurements();
+        }
+    }
+
+    /**
+     * Particles of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadParticles {
+
+        int threadIndex;
+
+        Particle[] particles;
+
+        @Setup(Level.Trial)
+        public void setup(SharedRaster shared) {
+            threadIndex = shared.threadCounter.getAndIncrement();
+            Material material = new Material("Benchmark", 1000, true, 0);
+            Random random = new Random(threadIndex);
+            int triangles = shared.surface.getTriangleNodes().length;
+            particles = new Particle[PARTICLES];
+            for (int i = 0; i < particles.length; i++) {
+                Particle p = new Particle(material, null, 1);
+                p.setOnSurface();
+                p.surfaceCellID = random.nextInt(triangles);
+                particles[i] = p;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTICLES)
+    public void measureParticle(SharedRaster shared, ThreadParticles local) {
+        SurfaceMeasurementTriangleRaster raster = shared.raster;
+        for (Particle p : local.particles) {
+            raster.measureParticle(0, p, 0.5, local.threadIndex);
+        }
+    }
+}
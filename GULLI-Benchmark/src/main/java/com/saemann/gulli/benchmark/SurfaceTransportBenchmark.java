@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.benchmark;
+
+import com.saemann.gulli.core.control.SimulationConfiguration;
+import com.saemann.gulli.core.control.maths.RandomGenerator;
+import com.saemann.gulli.core.control.particlecontrol.ParticleSurfaceComputing2D;
+import com.saemann.gulli.core.io.AnalyticalSurface;
+import com.saemann.gulli.core.model.material.Material;
+import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.surface.Surface;
+import com.saemann.gulli.core.model.surface.measurement.SurfaceMeasurementTriangleRaster;
+import com.saemann.gulli.core.model.timeline.array.TimeIndexContainer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transport of particles on the surface
+ * (ParticleSurfaceComputing2D.moveParticle). The meshes are regular
+ * triangulations of several sizes with a homogeneous flow in x direction.
+ * "analytical" uses the grid free AnalyticalSurface with the same flow as a
+ * reference without any triangle lookup. The score is the time for one
+ * particle step. Particles that reached the downstream end are placed at the
+ * upstream end again.
+ *
+ * @author saemann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SurfaceTransportBenchmark {
+
+    private static final int PARTICLES = 10000;
+
+    private static final long SEED = 1;
+
+    private static final float VX = 0.5f, VY = 0.05f;
+
+    private static final double CELLSIZE = 5;
+
+    /**
+     * Number of squares per side of the mesh (2*n^2 triangles) or
+     * "analytical" for the grid free surface.
+     */
+    @Param({"analytical", "50", "200", "800"})
+    public String mesh;
+
+    /**
+     * Timestep [s].
+     */
+    @Param({"1", "10"})
+    public double dt;
+
+    private Surface surface;
+
+    private ParticleSurfaceComputing2D computing;
+
+    private Particle[] particles;
+
+    /**
+     * Area of the respawn positions and downstream end.
+     */
+    private double xmin, ymin, width, height, xmax;
+
+    private int respawned;
+
+    private int cells;
+
+    @Setup
+    public void setup() {
+        SimulationConfiguration config = SimulationConfiguration.fromDefaults();
+        if (mesh.equals("analytical")) {
+            AnalyticalSurface analytical = new AnalyticalSurface(VX, VY, 0.1);
+            width = 1000;
+            height = 200;
+            analytical.initRectangularMeasurement(width * 0.5, 0, width, height, 10, 10, 3600, 300);
+            surface = analytical;
+            config = config.toBuilder().gridFree(true).build();
+            xmin = 0;
+            ymin = -height * 0.4;
+        } else {
+            cells = Integer.parseInt(mesh);
+            TimeIndexContainer times = Fixtures.createTimes(13, 300);
+            surface = Fixtures.createRegularMesh(cells, cells, CELLSIZE, VX, VY, times);
+            SurfaceMeasurementTriangleRaster raster = new SurfaceMeasurementTriangleRaster(surface, 1, times, 1);
+            raster.setNumberOfThreads(1);
+            surface.setMeasurementRaster(raster);
+            width = cells * CELLSIZE;
+            height = width;
+            xmin = Fixtures.ORIGIN_X;
+            ymin = Fixtures.ORIGIN_Y + height * 0.1;
+        }
+        xmax = xmin + width * 0.9;
+        surface.setSimulationTime(0);
+
+        computing = new ParticleSurfaceComputing2D(surface, 0);
+        computing.setConfiguration(config);
+        computing.setDeltaTimestep(dt);
+        computing.setRandomNumberGenerator(new RandomGenerator(SEED));
+        computing.setSimulationtime(0);
+
+        Material material = new Material("Benchmark", 1000, true, 0);
+        particles = new Particle[PARTICLES];
+        for (int i = 0; i < particles.length; i++) {
+            particles[i] = new Particle(material, null, 1);
+            respawn(particles[i]);
+        }
+    }
+
+    /**
+     * Places the particle in the upstream 10% of the surface. The positions
+     * are deterministic.
+     *
+     * @param p
+     */
+    private void respawn(Particle p) {
+        p.setOnSurface();
+        p.setSurrounding_actual(surface);
+        int i = respawned++;
+        double fx = (i % 97) / 97. * 0.1;
+        double fy = ((i * 31) % 101) / 101. * 0.8;
+        if (cells > 0) {
+            //Start in the center of a triangle
+            int ix = (int) (fx * cells);
+            int iy = (int) (fy * cells) + cells / 10;
+            int triangle = (ix * cells + iy) * 2 + (i % 2);
+            double[] mid = surface.getTriangleMids()[triangle];
+            p.surfaceCellID = triangle;
+            p.setPosition3D(mid[0], mid[1]);
+        } else {
+            p.surfaceCellID = 0;
+            p.setPosition3D(xmin + fx * width, ymin + fy * height);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTICLES)
+    public double moveParticle() {
+        double sum = 0;
+        for (Particle p : particles) {
+            if (!p.isOnSurface() || p.getPosition3d().x > xmax) {
+                respawn(p);
+            }
+            computing.moveParticle(p, dt);
+            sum += p.getPosition3d().x;
+        }
+        return sum;
+    }
+}
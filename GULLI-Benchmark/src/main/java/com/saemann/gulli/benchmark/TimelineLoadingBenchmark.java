@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.benchmark;
+
+import com.saemann.gulli.core.io.extran.HE_Database;
+import com.saemann.gulli.core.io.swmm.SWMM_Out_Reader;
+import com.saemann.gulli.core.model.timeline.sparse.SparseTimeLineManholeContainer;
+import com.saemann.gulli.core.model.timeline.sparse.SparseTimeLinePipeContainer;
+import com.saemann.gulli.core.model.topology.Network;
+import com.saemann.gulli.core.model.topology.Pipe;
+import com.saemann.gulli.core.model.topology.StorageVolume;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading of the hydraulic timelines of all pipes and manholes from result
+ * files: SWMM *.out via SWMM_Out_Reader and HYSTEM EXTRAN SQLite (*.idbr) via
+ * HE_Database. The result files are generated in a temporary directory for a
+ * chain of pipes. The score is the time to load all timelines of the network;
+ * the SWMM benchmarks include opening the file. The swmmLinkValues benchmarks
+ * compare single and batch requests of the flow, depth and velocity of all
+ * links on an opened reader with the former stream based reading as baseline.
+ *
+ * @author saemann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TimelineLoadingBenchmark {
+
+    private static final int REPORTSTEP = 300;
+
+    /**
+     * Link variables that are needed for a SparseTimelinePipe: flow, velocity,
+     * depth.
+     */
+    private static final int[] PIPE_VARIABLES = new int[]{0, 2, 1};
+
+    /**
+     * Number of pipes in the network.
+     */
+    @Param({"100", "2000"})
+    public int pipes;
+
+    /**
+     * Number of reported time steps.
+     */
+    @Param({"288"})
+    public int periods;
+
+    private File directory;
+
+    private File swmmFile;
+
+    private SWMM_Out_Reader swmmReader;
+
+    private int[] links;
+
+    /**
+     * Layout of the SWMM file for the stream based reading.
+     */
+    private long swmmOutputStart;
+    private int swmmPeriodBytes, swmmLinkStart;
+
+    private HE_Database database;
+
+    private ArrayList<Pipe> pipeList;
+
+    private ArrayList<StorageVolume> manholeList;
+
+    private long[] times;
+
+    @Setup
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("gulli-benchmark").toFile();
+        Network network = Fixtures.createPipeChain(pipes);
+        pipeList = new ArrayList<>(network.getPipes());
+        manholeList = new ArrayList<>(network.getManholes());
+        times = new long[periods];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i * REPORTSTEP * 1000L;
+        }
+        swmmFile = Fixtures.writeSWMMOut(new File(directory, "result.out"), pipes + 1, pipes, periods, REPORTSTEP);
+        swmmReader = new SWMM_Out_Reader(swmmFile);
+        links = new int[pipes];
+        for (int i = 0; i < links.length; i++) {
+            links[i] = i;
+        }
+        //Position of the output section is stored in the closing record.
+        try (RandomAccessFile raf = new RandomAccessFile(swmmFile, "r")) {
+            raf.seek(raf.length() - 4 * 4);
+            swmmOutputStart = Integer.reverseBytes(raf.readInt());
+        }
+        swmmLinkStart = 8 + 4 * (pipes + 1) * Fixtures.SWMM_NODE_VARIABLES;
+        swmmPeriodBytes = swmmLinkStart + 4 * (pipes * Fixtures.SWMM_LINK_VARIABLES + Fixtures.SWMM_SYSTEM_VARIABLES);
+        File idbr = Fixtures.writeHEResultDatabase(new File(directory, "result.idbr"), pipes + 1, pipes, periods, REPORTSTEP);
+        database = new HE_Database(idbr, true);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (database != null) {
+            database.close();
+        }
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public SparseTimeLinePipeContainer swmmLoadTimelinePipes() throws Exception {
+        SWMM_Out_Reader reader = new SWMM_Out_Reader(swmmFile);
+        SparseTimeLinePipeContainer container = new SparseTimeLinePipeContainer(times);
+        reader.loadTimelinePipes(pipeList, container);
+        return container;
+    }
+
+    @Benchmark
+    public SparseTimeLineManholeContainer swmmLoadTimelineManholes() throws Exception {
+        SWMM_Out_Reader reader = new SWMM_Out_Reader(swmmFile);
+        SparseTimeLineManholeContainer container = new SparseTimeLineManholeContainer(times);
+        reader.loadTimelineManholes(manholeList, container);
+        return container;
+    }
+
+    @Benchmark
+    public SparseTimeLinePipeContainer heLoadTimelinePipes() {
+        SparseTimeLinePipeContainer container = new SparseTimeLinePipeContainer(times);
+        database.loadTimelinePipes(pipeList, container);
+        return container;
+    }
+
+    @Benchmark
+    public SparseTimeLineManholeContainer heLoadTimelineManholes() {
+        SparseTimeLineManholeContainer container = new SparseTimeLineManholeContainer(times);
+        database.loadTimelineManholes(manholeList, container);
+        return container;
+    }
+
+    @Benchmark
+    public double swmmLinkValuesSingle() throws Exception {
+        double checksum = 0;
+        for (int link : links) {
+            for (int variable : PIPE_VARIABLES) {
+                float[] values = swmmReader.getLinkValues(link, variable);
+                checksum += values[values.length - 1];
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public float[][][] swmmLinkValuesBatch() throws Exception {
+        return swmmReader.getLinkValues(links, PIPE_VARIABLES);
+    }
+
+    /**
+     * Baseline: the SWMM_Out_Reader before memory mapping skipped through a
+     * new stream for every single timeline.
+     *
+     * @return
+     * @throws Exception
+     */
+    @Benchmark
+    public double swmmLinkValuesStream() throws Exception {
+        double checksum = 0;
+        for (int link : links) {
+            for (int variable : PIPE_VARIABLES) {
+                float[] values = readStream(link, variable);
+                checksum += values[values.length - 1];
+            }
+        }
+        return checksum;
+    }
+
+    private float[] readStream(int linkIndex, int valueIndex) throws IOException {
+        float[] values = new float[periods];
+        byte[] buffer = new byte[4];
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        try (FileInputStream is = new FileInputStream(swmmFile)) {
+            long toskip = swmmOutputStart + swmmLinkStart + 4 * (linkIndex * Fixtures.SWMM_LINK_VARIABLES + valueIndex);
+            while (toskip > 0) {
+                toskip = toskip - is.skip(toskip);
+            }
+            for (int i = 0; i < values.length; i++) {
+                is.read(buffer);
+                values[i] = bb.getFloat(0);
+                toskip = swmmPeriodBytes - 4;
+                while (toskip > 0) {
+                    toskip = toskip - is.skip(toskip);
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.benchmark;
+
+import com.saemann.gulli.core.model.material.Material;
+import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.surface.Surface;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Search of the triangle that contains a moved position
+ * (Surface.getTargetTriangleID). Start triangles and displacements are
+ * precomputed, so only the lookup itself is measured. The displacement is
+ * given in multiples of the cell size and determines how many triangles are
+ * crossed.
+ *
+ * @author saemann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TriangleLookupBenchmark {
+
+    private static final int LOOKUPS = 4096;
+
+    private static final double CELLSIZE = 5;
+
+    /**
+     * Number of squares per side of the mesh.
+     */
+    @Param({"200", "800"})
+    public int cells;
+
+    /**
+     * Length of the displacement in cell sizes.
+     */
+    @Param({"0.3", "2", "10"})
+    public double stepCells;
+
+    private Surface surface;
+
+    private Particle particle;
+
+    private int[] startTriangle;
+
+    private double[] xold, yold, x, y;
+
+    private final double[] bw = new double[3];
+
+    private final double[][] t = new double[3][];
+
+    @Setup
+    public void setup() {
+        surface = Fixtures.createRegularMesh(cells, cells, CELLSIZE, 0.5f, 0, Fixtures.createTimes(2, 3600));
+        particle = new Particle(new Material("Benchmark", 1000, true, 0), null, 1);
+        particle.setOnSurface();
+
+        startTriangle = new int[LOOKUPS];
+        xold = new double[LOOKUPS];
+        yold = new double[LOOKUPS];
+        x = new double[LOOKUPS];
+        y = new double[LOOKUPS];
+        double[][] mids = surface.getTriangleMids();
+        double min = CELLSIZE * 0.5, max = cells * CELLSIZE - CELLSIZE * 0.5;
+        double length = stepCells * CELLSIZE;
+        Random random = new Random(1);
+        for (int i = 0; i < LOOKUPS; i++) {
+            int id = random.nextInt(mids.length);
+            double angle = random.nextDouble() * 2 * Math.PI;
+            startTriangle[i] = id;
+            xold[i] = mids[id][0];
+            yold[i] = mids[id][1];
+            //Keep the target inside the mesh
+            x[i] = Fixtures.ORIGIN_X + Math.max(min, Math.min(max, xold[i] - Fixtures.ORIGIN_X + Math.cos(angle) * length));
+            y[i] = Fixtures.ORIGIN_Y + Math.max(min, Math.min(max, yold[i] - Fixtures.ORIGIN_Y + Math.sin(angle) * length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int getTargetTriangleID() {
+        int sum = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            sum += surface.getTargetTriangleID(particle, startTriangle[i], xold[i], yold[i], x[i], y[i], 100, bw, t);
+        }
+        return sum;
+    }
+}
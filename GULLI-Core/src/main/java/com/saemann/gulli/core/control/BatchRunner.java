@@ -0,0 +1,533 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.control;
+
+import com.saemann.gulli.core.control.listener.SimulationActionAdapter;
+import com.saemann.gulli.core.control.output.ContaminationMass;
+import com.saemann.gulli.core.control.output.ContaminationParticles;
+import com.saemann.gulli.core.control.output.ContaminationShape;
+import com.saemann.gulli.core.control.output.OutputIntention;
+import com.saemann.gulli.core.control.output.Save_TravelAccumulationRegions;
+import com.saemann.gulli.core.control.output.Save_Travelpath;
+import com.saemann.gulli.core.control.scenario.Setup;
+import com.saemann.gulli.core.control.threads.SimulationProfiler;
+import com.saemann.gulli.core.control.threads.ThreadController;
+import com.saemann.gulli.core.io.Setup_IO;
+import com.saemann.gulli.core.io.extran.HE_Database;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a queue of simulation setups (*.xml files of {@link Setup_IO}) without
+ * user interface. A fixed number of jobs run concurrently, each with its own
+ * {@link Controller} and a fixed number of particle threads. After every job
+ * the requested outputs are written and a summary with the duration of the
+ * phases is stored as JSON.
+ *
+ * Usage: BatchRunner [-jobs n] [-threads n] [-out directory] [-outputs
+ * shape,mass,particles,travelpath,regions] [-summary file.json] [-timeout
+ * minutes] &lt;setup.xml|directory&gt; ...
+ *
+ * @author saemann
+ */
+public class BatchRunner {
+
+    public static boolean verbose = true;
+
+    /**
+     * Number of setups that are simulated at the same time.
+     */
+    private int concurrentJobs = 1;
+
+    /**
+     * Number of particle threads of every job.
+     */
+    private int threadsPerJob = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Outputs are written to a subdirectory (named after the setup file) of
+     * this directory. If null, the directory of the pipe result is used.
+     */
+    private File outputDirectory;
+
+    /**
+     * Keys of the outputs to write after every simulation.
+     */
+    private List<String> outputs = Arrays.asList("shape", "mass");
+
+    /**
+     * Maximum duration of one simulation [minutes]. 0 = unlimited.
+     */
+    private double timeoutMinutes = 0;
+
+    /**
+     * Result of one setup.
+     */
+    public static class JobResult {
+
+        public final File setupFile;
+        public String status = "waiting";
+        public String error;
+        public String thread;
+        public long loadMS, injectionMS, simulationMS, outputMS;
+        public int particles, steps;
+        public File outputDirectory;
+        public String profile;
+
+        public JobResult(File setupFile) {
+            this.setupFile = setupFile;
+        }
+
+        public long getTotalMS() {
+            return loadMS + injectionMS + simulationMS + outputMS;
+        }
+
+        public String toJSON() {
+            StringBuilder str = new StringBuilder();
+            str.append("{\"setup\": ").append(quote(setupFile.getAbsolutePath()));
+            str.append(", \"status\": ").append(quote(status));
+            if (error != null) {
+                str.append(", \"error\": ").append(quote(error));
+            }
+            if (outputDirectory != null) {
+                str.append(", \"output\": ").append(quote(outputDirectory.getAbsolutePath()));
+            }
+            str.append(", \"particles\": ").append(particles);
+            str.append(", \"steps\": ").append(steps);
+            str.append(", \"phasesMS\": {\"load\": ").append(loadMS);
+            str.append(", \"injection\": ").append(injectionMS);
+            str.append(", \"simulation\": ").append(simulationMS);
+            str.append(", \"output\": ").append(outputMS);
+            str.append(", \"total\": ").append(getTotalMS()).append("}");
+            if (profile != null) {
+                str.append(", \"profile\": ").append(profile);
+            }
+            str.append("}");
+            return str.toString();
+        }
+
+        @Override
+        public String toString() {
+            return setupFile.getName() + ": " + status + " load:" + loadMS / 1000 + "s, injection:" + injectionMS / 1000 + "s, simulation:" + simulationMS / 1000 + "s, output:" + outputMS / 1000 + "s" + (error != null ? "  " + error : "");
+        }
+    }
+
+    public BatchRunner() {
+    }
+
+    /**
+     * Splits the cores of this machine on the concurrent jobs.
+     *
+     * @param concurrentJobs
+     */
+    public BatchRunner(int concurrentJobs) {
+        setConcurrentJobs(concurrentJobs);
+        this.threadsPerJob = Math.max(1, Runtime.getRuntime().availableProcessors() / this.concurrentJobs);
+    }
+
+    public void setConcurrentJobs(int concurrentJobs) {
+        this.concurrentJobs = Math.max(1, concurrentJobs);
+    }
+
+    public int getConcurrentJobs() {
+        return concurrentJobs;
+    }
+
+    public void setThreadsPerJob(int threadsPerJob) {
+        this.threadsPerJob = Math.max(1, threadsPerJob);
+    }
+
+    public int getThreadsPerJob() {
+        return threadsPerJob;
+    }
+
+    public void setOutputDirectory(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public void setOutputs(List<String> outputs) {
+        for (String key : outputs) {
+            if (createOutput(key) == null) {
+                throw new IllegalArgumentException("Unknown output '" + key + "'. Known outputs: shape, mass, particles, travelpath, regions");
+            }
+        }
+        this.outputs = new ArrayList<>(outputs);
+    }
+
+    public void setTimeoutMinutes(double timeoutMinutes) {
+        this.timeoutMinutes = timeoutMinutes;
+    }
+
+    /**
+     * New output for the key.
+     *
+     * @param key shape, mass, particles, travelpath or regions
+     * @return null for unknown keys
+     */
+    public static OutputIntention createOutput(String key) {
+        switch (key.trim().toLowerCase()) {
+            case "shape":
+                return new ContaminationShape(StoringCoordinator.FileFormat.GeoPKG, -1, true);
+            case "mass":
+                return new ContaminationMass(-1);
+            case "particles":
+                return new ContaminationParticles();
+            case "travelpath":
+                return new Save_Travelpath(StoringCoordinator.FileFormat.SHP, -1);
+            case "regions":
+                return new Save_TravelAccumulationRegions(StoringCoordinator.FileFormat.SHP, -1);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Setup files in the given order. Directories are searched for *.xml files
+     * (not recursive, sorted by name).
+     *
+     * @param paths
+     * @return
+     */
+    public static List<File> collectSetups(String... paths) {
+        ArrayList<File> setups = new ArrayList<>();
+        for (String path : paths) {
+            File f = new File(path);
+            if (f.isDirectory()) {
+                File[] files = f.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                Arrays.sort(files);
+                for (File file : files) {
+                    if (file.isFile() && file.getName().toLowerCase().endsWith(".xml")) {
+                        setups.add(file);
+                    }
+                }
+            } else if (f.exists()) {
+                setups.add(f);
+            } else {
+                System.err.println("Setup file " + f.getAbsolutePath() + " does not exist.");
+            }
+        }
+        return setups;
+    }
+
+    /**
+     * Run all setups with the bounded number of concurrent jobs and block
+     * until all are finished.
+     *
+     * @param setups
+     * @return results in the order of the setups
+     * @throws InterruptedException
+     */
+    public List<JobResult> runAll(List<File> setups) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrentJobs);
+        ArrayList<JobResult> results = new ArrayList<>(setups.size());
+        ArrayList<Future<JobResult>> futures = new ArrayList<>(setups.size());
+        for (final File setup : setups) {
+            final JobResult result = new JobResult(setup);
+            results.add(result);
+            futures.add(executor.submit(() -> runJob(result)));
+        }
+        executor.shutdown();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException ex) {
+                JobResult r = results.get(i);
+                r.status = "failed";
+                r.error = String.valueOf(ex.getCause());
+                Logger.getLogger(BatchRunner.class.getName()).log(Level.SEVERE, "Job " + r.setupFile.getName() + " failed.", ex.getCause());
+            }
+        }
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Loads and simulates one setup and writes its outputs.
+     *
+     * @param setupFile
+     * @return
+     */
+    public JobResult runJob(File setupFile) {
+        return runJob(new JobResult(setupFile));
+    }
+
+    private JobResult runJob(JobResult result) {
+        result.status = "running";
+        result.thread = Thread.currentThread().getName();
+        Controller control = null;
+        try {
+            long start = System.currentTimeMillis();
+            Setup setup = Setup_IO.load(result.setupFile);
+            if (setup == null) {
+                throw new IOException("Can not read setup " + result.setupFile.getAbsolutePath());
+            }
+            control = new Controller(threadsPerJob);
+            //Parameters stay inside this controller, other jobs may run in parallel.
+            control.setConfiguration(SimulationConfiguration.fromSetup(setup));
+            LoadingCoordinator lc = control.getLoadingCoordinator();
+            if (!lc.loadSetup(result.setupFile)) {
+                throw new IOException("Can not apply setup " + result.setupFile.getAbsolutePath());
+            }
+            lc.startLoadingRequestedFiles(false);
+            if (control.getScenario() == null) {
+                throw new IllegalStateException("No scenario after loading the setup.");
+            }
+            if (control.getNetwork() != null && control.getScenario().getMeasurementsPipe() == null) {
+                control.initMeasurementTimelines(control.getScenario(), lc.sparsePipeMeasurements);
+            }
+            result.loadMS = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            control.recalculateInjections();
+            control.resetScenario();
+            result.particles = control.getThreadController().getNumberOfTotalParticles();
+            result.injectionMS = System.currentTimeMillis() - start;
+
+            if (outputDirectory != null) {
+                String name = result.setupFile.getName();
+                if (name.toLowerCase().endsWith(".xml")) {
+                    name = name.substring(0, name.length() - 4);
+                }
+                result.outputDirectory = new File(outputDirectory, name);
+                result.outputDirectory.mkdirs();
+                control.getStoringCoordinator().setFileRoot(result.outputDirectory);
+            }
+            for (String key : outputs) {
+                control.getStoringCoordinator().addFinalOuput(createOutput(key));
+            }
+
+            //The StoringCoordinator is registered first and starts its writers before this listener is informed.
+            final CountDownLatch finished = new CountDownLatch(1);
+            control.addSimulationListener(new SimulationActionAdapter() {
+                @Override
+                public void simulationFINISH(boolean timeOut, boolean particlesOut) {
+                    finished.countDown();
+                }
+            });
+            if (verbose) {
+                System.out.println("Start " + result.setupFile.getName() + " with " + result.particles + " particles on " + threadsPerJob + " threads.");
+            }
+            start = System.currentTimeMillis();
+            control.start();
+            if (timeoutMinutes > 0) {
+                if (!finished.await((long) (timeoutMinutes * 60000), TimeUnit.MILLISECONDS)) {
+                    control.getThreadController().stop();
+                    result.simulationMS = System.currentTimeMillis() - start;
+                    result.steps = control.getThreadController().getSteps();
+                    result.status = "timeout";
+                    return result;
+                }
+            } else {
+                finished.await();
+            }
+            result.simulationMS = System.currentTimeMillis() - start;
+            result.steps = control.getThreadController().getSteps();
+            if (SimulationProfiler.enabled) {
+                result.profile = control.getThreadController().profiler.toJSON();
+            }
+
+            start = System.currentTimeMillis();
+            control.getStoringCoordinator().waitForOutputs();
+            if (result.outputDirectory == null) {
+                result.outputDirectory = control.getStoringCoordinator().getFileRoot();
+            }
+            result.outputMS = System.currentTimeMillis() - start;
+            result.status = "finished";
+        } catch (Exception ex) {
+            result.status = "failed";
+            result.error = ex.toString();
+            Logger.getLogger(BatchRunner.class.getName()).log(Level.SEVERE, "Job " + result.setupFile.getName() + " failed.", ex);
+        } finally {
+            if (control != null) {
+                ThreadController tc = control.getThreadController();
+                try {
+                    //A stopped simulation finishes its current step first.
+                    while (tc.isSimulating()) {
+                        Thread.sleep(100);
+                    }
+                    tc.shutdown();
+                } catch (Exception ex) {
+                    Logger.getLogger(BatchRunner.class.getName()).log(Level.WARNING, null, ex);
+                }
+                //Release the connections to the result database of this job.
+                HE_Database resultDatabase = control.getLoadingCoordinator().requestHE_ResultDatabase();
+                if (resultDatabase != null) {
+                    try {
+                        resultDatabase.close();
+                    } catch (Exception ex) {
+                        Logger.getLogger(BatchRunner.class.getName()).log(Level.WARNING, null, ex);
+                    }
+                }
+            }
+        }
+        if (verbose) {
+            System.out.println(result);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the results as JSON.
+     *
+     * @param file
+     * @param results
+     * @throws IOException
+     */
+    public void writeSummary(File file, List<JobResult> results) throws IOException {
+        int finished = 0;
+        long total = 0;
+        for (JobResult r : results) {
+            if ("finished".equals(r.status)) {
+                finished++;
+            }
+            total += r.getTotalMS();
+        }
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+            bw.write("{\n");
+            bw.write("  \"concurrentJobs\": " + concurrentJobs + ",\n");
+            bw.write("  \"threadsPerJob\": " + threadsPerJob + ",\n");
+            bw.write("  \"jobs\": " + results.size() + ",\n");
+            bw.write("  \"finished\": " + finished + ",\n");
+            bw.write("  \"sumJobMS\": " + total + ",\n");
+            bw.write("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                bw.write(i == 0 ? "\n    " : ",\n    ");
+                bw.write(results.get(i).toJSON());
+            }
+            bw.write("\n  ]\n}\n");
+        }
+    }
+
+    private static String quote(String text) {
+        StringBuilder str = new StringBuilder(text.length() + 2);
+        str.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    str.append("\\\"");
+                    break;
+                case '\\':
+                    str.append("\\\\");
+                    break;
+                case '\n':
+                    str.append("\\n");
+                    break;
+                case '\r':
+                    str.append("\\r");
+                    break;
+                case '\t':
+                    str.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        str.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        str.append(c);
+                    }
+            }
+        }
+        str.append('"');
+        return str.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        BatchRunner runner = new BatchRunner();
+        int jobs = -1, threads = -1;
+        File summary = null;
+        ArrayList<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-jobs":
+                    jobs = Integer.parseInt(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-out":
+                    runner.setOutputDirectory(new File(args[++i]));
+                    break;
+                case "-outputs":
+                    runner.setOutputs(Arrays.asList(args[++i].split(",")));
+                    break;
+                case "-summary":
+                    summary = new File(args[++i]);
+                    break;
+                case "-timeout":
+                    runner.setTimeoutMinutes(Double.parseDouble(args[++i]));
+                    break;
+                default:
+                    paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            System.out.println("Usage: " + BatchRunner.class.getSimpleName() + " [-jobs n] [-threads n] [-out directory] [-outputs shape,mass,particles,travelpath,regions] [-summary file.json] [-timeout minutes] <setup.xml|directory> ...");
+            return;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (jobs < 1) {
+            jobs = threads > 0 ? Math.max(1, cores / threads) : 1;
+        }
+        if (threads < 1) {
+            threads = Math.max(1, cores / jobs);
+        }
+        runner.setConcurrentJobs(jobs);
+        runner.setThreadsPerJob(threads);
+
+        List<File> setups = collectSetups(paths.toArray(new String[paths.size()]));
+        System.out.println(setups.size() + " setups, " + jobs + " concurrent jobs with " + threads + " threads each.");
+        List<JobResult> results = runner.runAll(setups);
+        if (summary == null) {
+            summary = new File(runner.outputDirectory != null ? runner.outputDirectory : new File("."), "batch_summary.json");
+        }
+        if (summary.getParentFile() != null) {
+            summary.getParentFile().mkdirs();
+        }
+        runner.writeSummary(summary, results);
+        System.out.println("Summary written to " + summary.getAbsolutePath());
+        int failed = 0;
+        for (JobResult r : results) {
+            if (!"finished".equals(r.status)) {
+                failed++;
+            }
+        }
+        System.exit(failed > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.control;
+
+import com.saemann.gulli.core.control.listener.SimulationActionListener;
+import com.saemann.gulli.core.control.threads.ThreadController;
+import com.saemann.gulli.core.io.Checkpoint_IO;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes checkpoints of the running simulation in a fixed interval of
+ * simulation steps. The state is copied into memory at the end of a step
+ * while the particle threads wait at their barrier. Writing the copy to disk
+ * happens in a background thread, while the simulation continues.
+ *
+ * To continue from a checkpoint, load the same setup, inject the particles
+ * (as for a new start), call {@link #restore(File)} and start the
+ * simulation.
+ *
+ * @author saemann
+ */
+public class CheckpointCoordinator implements SimulationActionListener {
+
+    public static boolean verbose = true;
+
+    public static final String FILE_SUFFIX = ".gckp";
+
+    private final Controller control;
+
+    /**
+     * Write a checkpoint every n simulation steps. 0 = disabled.
+     */
+    private int intervalSteps = 0;
+
+    /**
+     * Directory for the checkpoint files. If null, the subdirectory
+     * "checkpoints" of the output directory is used.
+     */
+    private File directory;
+
+    /**
+     * Number of checkpoint files to keep. Older files are deleted after a new
+     * checkpoint has been written completely.
+     */
+    private int keep = 2;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "CheckpointWriter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Future<?> pending;
+
+    private volatile File lastCheckpoint;
+
+    public CheckpointCoordinator(Controller control) {
+        this.control = control;
+    }
+
+    /**
+     * Takes a snapshot of the current state and writes it in the background.
+     * If the previous checkpoint is still being written, no new snapshot is
+     * taken. Must only be called while no ParticleThread is calculating.
+     *
+     * @return true if a snapshot was taken.
+     */
+    public boolean writeCheckpoint() {
+        if (pending != null && !pending.isDone()) {
+            System.out.println("Checkpoint skipped in step " + control.getThreadController().getSteps() + ", previous checkpoint is still being written.");
+            return false;
+        }
+        ThreadController tc = control.getThreadController();
+        File dir = getDirectory();
+        if (dir == null) {
+            System.err.println("No directory for checkpoints. Set the directory of the " + getClass().getSimpleName() + " or the output directory.");
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        //Blocks of the snapshot are released by the writer thread as soon as they are on disk.
+        final Checkpoint_IO.ChunkedBuffer snapshot = new Checkpoint_IO.ChunkedBuffer();
+        try (DataOutputStream dos = new DataOutputStream(snapshot)) {
+            tc.writeCheckpoint(dos);
+        } catch (IOException ex) {
+            Logger.getLogger(CheckpointCoordinator.class.getName()).log(Level.SEVERE, "Can not create checkpoint.", ex);
+            return false;
+        }
+        final long size = snapshot.size();
+        final int step = tc.getSteps();
+        final File file = new File(dir, String.format("checkpoint_%09d", step) + FILE_SUFFIX);
+        if (verbose) {
+            System.out.println("Checkpoint of step " + step + " (" + (size >> 20) + " MB) taken in " + (System.currentTimeMillis() - start) + "ms.");
+        }
+        pending = writer.submit(() -> {
+            try {
+                dir.mkdirs();
+                Checkpoint_IO.write(file, snapshot);
+                lastCheckpoint = file;
+                deleteOldCheckpoints(dir);
+            } catch (IOException ex) {
+                Logger.getLogger(CheckpointCoordinator.class.getName()).log(Level.SEVERE, "Can not write checkpoint " + file, ex);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Blocks until the last checkpoint has been written.
+     *
+     * @throws InterruptedException
+     */
+    public void waitForCheckpoint() throws InterruptedException {
+        Future<?> f = pending;
+        if (f == null) {
+            return;
+        }
+        try {
+            f.get();
+        } catch (ExecutionException ex) {
+            Logger.getLogger(CheckpointCoordinator.class.getName()).log(Level.SEVERE, null, ex.getCause());
+        }
+    }
+
+    /**
+     * Continues the loaded simulation at the state of the checkpoint. The
+     * particles of the same setup have to be injected before.
+     *
+     * @param file
+     * @throws IOException if the checkpoint does not fit to the loaded
+     * simulation.
+     */
+    public void restore(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            control.getThreadController().readCheckpoint(dis);
+        }
+        if (verbose) {
+            System.out.println("Restored step " + control.getThreadController().getSteps() + " from " + file.getAbsolutePath() + " in " + (System.currentTimeMillis() - start) + "ms.");
+        }
+    }
+
+    /**
+     * The checkpoint with the highest step in the directory.
+     *
+     * @param directory
+     * @return null if there is no checkpoint.
+     */
+    public static File findLatestCheckpoint(File directory) {
+        File[] files = listCheckpoints(directory);
+        if (files.length == 0) {
+            return null;
+        }
+        return files[files.length - 1];
+    }
+
+    private static File[] listCheckpoints(File directory) {
+        File[] files = directory == null ? null : directory.listFiles((dir, name) -> name.startsWith("checkpoint_") && name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private void deleteOldCheckpoints(File dir) {
+        if (keep <= 0) {
+            return;
+        }
+        File[] files = listCheckpoints(dir);
+        for (int i = 0; i < files.length - keep; i++) {
+            if (!files[i].delete()) {
+                System.err.println("Can not delete old checkpoint " + files[i]);
+            }
+        }
+    }
+
+    public File getDirectory() {
+        if (directory != null) {
+            return directory;
+        }
+        File root = control.getStoringCoordinator().getFileRoot();
+        if (root == null) {
+            return null;
+        }
+        return new File(root, "checkpoints");
+    }
+
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public int getIntervalSteps() {
+        return intervalSteps;
+    }
+
+    /**
+     *
+     * @param intervalSteps write a checkpoint every n simulation steps. 0
+     * disables checkpoints.
+     */
+    public void setIntervalSteps(int intervalSteps) {
+        this.intervalSteps = Math.max(0, intervalSteps);
+    }
+
+    public int getKeep() {
+        return keep;
+    }
+
+    /**
+     *
+     * @param keep number of checkpoint files to keep. 0 keeps all.
+     */
+    public void setKeep(int keep) {
+        this.keep = keep;
+    }
+
+    /**
+     *
+     * @return the most recently written checkpoint file or null.
+     */
+    public File getLastCheckpoint() {
+        return lastCheckpoint;
+    }
+
+    @Override
+    public void simulationINIT(Object caller) {
+    }
+
+    @Override
+    public void simulationSTART(Object caller) {
+    }
+
+    @Override
+    public void simulationSTEPFINISH(long loop, Object caller) {
+        if (intervalSteps > 0 && loop % intervalSteps == 0) {
+            writeCheckpoint();
+        }
+    }
+
+    @Override
+    public void simulationPAUSED(Object caller) {
+    }
+
+    @Override
+    public void simulationRESUMPTION(Object caller) {
+    }
+
+    @Override
+    public void simulationSTOP(Object caller) {
+    }
+
+    @Override
+    public void simulationFINISH(boolean timeOut, boolean particlesOut) {
+    }
+
+    @Override
+    public void simulationRESET(Object caller) {
+    }
+}
@@ -43,8 +43,10 @@ import com.saemann.gulli.core.control.scenario.injection.InjectionInfo;
 import com.saemann.gulli.core.control.scenario.injection.InjectionSubArealInformation;
 import com.saemann.gulli.core.control.threads.ParticleThread;
 import com.saemann.gulli.core.control.threads.ThreadController;
+import com.saemann.gulli.core.io.ParticleTraceWriter;
 import com.saemann.gulli.core.io.extran.HE_Database;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -68,6 +70,7 @@ import com.saemann.gulli.core.model.topology.Pipe;
 import com.saemann.gulli.core.model.topology.Position;
 import com.saemann.gulli.core.model.topology.Position3D;
 import com.saemann.gulli.core.model.topology.measurement.ParticleMeasurementSection;
+import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Comparator;
@@ -81,6 +84,11 @@ import org.opengis.referencing.operation.TransformException;
  */
 public class Controller implements SimulationActionListener, LoadingActionListener {
 
+    /**
+     * Serializes the creation of particles of all controllers in this JVM.
+     */
+    private static final Object INJECTION_LOCK = new Object();
+
     /**
      * The pipe network elements (Manholes, Pipes)
      */
@@ -104,6 +112,8 @@ public class Controller implements SimulationActionListener, LoadingActionListen
 
     private final StoringCoordinator storingCoordinator;
 
+    private final CheckpointCoordinator checkpointCoordinator;
+
     private final ArrayList<LoadingActionListener> actionListener = new ArrayList<>(2);
     private final ArrayList<ParticleListener> particleListener = new ArrayList<>(2);
 
@@ -120,8 +130,27 @@ public class Controller implements SimulationActionListener, LoadingActionListen
 
     protected boolean traceParticles = false;
 
+    /**
+     * Stream the traces of HistoryParticles into a binary file during the
+     * simulation instead of keeping them in memory. The GUI paints the
+     * traces from memory, so this is only useful for headless runs.
+     */
+    public static boolean streamParticleTraces = false;
+
+    /**
+     * File of the streamed particle traces of this controller's simulation.
+     * null if traces are kept in memory.
+     */
+    private ParticleTraceWriter traceSink = null;
+
     protected int tracerParticleCount = 0;
 
+    /**
+     * Parameters of this simulation. If null, the static default values are
+     * taken at every start.
+     */
+    private SimulationConfiguration configuration = null;
+
     public static final String ACTION_KEY_NEWSETUP = "CleanProject";
 
     /**
@@ -150,6 +179,8 @@ public class Controller implements SimulationActionListener, LoadingActionListen
         loadingCoordinator = new LoadingCoordinator(this);
         storingCoordinator = new StoringCoordinator(this);
         addSimulationListener(storingCoordinator);
+        checkpointCoordinator = new CheckpointCoordinator(this);
+        addSimulationListener(checkpointCoordinator);
     }
 
     public boolean addActioListener(LoadingActionListener listener) {
@@ -233,6 +264,15 @@ public class Controller implements SimulationActionListener, LoadingActionListen
         return storingCoordinator;
     }
 
+    /**
+     * Manager for checkpoints to continue a simulation
+     *
+     * @return
+     */
+    public CheckpointCoordinator getCheckpointCoordinator() {
+        return checkpointCoordinator;
+    }
+
 //    public void setDispersionCoefficientPipe(double K) {
 //        ParticlePipeComputing.setDispersionCoefficient(K);
 //    }
@@ -500,6 +540,37 @@ public class Controller implements SimulationActionListener, LoadingActionListen
         return network;
     }
 
+    /**
+     * Parameters for this simulation. Without an explicit configuration, this
+     * is a snapshot of the static default values.
+     *
+     * @return
+     */
+    public SimulationConfiguration getConfiguration() {
+        if (configuration == null) {
+            return SimulationConfiguration.fromDefaults();
+        }
+        return configuration;
+    }
+
+    /**
+     * Use these parameters for all following starts instead of the static
+     * default values. Required, if several Controllers run in the same JVM.
+     *
+     * @param configuration null to use the static default values again.
+     */
+    public void setConfiguration(SimulationConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     *
+     * @return true if a configuration was set explicitly.
+     */
+    public boolean hasExplicitConfiguration() {
+        return configuration != null;
+    }
+
     public ThreadController getThreadController() {
         return threadController;
     }
@@ -604,12 +675,12 @@ public class Controller implements SimulationActionListener, LoadingActionListen
 //        ArrayTimeLineMeasurementContainer.instance = container_m;
 //            container_m.setSamplesPerTimeindex(container_m.getDeltaTimeS() / ThreadController.getDeltaTime());
             if (verbose) {
-                System.out.println("Simulation step: " + ThreadController.getDeltaTime() + "s\t sampleinterval:" + container_m.getDeltaTimeS());// + " \t-> " + container_m.samplesPerTimeinterval + " samples per interval");
+                System.out.println("Simulation step: " + threadController.getDeltaTimeSeconds() + "s\t sampleinterval:" + container_m.getDeltaTimeS());// + " \t-> " + container_m.samplesPerTimeinterval + " samples per interval");
             }
 
             int number = 0;
             for (Pipe p : network.getPipes()) {
-                p.setMeasurementTimeLine(new ArrayTimeLineMeasurement(container_m, number, p.getLength()));
+                p.setMeasurementTimeLine(new ArrayTimeLineMeasurement(container_m, number, p.getLength(), getConfiguration().useIDsharpParticleCounting));
                 number++;
             }
         }
@@ -639,12 +710,12 @@ public class Controller implements SimulationActionListener, LoadingActionListen
 //        ArrayTimeLineMeasurementContainer.instance = container_m;
 //            container_m.setSamplesPerTimeindex(container_m.getDeltaTimeS() / ThreadController.getDeltaTime());
             if (verbose) {
-                System.out.println("Simulation step: " + ThreadController.getDeltaTime() + "s\t sampleinterval:" + container_m.getDeltaTimeS());// + " \t-> " + container_m.samplesPerTimeinterval + " samples per interval");
+                System.out.println("Simulation step: " + threadController.getDeltaTimeSeconds() + "s\t sampleinterval:" + container_m.getDeltaTimeS());// + " \t-> " + container_m.samplesPerTimeinterval + " samples per interval");
             }
 
             int number = 0;
             for (Pipe p : network.getPipes()) {
-                p.setMeasurementTimeLine(new ArrayTimeLineMeasurement(container_m, number, p.getLength()));
+                p.setMeasurementTimeLine(new ArrayTimeLineMeasurement(container_m, number, p.getLength(), getConfiguration().useIDsharpParticleCounting));
                 number++;
             }
         }
@@ -753,6 +824,63 @@ public class Controller implements SimulationActionListener, LoadingActionListen
         threadController.start();
     }
 
+    /**
+     * Locates the surface cells of all point injections on the surface in one
+     * batch (see {@link Surface#findContainingTriangles(double[], double[])}).
+     * Only cells with a mid closer than 50m (x and y) are accepted, as in the
+     * single search.
+     *
+     * @param injections
+     * @return cell id (or -1) for every injection that needs a search.
+     */
+    private HashMap<InjectionInformation, Integer> locateSurfaceInjections(List<InjectionInfo> injections) {
+        HashMap<InjectionInformation, Integer> located = new HashMap<>();
+        if (getSurface() == null) {
+            return located;
+        }
+        ArrayList<InjectionInformation> searches = new ArrayList<>();
+        ArrayList<Coordinate> positions = new ArrayList<>();
+        for (InjectionInfo injection_ : injections) {
+            if (!(injection_ instanceof InjectionInformation)) {
+                continue;
+            }
+            InjectionInformation injection = (InjectionInformation) injection_;
+            if (!injection.spillOnSurface() || injection.getPosition() == null || injection.getCapacityID() >= 0) {
+                continue;
+            }
+            try {
+                positions.add(getSurface().getGeotools().toUTM(injection.getPosition()));
+                searches.add(injection);
+            } catch (TransformException ex) {
+                Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        if (searches.size() < 2) {
+            //Nothing to gain from a batch
+            return located;
+        }
+        double[] xs = new double[positions.size()];
+        double[] ys = new double[positions.size()];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = positions.get(i).x;
+            ys[i] = positions.get(i).y;
+        }
+        long start = System.currentTimeMillis();
+        int[] ids = getSurface().findContainingTriangles(xs, ys);
+        if (LoadingCoordinator.verbose) {
+            System.out.println("Located " + ids.length + " surface injections in " + (System.currentTimeMillis() - start) + "ms.");
+        }
+        double[][] mids = getSurface().getTriangleMids();
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            if (id >= 0 && (Math.abs(mids[id][0] - xs[i]) > 50 || Math.abs(mids[id][1] - ys[i]) > 50)) {
+                id = -1;
+            }
+            located.put(searches.get(i), id);
+        }
+        return located;
+    }
+
     /**
      * Before the next start, the injections must be recalculated. this can be
      * called when further editing of the injections is planned and performing
@@ -772,6 +900,16 @@ public class Controller implements SimulationActionListener, LoadingActionListen
             return;
         }
         requestRecalculationOfInjections = false;
+        //Particle IDs come from one counter per JVM, that is reset here. The
+        //IDs place areal injections and select the random streams, so
+        //concurrent controllers (BatchRunner jobs) must number their
+        //particles one after another.
+        synchronized (INJECTION_LOCK) {
+            createInjectionParticles();
+        }
+    }
+
+    private void createInjectionParticles() {
         for (ParticleListener pl : particleListener) {
             pl.clearParticles(this);
         }
@@ -819,6 +957,7 @@ public class Controller implements SimulationActionListener, LoadingActionListen
 
 //        System.out.println("Calculaing number of particles: " + totalNumberParticles + ", materials:" + (maxMaterialID + 1) + " took " + (System.currentTimeMillis() - start) + "ms. ");
         ArrayList<Particle> allParticles = new ArrayList<>(totalNumberParticles);
+        HashMap<InjectionInformation, Integer> locatedInjections = locateSurfaceInjections(scenario.getInjections());
         int counter = 0;
         Particle.resetCounterID();
         for (InjectionInfo injection_ : scenario.getInjections()) {
@@ -1004,7 +1143,8 @@ public class Controller implements SimulationActionListener, LoadingActionListen
                         if (position != null) {
                             //Try to find correct triangle at existing coordinates
 //                            System.out.println("   search for surface cell");
-                            int id = getSurface().findContainingTriangle(position.x, position.y, 50);
+                            Integer located = locatedInjections.get(injection);
+                            int id = located != null ? located : getSurface().findContainingTriangle(position.x, position.y, 50);
                             System.out.println("Search surface for Cell containing position "+position+" -> found Cell "+id);
                             if (id >= 0) {
                                 surfaceCell = id;
@@ -1182,6 +1322,18 @@ public class Controller implements SimulationActionListener, LoadingActionListen
     @Override
 
     public void simulationFINISH(boolean timeOut, boolean particlesOut) {
+        if (traceSink != null) {
+            traceSink.flush();
+        }
+    }
+
+    /**
+     * File of the streamed particle traces.
+     *
+     * @return null if traces are kept in the HistoryParticles.
+     */
+    public ParticleTraceWriter getTraceSink() {
+        return traceSink;
     }
 
     public Surface getSurface() {
@@ -1194,6 +1346,19 @@ public class Controller implements SimulationActionListener, LoadingActionListen
 
     @Override
     public void simulationSTART(Object caller) {
+        if (traceParticles && streamParticleTraces && traceSink == null) {
+            try {
+                File traceFile = File.createTempFile("gulli_traces", ".bin");
+                traceFile.deleteOnExit();
+                traceSink = new ParticleTraceWriter(traceFile);
+                setTraceSinkToParticles(traceSink);
+                if (verbose) {
+                    System.out.println("Stream particle traces to " + traceFile.getAbsolutePath());
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
     }
 
     @Override
@@ -1210,6 +1375,37 @@ public class Controller implements SimulationActionListener, LoadingActionListen
 
     @Override
     public void simulationRESET(Object caller) {
+        closeTraceSink();
+    }
+
+    /**
+     * Close and delete the file of streamed particle traces.
+     */
+    private void closeTraceSink() {
+        ParticleTraceWriter sink = traceSink;
+        if (sink == null) {
+            return;
+        }
+        traceSink = null;
+        setTraceSinkToParticles(null);
+        try {
+            sink.close();
+        } catch (IOException ex) {
+            Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        sink.getFile().delete();
+    }
+
+    private void setTraceSinkToParticles(ParticleTraceWriter sink) {
+        Particle[] particles = threadController.getParticles();
+        if (particles == null) {
+            return;
+        }
+        for (Particle p : particles) {
+            if (p instanceof HistoryParticle) {
+                ((HistoryParticle) p).setTraceSink(sink);
+            }
+        }
     }
 
     @Override
@@ -1294,6 +1490,7 @@ public class Controller implements SimulationActionListener, LoadingActionListen
 
     public void cleanSetup() {
         threadController.stop();
+        closeTraceSink();
         for (ParticleListener pl : particleListener) {
             pl.clearParticles(this);
         }
@@ -0,0 +1,320 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.control;
+
+import com.saemann.gulli.core.control.listener.SimulationActionAdapter;
+import com.saemann.gulli.core.control.scenario.Scenario;
+import com.saemann.gulli.core.control.scenario.SpillScenario;
+import com.saemann.gulli.core.control.scenario.injection.InjectionInfo;
+import com.saemann.gulli.core.control.scenario.injection.InjectionInformation;
+import com.saemann.gulli.core.model.material.Material;
+import com.saemann.gulli.core.model.surface.measurement.SurfaceMeasurementRaster;
+import com.saemann.gulli.core.model.timeline.MeasurementContainer;
+import com.saemann.gulli.core.model.timeline.MeasurementTimeline;
+import com.saemann.gulli.core.model.topology.Manhole;
+import com.saemann.gulli.core.model.topology.Pipe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs an ensemble of injection variants (e.g. the same spill at hundreds of
+ * manholes) on the hydraulics that are already loaded in a
+ * {@link Controller}. Network, Surface and their timelines are loaded only
+ * once. All variants are simulated together in one run of the
+ * ThreadController: every variant gets its own copy of the Material, so the
+ * particles of a variant are tagged by the material index and the
+ * measurements of pipes and surface are recorded separately per variant.
+ *
+ * @author saemann
+ */
+public class EnsembleExecutor {
+
+    public static boolean verbose = true;
+
+    private final Controller control;
+
+    private final ArrayList<Variant> variants = new ArrayList<>();
+
+    private final HashSet<String> names = new HashSet<>();
+
+    private long lastRunDurationMS = 0;
+
+    /**
+     * One injection variant of the ensemble.
+     */
+    public static class Variant {
+
+        public final String name;
+        private final Material material;
+        private final ArrayList<InjectionInfo> injections;
+
+        private Variant(String name, Material material, ArrayList<InjectionInfo> injections) {
+            this.name = name;
+            this.material = material;
+            this.injections = injections;
+        }
+
+        public Material getMaterial() {
+            return material;
+        }
+
+        /**
+         * Index of the measurements of this variant. Valid after the ensemble
+         * has been started.
+         *
+         * @return
+         */
+        public int getMaterialIndex() {
+            return material.materialIndex;
+        }
+
+        public List<InjectionInfo> getInjections() {
+            return Collections.unmodifiableList(injections);
+        }
+
+        @Override
+        public String toString() {
+            return "Variant{'" + name + "', " + injections.size() + " injections, material " + material.materialIndex + "}";
+        }
+    }
+
+    /**
+     *
+     * @param control with loaded network and/or surface and a scenario
+     * providing the time containers of the hydraulics.
+     */
+    public EnsembleExecutor(Controller control) {
+        this.control = control;
+    }
+
+    /**
+     * Add a variant. The material of the injections is replaced by a copy of
+     * the template, named after the variant.
+     *
+     * @param name unique name of this variant
+     * @param template properties of the spilled material
+     * @param injections
+     * @return the new variant
+     */
+    public Variant addVariant(String name, Material template, Collection<InjectionInfo> injections) {
+        if (!names.add(name)) {
+            throw new IllegalArgumentException("Variant name '" + name + "' is already used in this ensemble.");
+        }
+        if (template == null) {
+            template = new Material(name, 1000, true);
+        }
+        Material material = new Material(name, template);
+        ArrayList<InjectionInfo> list = new ArrayList<>(injections);
+        for (InjectionInfo injection : list) {
+            injection.setMaterial(material);
+        }
+        Variant v = new Variant(name, material, list);
+        variants.add(v);
+        return v;
+    }
+
+    /**
+     * Add a variant with a single injection. Its material is used as template.
+     *
+     * @param name
+     * @param injection
+     * @return
+     */
+    public Variant addVariant(String name, InjectionInfo injection) {
+        ArrayList<InjectionInfo> list = new ArrayList<>(1);
+        list.add(injection);
+        return addVariant(name, injection.getMaterial(), list);
+    }
+
+    /**
+     * Creates one variant per manhole, each with the same spill.
+     *
+     * @param manholes
+     * @param mass [kg]
+     * @param numberOfParticles per variant
+     * @param template material
+     * @param startoffsetSeconds after scenario start
+     * @param duration [s]
+     * @return the new variants in the order of the manholes
+     */
+    public List<Variant> addManholeVariants(Collection<Manhole> manholes, double mass, int numberOfParticles, Material template, double startoffsetSeconds, double duration) {
+        ArrayList<Variant> list = new ArrayList<>(manholes.size());
+        for (Manhole mh : manholes) {
+            InjectionInformation in = new InjectionInformation(mh, 0, mass, numberOfParticles, template, startoffsetSeconds, duration);
+            ArrayList<InjectionInfo> injections = new ArrayList<>(1);
+            injections.add(in);
+            list.add(addVariant(mh.getName(), template, injections));
+        }
+        return list;
+    }
+
+    public List<Variant> getVariants() {
+        return Collections.unmodifiableList(variants);
+    }
+
+    public void clearVariants() {
+        variants.clear();
+        names.clear();
+    }
+
+    /**
+     * Runs all variants in one simulation and blocks until it has finished.
+     * The injections of the controller's scenario are replaced by the
+     * injections of the variants during the run. Afterwards the original
+     * injections of a SpillScenario are restored; they are recalculated
+     * before the next start.
+     *
+     * @throws InterruptedException
+     */
+    public void run() throws InterruptedException {
+        if (variants.isEmpty()) {
+            throw new IllegalStateException("No variants added to the ensemble.");
+        }
+        Scenario base = control.getScenario();
+        if (base == null) {
+            throw new NullPointerException("No Scenario loaded. Load the hydraulics before running an ensemble.");
+        }
+        ArrayList<InjectionInfo> injections = new ArrayList<>();
+        for (Variant v : variants) {
+            injections.addAll(v.injections);
+        }
+        ArrayList<InjectionInfo> originalInjections = null;
+        if (base instanceof SpillScenario) {
+            //Keep the measurement containers and time containers of the loaded scenario.
+            originalInjections = new ArrayList<>(base.getInjections());
+            base.getInjections().clear();
+            base.getInjections().addAll(injections);
+        } else {
+            SpillScenario sc = new SpillScenario(base.getStatusTimesPipe(), injections);
+            sc.setTimesManhole(base.getStatusTimesManhole());
+            sc.setStatusTimesSurface(base.getStatusTimesSurface());
+            sc.setName(base.getName());
+            control.loadScenario(sc, this);
+        }
+        final CountDownLatch finished = new CountDownLatch(1);
+        SimulationActionAdapter listener = new SimulationActionAdapter() {
+            @Override
+            public void simulationFINISH(boolean timeOut, boolean particlesOut) {
+                finished.countDown();
+            }
+        };
+        long start = System.currentTimeMillis();
+        try {
+            //Create the particles of all variants once.
+            control.recalculateInjections();
+            control.addSimulationListener(listener);
+            control.getThreadController().reset();
+            control.resetScenario();
+            if (verbose) {
+                System.out.println("Start ensemble of " + variants.size() + " variants with " + injections.size() + " injections.");
+            }
+            control.start();
+            finished.await();
+        } finally {
+            control.removeSimulationListener(listener);
+            if (originalInjections != null) {
+                base.getInjections().clear();
+                base.getInjections().addAll(originalInjections);
+                control.requestRecalculationOfInjectionsBeforeNextStart();
+            }
+        }
+        lastRunDurationMS = System.currentTimeMillis() - start;
+        if (verbose) {
+            System.out.println("Ensemble of " + variants.size() + " variants finished after " + lastRunDurationMS / 1000 + "s.");
+        }
+    }
+
+    /**
+     * Wall clock duration of the last run.
+     *
+     * @return milliseconds
+     */
+    public long getLastRunDurationMS() {
+        return lastRunDurationMS;
+    }
+
+    /**
+     * Mass [kg] on the surface cells for one variant.
+     *
+     * @param v
+     * @return [cellindex][timeindex], null if no surface measurement exists.
+     * Rows of uncontaminated cells are null.
+     */
+    public double[][] getSurfaceMass(Variant v) {
+        SurfaceMeasurementRaster raster = control.getScenario().getMeasurementsSurface();
+        if (raster == null && control.getSurface() != null) {
+            raster = control.getSurface().getMeasurementRaster();
+        }
+        if (raster == null) {
+            return null;
+        }
+        int materialIndex = v.getMaterialIndex();
+        int times = raster.getIndexContainer().getNumberOfTimes();
+        double[][] mass = new double[raster.getNumberOfCells()][];
+        for (int i = 0; i < mass.length; i++) {
+            if (!raster.isCellContaminated(i)) {
+                continue;
+            }
+            double[] cell = new double[times];
+            for (int t = 0; t < times; t++) {
+                cell[t] = raster.getMassInCell(i, t, materialIndex);
+            }
+            mass[i] = cell;
+        }
+        return mass;
+    }
+
+    /**
+     * Mass [kg] in the pipes for one variant.
+     *
+     * @param v
+     * @return [pipe in order of Network.getPipes()][timeindex], null if no
+     * pipe measurement exists.
+     */
+    public float[][] getPipeMass(Variant v) {
+        MeasurementContainer container = control.getScenario().getMeasurementsPipe();
+        if (container == null || control.getNetwork() == null) {
+            return null;
+        }
+        int materialIndex = v.getMaterialIndex();
+        int times = container.getTimes().getNumberOfTimes();
+        float[][] mass = new float[control.getNetwork().getPipes().size()][];
+        int index = 0;
+        for (Pipe pipe : control.getNetwork().getPipes()) {
+            MeasurementTimeline tl = pipe.getMeasurementTimeLine();
+            float[] values = new float[times];
+            if (tl != null) {
+                for (int t = 0; t < times; t++) {
+                    values[t] = tl.getMass(t, materialIndex);
+                }
+            }
+            mass[index++] = values;
+        }
+        return mass;
+    }
+}
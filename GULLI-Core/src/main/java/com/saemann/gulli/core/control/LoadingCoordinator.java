@@ -43,6 +43,7 @@ import com.saemann.gulli.core.io.extran.HE_Database;
 import com.saemann.gulli.core.io.SHP_IO_GULLI;
 import com.saemann.gulli.core.io.Setup_IO;
 import com.saemann.gulli.core.io.SparseTimeLineDataProvider;
+import com.saemann.gulli.core.io.SurfaceFlowFieldCache;
 import com.saemann.gulli.core.io.Surface_CSV_IO;
 import com.saemann.gulli.core.io.bentley.BentleyDatabase;
 import com.saemann.gulli.core.io.extran.GdalIO;
@@ -149,6 +150,13 @@ public class LoadingCoordinator {
      */
     public boolean sparseSurfaceLoading = true;
 
+    /**
+     * Read surface velocities and waterlevels from the binary cache next to
+     * the result file. If there is no cache, it is written in the background
+     * after loading.
+     */
+    public boolean useSurfaceFlowFieldCache = true;
+
     /**
      * Save measurements in a sparse timeline (SparseTimeLineMeasurement) Else
      * save in an always-fully initialized ArrayTimelineMeasurement.
@@ -834,8 +842,15 @@ public class LoadingCoordinator {
                     //SWMM 5 output file
                     action.description = "Open out file";
                     SWMM_Out_Reader reader = new SWMM_Out_Reader(fileMainPipeResult);
-
-                    Pair<SparseTimeLinePipeContainer, SparseTimeLineManholeContainer> cs = sparseLoadTimelines(network, reader, new ArrayList(0), new ArrayList(0), zeroTimeStart, additionalMilliseconds);
+                    Collection<Pipe> pipesToLoad = new ArrayList<>(0);
+                    Collection<StorageVolume> manholesToLoad = new ArrayList<>(0);
+                    if (!sparsePipeLoading) {
+                        //Extract all timelines in one pass over the out file instead of reading them on demand.
+                        action.description = "Load all pipe velocities";
+                        pipesToLoad = network.getPipes();
+                        manholesToLoad = new ArrayList<>(network.getManholes());
+                    }
+                    Pair<SparseTimeLinePipeContainer, SparseTimeLineManholeContainer> cs = sparseLoadTimelines(network, reader, pipesToLoad, manholesToLoad, zeroTimeStart, additionalMilliseconds);
                     timeContainerPipe = cs.first;
                     timeContainerManholes = cs.second;
                     if (loadResultInjections) {
@@ -1004,12 +1019,36 @@ public class LoadingCoordinator {
                 SurfaceWaterlevelLoader waterlevelLoader = null;
                 boolean surfaceVelocitiescompletelyLoaded = false;
 
-                if (lowername.endsWith("shp")) {
+                //CoUD Labs csv results set up the surface times and the scenario
+                //while reading. They are small and not cached.
+                boolean coudCSV = lowername.endsWith("csv") && Surface_CSV_IO.is_readable_scheme(fileSurfaceWaterlevels);
+                SurfaceFlowFieldCache flowFieldCache = null;
+                if (useSurfaceFlowFieldCache && !coudCSV) {
+                    flowFieldCache = SurfaceFlowFieldCache.open(fileSurfaceWaterlevels, surface.getTriangleNodes().length);
+                }
+
+                if (flowFieldCache != null) {
+                    //Read from the binary cache of a previous run
+                    if (verbose) {
+                        System.out.println("Using flow field cache " + flowFieldCache.getFile().getName());
+                    }
+                    velocityLoader = flowFieldCache;
+                    waterlevelLoader = flowFieldCache;
+                    surface.waterlevelLoader = flowFieldCache;
+                    surface.initVelocityArrayForSparseLoading(flowFieldCache.getNumberOfTriangles(), flowFieldCache.getNumberOfTimes());
+                    if ((filetype == FILETYPE.HYSTEM_EXTRAN_8 || filetype == FILETYPE.HYSTEM_EXTRAN_7) && !loadGDBVelocity) {
+                        //Same as without cache: velocities are calculated from the waterlevels below.
+                        surface.initSparseTriangleVelocityLoading(null, true, false);
+                    } else {
+                        surface.initSparseTriangleVelocityLoading(flowFieldCache, true, false);
+                    }
+                    surfaceVelocitiescompletelyLoaded = true;
+                } else if (lowername.endsWith("shp")) {
                     SHP_IO_GULLI.readTriangleFileToSurface(fileSurfaceWaterlevels, surface, verbose);
                 } else if (lowername.endsWith("csv")) {
 
                     //First attempt is to load CoUD Labs csv scheme
-                    if (Surface_CSV_IO.is_readable_scheme(fileSurfaceWaterlevels)) {
+                    if (coudCSV) {
                         filetype = FILETYPE.COUD_CSV;
                         sparseSurfaceLoading = false;
                         Surface_CSV_IO.readSurfaceCellVelocities(surface, fileSurfaceWaterlevels);
@@ -1161,6 +1200,11 @@ public class LoadingCoordinator {
                     loadingSurfaceVelocity = LOADINGSTATUS.REQUESTED;
                     return false;
                 }
+                if (useSurfaceFlowFieldCache && !coudCSV && flowFieldCache == null && loadingSurfaceVelocity != LOADINGSTATUS.ERROR && surface.getNumberOfTimestamps() > 0) {
+                    if (velocityLoader != null || waterlevelLoader != null || surface.getTriangleVelocity() != null || surface.getWaterlevels() != null) {
+                        SurfaceFlowFieldCache.writeInBackground(fileSurfaceWaterlevels, surface, velocityLoader, waterlevelLoader);
+                    }
+                }
                 //Calculate times for surface waterlevel/velocity
                 // Zeiten festlegen
                 starttime = System.currentTimeMillis();
@@ -2161,12 +2205,18 @@ public class LoadingCoordinator {
             }
         }
         SurfaceMeasurementRaster.synchronizeMeasures = setup.isSurfaceMeasurementSynchronize();
+        SurfaceMeasurementTriangleRaster.threadLocalMeasures = setup.isSurfaceMeasurementThreadLocal();
         SurfaceMeasurementRaster.continousMeasurements = setup.isSurfaceMeasurementTimeContinuous();
         SurfaceMeasurementRaster.spatialConsistency = setup.isSurfaceMeasurementSpatialConsistent();
 
-        ParticlePipeComputing.measureOnlyFinalCapacity = !setup.isPipeMeasurementSpatialConsistent();
         MeasurementContainer.synchronizeMeasures = setup.isPipeMeasurementSynchronize();
-        MeasurementContainer.timecontinuousMeasures = setup.isPipeMeasurementTimeContinuous();
+        if (control.hasExplicitConfiguration()) {
+            //Keep the parameters local to this controller. Other controllers might run in this JVM.
+            control.setConfiguration(control.getConfiguration().toBuilder().applySetup(setup).build());
+        } else {
+            ParticlePipeComputing.measureOnlyFinalCapacity = !setup.isPipeMeasurementSpatialConsistent();
+            MeasurementContainer.timecontinuousMeasures = setup.isPipeMeasurementTimeContinuous();
+        }
 
         try {
             if (scenario != null && scenario.getMeasurementsPipe() != null) {
@@ -2186,7 +2236,6 @@ public class LoadingCoordinator {
             }
         }
         control.getThreadController().setDeltaTime(setup.getTimestepTransport());
-        ParticleSurfaceComputing2D.timeIntegration = setup.getTimeIntegration();
 
         if (setup.getIntervalTraceParticles() > 0) {
             control.setTraceParticles(true);
@@ -2198,12 +2247,15 @@ public class LoadingCoordinator {
         control.getLoadingCoordinator().sparsePipeLoading = setup.isSparsePipeVelocity();
 
         //Simulationparameters
-        ParticleSurfaceComputing2D.blockVerySlow = setup.isStopSlow();
-        ParticleSurfaceComputing2D.dryFlowVelocity = setup.getDryVelocity();
-        ParticleSurfaceComputing2D.gradientFlowForDryCells = setup.isDryMovement();
-        ParticleSurfaceComputing2D.meanVelocityAtZigZag = setup.isSmoothZigZag();
-        ParticleSurfaceComputing2D.slidealongEdges = setup.isSlideAlongEdge();
-        ParticleSurfaceComputing2D.preventEnteringDryCell = !setup.isEnterDryCells();
+        if (!control.hasExplicitConfiguration()) {
+            ParticleSurfaceComputing2D.timeIntegration = setup.getTimeIntegration();
+            ParticleSurfaceComputing2D.blockVerySlow = setup.isStopSlow();
+            ParticleSurfaceComputing2D.dryFlowVelocity = setup.getDryVelocity();
+            ParticleSurfaceComputing2D.gradientFlowForDryCells = setup.isDryMovement();
+            ParticleSurfaceComputing2D.meanVelocityAtZigZag = setup.isSmoothZigZag();
+            ParticleSurfaceComputing2D.slidealongEdges = setup.isSlideAlongEdge();
+            ParticleSurfaceComputing2D.preventEnteringDryCell = !setup.isEnterDryCells();
+        }
 
         fireLoadingActionUpdate();
     }
@@ -2277,7 +2329,8 @@ public class LoadingCoordinator {
         setup.injections = manualInjections;
         setup.scenario = scenario;
 
-        setup.setTimestepTransport(ThreadController.getDeltaTime());
+        setup.setTimestepTransport(control.getThreadController().getDeltaTimeSeconds());
+        SimulationConfiguration configuration = control.getConfiguration();
 
         if (control.isTraceParticles()) {
             setup.setIntervalTraceParticles(control.intervallHistoryParticles);
@@ -2289,9 +2342,9 @@ public class LoadingCoordinator {
             MeasurementContainer mp = control.getScenario().getMeasurementsPipe();
             if (mp != null) {
                 setup.setPipeMeasurementtimestep(mp.getTimes().getDeltaTimeMS() / 1000.);
-                setup.setPipeMeasurementTimeContinuous(MeasurementContainer.timecontinuousMeasures);//!mp.isTimespotmeasurement());
+                setup.setPipeMeasurementTimeContinuous(configuration.timecontinuousMeasures);//!mp.isTimespotmeasurement());
             }
-            setup.setPipeMeasurementSpatialConsistent(!ParticlePipeComputing.measureOnlyFinalCapacity);
+            setup.setPipeMeasurementSpatialConsistent(!configuration.measureOnlyFinalCapacity);
             setup.setPipeMeasurementSynchronize(MeasurementContainer.synchronizeMeasures);
 
             SurfaceMeasurementRaster sr = control.getScenario().getMeasurementsSurface();
@@ -2301,13 +2354,15 @@ public class LoadingCoordinator {
                 setup.setSurfaceMeasurementSpatialConsistent(sr.spatialConsistency);
             }
             setup.setSurfaceMeasurementSynchronize(SurfaceMeasurementRaster.synchronizeMeasures);
-        }
-        setup.setDryMovement(ParticleSurfaceComputing2D.gradientFlowForDryCells);
-        setup.setDryVelocity(ParticleSurfaceComputing2D.dryFlowVelocity);
-        setup.setEnterDryCells(!ParticleSurfaceComputing2D.preventEnteringDryCell);
-        setup.setSlideAlongEdge(ParticleSurfaceComputing2D.slidealongEdges);
-        setup.setSmoothZigZag(ParticleSurfaceComputing2D.meanVelocityAtZigZag);
-        setup.setStopSlow(ParticleSurfaceComputing2D.blockVerySlow);
+            setup.setSurfaceMeasurementThreadLocal(SurfaceMeasurementTriangleRaster.threadLocalMeasures);
+        }
+        setup.setDryMovement(configuration.gradientFlowForDryCells);
+        setup.setDryVelocity(configuration.dryFlowVelocity);
+        setup.setEnterDryCells(!configuration.preventEnteringDryCell);
+        setup.setSlideAlongEdge(configuration.slidealongEdges);
+        setup.setSmoothZigZag(configuration.meanVelocityAtZigZag);
+        setup.setStopSlow(configuration.blockVerySlow);
+        setup.setTimeIntegration(configuration.timeIntegration);
 
         setup.setSparsePipeVelocity(control.getLoadingCoordinator().sparsePipeLoading);
 
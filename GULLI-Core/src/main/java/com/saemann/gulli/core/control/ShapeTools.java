@@ -23,6 +23,7 @@
  */
 package com.saemann.gulli.core.control;
 
+import com.saemann.gulli.core.io.ParticleTraceWriter;
 import com.saemann.gulli.core.model.particle.HistoryParticle;
 import com.saemann.gulli.core.model.particle.Particle;
 import java.util.ArrayList;
@@ -33,10 +34,15 @@ import com.saemann.gulli.core.model.surface.measurement.SurfaceMeasurementTriang
 import com.saemann.gulli.core.model.surface.SurfaceTriangle;
 import com.saemann.gulli.core.model.surface.measurement.SurfaceMeasurementRectangleRaster;
 import com.saemann.gulli.core.model.surface.measurement.TriangleMeasurement;
+import com.saemann.gulli.core.model.topology.Capacity;
 import com.saemann.gulli.core.model.topology.Manhole;
 import com.saemann.gulli.core.model.topology.Network;
+import com.saemann.gulli.core.model.topology.Pipe;
 import com.saemann.gulli.core.model.topology.Position;
 import com.saemann.gulli.core.model.topology.Position3D;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
@@ -729,4 +735,130 @@ public class ShapeTools {
         return map;
     }
 
+
+    /**
+     * Travel paths ordered by the name of the outlet capacity, created from a
+     * streamed trace file (see {@link ParticleTraceWriter}). Gives the same
+     * result as
+     * {@link #createTravelPathsToOutlet(Surface, Network, Particle[])} for
+     * particles with an in-memory history.
+     *
+     * @param nw network to resolve the outlet names
+     * @param traceFile binary trace file
+     * @return
+     * @throws IOException
+     */
+    public static HashMap<String, ArrayList<LineString>> createTravelPathsToOutlet(Network nw, File traceFile) throws IOException {
+        //Only outlets are needed to resolve the key of a trace
+        final HashMap<Long, Capacity> outletPipes = new HashMap<>();
+        final HashMap<Long, Capacity> outletManholes = new HashMap<>();
+        if (nw != null) {
+            for (Pipe pipe : nw.getPipes()) {
+                if (pipe.isSetAsOutlet()) {
+                    outletPipes.put(pipe.getAutoID(), pipe);
+                }
+            }
+            for (Manhole mh : nw.getManholes()) {
+                if (mh.isSetAsOutlet()) {
+                    outletManholes.put(mh.getAutoID(), mh);
+                }
+            }
+        }
+        final HashMap<Integer, TraceRecords> traces = new HashMap<>();
+        ParticleTraceWriter.read(traceFile, new ParticleTraceWriter.RecordConsumer() {
+            @Override
+            public void record(int particleID, int sequence, long time, byte capacityType, long capacityID, double x, double y) {
+                TraceRecords t = traces.get(particleID);
+                if (t == null) {
+                    t = new TraceRecords();
+                    traces.put(particleID, t);
+                }
+                t.add(sequence, capacityType, capacityID, x, y);
+            }
+        });
+
+        HashMap<String, ArrayList<LineString>> map = new HashMap<>(nw == null ? 4 : nw.getLeaves().size());
+        GeometryFactory gf = new GeometryFactory();
+        String keyActive = "inside";
+        Integer[] ids = traces.keySet().toArray(new Integer[traces.size()]);
+        Arrays.sort(ids);
+        for (Integer id : ids) {
+            TraceRecords t = traces.get(id);
+            if (t.count < 4 || t.capacities < 3) {
+                continue;
+            }
+            LineString line = gf.createLineString(t.getCoordinates());
+            Capacity last = null;
+            if (t.lastCapacityType == ParticleTraceWriter.TYPE_PIPE) {
+                last = outletPipes.get(t.lastCapacityID);
+            } else if (t.lastCapacityType == ParticleTraceWriter.TYPE_MANHOLE) {
+                last = outletManholes.get(t.lastCapacityID);
+            }
+            String key = last != null ? last.getName() : keyActive;
+            ArrayList<LineString> linelist = map.get(key);
+            if (linelist == null) {
+                linelist = new ArrayList<>();
+                map.put(key, linelist);
+            }
+            linelist.add(line);
+        }
+        return map;
+    }
+
+    /**
+     * Compact storage of the streamed records of one particle.
+     */
+    private static class TraceRecords {
+
+        int count = 0;
+        int[] sequence = new int[16];
+        double[] xy = new double[32];
+        boolean ordered = true;
+
+        /**
+         * Number of visited capacities (records that are not only positions).
+         */
+        int capacities = 0;
+        int lastCapacitySequence = -1;
+        byte lastCapacityType = -1;
+        long lastCapacityID = -1;
+
+        void add(int seq, byte type, long capacityID, double x, double y) {
+            if (count == sequence.length) {
+                sequence = Arrays.copyOf(sequence, count * 2);
+                xy = Arrays.copyOf(xy, count * 4);
+            }
+            if (count > 0 && sequence[count - 1] > seq) {
+                ordered = false;
+            }
+            sequence[count] = seq;
+            xy[2 * count] = x;
+            xy[2 * count + 1] = y;
+            count++;
+            if (type != ParticleTraceWriter.TYPE_POSITION) {
+                capacities++;
+                if (seq > lastCapacitySequence) {
+                    lastCapacitySequence = seq;
+                    lastCapacityType = type;
+                    lastCapacityID = capacityID;
+                }
+            }
+        }
+
+        Coordinate[] getCoordinates() {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            if (!ordered) {
+                Arrays.sort(order, (a, b) -> Integer.compare(sequence[a], sequence[b]));
+            }
+            Coordinate[] coords = new Coordinate[count];
+            for (int i = 0; i < count; i++) {
+                coords[i] = new Coordinate(xy[2 * order[i]], xy[2 * order[i] + 1]);
+            }
+            return coords;
+        }
+    }
+
 }
@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.control;
+
+import com.saemann.gulli.core.control.particlecontrol.ParticlePipeComputing;
+import com.saemann.gulli.core.control.particlecontrol.ParticleSurfaceComputing2D;
+import com.saemann.gulli.core.control.scenario.Setup;
+import com.saemann.gulli.core.control.threads.ThreadController;
+import com.saemann.gulli.core.model.timeline.MeasurementContainer;
+import com.saemann.gulli.core.model.timeline.array.ArrayTimeLineMeasurement;
+
+/**
+ * Immutable set of transport and measurement parameters of one
+ * {@link Controller}. Each Controller hands its configuration to its own
+ * computing modules when the simulation starts, so that several Controllers
+ * can run independently in the same JVM.
+ *
+ * The static fields (e.g. {@link ParticleSurfaceComputing2D#dryFlowVelocity})
+ * remain the defaults for Controllers without an explicit configuration.
+ *
+ * @author saemann
+ */
+public final class SimulationConfiguration {
+
+    ////Surface transport (see ParticleSurfaceComputing2D)
+    public final boolean gridFree;
+    public final boolean decoupledDispersivity;
+    /**
+     * Upper limit of the surface velocity [m/s].
+     */
+    public final double maxVelocity;
+    /**
+     * Velocity [m/s] of particles in (almost) dry cells.
+     */
+    public final double dryFlowVelocity;
+    public final int maxNumberOfIterationLoops;
+    public final boolean allowWashToPipesystem;
+    public final boolean preventEnteringDryCell;
+    public final boolean gradientFlowForDryCells;
+    public final boolean blockVerySlow;
+    public final boolean slidealongEdges;
+    public final double minTraceDistance;
+    public final boolean meanVelocityAtZigZag;
+    public final ParticleSurfaceComputing2D.TIMEINTEGRATION timeIntegration;
+
+    ////Pipe transport (see ParticlePipeComputing)
+    public final int maxloopsPerParticle;
+    public final boolean measureOnlyFinalCapacity;
+
+    ////Measurements
+    public final boolean useIDsharpParticleCounting;
+    public final boolean timecontinuousMeasures;
+
+    ////Threads
+    public final boolean pauseRevokerThread;
+
+    private SimulationConfiguration(Builder b) {
+        this.gridFree = b.gridFree;
+        this.decoupledDispersivity = b.decoupledDispersivity;
+        this.maxVelocity = b.maxVelocity;
+        this.dryFlowVelocity = b.dryFlowVelocity;
+        this.maxNumberOfIterationLoops = b.maxNumberOfIterationLoops;
+        this.allowWashToPipesystem = b.allowWashToPipesystem;
+        this.preventEnteringDryCell = b.preventEnteringDryCell;
+        this.gradientFlowForDryCells = b.gradientFlowForDryCells;
+        this.blockVerySlow = b.blockVerySlow;
+        this.slidealongEdges = b.slidealongEdges;
+        this.minTraceDistance = b.minTraceDistance;
+        this.meanVelocityAtZigZag = b.meanVelocityAtZigZag;
+        this.timeIntegration = b.timeIntegration;
+        this.maxloopsPerParticle = b.maxloopsPerParticle;
+        this.measureOnlyFinalCapacity = b.measureOnlyFinalCapacity;
+        this.useIDsharpParticleCounting = b.useIDsharpParticleCounting;
+        this.timecontinuousMeasures = b.timecontinuousMeasures;
+        this.pauseRevokerThread = b.pauseRevokerThread;
+    }
+
+    /**
+     * Snapshot of the current static default values.
+     *
+     * @return
+     */
+    public static SimulationConfiguration fromDefaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * Static default values, overwritten by the parameters defined in the
+     * setup.
+     *
+     * @param setup
+     * @return
+     */
+    public static SimulationConfiguration fromSetup(Setup setup) {
+        return new Builder().applySetup(setup).build();
+    }
+
+    /**
+     * Builder initialized with the values of this configuration.
+     *
+     * @return
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{gridFree=" + gridFree + ", dryFlowVelocity=" + dryFlowVelocity + ", maxVelocity=" + maxVelocity + ", maxIterations=" + maxNumberOfIterationLoops + ", preventDry=" + preventEnteringDryCell + ", gradientFlow=" + gradientFlowForDryCells + ", blockSlow=" + blockVerySlow + ", slide=" + slidealongEdges + ", zigzag=" + meanVelocityAtZigZag + ", integration=" + timeIntegration + ", finalCapacity=" + measureOnlyFinalCapacity + ", idCounting=" + useIDsharpParticleCounting + ", timecontinuous=" + timecontinuousMeasures + "}";
+    }
+
+    /**
+     * Collects the parameters for a new {@link SimulationConfiguration}.
+     * Starts with the static default values.
+     */
+    public static class Builder {
+
+        private boolean gridFree = ParticleSurfaceComputing2D.gridFree;
+        private boolean decoupledDispersivity = ParticleSurfaceComputing2D.decoupledDispersivity;
+        private double maxVelocity = ParticleSurfaceComputing2D.maxVelocity;
+        private double dryFlowVelocity = ParticleSurfaceComputing2D.dryFlowVelocity;
+        private int maxNumberOfIterationLoops = ParticleSurfaceComputing2D.maxNumberOfIterationLoops;
+        private boolean allowWashToPipesystem = ParticleSurfaceComputing2D.allowWashToPipesystem;
+        private boolean preventEnteringDryCell = ParticleSurfaceComputing2D.preventEnteringDryCell;
+        private boolean gradientFlowForDryCells = ParticleSurfaceComputing2D.gradientFlowForDryCells;
+        private boolean blockVerySlow = ParticleSurfaceComputing2D.blockVerySlow;
+        private boolean slidealongEdges = ParticleSurfaceComputing2D.slidealongEdges;
+        private double minTraceDistance = ParticleSurfaceComputing2D.minTraceDistance;
+        private boolean meanVelocityAtZigZag = ParticleSurfaceComputing2D.meanVelocityAtZigZag;
+        private ParticleSurfaceComputing2D.TIMEINTEGRATION timeIntegration = ParticleSurfaceComputing2D.timeIntegration;
+        private int maxloopsPerParticle = ParticlePipeComputing.maxloopsPerParticle;
+        private boolean measureOnlyFinalCapacity = ParticlePipeComputing.measureOnlyFinalCapacity;
+        private boolean useIDsharpParticleCounting = ArrayTimeLineMeasurement.useIDsharpParticleCounting;
+        private boolean timecontinuousMeasures = MeasurementContainer.timecontinuousMeasures;
+        private boolean pauseRevokerThread = ThreadController.pauseRevokerThread;
+
+        public Builder() {
+        }
+
+        public Builder(SimulationConfiguration c) {
+            this.gridFree = c.gridFree;
+            this.decoupledDispersivity = c.decoupledDispersivity;
+            this.maxVelocity = c.maxVelocity;
+            this.dryFlowVelocity = c.dryFlowVelocity;
+            this.maxNumberOfIterationLoops = c.maxNumberOfIterationLoops;
+            this.allowWashToPipesystem = c.allowWashToPipesystem;
+            this.preventEnteringDryCell = c.preventEnteringDryCell;
+            this.gradientFlowForDryCells = c.gradientFlowForDryCells;
+            this.blockVerySlow = c.blockVerySlow;
+            this.slidealongEdges = c.slidealongEdges;
+            this.minTraceDistance = c.minTraceDistance;
+            this.meanVelocityAtZigZag = c.meanVelocityAtZigZag;
+            this.timeIntegration = c.timeIntegration;
+            this.maxloopsPerParticle = c.maxloopsPerParticle;
+            this.measureOnlyFinalCapacity = c.measureOnlyFinalCapacity;
+            this.useIDsharpParticleCounting = c.useIDsharpParticleCounting;
+            this.timecontinuousMeasures = c.timecontinuousMeasures;
+            this.pauseRevokerThread = c.pauseRevokerThread;
+        }
+
+        /**
+         * Takes the routing and pipe measurement parameters of the setup.
+         *
+         * @param setup
+         * @return this
+         */
+        public Builder applySetup(Setup setup) {
+            this.measureOnlyFinalCapacity = !setup.isPipeMeasurementSpatialConsistent();
+            this.timecontinuousMeasures = setup.isPipeMeasurementTimeContinuous();
+            this.timeIntegration = setup.getTimeIntegration();
+            this.blockVerySlow = setup.isStopSlow();
+            this.dryFlowVelocity = setup.getDryVelocity();
+            this.gradientFlowForDryCells = setup.isDryMovement();
+            this.meanVelocityAtZigZag = setup.isSmoothZigZag();
+            this.slidealongEdges = setup.isSlideAlongEdge();
+            this.preventEnteringDryCell = !setup.isEnterDryCells();
+            return this;
+        }
+
+        public Builder gridFree(boolean gridFree) {
+            this.gridFree = gridFree;
+            return this;
+        }
+
+        public Builder decoupledDispersivity(boolean decoupledDispersivity) {
+            this.decoupledDispersivity = decoupledDispersivity;
+            return this;
+        }
+
+        public Builder maxVelocity(double maxVelocity) {
+            this.maxVelocity = maxVelocity;
+            return this;
+        }
+
+        public Builder dryFlowVelocity(double dryFlowVelocity) {
+            this.dryFlowVelocity = dryFlowVelocity;
+            return this;
+        }
+
+        public Builder maxNumberOfIterationLoops(int maxNumberOfIterationLoops) {
+            this.maxNumberOfIterationLoops = maxNumberOfIterationLoops;
+            return this;
+        }
+
+        public Builder allowWashToPipesystem(boolean allowWashToPipesystem) {
+            this.allowWashToPipesystem = allowWashToPipesystem;
+            return this;
+        }
+
+        public Builder preventEnteringDryCell(boolean preventEnteringDryCell) {
+            this.preventEnteringDryCell = preventEnteringDryCell;
+            return this;
+        }
+
+        public Builder gradientFlowForDryCells(boolean gradientFlowForDryCells) {
+            this.gradientFlowForDryCells = gradientFlowForDryCells;
+            return this;
+        }
+
+        public Builder blockVerySlow(boolean blockVerySlow) {
+            this.blockVerySlow = blockVerySlow;
+            return this;
+        }
+
+        public Builder slidealongEdges(boolean slidealongEdges) {
+            this.slidealongEdges = slidealongEdges;
+            return this;
+        }
+
+        public Builder minTraceDistance(double minTraceDistance) {
+            this.minTraceDistance = minTraceDistance;
+            return this;
+        }
+
+        public Builder meanVelocityAtZigZag(boolean meanVelocityAtZigZag) {
+            this.meanVelocityAtZigZag = meanVelocityAtZigZag;
+            return this;
+        }
+
+        public Builder timeIntegration(ParticleSurfaceComputing2D.TIMEINTEGRATION timeIntegration) {
+            this.timeIntegration = timeIntegration;
+            return this;
+        }
+
+        public Builder maxloopsPerParticle(int maxloopsPerParticle) {
+            this.maxloopsPerParticle = maxloopsPerParticle;
+            return this;
+        }
+
+        public Builder measureOnlyFinalCapacity(boolean measureOnlyFinalCapacity) {
+            this.measureOnlyFinalCapacity = measureOnlyFinalCapacity;
+            return this;
+        }
+
+        public Builder useIDsharpParticleCounting(boolean useIDsharpParticleCounting) {
+            this.useIDsharpParticleCounting = useIDsharpParticleCounting;
+            return this;
+        }
+
+        public Builder timecontinuousMeasures(boolean timecontinuousMeasures) {
+            this.timecontinuousMeasures = timecontinuousMeasures;
+            return this;
+        }
+
+        public Builder pauseRevokerThread(boolean pauseRevokerThread) {
+            this.pauseRevokerThread = pauseRevokerThread;
+            return this;
+        }
+
+        public SimulationConfiguration build() {
+            if (timeIntegration == null) {
+                timeIntegration = ParticleSurfaceComputing2D.TIMEINTEGRATION.EXPLICIT;
+            }
+            return new SimulationConfiguration(this);
+        }
+    }
+}
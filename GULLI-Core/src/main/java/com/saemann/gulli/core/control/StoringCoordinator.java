@@ -25,6 +25,7 @@ package com.saemann.gulli.core.control;
 
 import com.saemann.gulli.core.control.listener.SimulationActionListener;
 import com.saemann.gulli.core.control.output.OutputIntention;
+import com.saemann.gulli.core.io.ParticleTraceWriter;
 import com.saemann.gulli.core.model.material.Material;
 import com.saemann.gulli.core.model.particle.Particle;
 import com.saemann.gulli.core.model.surface.Surface;
@@ -50,6 +51,12 @@ public class StoringCoordinator implements SimulationActionListener {
 
     private File fileRoot;
 
+    /**
+     * If true, the output directory was set explicitly and does not follow the
+     * location of the pipe result file.
+     */
+    private boolean fixedFileRoot = false;
+
     /**
      * interbal flag to prevent setting of parameters while this controller is
      * still writing to files.
@@ -78,7 +85,7 @@ public class StoringCoordinator implements SimulationActionListener {
         if (writing) {
             System.err.println("New Simulation started, but not all values of the old simulation are written to the filesystem. This might cause corrupt files.");
         }
-        if (control != null && control.getLoadingCoordinator().getFilePipeFlowfield() != null) {
+        if (!fixedFileRoot && control != null && control.getLoadingCoordinator().getFilePipeFlowfield() != null) {
             if (!control.getLoadingCoordinator().getFilePipeFlowfield().getParentFile().equals(fileRoot)) {
                 fileRoot = control.getLoadingCoordinator().getFilePipeFlowfield().getParentFile();
                 System.out.println("set output directory to " + fileRoot.getAbsolutePath());
@@ -115,6 +122,35 @@ public class StoringCoordinator implements SimulationActionListener {
         return fileRoot;
     }
 
+    /**
+     * Write all outputs to this directory instead of the directory of the
+     * pipe result file.
+     *
+     * @param directory null to use the directory of the pipe result again.
+     */
+    public void setFileRoot(File directory) {
+        this.fileRoot = directory;
+        this.fixedFileRoot = directory != null;
+    }
+
+    /**
+     * Blocks until all writer threads of the final outputs have finished.
+     *
+     * @throws InterruptedException
+     */
+    public void waitForOutputs() throws InterruptedException {
+        ArrayList<Thread> threads;
+        synchronized (writerThreads) {
+            threads = new ArrayList<>(writerThreads);
+        }
+        for (Thread th : threads) {
+            th.join();
+        }
+        synchronized (writerThreads) {
+            writerThreads.removeAll(threads);
+        }
+    }
+
     public Material getMaterial(int materialIndex) {
         return control.getScenario().getMaterialByIndex(materialIndex);
     }
@@ -131,6 +167,15 @@ public class StoringCoordinator implements SimulationActionListener {
         return control.getThreadController().getParticles();
     }
 
+    /**
+     * File of the streamed particle traces.
+     *
+     * @return null if traces are kept in the HistoryParticles.
+     */
+    public ParticleTraceWriter getTraceSink() {
+        return control.getTraceSink();
+    }
+
     private void writeFinalOutputs() {
         writing = true;
         for (OutputIntention fo : finalOutputs) {
@@ -147,7 +192,9 @@ public class StoringCoordinator implements SimulationActionListener {
 
                 };
                 th.start();
-                writerThreads.add(th);
+                synchronized (writerThreads) {
+                    writerThreads.add(th);
+                }
 
             } catch (Exception e) {
                 e.printStackTrace();
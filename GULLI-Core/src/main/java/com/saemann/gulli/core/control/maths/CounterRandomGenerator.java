@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.control.maths;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Stateless (counter based) random numbers. Every value is a hash of the
+ * seed, the particle ID, the simulation step and the number of values drawn
+ * for this particle in this step. The sequence of a particle therefore does
+ * not depend on the block it is calculated in, on the number of threads or on
+ * the order of calculation. Results are bit-identical for any thread count
+ * and particle block size.
+ *
+ * The mixing function is the finalizer of SplitMix64, which passes BigCrush
+ * when fed with a Weyl sequence.
+ *
+ * @author saemann
+ */
+public class CounterRandomGenerator extends RandomGenerator {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    /**
+     * Hash of seed, particle and step. Start of the Weyl sequence.
+     */
+    private long streamKey;
+    private long counter;
+
+    private boolean haveNextGaussian;
+    private double nextGaussian;
+
+    public CounterRandomGenerator(long seed) {
+        super(seed);
+        setStream(0, 0);
+    }
+
+    /**
+     * Select the sequence for the particle in the simulation step. Has to be
+     * called before the particle draws its random numbers.
+     *
+     * @param particleID
+     * @param step index or start time of the simulation step
+     */
+    @Override
+    public void setStream(long particleID, long step) {
+        streamKey = mix64(seed + mix64(particleID * GOLDEN_GAMMA + mix64(step)));
+        counter = 0;
+        haveNextGaussian = false;
+    }
+
+    /**
+     * The index'th uniform value of the stream, independent of previous calls.
+     *
+     * @param seed
+     * @param particleID
+     * @param step
+     * @param index
+     * @return value in [0,1)
+     */
+    public static double uniform(long seed, long particleID, long step, long index) {
+        long key = mix64(seed + mix64(particleID * GOLDEN_GAMMA + mix64(step)));
+        return (mix64(key + (index + 1) * GOLDEN_GAMMA) >>> 11) * DOUBLE_UNIT;
+    }
+
+    @Override
+    public double nextDouble() {
+        counter++;
+        return (mix64(streamKey + counter * GOLDEN_GAMMA) >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * Box-Muller transformation of two uniform values of the stream.
+     *
+     * @return standard normal distributed value
+     */
+    @Override
+    public double nextGaussian() {
+        if (haveNextGaussian) {
+            haveNextGaussian = false;
+            return nextGaussian;
+        }
+        //1-u to exclude 0 from the logarithm
+        double sqrtlogv1 = Math.sqrt(-2 * Math.log(1. - nextDouble()));
+        double v2 = 2 * Math.PI * nextDouble();
+        nextGaussian = sqrtlogv1 * Math.sin(v2);
+        haveNextGaussian = true;
+        return sqrtlogv1 * Math.cos(v2);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        setStream(0, 0);
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeLong(seed);
+        out.writeLong(streamKey);
+        out.writeLong(counter);
+        out.writeBoolean(haveNextGaussian);
+        out.writeDouble(nextGaussian);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        long s = in.readLong();
+        if (s != seed) {
+            throw new IOException("Random generator state with seed " + s + " can not be applied to generator with seed " + seed);
+        }
+        streamKey = in.readLong();
+        counter = in.readLong();
+        haveNextGaussian = in.readBoolean();
+        nextGaussian = in.readDouble();
+    }
+
+    @Override
+    public boolean hasEqualValues(RandomGenerator other) {
+        return other instanceof CounterRandomGenerator && other.seed == this.seed;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
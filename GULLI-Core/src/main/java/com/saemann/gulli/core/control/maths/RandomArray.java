@@ -23,6 +23,9 @@
  */
 package com.saemann.gulli.core.control.maths;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.SplittableRandom;
 
 /**
@@ -122,6 +125,31 @@ public class RandomArray extends RandomGenerator {
         resetIndex();
     }
 
+    /**
+     * The cached values only depend on the seed. Only the indices are stored.
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeLong(seed);
+        out.writeInt(cachesize);
+        out.writeInt(index);
+        out.writeInt(indexU);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        long s = in.readLong();
+        int size = in.readInt();
+        if (s != seed || size != cachesize) {
+            throw new IOException("Random array state (seed " + s + ", " + size + " values) can not be applied to array with seed " + seed + " and " + cachesize + " values.");
+        }
+        index = in.readInt();
+        indexU = in.readInt();
+    }
+
     public void setSr(SplittableRandom sr) {
         this.sr = sr;
         reset();
@@ -23,6 +23,9 @@
  */
 package com.saemann.gulli.core.control.maths;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.SplittableRandom;
 
 /**
@@ -38,6 +41,16 @@ public class RandomGenerator {
 
     protected final long seed;
     protected SplittableRandom sr;
+    /**
+     * Number of values drawn from sr since the last reset. SplittableRandom
+     * advances its state by a constant gamma per value, so this counter is
+     * enough to restore the generator (see {@link #readState(DataInput)}).
+     */
+    protected long draws = 0;
+    /**
+     * Increment of the SplittableRandom state per value.
+     */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
     public static int numberOfGaussLoops = 0;
     public static int numberOfDoubleLoops = 0;
     private double v1, v2;
@@ -54,15 +67,62 @@ public class RandomGenerator {
     }
 
     public double nextDouble() {
+        draws++;
         return sr.nextDouble();
     }
 
     public void reset() {
         sr = new SplittableRandom(seed);
+        draws = 0;
         haveNextFastGaussian = false;
         nextFastGaussian = 0;
     }
 
+    /**
+     * Writes the position in the random sequence, e.g. for a checkpoint of the
+     * simulation.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeLong(seed);
+        out.writeLong(draws);
+        out.writeBoolean(haveNextFastGaussian);
+        out.writeDouble(nextFastGaussian);
+    }
+
+    /**
+     * Continues the random sequence at the position written by
+     * {@link #writeState(DataOutput)}.
+     *
+     * @param in
+     * @throws IOException if the state belongs to a generator with another
+     * seed.
+     */
+    public void readState(DataInput in) throws IOException {
+        long s = in.readLong();
+        if (s != seed) {
+            throw new IOException("Random generator state with seed " + s + " can not be applied to generator with seed " + seed);
+        }
+        draws = in.readLong();
+        //A SplittableRandom(seed) returns the same values as a fresh generator that has been advanced n times by the golden gamma.
+        sr = new SplittableRandom(seed + draws * GOLDEN_GAMMA);
+        haveNextFastGaussian = in.readBoolean();
+        nextFastGaussian = in.readDouble();
+    }
+
+    /**
+     * Called before the random numbers for a particle in a simulation step are
+     * drawn. Sequential generators ignore this, counter based generators
+     * select their sequence by this.
+     *
+     * @param particleID
+     * @param step index or start time of the simulation step
+     */
+    public void setStream(long particleID, long step) {
+    }
+
     public boolean hasEqualValues(RandomGenerator other) {
         return other.seed == this.seed;
     }
@@ -76,6 +136,7 @@ public class RandomGenerator {
         if (!haveNextFastGaussian) {
             v1 = sr.nextDouble();
             v2 = sr.nextDouble();
+            draws += 2;
             double sqrtlogv1 = Math.sqrt(-2 * Math.log(v1));
             nextFastGaussian = sqrtlogv1 * Math.sin(pi2 * v2);
             haveNextFastGaussian = true;
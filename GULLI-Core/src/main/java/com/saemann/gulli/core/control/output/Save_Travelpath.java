@@ -28,6 +28,7 @@ import com.saemann.gulli.core.control.StartParameters;
 import com.saemann.gulli.core.control.StoringCoordinator;
 import static com.saemann.gulli.core.control.StoringCoordinator.verbose;
 import com.saemann.gulli.core.io.GeoJSON_IO;
+import com.saemann.gulli.core.io.ParticleTraceWriter;
 import com.saemann.gulli.core.io.Geopackage_IO;
 import com.saemann.gulli.core.io.SHP_IO_GULLI;
 import com.saemann.gulli.core.io.extran.HE_SurfaceIO;
@@ -101,7 +102,15 @@ public class Save_Travelpath implements OutputIntention {
             }
 
             //Create surrounding shape of contaminated areas.
-            HashMap<String, ArrayList<LineString>> map = ShapeTools.createTravelPathsToOutlet(sc.getSurface(), sc.getNetwork(), sc.getParticles());
+            HashMap<String, ArrayList<LineString>> map;
+            ParticleTraceWriter traceSink = sc.getTraceSink();
+            if (traceSink != null) {
+                //Traces were streamed to a file during the simulation
+                traceSink.flush();
+                map = ShapeTools.createTravelPathsToOutlet(sc.getNetwork(), traceSink.getFile());
+            } else {
+                map = ShapeTools.createTravelPathsToOutlet(sc.getSurface(), sc.getNetwork(), sc.getParticles());
+            }
             String name = "Travelpaths" + (materialIndex < 0 ? "_all" : "_" + materialName);
 
             HashMap<String, ArrayList<LineString>> savemap = new HashMap<>(map.size());
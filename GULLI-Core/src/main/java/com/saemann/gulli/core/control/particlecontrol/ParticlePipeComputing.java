@@ -24,8 +24,8 @@
 package com.saemann.gulli.core.control.particlecontrol;
 
 import com.saemann.gulli.core.model.material.routing.Routing_Homogene;
+import com.saemann.gulli.core.control.SimulationConfiguration;
 import com.saemann.gulli.core.control.maths.RandomGenerator;
-import com.saemann.gulli.core.control.threads.ThreadController;
 import com.saemann.gulli.core.model.particle.HistoryParticle;
 import com.saemann.gulli.core.model.particle.Particle;
 import com.saemann.gulli.core.model.surface.Surface;
@@ -68,7 +68,7 @@ public class ParticlePipeComputing {
      * Replace Dispersion by varying advective velocity [0,1.25]*meanVelocity.
      */
 //    public static boolean useStreamlineVelocity = false;
-    protected static float sqrt2dt;
+    protected float sqrt2dt;
 
     private RandomGenerator rand;
 
@@ -93,16 +93,38 @@ public class ParticlePipeComputing {
 //    public boolean measureOnlyInDestination = true;
     public int status = -1;
 
+    /**
+     * Start of the actual simulation step [ms].
+     */
+    private long simulationTime;
+
+    /**
+     * Parameters of the simulation this module belongs to.
+     */
+    protected SimulationConfiguration config = SimulationConfiguration.fromDefaults();
+
     public ParticlePipeComputing() {
     }
 
+    public void setConfiguration(SimulationConfiguration configuration) {
+        this.config = configuration;
+    }
+
+    public SimulationConfiguration getConfiguration() {
+        return config;
+    }
+
+    public void setSimulationTime(long simulationTimeMS) {
+        this.simulationTime = simulationTimeMS;
+    }
+
     public void setSurface(Surface surf, boolean enableSpill) {
         this.surface = surf;
         ParticlePipeComputing.spillOutToSurface = enableSpill;
     }
 
     public void setDeltaTime(double deltaTime) {
-        ParticlePipeComputing.sqrt2dt = (float) Math.sqrt(2 * deltaTime);
+        this.sqrt2dt = (float) Math.sqrt(2 * deltaTime);
     }
 
     public void moveParticle(Particle p, double dt) {
@@ -110,7 +132,7 @@ public class ParticlePipeComputing {
         moveParticle5_celltransmission(p, (float) dt);
         if (p.tracing()) {
             if (p.isInPipeNetwork()) {
-                ((HistoryParticle) p).addToHistory(p.getSurrounding_actual());
+                ((HistoryParticle) p).addToHistory(p.getSurrounding_actual(), simulationTime);
             }
         }
     }
@@ -1022,7 +1044,7 @@ public class ParticlePipeComputing {
                         position1d = 0;
                         c = pipe.getEndConnection().getManhole();
                         if (p.tracing()) {
-                            ((HistoryParticle) p).addToHistory(c);
+                            ((HistoryParticle) p).addToHistory(c, simulationTime);
                         }
                     }
                 } else {
@@ -1057,7 +1079,7 @@ public class ParticlePipeComputing {
                         }
                         position1d = 0;
                         if (p.tracing()) {
-                            ((HistoryParticle) p).addToHistory(c);
+                            ((HistoryParticle) p).addToHistory(c, simulationTime);
                         }
                     } else {
                         System.out.println("  what a strange case 2 ds: " + ds + " pos1d: " + position1d + "  in " + c);
@@ -1118,11 +1140,11 @@ public class ParticlePipeComputing {
 
 //                                p.setPosition3D(tripos[0], tripos[1]);
                                 p.setOnSurface();
-                                p.toSurfaceTimestamp = ThreadController.getSimulationTimeMS();
+                                p.toSurfaceTimestamp = simulationTime;
                                 p.toSurface = mh;
 //                                p.posToSurface = (float) p.getTravelledPathLength();
                                 if (p.tracing()) {
-                                    ((HistoryParticle) p).addToHistory(mh);
+                                    ((HistoryParticle) p).addToHistory(mh, simulationTime);
                                 }
 //                                            System.out.println("Particle " + p.getId() + " spilled out to triangle " + mh.getSurfaceTriangleID());
                                 break;
@@ -1148,7 +1170,7 @@ public class ParticlePipeComputing {
 //                                        pipe.getMeasurementTimeLine().addParticle(p);
                                         ds_adv += Math.abs(pipe.getLength());
                                         if (p.tracing()) {
-                                            ((HistoryParticle) p).addToHistory(c);
+                                            ((HistoryParticle) p).addToHistory(c, simulationTime);
                                         }
                                         continue;
                                     } else {
@@ -1184,7 +1206,7 @@ public class ParticlePipeComputing {
 //                                        pipe.getMeasurementTimeLine().addParticle(p);
                                         c = pipe.getStartConnection().getManhole();
                                         if (p.tracing()) {
-                                            ((HistoryParticle) p).addToHistory(c);
+                                            ((HistoryParticle) p).addToHistory(c, simulationTime);
                                         }
                                         if (lengthtype == 0) {
                                             ds_adv += Math.abs(pipe.getLength());
@@ -1259,7 +1281,7 @@ public class ParticlePipeComputing {
                                         ds_adv += Math.abs(pipe.getLength());
                                     }
                                     if (p.tracing()) {
-                                        ((HistoryParticle) p).addToHistory(c);
+                                        ((HistoryParticle) p).addToHistory(c, simulationTime);
                                     }
                                     continue;
                                 } else {
@@ -1292,7 +1314,7 @@ public class ParticlePipeComputing {
                                         ds_adv += Math.abs(pipe.getLength());
                                     }
                                     if (p.tracing()) {
-                                        ((HistoryParticle) p).addToHistory(c);
+                                        ((HistoryParticle) p).addToHistory(c, simulationTime);
                                     }
                                     continue;
                                 } else {
@@ -1351,7 +1373,7 @@ public class ParticlePipeComputing {
             p.setPosition1d_actual(0);
             p.setVelocity1d(0);
             if (p.tracing()) {
-                ((HistoryParticle) p).addToHistory(c);
+                ((HistoryParticle) p).addToHistory(c, simulationTime);
             }
             if (c instanceof Manhole) {
                 synchronized (c) {
@@ -1430,7 +1452,7 @@ public class ParticlePipeComputing {
                 timespend = Math.abs(moved / resultVelocity);
                 remaining_dt -= timespend;
                 c = pipe.getStartConnection().getManhole();
-                if (!measureOnlyFinalCapacity) {
+                if (!config.measureOnlyFinalCapacity) {
                     pipe.getMeasurementTimeLine().addParticle(p, timespend / dt);
                 }
                 p.addMovingLength(moved);
@@ -1440,7 +1462,7 @@ public class ParticlePipeComputing {
                 timespend = Math.abs(moved / resultVelocity);
                 remaining_dt -= timespend;
                 c = pipe.getEndConnection().getManhole();
-                if (!measureOnlyFinalCapacity) {
+                if (!config.measureOnlyFinalCapacity) {
                     pipe.getMeasurementTimeLine().addParticle(p, timespend / dt);
                 }
                 p.addMovingLength(moved);
@@ -1472,8 +1494,8 @@ public class ParticlePipeComputing {
         if (c.getClass().equals(Manhole.class)) {
             position1d = 0;
             while (remaining_dt > 0) {
-                if (loops > maxloopsPerParticle) {
-                    System.out.println(p + " in " + c + " exceeded maximum number of " + maxloopsPerParticle + " loops per timestep, remain:" + remaining_dt + "\tdiffusion:" + distance_diff);
+                if (loops > config.maxloopsPerParticle) {
+                    System.out.println(p + " in " + c + " exceeded maximum number of " + config.maxloopsPerParticle + " loops per timestep, remain:" + remaining_dt + "\tdiffusion:" + distance_diff);
                     break;
                 }
                 loops++;
@@ -1484,7 +1506,7 @@ public class ParticlePipeComputing {
                         p.setPosition1d_actual(0);
                         p.setSurrounding_actual(c);
                         if (p.tracing()) {
-                            ((HistoryParticle) p).addToHistory(c);
+                            ((HistoryParticle) p).addToHistory(c, simulationTime);
                         }
                         synchronized (mh) {
                             mh.passedMass += p.getParticleMass();
@@ -1519,11 +1541,11 @@ public class ParticlePipeComputing {
 //
 //                        }
                         p.setOnSurface();
-                        p.toSurfaceTimestamp = ThreadController.getSimulationTimeMS();
+                        p.toSurfaceTimestamp = simulationTime;
                         p.toSurface = mh;
 //                        p.posToSurface = (float) p.getTravelledPathLength();
                         if (p.tracing()) {
-                            ((HistoryParticle) p).addToHistory(mh);
+                            ((HistoryParticle) p).addToHistory(mh, simulationTime);
                         }
                         break;
                     } else if (connection.getClass().equals(Manhole_SurfaceBucket.class)) {
@@ -1532,11 +1554,11 @@ public class ParticlePipeComputing {
                         c = connection.getConnectedCapacity();
                         p.setPosition3D(mh.getPosition3D(0));
 
-                        p.toSurfaceTimestamp = ThreadController.getSimulationTimeMS();
+                        p.toSurfaceTimestamp = simulationTime;
                         p.toSurface = mh;
 //                        p.posToSurface = (float) p.getTravelledPathLength();
                         if (p.tracing()) {
-                            ((HistoryParticle) p).addToHistory(mh);
+                            ((HistoryParticle) p).addToHistory(mh, simulationTime);
                         }
                         break;
                     }
@@ -1567,7 +1589,7 @@ public class ParticlePipeComputing {
                         neuePosition = 0;
                         c = pipe.getStartConnection().getManhole();
                         //if (moved > 0) {
-                        if (!measureOnlyFinalCapacity) {
+                        if (!config.measureOnlyFinalCapacity) {
                             pipe.getMeasurementTimeLine().addParticle(p, timespend / dt);
                         }
                         // }
@@ -1580,9 +1602,9 @@ public class ParticlePipeComputing {
                         c = pipe.getEndConnection().getManhole();
                         neuePosition = 0;
                         if (p.tracing()) {
-                            ((HistoryParticle) p).addToHistory(c);
+                            ((HistoryParticle) p).addToHistory(c, simulationTime);
                         }
-                        if (!measureOnlyFinalCapacity) {
+                        if (!config.measureOnlyFinalCapacity) {
                             pipe.getMeasurementTimeLine().addParticle(p, timespend / dt);
                         }
                     } else {
@@ -1591,7 +1613,7 @@ public class ParticlePipeComputing {
                         timespend = Math.abs(moved / resultVelocity);
                         remaining_dt -= timespend;
                         remaining_dt = 0;
-                        if (!measureOnlyFinalCapacity) {
+                        if (!config.measureOnlyFinalCapacity) {
                             pipe.getMeasurementTimeLine().addParticle(p, timespend / dt);
                         } else {
                             pipe.getMeasurementTimeLine().addParticle(p, dt);
@@ -91,10 +91,11 @@ public class ParticleSoilComputing {
     public void moveParticle(Particle p) {
         Coordinate c = p.getPosition3d();
 
-        int index = underground.getNearestCoordinateIndex(c);
+        int index = underground.getNearestCoordinateIndex(c, p.soilNodeIndex);
         if (index < 0) {
             System.out.println("no near coordinate found for " + c);
         }
+        p.soilNodeIndex = index;
         float[] velocity = underground.velocity[0][index];
         double tx = c.x + velocity[0] * deltaTime;
         double ty = c.y + velocity[1] * deltaTime;
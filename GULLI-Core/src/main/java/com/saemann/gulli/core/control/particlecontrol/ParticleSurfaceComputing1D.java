@@ -48,6 +48,11 @@ public class ParticleSurfaceComputing1D implements ParticleSurfaceComputing {
 
     protected Surface surface;
 
+    /**
+     * Start of the actual simulation step [ms].
+     */
+    private long simulationtime;
+
     /**
      * A random variable to generate decisions. Should be reset at each new
      * start of a simulation.
@@ -177,7 +182,7 @@ public class ParticleSurfaceComputing1D implements ParticleSurfaceComputing {
                     //Particle measurement has moved to sync thread.
                     if (p.tracing()) {
 //                        status = 36;
-                        ((HistoryParticle) p).addToHistory(triangle);
+                        ((HistoryParticle) p).addToHistory(triangle, simulationtime);
                     }
                 }
                 p.setSurrounding_actual(triangle);
@@ -194,7 +199,7 @@ public class ParticleSurfaceComputing1D implements ParticleSurfaceComputing {
         for (int i = 0; i < 10; i++) {
             SurfaceTriangle triangle = (SurfaceTriangle) p.getSurrounding_actual();
 
-            surface.getMeasurementRaster().measureParticle(ThreadController.getSimulationTimeMS(), p, 1, 0);
+            surface.getMeasurementRaster().measureParticle(simulationtime, p, 1, 0);
 
 //            if (triangle.measurement != null) {
 //                triangle.measurement.measureParticle(ThreadController.getSimulationTimeMS(), p);
@@ -222,7 +227,7 @@ public class ParticleSurfaceComputing1D implements ParticleSurfaceComputing {
 //                    status = 8;
                             //Create Shortcut
                             if (p.toSurface != null) {
-                                surface.addStatistic(p, ((Manhole) p.toSurface).getSurfaceTriangleID(), inlet, null, ThreadController.getSimulationTimeMS() - p.toSurfaceTimestamp);
+                                surface.addStatistic(p, ((Manhole) p.toSurface).getSurfaceTriangleID(), inlet, null, simulationtime - p.toSurfaceTimestamp);
                             }
 //                    Shortcut sc = new Shortcut(p.toSurface, triangle, inlet.getNetworkCapacity().getStatusTimeLine().container.getActualTime() - p.toSurfaceTimestamp);
 //                    p.usedShortcuts.add(sc);
@@ -247,7 +252,7 @@ public class ParticleSurfaceComputing1D implements ParticleSurfaceComputing {
                     p.toPipenetwork = m;
 
                     if (p.toSurface != null) {
-                        surface.addStatistic(p, ((Manhole) p.toSurface).getSurfaceTriangleID(), null, m, ThreadController.getSimulationTimeMS() - p.toSurfaceTimestamp);
+                        surface.addStatistic(p, ((Manhole) p.toSurface).getSurfaceTriangleID(), null, m, simulationtime - p.toSurfaceTimestamp);
                     }
 //                    status = 10;
                     return;
@@ -295,7 +300,7 @@ public class ParticleSurfaceComputing1D implements ParticleSurfaceComputing {
 //                    triangle.pariclecount[p.getMaterial().surfaceCountIndex]++;
                     //Particle measurement has moved to sync thread
                     if (p.tracing()) {
-                        ((HistoryParticle) p).addToHistory(tri);
+                        ((HistoryParticle) p).addToHistory(tri, simulationtime);
                     }
                 }
                 p.setSurrounding_actual(tri);
@@ -362,6 +367,7 @@ public class ParticleSurfaceComputing1D implements ParticleSurfaceComputing {
 
     @Override
     public void setActualSimulationTime(long timeMS) {
+        this.simulationtime = timeMS;
     }
 
 }
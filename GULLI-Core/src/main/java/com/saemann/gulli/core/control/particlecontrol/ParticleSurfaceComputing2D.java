@@ -23,9 +23,9 @@
  */
 package com.saemann.gulli.core.control.particlecontrol;
 
+import com.saemann.gulli.core.control.SimulationConfiguration;
 import com.saemann.gulli.core.control.maths.GeometryTools;
 import com.saemann.gulli.core.control.maths.RandomGenerator;
-import com.saemann.gulli.core.control.threads.ThreadController;
 import com.saemann.gulli.core.model.material.dispersion.surface.Dispersion2D_Dispersivity;
 import com.saemann.gulli.core.model.particle.HistoryParticle;
 import java.text.DecimalFormat;
@@ -135,7 +135,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
      */
     public static boolean blockVerySlow = true;
 
-    public static float minimumDistanceBeforeBlock = (float) (dryFlowVelocity * 1 * 0.0001);
+    private float minimumDistanceBeforeBlock = (float) (dryFlowVelocity * 1 * 0.0001);
 
     /**
      * if true, the particle is moving with gradient flow and can enter dry
@@ -180,6 +180,12 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
     };
     public static TIMEINTEGRATION timeIntegration = TIMEINTEGRATION.STEPSPLICIT;
 
+    /**
+     * Parameters of the simulation this module belongs to. Initialized with
+     * the static default values above.
+     */
+    protected SimulationConfiguration config;
+
     /**
      * actual timeindex for the particle in loop. A sub-step time of the
      * surface's snapshots. Used for more accurate interpolation if timesteps
@@ -252,6 +258,21 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
     public ParticleSurfaceComputing2D(Surface surface, int threadIndex) {
         this.surface = surface;
         this.threadindex = threadIndex;
+        setConfiguration(SimulationConfiguration.fromDefaults());
+    }
+
+    /**
+     * Set the parameters to use for the following particle movements.
+     *
+     * @param configuration
+     */
+    public void setConfiguration(SimulationConfiguration configuration) {
+        this.config = configuration;
+        minimumDistanceBeforeBlock = (float) (config.dryFlowVelocity * dt * 0.0001);
+    }
+
+    public SimulationConfiguration getConfiguration() {
+        return config;
     }
 
 //    public void setDiffusionCalculation(Dispersion2D_Constant D) {
@@ -278,11 +299,11 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
         if (surface == null) {
             return;
         }
-        if (null == timeIntegration) {
+        if (null == config.timeIntegration) {
             surfaceTimeIndexDoubleStart = surface.getActualTimeIndex_double();
             surfaceTimeIndexDoubleEnd = surfaceTimeIndexDoubleStart;
         } else {
-            switch (timeIntegration) {
+            switch (config.timeIntegration) {
                 case CRANKNICOLSON:
                     surfaceTimeIndexDoubleStart = surface.getActualTimeIndex_double();
                     surfaceTimeIndexDoubleEnd = surface.getTimes().getTimeIndexDouble((long) (simulationtime + dt * 1000));
@@ -330,13 +351,13 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
 
         if (p.tracing() && p.isOnSurface()) {
             if (posxalt != posxneu) {
-                if (Math.abs(posxneu - ((HistoryParticle) p).getLastUTMX()) > minTraceDistance || Math.abs(posyneu - ((HistoryParticle) p).getLastUTMy()) > minTraceDistance) {
+                if (Math.abs(posxneu - ((HistoryParticle) p).getLastUTMX()) > config.minTraceDistance || Math.abs(posyneu - ((HistoryParticle) p).getLastUTMy()) > config.minTraceDistance) {
                     tempProjection[0] = posxneu;
                     tempProjection[1] = posyneu;
 
                     try {
                         surface.getGeotools().toGlobal(tempProjection, tempProjection, true);
-                        ((HistoryParticle) p).addToHistory(new Coordinate(tempProjection[0], tempProjection[1]), posxneu, posyneu);
+                        ((HistoryParticle) p).addToHistory(new Coordinate(tempProjection[0], tempProjection[1]), posxneu, posyneu, simulationtime);
                     } catch (TransformException ex) {
                         Logger.getLogger(ParticleSurfaceComputing2D.class.getName()).log(Level.SEVERE, null, ex);
                     }
@@ -355,7 +376,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
      * @return false if particle does not move;
      */
     public boolean calcPrePosition(Particle p, float timeLeft, float dt) {
-        switch (timeIntegration) {
+        switch (config.timeIntegration) {
             case CRANKNICOLSON:
                 surface.getTriangleVelocity(cellID, surfaceTimeIndexDoubleStart, tempVelocityD);
                 surface.getTriangleVelocity(cellID, surfaceTimeIndexDoubleEnd, tempVelocityD2);
@@ -388,10 +409,10 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
 
         if (p.getMaterial().getDispersionCalculatorSurface() != null) {
             // calculate with diffusion 
-            if (totalvelocity < dryFlowVelocity) {
-                if (gradientFlowForDryCells) {
+            if (totalvelocity < config.dryFlowVelocity) {
+                if (config.gradientFlowForDryCells) {
                     gradientFlowstateActual = true;
-                    totalvelocity = dryFlowVelocity;
+                    totalvelocity = config.dryFlowVelocity;
                     particlevelocity[0] = surface.getTriangle_downhilldirection()[cellID][0] * totalvelocity;
                     particlevelocity[1] = surface.getTriangle_downhilldirection()[cellID][1] * totalvelocity;
                     if (Double.isNaN(surface.getTriangle_downhilldirection()[cellID][0])) {
@@ -431,7 +452,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                 }
 
                 // random walk step
-                if (decoupledDispersivity) {
+                if (config.decoupledDispersivity) {
                     Dispersion2D_Dispersivity f = (Dispersion2D_Dispersivity) p.getMaterial().getDispersionCalculatorSurface();
 
                     dx = Math.sqrt(2 * particlevelocity[0] * f.getLongitudinalDispersivity() * dt) * z1 + Math.sqrt(2 * particlevelocity[1] * f.getTransversalDispersivity() * dt) * z2;
@@ -459,10 +480,10 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
             }
         } else {
             //No diffusion/dispersion
-            if (totalvelocity < dryFlowVelocity) {
-                if (gradientFlowForDryCells) {
+            if (totalvelocity < config.dryFlowVelocity) {
+                if (config.gradientFlowForDryCells) {
                     gradientFlowstateActual = true;
-                    totalvelocity = dryFlowVelocity;
+                    totalvelocity = config.dryFlowVelocity;
                     particlevelocity[0] = surface.getTriangle_downhilldirection()[cellID][0] * totalvelocity;
                     particlevelocity[1] = surface.getTriangle_downhilldirection()[cellID][1] * totalvelocity;
                 }
@@ -498,7 +519,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
         gradientFlowstateActual = false;
         while (timeLeft > 0) {
             loopcounter++;
-            if (loopcounter > maxNumberOfIterationLoops) {
+            if (loopcounter > config.maxNumberOfIterationLoops) {
                 if (verbose) {
                     System.out.println("exceeded max loops (" + loopcounter + ") for particle " + p.getId() + " in cell " + cellID + " V=" + totalvelocity + "\t time left:" + timeLeft + "\t status=" + status + "  lengthfactor=" + lengthfactor + " \tvstatus:" + vstatus + "  projecting?" + isprojecting);
                 }
@@ -513,7 +534,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                     }
                     return;
                 }
-                if (gridFree) {
+                if (config.gridFree) {
                     p.setPosition3D(posxneu, posyneu);
                     return;
                 }
@@ -534,7 +555,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
             if (temp_barycentricWeights[0] > 0 && temp_barycentricWeights[1] > 0 && temp_barycentricWeights[2] > 0) {
                 //Stays inside this cell
                 p.surfaceCellID = cellID;
-                if (allowWashToPipesystem) {
+                if (config.allowWashToPipesystem) {
                     washToPipesystem(p, cellID);
                 }
                 break;
@@ -584,7 +605,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                     posxneu = surface.getTriangleMids()[cellID][0];
                     posyneu = surface.getTriangleMids()[cellID][1];
                 }
-                if (allowWashToPipesystem) {
+                if (config.allowWashToPipesystem) {
                     washToPipesystem(p, cellID);
                 }
 //                status = 30;
@@ -596,7 +617,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                 if (cellIDnew >= 0) {
 //                    status = 1;
 //                    test for velocity in this cell
-                    if (preventEnteringDryCell && !gradientFlowstateActual) {
+                    if (config.preventEnteringDryCell && !gradientFlowstateActual) {
 //                        status=11;
                         int timeIndex = surface.getTimeIndex((long) (surface.getActualTime() + (dt - timeLeft) * 1000));
                         tempVelocity = surface.getTriangleVelocity(cellIDnew, timeIndex);
@@ -608,7 +629,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                             if (tempVelocity[0] == 0 && tempVelocity[1] == 0) {
                                 //PArticle tries to move over the edge to a cell where it will get stuck
 //                                status=13;
-                                if (slidealongEdges) {
+                                if (config.slidealongEdges) {
 //                                    status=14;
                                     double f;
                                     //Detect the edge and project the a-priori position back onto the edge.
@@ -718,7 +739,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                         surface.getMeasurementRaster().measureParticle(simulationtime, p, lengthfactor * timeLeft, threadindex);
                     }
                     timeLeft *= (1. - lengthfactor);
-                    if (allowWashToPipesystem) {
+                    if (config.allowWashToPipesystem) {
                         if (washToPipesystem(p, cellIDnew)) {
                             return;
                         }
@@ -741,7 +762,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                     }
                     cellID = cellIDnew;
                     if (cellIDnew == oldCellID1 || cellID == oldCellID2) {
-                        if (blockVerySlow) {
+                        if (config.blockVerySlow) {
                             p.blocked = true;
                             p.blockVelocity = totalvelocity;
                         }
@@ -767,7 +788,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                         return;
                     }
                     //PArticle tries to move over the edge into an undefined area
-                    if (slidealongEdges && !isprojecting) {
+                    if (config.slidealongEdges && !isprojecting) {
                         double f;
                         if (bwindex == 0) {
                             f = GeometryTools.projectPointToLine(posxneu, posyneu, vertex1[0], vertex1[1], vertex2[0], vertex2[1], tempProjection);
@@ -880,7 +901,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
         gradientFlowstateActual = false;
         while (timeLeft > 0) {
             loopcounter++;
-            if (loopcounter > maxNumberOfIterationLoops) {
+            if (loopcounter > config.maxNumberOfIterationLoops) {
                 if (verbose) {
                     System.out.println("exceeded max loops (" + loopcounter + ") for particle " + p.getId() + " in cell " + cellID + "  to Cell " + cellIDnew + " came from cell " + p.surfaceCellID + " V=" + totalvelocity + "\t time left:" + timeLeft + "\t status=" + status + "  lengthfactor=" + lengthfactor + " \tvstatus:" + vstatus + "  " + (isprojecting ? "projecting " : "") + (zigzag ? "zigzag" : ""));
                 }
@@ -896,12 +917,12 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                     return;
                 }
 
-                if (gridFree) {
+                if (config.gridFree) {
                     p.setPosition3D(posxneu, posyneu);
                     return;
                 }
             }
-            if (blockVerySlow) {
+            if (config.blockVerySlow) {
                 internal.checkBlocked(p);
             } else if (p.blocked) {
                 p.blocked = false;
@@ -916,7 +937,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
             if (temp_barycentricWeights[0] > 0 && temp_barycentricWeights[1] > 0 && temp_barycentricWeights[2] > 0) {
                 //Stays inside this cell
                 p.surfaceCellID = cellID;
-                if (allowWashToPipesystem) {
+                if (config.allowWashToPipesystem) {
                     surface.getMeasurementRaster().measureParticle(simulationtime, p, lengthfactor * timeLeft, threadindex);
                     washToPipesystem(p, cellID);
                 }
@@ -945,7 +966,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                 //No intersection. Particle can stay inside this cell.
                 //But Barycentric weighting said, it is outside the cell.
 
-                if (allowWashToPipesystem) {
+                if (config.allowWashToPipesystem) {
                     if (washToPipesystem(p, cellID)) {
                         //true-> was washed to pipe system. no more surface caculation needed.
                         return;
@@ -966,7 +987,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
 
 //                      status=2;
                 if (cellIDnew >= 0) {
-                    if (meanVelocityAtZigZag) {
+                    if (config.meanVelocityAtZigZag) {
                         if ((cellIDnew == oldCellID1 || cellIDnew == oldCellID2)) {
                             internal.zigzagMovement();
                             //This can be handled in the next loop
@@ -981,7 +1002,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                     }
 //                    status = 1;
 //                    test for velocity in the new cell
-                    if (preventEnteringDryCell && !gradientFlowstateActual) {
+                    if (config.preventEnteringDryCell && !gradientFlowstateActual) {
 //                        status=11;
                         internal.calcNeighbourVelocity();
                         if (internal.isDry()) {
@@ -993,7 +1014,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                             if (!gradientFlowstateActual/*tempVelocity[0] == 0 && tempVelocity[1] == 0*/) {
                                 //PArticle tries to move over the edge to a cell where it will get stuck
 //                                status=13;
-                                if (slidealongEdges) {
+                                if (config.slidealongEdges) {
 //                                    status=14;
 
                                     //Detect the edge and project the a-priori position back onto the edge.
@@ -1003,7 +1024,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                                             //Both edges are inpermeable. Stay in the edge of this triangle
                                             posxneu = tempPosLow[0] * 0.99 + 0.01 * surface.getTriangleMids()[cellID][0];
                                             posyneu = tempPosLow[1] * 0.99 + 0.01 * surface.getTriangleMids()[cellID][1];
-                                            if (blockVerySlow) {
+                                            if (config.blockVerySlow) {
                                                 p.blocked = true;
                                                 p.blockVelocity = totalvelocity;//testVelocity(particlevelocity);
                                             }
@@ -1033,7 +1054,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                                             //Both edges are inpermeable. Stay in the edge of this triangle
                                             posxneu = tempPosUp[0] * 0.99 + 0.01 * surface.getTriangleMids()[cellID][0];
                                             posyneu = tempPosUp[1] * 0.99 + 0.01 * surface.getTriangleMids()[cellID][1];
-                                            if (blockVerySlow) {
+                                            if (config.blockVerySlow) {
                                                 p.blocked = true;
                                                 p.blockVelocity = totalvelocity;//testVelocity(particlevelocity);
                                             }
@@ -1062,7 +1083,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                                         posyneu = tempProjection[1] * 0.99 + 0.01 * surface.getTriangleMids()[cellID][1];
                                         p.surfaceCellID = cellID;
                                         p.setPosition3D(posxneu, posyneu);
-                                        if (blockVerySlow) {
+                                        if (config.blockVerySlow) {
                                             p.blocked = true;
                                             p.blockVelocity = totalvelocity;//testVelocity(particlevelocity);
                                         }
@@ -1123,7 +1144,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                         surface.getMeasurementRaster().measureParticle(simulationtime, p, lengthfactor * timeLeft, threadindex);
                     }
                     timeLeft *= (1. - lengthfactor);
-                    if (allowWashToPipesystem) {
+                    if (config.allowWashToPipesystem) {
                         if (washToPipesystem(p, cellIDnew)) {
                             return;
                         }
@@ -1164,7 +1185,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                         return;
                     }
                     //PArticle tries to move over the edge into an undefined area
-                    if (slidealongEdges && !isprojecting) {
+                    if (config.slidealongEdges && !isprojecting) {
                         internal.projectToEdge();
                         if (f < 0) {
                             cellIDnew = surface.getNeighbours()[cellID][(bwindex + 2) % 3];
@@ -1235,7 +1256,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
             posyneu = surface.getTriangleMids()[cellID][1];
         }
         p.setPosition3D(posxneu, posyneu);
-        if (blockVerySlow && gradientFlowstateActual) {
+        if (config.blockVerySlow && gradientFlowstateActual) {
             if (!wasInFreeflow) {//If the particle is almost immobile, skip the continuous calculation and park it in blocking state
                 if (startCellID == cellID) {
                     if (Math.abs(posxneu - posxalt) + Math.abs(posyalt - posyneu) < minimumDistanceBeforeBlock) {
@@ -1339,12 +1360,12 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
 //        }
 //        double u = Math.abs(particlevelocity[0]) + Math.abs(particlevelocity[1]);
         totalvelocity = Math.sqrt((particlevelocity[0] * particlevelocity[0]) + (particlevelocity[1] * particlevelocity[1]));
-        if (totalvelocity > maxVelocity) {
+        if (totalvelocity > config.maxVelocity) {
             //Normalise velocity to maximum posible 5 m/s;
-            double factor = maxVelocity / totalvelocity;
+            double factor = config.maxVelocity / totalvelocity;
             particlevelocity[0] *= factor;
             particlevelocity[1] *= factor;
-            totalvelocity = maxVelocity;
+            totalvelocity = config.maxVelocity;
         }
         return totalvelocity;
     }
@@ -1375,7 +1396,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                     p.surfaceCellID = triangleID;
                     //Create Shortcut
                     if (p.toSurface != null) {
-                        surface.addStatistic(p, ((Manhole) p.toSurface).getSurfaceTriangleID(), inlet, null, ThreadController.getSimulationTimeMS() - p.toSurfaceTimestamp);
+                        surface.addStatistic(p, ((Manhole) p.toSurface).getSurfaceTriangleID(), inlet, null, simulationtime - p.toSurfaceTimestamp);
                     }
                     return true;
                 }
@@ -1394,7 +1415,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
                 p.lastSurfaceCellID = triangleID;
                 p.surfaceCellID = triangleID;
                 if (p.toSurface != null) {
-                    surface.addStatistic(p, ((Manhole) p.toSurface).getSurfaceTriangleID(), null, m, ThreadController.getSimulationTimeMS() - p.toSurfaceTimestamp);
+                    surface.addStatistic(p, ((Manhole) p.toSurface).getSurfaceTriangleID(), null, m, simulationtime - p.toSurfaceTimestamp);
                 }
                 return true;
             }
@@ -1411,7 +1432,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
         this.dt = (float) seconds;
 
         this.sqrt2dt = (float) Math.sqrt(2 * dt);
-        minimumDistanceBeforeBlock = (float) (dryFlowVelocity * dt * 0.0001);
+        minimumDistanceBeforeBlock = (float) (config.dryFlowVelocity * dt * 0.0001);
     }
 
     @Override
@@ -1629,7 +1650,7 @@ public class ParticleSurfaceComputing2D implements ParticleSurfaceComputing {
         }
 
         public boolean isDry() {
-            return totalNeighbourVelocity == 0 || Math.sqrt(totalNeighbourVelocity) <= dryFlowVelocity;
+            return totalNeighbourVelocity == 0 || Math.sqrt(totalNeighbourVelocity) <= config.dryFlowVelocity;
         }
 
         public void projectToEdge() {
@@ -62,6 +62,7 @@ public class Setup {
 
     protected double surfaceMeasurementtimestep = 300;
     protected boolean surfaceMeasurementSynchronize = true;
+    protected boolean surfaceMeasurementThreadLocal = false;
     protected boolean surfaceMeasurementTimeContinuous = true;
     protected boolean surfaceMeasurementSpatialConsistent = true;
     protected SurfaceMeasurementRaster surfaceMeasurementRasterClass;
@@ -172,6 +173,20 @@ public class Setup {
         this.surfaceMeasurementSynchronize = surfaceMeasurementSynchronize;
     }
 
+    /**
+     * Particle threads collect surface samples in their own buffer, which are
+     * merged in the synchronization step.
+     *
+     * @return
+     */
+    public boolean isSurfaceMeasurementThreadLocal() {
+        return surfaceMeasurementThreadLocal;
+    }
+
+    public void setSurfaceMeasurementThreadLocal(boolean surfaceMeasurementThreadLocal) {
+        this.surfaceMeasurementThreadLocal = surfaceMeasurementThreadLocal;
+    }
+
     public boolean isSurfaceMeasurementTimeContinuous() {
         return surfaceMeasurementTimeContinuous;
     }
@@ -1,15 +1,18 @@
 package com.saemann.gulli.core.control.threads;
 
 import java.util.ArrayList;
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.CyclicBarrier;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * An object, that is notified when a thread has finished its job.
+ * Barrier for the ParticleThreads. All threads arrive at a Phaser after their
+ * loop. The last arriving thread executes the barrier action
+ * {@link ThreadController#finishedLoop(ThreadBarrier)} before any thread is
+ * released. If the controller calls {@link #startover()} during the barrier
+ * action, the threads directly continue with the next loop. Otherwise they
+ * wait at the start gate until the simulation is started again.
  *
  * @author saemann
  * @param <T>
@@ -20,97 +23,76 @@ public class MultiThreadBarrier<T extends Thread> extends ThreadBarrier<T> {
 
     public int status;
 
-    public int finished = 0;
+    private final Phaser phaser;
 
-    private final Lock lock = new ReentrantLock();
-    private final String waitObject = new String();
+    /**
+     * Monitor of the start gate. The gate is open, if released is true.
+     */
+    private final Object gate = new Object();
+    private boolean released = false;
 
-    private int numberOfThreads=0;
-//    private CyclicBarrier cyclicbarrier;
-//    private int maxIndexofParticlethreads = 0;
+    private final AtomicInteger initializedThreads = new AtomicInteger(0);
+
+    private int numberOfThreads = 0;
 
     public MultiThreadBarrier(String name, ThreadController controller) {
         super(name, controller);
         threads = new ArrayList<>(2);
-//        cyclicbarrier = new CyclicBarrier(controller.getParticleThreads().length, this);
+        phaser = new Phaser() {
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                //Close the gate before the controller decides to start over.
+                synchronized (gate) {
+                    released = false;
+                }
+                try {
+                    notifyWhenReady.finishedLoop(MultiThreadBarrier.this);
+                } catch (Exception exception) {
+                    exception.printStackTrace();
+                }
+                //Never terminate the phaser.
+                return false;
+            }
+        };
     }
 
     @Override
     public void loopfinished(T finishedThread) {
+        phaser.arriveAndAwaitAdvance();
+        awaitStart();
+    }
 
-//        try {
-//            if(cyclicbarrier.getNumberWaiting()==maxIndexofParticlethreads){
-//                notifyWhenReady.finishedLoop(this);
-//            }
-//            int index=cyclicbarrier.await();
-//            System.out.println(" stop as thread nr "+index+": "+finishedThread.getName());
-//            if(cyclicbarrier.await()==maxIndexofParticlethreads){
-////                
-//            }
-//            System.out.println("loop :"+notifyWhenReady.getSteps()+"  "+finishedThread.getName());
-        try {
-            lock.lock();
-            finished++;
-            if (finished >= numberOfThreads) {
-                //Last thread has to call the accomplished!-function
-                notifyWhenReady.finishedLoop(this);
-            } //else Not all are ready yet, This Thread now should fall asleep
-
-        } catch (Exception exception) {
-            exception.printStackTrace();
-        } finally {
-            
-        }
-        synchronized (waitObject) {
-            lock.unlock();
-            try {
-                waitObject.wait();
-            } catch (InterruptedException ex) {
-                Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Waits until the start gate is opened by {@link #startover()}.
+     */
+    private void awaitStart() {
+        synchronized (gate) {
+            while (!released) {
+                try {
+                    gate.wait();
+                } catch (InterruptedException ex) {
+                    Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
+                    return;
+                }
             }
         }
-
-////        status = 11;
-//        } catch (InterruptedException ex) {
-//            Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (BrokenBarrierException ex) {
-//            Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
-//        }
     }
 
     public void addThread(T thread) {
         this.threads.add(thread);
-        numberOfThreads=threads.size();
-//        maxIndexofParticlethreads = threads.size() - 1;
-//        cyclicbarrier = new CyclicBarrier(this.threads.size() + 1, this);
+        numberOfThreads = threads.size();
+        phaser.register();
     }
 
+    /**
+     * Opens the start gate. Waiting threads start their next loop.
+     */
     @Override
     public void startover() {
-
-//        status = 100;
-//        try {
-//            System.out.println("start as thread nr "+cyclicbarrier.await());
-        lock.lock();
-        try {
-            synchronized (waitObject) {
-//                status = 101;
-                finished = 0;
-//                status = 102;
-                waitObject.notifyAll();
-//                status = 103;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            lock.unlock();
+        synchronized (gate) {
+            released = true;
+            gate.notifyAll();
         }
-//        } catch (InterruptedException ex) {
-//            Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (BrokenBarrierException ex) {
-//            Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
-//        }
-
     }
 
     @Override
@@ -123,7 +105,7 @@ public class MultiThreadBarrier<T extends Thread> extends ThreadBarrier<T> {
             try {
                 thread.start();
             } catch (Exception e) {
-                System.err.println("State (" + this.name + "){finished " + finished + "/" + threads.size() + "}=" + thread.getState());
+                System.err.println("State (" + this.name + "){arrived " + phaser.getArrivedParties() + "/" + threads.size() + "}=" + thread.getState());
             }
         }
     }
@@ -132,55 +114,46 @@ public class MultiThreadBarrier<T extends Thread> extends ThreadBarrier<T> {
         return this.threads;
     }
 
+    /**
+     * Number of threads, that have already finished the current loop.
+     *
+     * @return
+     */
+    public int getNumberOfFinishedThreads() {
+        return phaser.getArrivedParties();
+    }
+
+    /**
+     * Number of completed loops.
+     *
+     * @return
+     */
+    public int getPhase() {
+        return phaser.getPhase();
+    }
+
     @Override
     public void initialized(T itsMe) {
-//        try {
-            if (isinitialized) {
-                //a newly created Thread was added. it can directly proceed to the barrier
-                loopfinished(itsMe);
-                return;
-            }
-//            System.out.println(" initstop as thread nr "+cyclicbarrier.await()+": "+itsMe.getName());
-//            lock.lockInterruptibly();
-            try {
-                synchronized (waitObject) {
-                    //Check if this is the last Thread that finished initialization.
-                    for (T value : threads) {
-                        if (value != itsMe && value.getState() != Thread.State.WAITING) {
-                            try {
-                                //Not ready yet, This Thread now should fall asleep
-                                waitObject.wait();
-                            } catch (InterruptedException ex) {
-                                Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
-                            }
-                            return;
-                        }
-                    }
-                    isinitialized = true;
-                    //Notify threadcontroller : all threads on this barrier have been initialized.
-                    notifyWhenReady.initializingFinished(this);
-                    try {
-                        waitObject.wait();
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-//                lock.unlock();
-            }
-//        } catch (InterruptedException ex) {
-//            Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
-//        } 
-//        catch (BrokenBarrierException ex) {
-//            Logger.getLogger(MultiThreadBarrier.class.getName()).log(Level.SEVERE, null, ex);
-//        }
+        if (isinitialized) {
+            //a newly created Thread was added. it can directly proceed to the barrier
+            loopfinished(itsMe);
+            return;
+        }
+        if (initializedThreads.incrementAndGet() >= numberOfThreads) {
+            isinitialized = true;
+            //Notify threadcontroller : all threads on this barrier have been initialized.
+            notifyWhenReady.initializingFinished(this);
+        }
+        awaitStart();
     }
 
     @Override
     public String toString() {
-        return getClass().getSimpleName() + "{" + name + "," + threads.size() + " Threads, Status=" + status + ",finished " + finished + "/" + threads.size() + ", locked:" + ((ReentrantLock) lock).isLocked() + "}";
+        boolean open;
+        synchronized (gate) {
+            open = released;
+        }
+        return getClass().getSimpleName() + "{" + name + "," + threads.size() + " Threads, Status=" + status + ",finished " + phaser.getArrivedParties() + "/" + threads.size() + ", phase:" + phaser.getPhase() + ", gate " + (open ? "open" : "closed") + "}";
     }
 
 }
@@ -0,0 +1,286 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.control.threads;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out blocks of particle indices to the ParticleThreads without a
+ * central lock. The particle array is split into blocks of a fixed size. Block
+ * k always covers the particles [k*blocksize, (k+1)*blocksize) and is always
+ * calculated with the random number generator k, independent of the thread
+ * that processes it.
+ *
+ * At the beginning of a step every thread receives a contiguous range of
+ * blocks in its own deque. The owner takes blocks from the head of its deque,
+ * idle threads steal the upper half from the tail of another thread's deque.
+ * The number of blocks taken from the own deque in one claim adapts to the
+ * measured calculation time per block, so that a claim takes about
+ * {@link #targetClaimNanos}.
+ *
+ * @author saemann
+ */
+public class ParticleBlockScheduler {
+
+    /**
+     * Distance of deque entries in the atomic array to keep the entries of
+     * different threads on separate cache lines.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * Packed [head|tail] block indices of each thread's deque.
+     */
+    private final AtomicLongArray deques;
+
+    private final Worker[] workers;
+
+    private final int numberOfThreads;
+
+    private int blocksize = 1000;
+
+    private int particleLimit = 0;
+
+    private int numberOfBlocks = 0;
+
+    /**
+     * Calculation time (nanoseconds) that one claim of blocks from the own
+     * deque should last.
+     */
+    public long targetClaimNanos = 2000000;
+
+    /**
+     * Maximum number of blocks taken from the own deque in one claim.
+     */
+    public int maxClaimBlocks = 64;
+
+    /**
+     * Thread local state. Only accessed by the owning thread during a step.
+     */
+    private static class Worker {
+
+        /**
+         * Next block to process and end (exclusive) of the claimed blocks.
+         */
+        int next, end;
+        /**
+         * Timestamp when the last block was handed out.
+         */
+        long lastHandout;
+        /**
+         * Smoothed calculation time per block in nanoseconds.
+         */
+        long nanosPerBlock;
+        /**
+         * Number of blocks this worker stole in the current step.
+         */
+        int steals;
+    }
+
+    public ParticleBlockScheduler(int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+        this.deques = new AtomicLongArray(this.numberOfThreads * PADDING);
+        this.workers = new Worker[this.numberOfThreads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+        }
+    }
+
+    /**
+     * Distributes the particles [0,particleLimit) to the deques of all
+     * threads. Must only be called while no ParticleThread is calculating.
+     *
+     * @param particleLimit index of the first particle (exclusive) to be
+     * processed in this step.
+     * @param blocksize number of particles per block.
+     */
+    public void prepareStep(int particleLimit, int blocksize) {
+        this.blocksize = Math.max(1, blocksize);
+        this.particleLimit = Math.max(0, particleLimit);
+        this.numberOfBlocks = (this.particleLimit + this.blocksize - 1) / this.blocksize;
+        for (int t = 0; t < numberOfThreads; t++) {
+            int head = (int) ((numberOfBlocks * (long) t) / numberOfThreads);
+            int tail = (int) ((numberOfBlocks * (long) (t + 1)) / numberOfThreads);
+            deques.set(t * PADDING, pack(head, tail));
+            Worker w = workers[t];
+            w.next = 0;
+            w.end = 0;
+            w.lastHandout = 0;
+            w.steals = 0;
+        }
+    }
+
+    /**
+     * Removes all outstanding blocks. Threads asking for work will be sent to
+     * the barrier.
+     */
+    public void clear() {
+        prepareStep(0, blocksize);
+    }
+
+    /**
+     * Fills the next block for the requesting thread into fromto: [0] first
+     * particle index, [1] last particle index (exclusive), [2] index of the
+     * block = index of the random number generator.
+     *
+     * @param threadIndex index of the requesting ParticleThread
+     * @param fromto array of length 3 to be filled
+     * @return false if there are no more blocks in this step.
+     */
+    public boolean nextBlock(int threadIndex, int[] fromto) {
+        Worker w = workers[threadIndex];
+        long now = System.nanoTime();
+        if (w.lastHandout > 0) {
+            long cost = now - w.lastHandout;
+            if (w.nanosPerBlock <= 0) {
+                w.nanosPerBlock = cost;
+            } else {
+                w.nanosPerBlock = (3 * w.nanosPerBlock + cost) / 4;
+            }
+        }
+        if (w.next >= w.end) {
+            if (!claimOwn(threadIndex, w) && !steal(threadIndex, w)) {
+                w.lastHandout = 0;
+                return false;
+            }
+        }
+        int block = w.next++;
+        fromto[0] = block * blocksize;
+        fromto[1] = Math.min(fromto[0] + blocksize, particleLimit);
+        fromto[2] = block;
+        w.lastHandout = now;
+        return true;
+    }
+
+    /**
+     * Number of blocks to claim from the own deque.
+     *
+     * @param w
+     * @param available blocks left in the deque
+     * @return
+     */
+    private int claimSize(Worker w, int available) {
+        int k = 1;
+        if (w.nanosPerBlock > 0) {
+            k = (int) Math.min(maxClaimBlocks, targetClaimNanos / w.nanosPerBlock);
+        }
+        //Leave the upper half to be stolen by idle threads
+        k = Math.min(k, (available + 1) / 2);
+        return Math.max(1, k);
+    }
+
+    private boolean claimOwn(int threadIndex, Worker w) {
+        int index = threadIndex * PADDING;
+        while (true) {
+            long v = deques.get(index);
+            int head = head(v), tail = tail(v);
+            if (head >= tail) {
+                return false;
+            }
+            int k = claimSize(w, tail - head);
+            if (deques.compareAndSet(index, v, pack(head + k, tail))) {
+                w.next = head;
+                w.end = head + k;
+                return true;
+            }
+        }
+    }
+
+    private boolean steal(int threadIndex, Worker w) {
+        for (int i = 1; i < numberOfThreads; i++) {
+            int index = ((threadIndex + i) % numberOfThreads) * PADDING;
+            while (true) {
+                long v = deques.get(index);
+                int head = head(v), tail = tail(v);
+                if (head >= tail) {
+                    break;
+                }
+                int s = (tail - head + 1) / 2;
+                if (deques.compareAndSet(index, v, pack(head, tail - s))) {
+                    //Stolen blocks [tail-s,tail). Keep a claim and publish the rest in the own (empty) deque.
+                    // The published head is always above an already claimed block, so a thief
+                    // holding an outdated value of this deque can never succeed with its CAS.
+                    int k = Math.min(s, claimSize(w, s));
+                    w.next = tail - s;
+                    w.end = w.next + k;
+                    w.steals += s;
+                    deques.set(threadIndex * PADDING, pack(w.end, tail));
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of blocks in the current step.
+     *
+     * @return
+     */
+    public int getNumberOfBlocks() {
+        return numberOfBlocks;
+    }
+
+    public int getBlocksize() {
+        return blocksize;
+    }
+
+    /**
+     * Number of blocks, the thread has stolen from others in this step.
+     *
+     * @param threadIndex
+     * @return
+     */
+    public int getStolenBlocks(int threadIndex) {
+        return workers[threadIndex].steals;
+    }
+
+    /**
+     * Smoothed calculation time for one block in nanoseconds, measured by the
+     * given thread.
+     *
+     * @param threadIndex
+     * @return
+     */
+    public long getNanosPerBlock(int threadIndex) {
+        return workers[threadIndex].nanosPerBlock;
+    }
+
+    private static long pack(int head, int tail) {
+        return (((long) head) << 32) | (tail & 0xFFFFFFFFL);
+    }
+
+    private static int head(long v) {
+        return (int) (v >>> 32);
+    }
+
+    private static int tail(long v) {
+        return (int) v;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" + numberOfThreads + " threads, " + numberOfBlocks + " blocks of " + blocksize + "}";
+    }
+}
@@ -1,5 +1,6 @@
 package com.saemann.gulli.core.control.threads;
 
+import com.saemann.gulli.core.control.SimulationConfiguration;
 import com.saemann.gulli.core.control.maths.RandomGenerator;
 import com.saemann.gulli.core.control.particlecontrol.ParticlePipeComputing;
 import com.saemann.gulli.core.control.particlecontrol.ParticleSurfaceComputing2D;
@@ -8,6 +9,8 @@ import com.saemann.gulli.core.control.particlecontrol.injection.PipeInjection;
 import com.saemann.gulli.core.control.particlecontrol.injection.SurfaceInjection;
 import java.util.ArrayList;
 import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.particle.ParticleStore;
+import com.saemann.gulli.core.model.particle.ParticleView;
 import com.saemann.gulli.core.model.surface.Surface;
 import com.saemann.gulli.core.model.topology.measurement.ParticleMeasurement;
 
@@ -45,11 +48,21 @@ public class ParticleThread extends Thread {
     private int from;
     private int toExcld;
     private RandomGenerator random;
+    /**
+     * Reusable particle object, if the particles are held in a ParticleStore.
+     */
+    private ParticleView view;
     
     /**
      * Simulation time step in seconds
      */
     private double deltaTime=1;
+
+    /**
+     * Phase timings of this thread. Only written if
+     * {@link SimulationProfiler#enabled}.
+     */
+    private SimulationProfiler.ThreadProfile profile;
     
 
     public ParticleThread(String string, int index, ThreadBarrier<ParticleThread> barrier) {
@@ -71,6 +84,7 @@ public class ParticleThread extends Thread {
         pc = ptOld.pc;
         surfcomp = ptOld.surfcomp;
         this.simulationTime = ptOld.simulationTime;
+        this.profile = ptOld.profile;
     }
 
     public void setDeltaTime(double seconds) {
@@ -81,6 +95,18 @@ public class ParticleThread extends Thread {
         }
     }
 
+    /**
+     * Hand the parameters of the simulation to the computing modules.
+     *
+     * @param configuration
+     */
+    public void setConfiguration(SimulationConfiguration configuration) {
+        this.pc.setConfiguration(configuration);
+        if (surfcomp != null) {
+            surfcomp.setConfiguration(configuration);
+        }
+    }
+
     public void setSurface(Surface surface) {
         this.surfcomp.setSurface(surface);
         this.pc.setSurface(surface, surface != null);
@@ -89,6 +115,7 @@ public class ParticleThread extends Thread {
     public void setSurfaceComputing(ParticleSurfaceComputing2D sc) {
         this.surfcomp = sc;
         if (surfcomp != null) {
+            surfcomp.setConfiguration(pc.getConfiguration());
             surfcomp.setDeltaTimestep(deltaTime);
         }
     }
@@ -111,18 +138,39 @@ public class ParticleThread extends Thread {
             barrier.initialized(this);
         }
         double timestep=deltaTime;
+        boolean profiling;
+        long profileStart = 0;
+        SimulationProfiler.setActiveProfile(profile);
         //if woken up start the normal loop
         while (runendless) {
-            try {                
-                fromto = threadController.getNextParticlesToTreat(fromto);
+            try {
+                profiling = SimulationProfiler.enabled;
+                if (profiling) {
+                    if (profile == null) {
+                        profile = threadController.profiler.register(getName());
+                        SimulationProfiler.setActiveProfile(profile);
+                    }
+                    profileStart = System.nanoTime();
+                }
+                fromto = threadController.getNextParticlesToTreat(threadIndex, fromto);
+                if (profiling) {
+                    profile.add(SimulationProfiler.Phase.BLOCK_SCHEDULING, System.nanoTime() - profileStart);
+                }
                 if (fromto == null || fromto[0] < 0) {
                     //finished loop fot his timestep
-                    barrier.loopfinished(this);
+                    if (profiling) {
+                        profileStart = System.nanoTime();
+                        barrier.loopfinished(this);
+                        profile.add(SimulationProfiler.Phase.BARRIER_WAIT, System.nanoTime() - profileStart);
+                    } else {
+                        barrier.loopfinished(this);
+                    }
                 } else {
                     activeCalculation=true;
                     //Got valid order to threat particles.
                     this.simulationTime = barrier.getStepStartTime();
                     this.surfcomp.setActualSimulationTime(simulationTime);
+                    this.pc.setSimulationTime(simulationTime);
                     from = fromto[0];
                     toExcld = fromto[1];
 
@@ -130,10 +178,18 @@ public class ParticleThread extends Thread {
                     this.pc.setRandomNumberGenerator(random);
                     this.surfcomp.setRandomNumberGenerator(random);
                     timestep=deltaTime;
+                    ParticleStore store = threadController.particleStore;
+                    if (store != null && (view == null || view.getStore() != store)) {
+                        view = new ParticleView(store);
+                    }
                     
                     for (int i = from; i < toExcld; i++) {
                         try {
-                            p = threadController.particles[i];
+                            if (store != null) {
+                                p = store.get(i, view);
+                            } else {
+                                p = threadController.particles[i];
+                            }
                         } catch (Exception e) {
                             System.err.println("tc:" + threadController);
                             if (threadController.particles == null) {
@@ -151,6 +207,9 @@ public class ParticleThread extends Thread {
 //                                break;
                             } else {
                                 status=1;
+                                if (profiling) {
+                                    profileStart = System.nanoTime();
+                                }
                                 timestep=(barrier.stepEndTime-p.getInsertionTime())/1000.;
                                 //System.out.println("insertion timestep: "+timestep+" s ("+p.getInsertionTime()+")  from "+barrier.stepStartTime+"--"+barrier.stepEndTime +" in particles "+p.getId()+" ( "+i+" /"+from+" - "+toExcld+")");
                                 if (p.getInjectionInformation().spillOnSurface()) {
@@ -177,6 +236,9 @@ public class ParticleThread extends Thread {
                                 } else {
                                     System.err.println("Do not know where to spill " + p.getInjectionInformation());
                                 }
+                                if (profiling) {
+                                    profile.add(SimulationProfiler.Phase.INJECTION, System.nanoTime() - profileStart);
+                                }
                                 status=0;
                             }
                         }else{
@@ -184,14 +246,29 @@ public class ParticleThread extends Thread {
                         }
                         //check if it has been initialized from waiting list yet
                         if (p.isActive()) {
+                            random.setStream(p.getId(), simulationTime);
+                            if (profiling) {
+                                profileStart = System.nanoTime();
+                            }
                             if (p.isInPipeNetwork()) {
                                 pc.moveParticle(p,timestep);
+                                if (profiling) {
+                                    profile.add(SimulationProfiler.Phase.PIPE_TRANSPORT, System.nanoTime() - profileStart);
+                                    profile.particlesMoved++;
+                                }
                             } else if (p.isOnSurface()) {
                                 surfcomp.moveParticle(p,timestep);
+                                if (profiling) {
+                                    profile.add(SimulationProfiler.Phase.SURFACE_TRANSPORT, System.nanoTime() - profileStart);
+                                    profile.particlesMoved++;
+                                }
                             } else {
                                 System.out.println(getClass() + ":: undefined status (" + p.status + ") of particle (" + p.getId() + "). Surrounding=" + p.getSurrounding_actual());
                             }
                         }
+                        if (store != null) {
+                            store.store(i, p);
+                        }
                     }
                     p=null;
                     activeCalculation=false;
@@ -0,0 +1,464 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.control.threads;
+
+import com.saemann.gulli.core.io.extran.HEConnectionPool;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects the time spent in the phases of the simulation loop. Every thread
+ * writes only into its own {@link ThreadProfile} (no locks, no atomics).
+ * Readers like the status thread see a slightly outdated snapshot.
+ *
+ * Per call durations are counted in histograms with logarithmic buckets:
+ * bucket i holds calls with a duration of [2^i,2^(i+1)) nanoseconds.
+ *
+ * @author saemann
+ */
+public class SimulationProfiler {
+
+    /**
+     * Measure the phases. Costs two System.nanoTime() calls per particle and
+     * step.
+     */
+    public static boolean enabled = false;
+
+    /**
+     * Print a live summary from the status thread every X seconds. 0=off.
+     */
+    public static int liveReportIntervalSeconds = 60;
+
+    /**
+     * Directory to write profile.json and profile.csv at the end of the
+     * simulation. If null, the output directory of the StoringCoordinator is
+     * used.
+     */
+    public static File exportDirectory = null;
+
+    public static final int HISTOGRAM_BUCKETS = 40;
+
+    public enum Phase {
+        /**
+         * Moving a particle inside the pipe network.
+         */
+        PIPE_TRANSPORT,
+        /**
+         * Moving a particle on the surface.
+         */
+        SURFACE_TRANSPORT,
+        /**
+         * Placing waiting particles at their injection position.
+         */
+        INJECTION,
+        /**
+         * Requesting the next block of particles.
+         */
+        BLOCK_SCHEDULING,
+        /**
+         * Waiting at the step barrier for the other threads (includes the
+         * step synchronization for the last arriving thread).
+         */
+        BARRIER_WAIT,
+        /**
+         * Writing pipe and surface measurements after a step.
+         */
+        MEASUREMENT,
+        /**
+         * Prefetching the surface flow field for the next step.
+         */
+        PREFETCH,
+        /**
+         * Loading timelines and surface values from the result files when
+         * they are first requested. Included in the phase of the calling
+         * thread (e.g. transport), prefetch threads only count this phase.
+         */
+        LAZY_LOADING,
+        /**
+         * Simulation listeners informed after every step.
+         */
+        LISTENERS
+    }
+
+    /**
+     * Counters of one thread.
+     */
+    public static class ThreadProfile {
+
+        public final String name;
+        public final long[] nanos = new long[Phase.values().length];
+        public final long[] calls = new long[Phase.values().length];
+        public final long[][] histogram = new long[Phase.values().length][HISTOGRAM_BUCKETS];
+        public long particlesMoved = 0;
+
+        public ThreadProfile(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Count a finished call.
+         *
+         * @param phase
+         * @param durationNanos
+         */
+        public void add(Phase phase, long durationNanos) {
+            int p = phase.ordinal();
+            nanos[p] += durationNanos;
+            calls[p]++;
+            int bucket = durationNanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(durationNanos);
+            histogram[p][Math.min(bucket, HISTOGRAM_BUCKETS - 1)]++;
+        }
+
+        public void reset() {
+            for (int i = 0; i < nanos.length; i++) {
+                nanos[i] = 0;
+                calls[i] = 0;
+                for (int j = 0; j < HISTOGRAM_BUCKETS; j++) {
+                    histogram[i][j] = 0;
+                }
+            }
+            particlesMoved = 0;
+        }
+    }
+
+    /**
+     * Profile of the current thread for calls that do not know the
+     * controller, e.g. the lazy loaders.
+     */
+    private static final ThreadLocal<ThreadProfile> ACTIVE = new ThreadLocal<>();
+
+    private final CopyOnWriteArrayList<ThreadProfile> profiles = new CopyOnWriteArrayList<>();
+
+    /**
+     * Connection pool of the lazy loading result database, to report its
+     * waiting times. Can be null.
+     */
+    public HEConnectionPool connectionPool;
+
+    /**
+     * Waiting time of the connection pool at the last reset.
+     */
+    private HEConnectionPool poolAtReset;
+    private double poolWaitAtResetMS = 0;
+
+    private long startNanos = System.nanoTime();
+    private long steps = 0;
+
+    /**
+     * Create the counters for a new thread.
+     *
+     * @param name
+     * @return
+     */
+    public ThreadProfile register(String name) {
+        ThreadProfile tp = new ThreadProfile(name);
+        profiles.add(tp);
+        return tp;
+    }
+
+    /**
+     * Lazy loading calls of the current thread are counted in this profile.
+     *
+     * @param profile null to stop counting
+     */
+    public static void setActiveProfile(ThreadProfile profile) {
+        if (profile == null) {
+            ACTIVE.remove();
+        } else {
+            ACTIVE.set(profile);
+        }
+    }
+
+    /**
+     * Call before requesting values from a loader.
+     *
+     * @return start time for {@link #lazyLoadingFinished(long)} or 0 if the
+     * current thread is not profiled.
+     */
+    public static long lazyLoadingStart() {
+        if (!enabled || ACTIVE.get() == null) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Counts a lazy loading call of the current thread.
+     *
+     * @param start value of {@link #lazyLoadingStart()}
+     */
+    public static void lazyLoadingFinished(long start) {
+        if (start == 0) {
+            return;
+        }
+        ThreadProfile profile = ACTIVE.get();
+        if (profile != null) {
+            profile.add(Phase.LAZY_LOADING, System.nanoTime() - start);
+        }
+    }
+
+    public void stepFinished() {
+        steps++;
+    }
+
+    /**
+     * Clear all counters. Call only while no thread is calculating.
+     */
+    public void reset() {
+        for (ThreadProfile profile : profiles) {
+            profile.reset();
+        }
+        steps = 0;
+        poolAtReset = connectionPool;
+        poolWaitAtResetMS = poolAtReset == null ? 0 : poolAtReset.getWaitingTimeMS();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Waiting time for connections of the result database since the last
+     * reset.
+     *
+     * @return milliseconds
+     */
+    public double getPoolWaitingTimeMS() {
+        HEConnectionPool pool = connectionPool;
+        if (pool == null) {
+            return 0;
+        }
+        if (pool != poolAtReset) {
+            return pool.getWaitingTimeMS();
+        }
+        return pool.getWaitingTimeMS() - poolWaitAtResetMS;
+    }
+
+    public long getTotalNanos(Phase phase) {
+        long sum = 0;
+        for (ThreadProfile profile : profiles) {
+            sum += profile.nanos[phase.ordinal()];
+        }
+        return sum;
+    }
+
+    public long getTotalCalls(Phase phase) {
+        long sum = 0;
+        for (ThreadProfile profile : profiles) {
+            sum += profile.calls[phase.ordinal()];
+        }
+        return sum;
+    }
+
+    public long getParticlesMoved() {
+        long sum = 0;
+        for (ThreadProfile profile : profiles) {
+            sum += profile.particlesMoved;
+        }
+        return sum;
+    }
+
+    /**
+     * Wall clock time since the start/reset of the profiler.
+     *
+     * @return seconds
+     */
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1E9;
+    }
+
+    public double getParticlesPerSecond() {
+        double s = getElapsedSeconds();
+        if (s <= 0) {
+            return 0;
+        }
+        return getParticlesMoved() / s;
+    }
+
+    /**
+     * Approximate quantile of the call durations of a phase over all threads.
+     *
+     * @param phase
+     * @param quantile [0,1]
+     * @return upper bound of the bucket in nanoseconds
+     */
+    public long getQuantileNanos(Phase phase, double quantile) {
+        long[] sum = new long[HISTOGRAM_BUCKETS];
+        long total = 0;
+        for (ThreadProfile profile : profiles) {
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                sum[i] += profile.histogram[phase.ordinal()][i];
+                total += profile.histogram[phase.ordinal()][i];
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long limit = (long) Math.ceil(total * quantile);
+        long count = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            count += sum[i];
+            if (count >= limit) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << HISTOGRAM_BUCKETS;
+    }
+
+    /**
+     * One line summary for the console.
+     *
+     * @return
+     */
+    public String getSummary() {
+        StringBuilder str = new StringBuilder("Profile after ").append(steps).append(" steps, ").append((int) getParticlesPerSecond()).append(" particles/s:");
+        for (Phase phase : Phase.values()) {
+            long n = getTotalNanos(phase);
+            if (n == 0) {
+                continue;
+            }
+            str.append(" ").append(phase.name().toLowerCase()).append("=").append(n / 1000000).append("ms");
+        }
+        if (connectionPool != null) {
+            str.append(" pool_wait=").append((long) getPoolWaitingTimeMS()).append("ms");
+        }
+        return str.toString();
+    }
+
+    /**
+     * Profile as JSON object.
+     *
+     * @return
+     */
+    public String toJSON() {
+        StringBuilder str = new StringBuilder();
+        str.append("{\n");
+        str.append("  \"elapsedSeconds\": ").append(format(getElapsedSeconds())).append(",\n");
+        str.append("  \"steps\": ").append(steps).append(",\n");
+        str.append("  \"particlesMoved\": ").append(getParticlesMoved()).append(",\n");
+        str.append("  \"particlesPerSecond\": ").append(format(getParticlesPerSecond())).append(",\n");
+        str.append("  \"loader\": {");
+        str.append("\"requests\": ").append(getTotalCalls(Phase.LAZY_LOADING));
+        str.append(", \"requestMS\": ").append(format(getTotalNanos(Phase.LAZY_LOADING) / 1E6));
+        if (connectionPool != null) {
+            str.append(", \"poolWaitMS\": ").append(format(getPoolWaitingTimeMS()));
+        }
+        str.append("},\n");
+        str.append("  \"phases\": {\n");
+        Phase[] phases = Phase.values();
+        for (int p = 0; p < phases.length; p++) {
+            str.append("    \"").append(phases[p].name()).append("\": {\"ms\": ").append(format(getTotalNanos(phases[p]) / 1E6));
+            str.append(", \"calls\": ").append(getTotalCalls(phases[p]));
+            str.append(", \"p50ns\": ").append(getQuantileNanos(phases[p], 0.5));
+            str.append(", \"p99ns\": ").append(getQuantileNanos(phases[p], 0.99)).append("}");
+            str.append(p < phases.length - 1 ? ",\n" : "\n");
+        }
+        str.append("  },\n");
+        str.append("  \"threads\": [\n");
+        int t = 0;
+        for (ThreadProfile profile : profiles) {
+            str.append("    {\"name\": \"").append(profile.name).append("\", \"particlesMoved\": ").append(profile.particlesMoved);
+            for (int p = 0; p < phases.length; p++) {
+                if (profile.calls[p] == 0) {
+                    continue;
+                }
+                str.append(", \"").append(phases[p].name()).append("\": {\"ms\": ").append(format(profile.nanos[p] / 1E6));
+                str.append(", \"calls\": ").append(profile.calls[p]);
+                str.append(", \"histogram\": [");
+                int last = HISTOGRAM_BUCKETS - 1;
+                while (last > 0 && profile.histogram[p][last] == 0) {
+                    last--;
+                }
+                for (int i = 0; i <= last; i++) {
+                    if (i > 0) {
+                        str.append(",");
+                    }
+                    str.append(profile.histogram[p][i]);
+                }
+                str.append("]}");
+            }
+            str.append("}");
+            t++;
+            str.append(t < profiles.size() ? ",\n" : "\n");
+        }
+        str.append("  ]\n");
+        str.append("}\n");
+        return str.toString();
+    }
+
+    /**
+     * Profile as CSV table with one row per thread and phase.
+     *
+     * @return
+     */
+    public String toCSV() {
+        StringBuilder str = new StringBuilder("Thread;Phase;Calls;Milliseconds;Particles");
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            str.append(";<").append(1L << (i + 1)).append("ns");
+        }
+        str.append("\n");
+        for (ThreadProfile profile : profiles) {
+            for (Phase phase : Phase.values()) {
+                int p = phase.ordinal();
+                if (profile.calls[p] == 0) {
+                    continue;
+                }
+                str.append(profile.name).append(";").append(phase.name()).append(";").append(profile.calls[p]).append(";").append(format(profile.nanos[p] / 1E6)).append(";").append(profile.particlesMoved);
+                for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                    str.append(";").append(profile.histogram[p][i]);
+                }
+                str.append("\n");
+            }
+        }
+        return str.toString();
+    }
+
+    /**
+     * Writes profile.json and profile.csv into the directory.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public void export(File directory) throws IOException {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(new File(directory, "profile.json")))) {
+            bw.write(toJSON());
+        }
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(new File(directory, "profile.csv")))) {
+            bw.write(toCSV());
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+}
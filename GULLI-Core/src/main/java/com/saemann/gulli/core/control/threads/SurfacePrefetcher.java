@@ -0,0 +1,290 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.control.threads;
+
+import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.particle.ParticleStore;
+import com.saemann.gulli.core.model.surface.Surface;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the flow field of the surface ahead of the particle front. The
+ * synchronization step only starts a background task, which collects the cells
+ * occupied by particles and their surrounding cells. Cells whose velocities
+ * are not yet in memory are loaded by background threads while the
+ * ParticleThreads calculate the next step.
+ *
+ * @author saemann
+ */
+public class SurfacePrefetcher {
+
+    /**
+     * Collect and load cells in the synchronization step.
+     */
+    public boolean enabled = true;
+
+    /**
+     * Number of cells around an occupied cell to load. Up to 3 only the von
+     * Neumann neighbours are used, larger numbers grow a ring of cells via
+     * {@link Surface#fillSurroundingCellArray(int[], int)}.
+     */
+    public int surroundingCells = 3;
+
+    /**
+     * Also load waterlevels and neighbour velocities (required for 1D surface
+     * transport). Triangle velocities are always prefetched.
+     */
+    public boolean loadWaterlevels = false;
+
+    /**
+     * Number of background threads loading the cells.
+     */
+    public int numberOfThreads = 2;
+
+    private ExecutorService executor;
+
+    /**
+     * Collecting and loading tasks of the last step. Loading tasks are added
+     * by the collecting task before it finishes.
+     */
+    private final ArrayList<Future<?>> running = new ArrayList<>(4);
+
+    /**
+     * Marks cells that are already collected in the actual step. Only used by
+     * the collecting task, there is at most one at a time.
+     */
+    private boolean[] collected;
+    private int[] cells = new int[1024];
+    private int[] surrounding;
+
+    private final AtomicInteger loadedCells = new AtomicInteger(0);
+    private int skippedSteps = 0;
+
+    /**
+     * Starts a background task that collects the cells around all particles
+     * on the surface and loads the missing ones. Is called in the
+     * synchronization step and returns without scanning the particles. The
+     * particle positions are read while the ParticleThreads already move them,
+     * which only shifts the loaded cells by one step. If the loading of the
+     * last step has not finished yet, this step is skipped.
+     *
+     * @param surface
+     * @param controller
+     */
+    public synchronized void prefetch(Surface surface, ThreadController controller) {
+        if (!enabled || surface == null) {
+            return;
+        }
+        if (surface.velocityLoader == null && (!loadWaterlevels || surface.waterlevelLoader == null)) {
+            //Everything is already in memory.
+            return;
+        }
+        synchronized (running) {
+            for (Future<?> f : running) {
+                if (!f.isDone()) {
+                    skippedSteps++;
+                    return;
+                }
+            }
+            running.clear();
+            if (executor == null) {
+                final SimulationProfiler profiler = controller.profiler;
+                executor = Executors.newFixedThreadPool(Math.max(1, numberOfThreads), (Runnable r) -> {
+                    Thread t = new Thread(() -> {
+                        if (SimulationProfiler.enabled) {
+                            SimulationProfiler.setActiveProfile(profiler.register("SurfacePrefetcher"));
+                        }
+                        r.run();
+                    }, "SurfacePrefetcher");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            final ExecutorService ex = executor;
+            running.add(ex.submit(() -> {
+                try {
+                    collectAndLoad(surface, controller, ex);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+    }
+
+    /**
+     * Runs in the executor. Collects the cells, hands all but the first chunk
+     * to further loading tasks and loads the first chunk itself.
+     */
+    private void collectAndLoad(Surface surface, ThreadController controller, ExecutorService ex) {
+        int count = collectCells(surface, controller);
+        if (count == 0) {
+            return;
+        }
+        int tasks = Math.max(1, Math.min(numberOfThreads, count / 16));
+        int chunk = (count + tasks - 1) / tasks;
+        synchronized (running) {
+            for (int t = 1; t < tasks; t++) {
+                final int[] ids = Arrays.copyOfRange(cells, t * chunk, Math.min(count, (t + 1) * chunk));
+                if (ids.length > 0 && !ex.isShutdown()) {
+                    running.add(ex.submit(() -> load(surface, ids)));
+                }
+            }
+        }
+        load(surface, Arrays.copyOf(cells, Math.min(count, chunk)));
+    }
+
+    private void load(Surface surface, int[] ids) {
+        for (int id : ids) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            try {
+                surface.prefetchTriangleVelocity(id);
+                if (loadWaterlevels) {
+                    surface.prefetchNeighbourVelocity(id);
+                }
+                loadedCells.incrementAndGet();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Fills the cells array with all cells that are occupied by a surface
+     * particle or surround one and are not yet loaded. Every cell is only
+     * added once.
+     *
+     * @return number of cells
+     */
+    private int collectCells(Surface surface, ThreadController controller) {
+        int numberOfCells = surface.getTriangleNodes().length;
+        if (collected == null || collected.length != numberOfCells) {
+            collected = new boolean[numberOfCells];
+        }
+        int count = 0;
+        ParticleStore store = controller.particleStore;
+        if (store != null) {
+            int size = store.size;
+            for (int i = 0; i < size; i++) {
+                if (store.getStatus(i) == 20) {
+                    count = collectAround(surface, store.getSurfaceCellID(i), count);
+                }
+            }
+        } else if (controller.particles != null) {
+            for (Particle p : controller.particles) {
+                if (p.isOnSurface()) {
+                    count = collectAround(surface, p.surfaceCellID, count);
+                }
+            }
+        }
+        //Reset the markers for the next step and keep only the missing cells.
+        int missing = 0;
+        for (int i = 0; i < count; i++) {
+            int id = cells[i];
+            collected[id] = false;
+            if (!surface.isTriangleVelocityLoaded(id) || (loadWaterlevels && !surface.isNeighbourVelocityLoaded(id))) {
+                cells[missing++] = id;
+            }
+        }
+        return missing;
+    }
+
+    private int collectAround(Surface surface, int cellID, int count) {
+        if (cellID < 0 || cellID >= collected.length || collected[cellID]) {
+            return count;
+        }
+        count = add(surface, cellID, count);
+        int[][] nbs = surface.getNeumannNeighbours();
+        if (nbs == null) {
+            return count;
+        }
+        if (surroundingCells <= 3) {
+            for (int nb : nbs[cellID]) {
+                count = add(surface, nb, count);
+            }
+        } else {
+            if (surrounding == null || surrounding.length != surroundingCells) {
+                surrounding = new int[surroundingCells];
+            }
+            Arrays.fill(surrounding, -1);
+            surface.fillSurroundingCellArray(surrounding, cellID);
+            for (int nb : surrounding) {
+                count = add(surface, nb, count);
+            }
+        }
+        return count;
+    }
+
+    private int add(Surface surface, int cellID, int count) {
+        if (cellID < 0 || collected[cellID]) {
+            return count;
+        }
+        collected[cellID] = true;
+        if (count == cells.length) {
+            cells = Arrays.copyOf(cells, cells.length * 2);
+        }
+        cells[count++] = cellID;
+        return count;
+    }
+
+    /**
+     * Number of cells handed to the background threads since the start.
+     *
+     * @return
+     */
+    public int getNumberOfLoadedCells() {
+        return loadedCells.get();
+    }
+
+    /**
+     * Number of steps that were skipped because the loading of a previous step
+     * was still running.
+     *
+     * @return
+     */
+    public int getNumberOfSkippedSteps() {
+        return skippedSteps;
+    }
+
+    /**
+     * Stops the background threads. Is called at the end of a simulation and
+     * when the ThreadController is shut down. A following prefetch creates new
+     * threads.
+     */
+    public synchronized void shutdown() {
+        synchronized (running) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            running.clear();
+        }
+    }
+}
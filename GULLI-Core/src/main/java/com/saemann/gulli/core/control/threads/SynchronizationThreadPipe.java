@@ -24,6 +24,9 @@
 package com.saemann.gulli.core.control.threads;
 
 import com.saemann.gulli.core.control.Controller;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import com.saemann.gulli.core.model.surface.measurement.SurfaceMeasurementRaster;
 import com.saemann.gulli.core.model.timeline.MeasurementContainer;
@@ -31,14 +34,15 @@ import com.saemann.gulli.core.model.topology.Pipe;
 import com.saemann.gulli.core.model.topology.measurement.ParticleMeasurement;
 
 /**
- * This Thread creates measurements for the actual timestep.
+ * Creates measurements for the actual timestep. Called by the ThreadController
+ * as the barrier action, when all ParticleThreads have finished the step.
  *
  * @author saemann
  */
-public class SynchronizationThreadPipe extends Thread {
+public class SynchronizationThreadPipe {
 
+    private final String name;
     private final ThreadBarrier barrier;
-    boolean runendless = true;
     public boolean allFinished = false;
     public long actualSimulationTime = 0;
 
@@ -64,112 +68,121 @@ public class SynchronizationThreadPipe extends Thread {
     private MeasurementContainer mcp;
     private SurfaceMeasurementRaster smr;
 
+    /**
+     * Loads surface velocities around the particles for the next step.
+     */
+    public final SurfacePrefetcher prefetcher = new SurfacePrefetcher();
+
+    /**
+     * Receives the timings of the measurement and prefetch phases. Null if
+     * profiling is disabled.
+     */
+    SimulationProfiler.ThreadProfile profile;
+
+    /**
+     *
+     * @param string name
+     * @param barrier provides start and end time of the simulation step
+     * @param control
+     */
     public SynchronizationThreadPipe(String string, ThreadBarrier barrier, Controller control) {
-        super(string);
+        this.name = string;
         this.barrier = barrier;
         this.control = control;
     }
 
-    @Override
-    public void run() {
-        //is initialized now
-        barrier.initialized(this);
-
+    /**
+     * Writes the values collected during the particle loop into the
+     * measurement timelines of pipes and surface and starts prefetching the
+     * surface flow field around the particles. Must only be called while no
+     * ParticleThread is calculating.
+     */
+    public void synchronizeStep() {
+        status = 1;
+        SimulationProfiler.ThreadProfile prof = profile;
+        long start = prof != null ? System.nanoTime() : 0;
         try {
+            actualSimulationTime = barrier.getStepStartTime();
+            // Schreibe die Gesammelten Werte in die Mess-Zeitreihe der Rohre
             mcp = control.getScenario().getMeasurementsPipe();
-//            if (mcp != null) {
-//                if (mcp.isTimespotmeasurement()) {
-//                    mcp.measurementsActive = false;
-//                    this.openMeasurements = false;
-//                } else {
-//                    mcp.measurementsActive = true;
-//                }
-//            }
-            smr = control.getScenario().getMeasurementsSurface();
-            if (smr != null) {
-                if (smr.continousMeasurements) {
-                    smr.measurementsActive = true;
-                } else {
-                    smr.measurementsActive = false;
-                }
-            }
-
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        };
-
-        //if woken up start the normal loop
-        while (runendless) {
-            if (true) {
-                try {
-                    actualSimulationTime = barrier.getStepStartTime();
-                    // Schreibe die Gesammelten Werte in die Mess-Zeitreihe der Rohre
-                    mcp = control.getScenario().getMeasurementsPipe();
-                    if (mcp != null) {
-                        if (mcp.measurementsActive) {
-//                            if (mcp.spatialConsistentMeasures) {
-                            mcp.addMeasurementTime(writeindex, barrier.getStepEndTime());
-//                            } else {
-//                                mcp.addMeasurementTime(writeindex, (long) ((barrier.getStepStartTime()+barrier.getStepEndTime())*0.5));
-////                                .measurementTimes[writeindex] = (long) ((barrier.getStepStartTime()+barrier.getStepEndTime())*0.5);
-//                            }
-                            mcp.samplesInTimeInterval[writeindex]++;
-//                            System.out.println("Measure pipes index "+writeindex+" at "+barrier.getStepEndTime() +" in step "+control.getThreadController().getSteps());
-                            for (Pipe pipe : pipes) {
-                                if (pipe.getMeasurementTimeLine() != null) {
-                                    if (pipe.getMeasurementTimeLine().getNumberOfParticlesInTimestep() > 0) {
-                                        //The calculation of the volume seems to be erroneous. Use the calculation via the discharge, if water is moving
-                                        if (pipe.getStatusTimeLine().getDischarge() < 0.001) {
-                                            //If water is resting, calculate via the water level
-                                            pipe.getMeasurementTimeLine().addMeasurement(writeindex, pipe.getStatusTimeLine().getVolume(), pipe.getStatusTimeLine().getVelocity());
-                                        } else {
-                                            pipe.getMeasurementTimeLine().addMeasurement(writeindex, pipe.getStatusTimeLine().getDischarge() * pipe.getLength() / pipe.getStatusTimeLine().getVelocity(),  pipe.getStatusTimeLine().getVelocity());
-                                        }
-                                    }
-                                    pipe.getMeasurementTimeLine().resetNumberOfParticles();
+            if (mcp != null) {
+                if (mcp.measurementsActive) {
+                    mcp.addMeasurementTime(writeindex, barrier.getStepEndTime());
+                    mcp.samplesInTimeInterval[writeindex]++;
+                    for (Pipe pipe : pipes) {
+                        if (pipe.getMeasurementTimeLine() != null) {
+                            if (pipe.getMeasurementTimeLine().getNumberOfParticlesInTimestep() > 0) {
+                                //The calculation of the volume seems to be erroneous. Use the calculation via the discharge, if water is moving
+                                if (pipe.getStatusTimeLine().getDischarge() < 0.001) {
+                                    //If water is resting, calculate via the water level
+                                    pipe.getMeasurementTimeLine().addMeasurement(writeindex, pipe.getStatusTimeLine().getVolume(), pipe.getStatusTimeLine().getVelocity());
+                                } else {
+                                    pipe.getMeasurementTimeLine().addMeasurement(writeindex, pipe.getStatusTimeLine().getDischarge() * pipe.getLength() / pipe.getStatusTimeLine().getVelocity(), pipe.getStatusTimeLine().getVelocity());
                                 }
                             }
+                            pipe.getMeasurementTimeLine().resetNumberOfParticles();
                         }
-                        if (messung != null) {
-                            for (ParticleMeasurement pm : messung) {
-                                try {
-                                    pm.writeCounter(actualSimulationTime);
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
+                    }
+                }
+                if (messung != null) {
+                    for (ParticleMeasurement pm : messung) {
+                        try {
+                            pm.writeCounter(actualSimulationTime);
+                        } catch (Exception e) {
+                            e.printStackTrace();
                         }
                     }
-                    //Surface
-                    if (control.getSurface() != null) {
-                        smr = control.getSurface().getMeasurementRaster();
+                }
+            }
+            //Surface
+            if (control.getSurface() != null) {
+                smr = control.getSurface().getMeasurementRaster();
 
-                        if (smr != null) {
-                            if (smr.measurementsActive) {
-                                smr.measurementsInTimeinterval[writeindexSurface]++;
-                                smr.durationInTimeinterval[writeindexSurface] += ThreadController.getDeltaTime();
-                                smr.measurementTimestamp[writeindexSurface] = barrier.getStepEndTime();
-//                            System.out.println("Written on surface index "+writeindexSurface+" \tfor time: "+barrier.getStepEndTime());
-                            }
-                        }
+                if (smr != null) {
+                    //Merge samples that have been collected thread locally
+                    smr.synchronizeMeasurements();
+                    if (smr.measurementsActive) {
+                        smr.measurementsInTimeinterval[writeindexSurface]++;
+                        smr.durationInTimeinterval[writeindexSurface] += control.getThreadController().getDeltaTimeSeconds();
+                        smr.measurementTimestamp[writeindexSurface] = barrier.getStepEndTime();
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
                 }
+                if (prof != null) {
+                    long now = System.nanoTime();
+                    prof.add(SimulationProfiler.Phase.MEASUREMENT, now - start);
+                    start = now;
+                }
+                prefetcher.prefetch(control.getSurface(), control.getThreadController());
+                if (prof != null) {
+                    prof.add(SimulationProfiler.Phase.PREFETCH, System.nanoTime() - start);
+                }
+            } else if (prof != null) {
+                prof.add(SimulationProfiler.Phase.MEASUREMENT, System.nanoTime() - start);
             }
-            /**
-             * Synchronization finished, give control back to the
-             * Threadcontroller via the barrier
-             */
-            barrier.loopfinished(this);
+        } catch (Exception e) {
+            e.printStackTrace();
         }
+        status = 0;
+    }
+
+    public String getName() {
+        return name;
     }
 
     /**
-     * Causes this Thread to run off after the current loop.
+     * Writes the sampling indices, that are carried from one step to the next.
+     *
+     * @param out
+     * @throws IOException
      */
-    public void stopThread() {
-        this.runendless = false;
+    void writeState(DataOutput out) throws IOException {
+        out.writeInt(writeindex);
+        out.writeInt(writeindexSurface);
+    }
+
+    void readState(DataInput in) throws IOException {
+        writeindex = in.readInt();
+        writeindexSurface = in.readInt();
     }
 
     public void addParticlemeasurement(ParticleMeasurement pm) {
@@ -199,7 +212,7 @@ public class SynchronizationThreadPipe extends Thread {
         boolean changed = false;
         if (control.getScenario() != null && control.getScenario().getMeasurementsPipe() != null) {
             MeasurementContainer mp = control.getScenario().getMeasurementsPipe();
-            if (MeasurementContainer.timecontinuousMeasures) {
+            if (mp.timecontinuous) {
                 writeindex = mp.getIndexForTime(barrier.stepEndTime);
                 //Sample all the time
                 if (!mp.measurementsActive) {
@@ -25,12 +25,15 @@ package com.saemann.gulli.core.control.threads;
 
 import com.saemann.gulli.core.control.Action.Action;
 import com.saemann.gulli.core.control.Controller;
+import com.saemann.gulli.core.control.SimulationConfiguration;
 import com.saemann.gulli.core.control.listener.LoadingActionListener;
 import com.saemann.gulli.core.control.listener.SimulationActionListener;
 import com.saemann.gulli.core.control.listener.ParticleListener;
+import com.saemann.gulli.core.control.maths.CounterRandomGenerator;
 import com.saemann.gulli.core.control.maths.RandomGenerator;
 import com.saemann.gulli.core.control.scenario.Scenario;
 import com.saemann.gulli.core.control.scenario.injection.InjectionInfo;
+import com.saemann.gulli.core.io.Checkpoint_IO;
 import com.saemann.gulli.core.io.extran.HE_Database;
 import com.saemann.gulli.core.io.extran.HE_GDB_IO;
 import java.util.ArrayList;
@@ -41,14 +44,23 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Random;
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.saemann.gulli.core.model.particle.HistoryParticle;
 import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.particle.ParticleStore;
+import com.saemann.gulli.core.model.particle.ParticleView;
+import com.saemann.gulli.core.model.topology.Capacity;
 import com.saemann.gulli.core.model.surface.Surface;
+import com.saemann.gulli.core.model.surface.measurement.SurfaceMeasurementRaster;
 import com.saemann.gulli.core.model.surface.measurement.SurfaceMeasurementTriangleRaster;
 import com.saemann.gulli.core.model.surface.measurement.TriangleMeasurement;
+import com.saemann.gulli.core.model.timeline.MeasurementContainer;
+import com.saemann.gulli.core.model.timeline.MeasurementTimeline;
 import com.saemann.gulli.core.model.topology.Network;
 import com.saemann.gulli.core.model.topology.Pipe;
 
@@ -61,7 +73,9 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     protected Controller control;
     public final MultiThreadBarrier<ParticleThread> barrier_particle;
 //    public final SingleThreadBarrier<LocationThread> barrier_positionUpdate;
-    public final SingleThreadBarrier<SynchronizationThreadPipe> barrier_sync;
+    /**
+     * Writes the measurements as barrier action after each particle loop.
+     */
     public final SynchronizationThreadPipe syncThread_pipes;
 
     private final ArrayList<SimulationActionListener> listener = new ArrayList<>(2);
@@ -74,16 +88,12 @@ public class ThreadController implements ParticleListener, SimulationActionListe
      */
     private long startOffset;
 
-    public static enum BARRIERS {
-
-        HYDRODYNAMICS, PARTICLE, SYNC, POSITION
-    }
 //    private int numberParallelParticleThreads;
 //    private int numberParallelSyncThreads = 2;
     private boolean run = false;
     private boolean initialized = false;
-    private static double deltaTime = 1;//seconds
-    private static int deltatimeMS = (int) (deltaTime * 1000);
+    private double deltaTime = 1;//seconds
+    private int deltatimeMS = (int) (deltaTime * 1000);
     private int steps = 0;
 
     public boolean paintOnMap = true;
@@ -98,7 +108,7 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     private long calculationTimeElapsed = 0;
     private double averageCalculationTime;
     private boolean calculationFinished = false;
-    private static long simulationTimeMS = 0; //ms
+    private long simulationTimeMS = 0; //ms
     private long simulationNextTimeMS = 0;
     private long simulationTimeStart = 0;
     private long simulationTimeEnd = Long.MAX_VALUE;
@@ -117,33 +127,92 @@ public class ThreadController implements ParticleListener, SimulationActionListe
 
     public boolean useTimelineInput = true;
 
-    private ControlThread controlThread;
-
     private Object calledObject = null;
 
     private ThreadBarrier lastFinishedBarrier = null;
 
+    /**
+     * Phase timings of the simulation loop (see
+     * {@link SimulationProfiler#enabled}).
+     */
+    public final SimulationProfiler profiler = new SimulationProfiler();
+
+    private SimulationProfiler.ThreadProfile syncProfile;
+
+    /**
+     * Parameters of the running simulation. Taken from the Controller at every
+     * start.
+     */
+    private SimulationConfiguration configuration = SimulationConfiguration.fromDefaults();
+
+    private volatile boolean shutdown = false;
+
     private Thread statusThread = initStatusThread();
 
+    /**
+     * Default for {@link SimulationConfiguration#pauseRevokerThread}.
+     */
     public static boolean pauseRevokerThread = false;
 
-    private Thread lockbreaker;
+    /**
+     * The ThreadController that has been created, started or got a new
+     * timestep most recently. Only used for the deprecated static getters.
+     */
+    private static volatile ThreadController lastUsed;
+
+    /**
+     * Last listener, that was informed about a finished step.
+     */
+    private Object lastenvokenListener = null;
 
     private long seed = 100;
 
     ////
     //everything to do if the particles are stored here centralised
     protected Particle[] particles;
+    /**
+     * Structure of arrays storage of the particles. If used, the particles
+     * array is null.
+     */
+    protected ParticleStore particleStore;
+    /**
+     * Keep the particles in a {@link ParticleStore} instead of one object per
+     * particle. Reduces memory for large particle numbers. Takes effect with
+     * the next call of setParticles. Not available with
+     * SimulationConfiguration.useIDsharpParticleCounting, which holds
+     * references to the particle objects.
+     */
+    public boolean useParticleStore = false;
     /**
      * Generating Random numbers must always happen for the same particles.
      */
     protected RandomGenerator[] randomNumberGenerators;
-    private ReentrantLock lock = new ReentrantLock();
-    //number of particles to be treted by one thread
+    /**
+     * Use {@link CounterRandomGenerator}s. The random numbers only depend on
+     * seed, particle and step and not on the number of threads or the block
+     * size. Takes effect with the next call of setSeed.
+     */
+    public boolean counterBasedRandomNumbers = false;
+    /**
+     * Distributes the blocks of particles to the ParticleThreads.
+     */
+    protected final ParticleBlockScheduler blockScheduler;
+    //number of particles in one block. One random number generator per block.
     protected int treatblocksize = 1000;
     public int waitingParticleIndex = 0;//first waiting (for injection)  particle index
-    public int nextParticleBlockStartIndex = 0;//Index for the tretstart for the next requesting Thread
-    public int nextRandomNumberBlockStartIndex = 0;//Index for the random number for the next requesting Thread
+    /**
+     * If true, the particle blocks are redistributed before the next particle
+     * loop starts.
+     */
+    private boolean particleBlocksReset = true;
+
+    /**
+     * True while the particle threads wait at the closed gate of their barrier
+     * between two steps. Only then the next step may be prepared. Guarded by
+     * stepLock together with the decision to continue (run).
+     */
+    private boolean betweenSteps = true;
+    private final Object stepLock = new Object();
 
     public ThreadController(int numberParticleThreads, final Controller control) {
         this.control = control;
@@ -166,15 +235,10 @@ public class ThreadController implements ParticleListener, SimulationActionListe
             pt.threadController = this;
             barrier_particle.addThread(pt);
         }
+        blockScheduler = new ParticleBlockScheduler(numberParticleThreads);
+        syncThread_pipes = new SynchronizationThreadPipe("SyncThread", barrier_particle, control);
         barrier_particle.initialize();
-        barrier_sync = new SingleThreadBarrier<>("SyncBarrier", this);
-        syncThread_pipes = new SynchronizationThreadPipe("SyncThread", barrier_sync, control);
-        barrier_sync.setThread(syncThread_pipes);
-
-        barrier_sync.initialize();
-
-        controlThread = new ControlThread();
-        controlThread.start();
+        lastUsed = this;
     }
 
     /**
@@ -182,9 +246,25 @@ public class ThreadController implements ParticleListener, SimulationActionListe
      * from beginning, call Reset() first.
      */
     public void start() {
-        run = true;
+        if (!claimIdleBarrier(true)) {
+            //Threads are still calculating the step of a previous stop().
+            //finishedLoop continues with the next step, as run is set again.
+            for (SimulationActionListener l : listener) {
+                try {
+                    l.simulationSTART(this);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            return;
+        }
         calculationFinished = false;
         calculationStartTime = System.currentTimeMillis();
+        lastUsed = this;
+        applyConfiguration(control.getConfiguration());
+        if (control.getLoadingCoordinator().requestHE_ResultDatabase() != null) {
+            profiler.connectionPool = control.getLoadingCoordinator().requestHE_ResultDatabase().getConnectionPool();
+        }
 
 //        initialize();
         calculationFinished = false;
@@ -199,18 +279,13 @@ public class ThreadController implements ParticleListener, SimulationActionListe
             control.getSurface().getMeasurementRaster().setNumberOfThreads(barrier_particle.getThreads().size());
         }
 
-        barrier_sync.setStepStartTime(simulationTimeMS);
-        barrier_sync.setStepEndTime(simulationNextTimeMS);
-        barrier_particle.setStepStartTime(simulationTimeMS);
-        barrier_particle.setStepEndTime(simulationNextTimeMS);
-
         if (control.getScenario() != null) {
             control.getScenario().setActualTime(simulationTimeMS);
         }
         checkWaitingParticleIndex();
         calculationLoopStarttime = System.currentTimeMillis();
 
-        barrier_sync.getThread().checkMeasurementsBeforeParticleLoop();
+        prepareParticleLoop();
         calledObject = barrier_particle;
         for (SimulationActionListener l : listener) {
             try {
@@ -227,7 +302,9 @@ public class ThreadController implements ParticleListener, SimulationActionListe
      * be resumed.
      */
     public void stop() {
-        run = false;
+        synchronized (stepLock) {
+            run = false;
+        }
         for (SimulationActionListener l : listener) {
             try {
                 l.simulationSTOP(this);
@@ -247,6 +324,11 @@ public class ThreadController implements ParticleListener, SimulationActionListe
         if (randomNumberGenerators != null) {
             Random r = new Random(seed);
             for (int i = 0; i < randomNumberGenerators.length; i++) {
+                if (counterBasedRandomNumbers) {
+                    //All blocks share the seed, the stream is selected per particle.
+                    randomNumberGenerators[i] = new CounterRandomGenerator(seed);
+                    continue;
+                }
                 RandomGenerator newGen = new RandomGenerator(r.nextLong());// newField = new RandomArray(r.nextLong(), (int) (treatblocksize * 10 + 19));
 //                RandomArray newGen=new RandomArray(r.nextLong(), 100007);
 
@@ -255,36 +337,154 @@ public class ThreadController implements ParticleListener, SimulationActionListe
         }
     }
 
+    /**
+     * Simulation time of the most recently used ThreadController. Not
+     * meaningful if several simulations run in this JVM.
+     *
+     * @return ms
+     * @deprecated use {@link #getSimulationTime()} of the responsible
+     * ThreadController.
+     */
+    @Deprecated
     public static long getSimulationTimeMS() {
-        return simulationTimeMS;
+        ThreadController tc = lastUsed;
+        if (tc == null) {
+            return 0;
+        }
+        return tc.simulationTimeMS;
     }
 
     /**
-     * Threadbarriers call this method, when they have finished one step.
+     * Hand the parameters to the particle threads and the pipe measurements.
+     *
+     * @param configuration
+     */
+    private void applyConfiguration(SimulationConfiguration configuration) {
+        this.configuration = configuration;
+        for (ParticleThread thread : barrier_particle.getThreads()) {
+            thread.setConfiguration(configuration);
+        }
+        if (control.getScenario() != null && control.getScenario().getMeasurementsPipe() != null) {
+            control.getScenario().getMeasurementsPipe().timecontinuous = configuration.timecontinuousMeasures;
+        }
+    }
+
+    public SimulationConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Barrier action of the particle barrier. Called by the last
+     * ParticleThread that finished the step, while all other ParticleThreads
+     * wait at the barrier. Writes the measurements, advances the simulation
+     * time and releases the threads into the next step if the simulation is
+     * running.
      *
      * @param barrier
      */
     public void finishedLoop(ThreadBarrier barrier) {
+        lastFinishedBarrier = barrier;
+        if (barrier != barrier_particle) {
+            return;
+        }
+        steps++;
+        calledObject = syncThread_pipes;
+        boolean profiling = SimulationProfiler.enabled;
+        if (profiling && syncProfile == null) {
+            syncProfile = profiler.register("Synchronization");
+        }
+        syncThread_pipes.profile = profiling ? syncProfile : null;
+        syncThread_pipes.synchronizeStep();
 
-        synchronized (this) {
-            lastFinishedBarrier = barrier;
-            if (!run) {
-                return;
+        long calcStepTime = System.currentTimeMillis() - calculationLoopStarttime;
+        calculationTimeHistory[steps % calculationTimeHistory.length] = calcStepTime;
+        calculationTimeElapsed += calcStepTime;
+        calculationLoopStarttime = System.currentTimeMillis();
+
+        simulationTimeMS = simulationNextTimeMS;
+        simulationNextTimeMS += deltatimeMS;
+        if (simulationTimeMS >= simulationTimeEnd) {
+            calculationFinished = true;
+        }
+        checkWaitingParticleIndex();
+        particleBlocksReset = true;
+        //Send new Timeinformation to all timelines pipe/manhole/surface/soil
+        if (control.getScenario() != null) {
+            control.getScenario().setActualTime(simulationTimeMS);
+        }
+        long listenerStart = profiling ? System.nanoTime() : 0;
+        for (SimulationActionListener l : listener) {
+            try {
+                lastenvokenListener = l;
+                l.simulationSTEPFINISH(steps, this);
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-            if (barrier == barrier_particle) {
-                controlThread.setBarrier(BARRIERS.PARTICLE);
-                return;
-            } else if (barrier == barrier_sync) {
-                controlThread.setBarrier(BARRIERS.SYNC);
-                return;
-            } else {
-                controlThread.setBarrier(BARRIERS.POSITION);
+        }
+        if (profiling) {
+            syncProfile.add(SimulationProfiler.Phase.LISTENERS, System.nanoTime() - listenerStart);
+            profiler.stepFinished();
+        }
+        if (calculationFinished) {
+            synchronized (stepLock) {
+                run = false;
+                betweenSteps = true;
+            }
+            //Release the loading threads until the next start.
+            syncThread_pipes.prefetcher.shutdown();
+            System.out.println("Stopped after " + (System.currentTimeMillis() - calculationStartTime) / 1000 + "sec computation time.\telapsed calculation time=" + calculationTimeElapsed + "ms,  loops:" + steps);
+            if (profiling) {
+                exportProfile();
+            }
+
+            for (SimulationActionListener l : listener) {
+                l.simulationFINISH(simulationTimeMS >= simulationTimeEnd, particlesReachedOutlet);
             }
             return;
+        }
+        synchronized (stepLock) {
+            if (!run) {
+                //Paused. Threads wait at the barrier until start() is called.
+                betweenSteps = true;
+                return;
+            }
+        }
+        prepareParticleLoop();
+        calledObject = barrier_particle;
+        barrier_particle.startover();
+    }
 
+    /**
+     * Sets run and reserves the barrier for a new step, if the particle
+     * threads wait between two steps.
+     *
+     * @param continueRun
+     * @return false if the threads are still calculating a step. Then the
+     * next step must not be prepared here.
+     */
+    private boolean claimIdleBarrier(boolean continueRun) {
+        synchronized (stepLock) {
+            run = continueRun;
+            if (!betweenSteps) {
+                return false;
+            }
+            betweenSteps = false;
+            return true;
         }
     }
 
+    /**
+     * Sets the step times of the upcoming particle loop, prepares the
+     * measurements and distributes the particle blocks. Must only be called
+     * while no ParticleThread is calculating.
+     */
+    private void prepareParticleLoop() {
+        barrier_particle.setStepStartTime(simulationTimeMS);
+        barrier_particle.setStepEndTime(simulationNextTimeMS);
+        syncThread_pipes.checkMeasurementsBeforeParticleLoop();
+        scheduleParticleBlocks();
+    }
+
     /**
      * Threadbarriers call this, when they have finished the initialization
      * call.
@@ -303,18 +503,18 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     protected void startParticles() {
         //Only start the next loop, if the controller allows this action
         calculationLoopStarttime = System.currentTimeMillis();
-        if (run) {
-            new Thread() {
-                @Override
-                public void run() {
-                    calledObject = barrier_sync;
-                    nextParticleBlockStartIndex = 0;
-                    nextRandomNumberBlockStartIndex = 0;
-                    checkWaitingParticleIndex();
-                    barrier_sync.startover();
-                }
-            }.start();
+        synchronized (stepLock) {
+            if (!run || !betweenSteps) {
+                //Not started yet or start() has already released the threads.
+                return;
+            }
+            betweenSteps = false;
         }
+        particleBlocksReset = true;
+        checkWaitingParticleIndex();
+        prepareParticleLoop();
+        calledObject = barrier_particle;
+        barrier_particle.startover();
     }
 
     /**
@@ -326,8 +526,9 @@ public class ThreadController implements ParticleListener, SimulationActionListe
         if (run) {
             throw new SecurityException("Can not change the delta time interval while Threads are running, inconsistency warning!");
         }
-        ThreadController.deltaTime = deltaTimeSeconds;
-        ThreadController.deltatimeMS = (int) (deltaTimeSeconds * 1000);
+        this.deltaTime = deltaTimeSeconds;
+        this.deltatimeMS = (int) (deltaTimeSeconds * 1000);
+        lastUsed = this;
 //        if (ArrayTimeLineMeasurementContainer.isInitialized()) {
 //            ArrayTimeLineMeasurementContainer.instance.samplesPerTimeinterval = ArrayTimeLineMeasurementContainer.instance.getDeltaTimeS() / ThreadController.getDeltaTime();
 //        }
@@ -359,24 +560,54 @@ public class ThreadController implements ParticleListener, SimulationActionListe
             }
         };
 
-        this.particles = particles.toArray(new Particle[particles.size()]);
-        Arrays.sort(this.particles, comp);
+        Particle[] sorted = particles.toArray(new Particle[particles.size()]);
+        Arrays.sort(sorted, comp);
+        if (useParticleStore && !control.getConfiguration().useIDsharpParticleCounting) {
+            ArrayList<Capacity> capacities = new ArrayList<>();
+            if (control.getSurface() != null) {
+                capacities.add(control.getSurface());
+            }
+            if (control.getNetwork() != null) {
+                capacities.addAll(control.getNetwork().getPipes());
+                capacities.addAll(control.getNetwork().getManholes());
+            }
+            this.particleStore = ParticleStore.fromParticles(sorted, capacities);
+            this.particles = null;
+            System.out.println("Particles stored in arrays: " + sorted.length + " particles, ~" + ParticleStore.getBytesPerParticle() + " bytes/particle (objects: ~" + ParticleStore.getBytesPerParticleObject() + " bytes/particle)");
+        } else {
+            this.particleStore = null;
+            this.particles = sorted;
+        }
 
         //Generate random numbers
         recalculateRandomNumberGenerators();
         setSeed(seed);
         this.waitingParticleIndex = 0;
-        this.nextParticleBlockStartIndex = 0;
-        this.nextRandomNumberBlockStartIndex = 0;
+        this.particleBlocksReset = true;
     }
 
     private void recalculateRandomNumberGenerators() {
-        if (particles != null) {
-            randomNumberGenerators = new RandomGenerator[this.particles.length / treatblocksize + 1];
+        if (particles != null || particleStore != null) {
+            randomNumberGenerators = new RandomGenerator[getNumberOfParticles() / treatblocksize + 1];
 
         }
     }
 
+    /**
+     * Number of particles in the array or store.
+     *
+     * @return
+     */
+    private int getNumberOfParticles() {
+        if (particleStore != null) {
+            return particleStore.size;
+        }
+        if (particles != null) {
+            return particles.length;
+        }
+        return 0;
+    }
+
     /**
      * calculates the average time needed to propagate one simulation step.
      * Average value over the past 10 steps.
@@ -393,10 +624,27 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     }
 
     /**
+     * Timestep of the most recently used ThreadController. Not meaningful if
+     * several simulations run in this JVM.
      *
      * @return dt in seconds
+     * @deprecated use {@link #getDeltaTimeSeconds()} of the responsible
+     * ThreadController.
      */
+    @Deprecated
     public static double getDeltaTime() {
+        ThreadController tc = lastUsed;
+        if (tc == null) {
+            return 1;
+        }
+        return tc.deltaTime;
+    }
+
+    /**
+     *
+     * @return dt in seconds
+     */
+    public double getDeltaTimeSeconds() {
         return deltaTime;
     }
 
@@ -423,12 +671,15 @@ public class ThreadController implements ParticleListener, SimulationActionListe
      * Process one single simulation step.
      */
     public void step() {
-        run = false;
+        if (!claimIdleBarrier(false)) {
+            //The running step is the last one.
+            return;
+        }
 //        initialize();
         calculationLoopStarttime = System.currentTimeMillis();
         calledObject = barrier_particle;
         checkWaitingParticleIndex();
-        barrier_sync.getThread().checkMeasurementsBeforeParticleLoop();
+        prepareParticleLoop();
         barrier_particle.startover();
     }
 
@@ -440,14 +691,11 @@ public class ThreadController implements ParticleListener, SimulationActionListe
         run = false;
         simulationTimeMS = simulationTimeStart;
         simulationNextTimeMS = simulationTimeMS + deltatimeMS;
-        nextParticleBlockStartIndex = 0;
-        nextRandomNumberBlockStartIndex = 0;
+        particleBlocksReset = true;
         waitingParticleIndex = 0;
 //        initialize();
         barrier_particle.setStepStartTime(simulationTimeMS);
         barrier_particle.setStepEndTime(simulationNextTimeMS);
-        barrier_sync.setStepStartTime(simulationTimeMS);
-        barrier_sync.setStepEndTime(simulationNextTimeMS);
         if (control.getScenario() != null) {
             //Reset Timelines in scenarios:
             control.getScenario().setActualTime(simulationTimeMS);
@@ -471,24 +719,19 @@ public class ThreadController implements ParticleListener, SimulationActionListe
                 }
             }
         }
-        if (particles != null) {
+        if (particleStore != null) {
+            ParticleView view = new ParticleView(particleStore);
+            for (int i = 0; i < particleStore.size; i++) {
+                Particle p = particleStore.get(i, view);
+                resetParticle(p);
+                particleStore.store(i, p);
+            }
+        } else if (particles != null) {
             for (Particle p : particles) {
                 if (p == null) {
                     continue;
                 }
-                p.setSurrounding_actual(null);
-//                p.setPosition1d_actual(p.injectionPosition1D);
-//                p.surfaceCellID = p.getInjectionCellID();
-                if (p.getClass().equals(HistoryParticle.class)) {
-                    ((HistoryParticle) p).clearHistory();
-                }
-//                p.deposited = false;
-                p.toPipenetwork = null;
-                p.toSoil = null;
-                p.toSurface = null;
-//                p.posToSurface = 0;
-                p.resetMovementLengths();
-                p.setWaiting();
+                resetParticle(p);
             }
         }
 //        for (ParticleThread thread : barrier_particle.getThreads()) {
@@ -515,7 +758,7 @@ public class ThreadController implements ParticleListener, SimulationActionListe
 //        barrier_positionUpdate.getThread().updateParticlePositions();
         calculationTimeElapsed = 0;
         steps = 0;
-        nextRandomNumberBlockStartIndex = 0;
+        particleBlocksReset = true;
         waitingParticleIndex = 0;
         checkWaitingParticleIndex();
 
@@ -529,139 +772,74 @@ public class ThreadController implements ParticleListener, SimulationActionListe
 
         HE_Database.resetRequestBenchmark();
         HE_GDB_IO.resetRequestBenchmark();
+        profiler.reset();
     }
 
     /**
-     * Break locks of hanging Threads to reenable correct working of simulation.
+     * Prints the profile summary and writes profile.json/.csv into the
+     * export directory.
      */
-    public void breakBarrierLocks() {
-        int actualLoop = steps;
-        System.out.println("call to break barrier locks in step " + steps);
-        stop();
-
-        //that was not enough. threads are still blocking
-        for (int i = 0; i < barrier_particle.getThreads().size(); i++) {
-            ParticleThread pt = barrier_particle.getThreads().get(i);
-            if (pt.getState() == Thread.State.BLOCKED) {
-                System.out.println("Replace blocked Thread " + i);
-                ParticleThread ptnew = new ParticleThread(pt);
-                barrier_particle.getThreads().set(i, ptnew);
-                ptnew.start();
-
-                try {
-                    pt.stopThread();
-                    pt.interrupt();
-                    pt.stop();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            } else if (pt.getState() == Thread.State.RUNNABLE) {
-                if (control.getSurface().getMeasurementRaster() instanceof SurfaceMeasurementTriangleRaster) {
-                    TriangleMeasurement tm = ((SurfaceMeasurementTriangleRaster) control.getSurface().getMeasurementRaster()).monitor[pt.threadIndex];
-                    System.out.println("Break lock of " + pt + "  on " + tm);
-                    try {
-                        if (tm != null) {
-                            tm.lock.unlock();
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+    private void exportProfile() {
+        System.out.println(profiler.getSummary());
+        File directory = SimulationProfiler.exportDirectory;
+        if (directory == null && control.getStoringCoordinator() != null) {
+            directory = control.getStoringCoordinator().getFileRoot();
         }
-
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException ex) {
-            Logger.getLogger(ThreadController.class.getName()).log(Level.SEVERE, null, ex);
+        if (directory == null) {
+            return;
         }
-        System.out.println("restart simulation");
-        start();
-
         try {
-            Thread.sleep(2000);
-        } catch (InterruptedException ex) {
+            profiler.export(directory);
+        } catch (IOException ex) {
             Logger.getLogger(ThreadController.class.getName()).log(Level.SEVERE, null, ex);
         }
-        if (actualLoop != steps) {
-            System.out.println("Stop & start solved the problem");
-            return;
-        }
+    }
 
-        //check if the synchronization thread is blocked
-        if (barrier_sync.getLock().isLocked()) {
-            System.out.println("try to unlock barriersync queued by synchread_pipes " + barrier_sync.getLock().hasQueuedThread(syncThread_pipes));
-            System.out.println("call awake on the sync barrier");
-//            try {
-//                synchronized (barrier_sync) {
-//                    barrier_sync.notifyAll();
-//                }
-////                barrier_sync.getLock().unlock();
-//            } catch (Exception e) {
-//                e.printStackTrace();
-//            }
-            stop();
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(ThreadController.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            start();
-            if (actualLoop != steps) {
-                System.out.println("Continue simulation after SynchronizationBarrier lock was released.");
-            } else {
-                System.out.println("try to reinitialize Synchronization thread");
-            }
-        }
-        System.out.println("irgendwas mit oberfläche");
-        //Go through all triangle measurements and free locks
-        Surface surf = control.getSurface();
-        if (surf != null && surf.getMeasurementRaster() != null) {
-            System.out.println("try to break surface measurementRaster locks.");
-            try {
-                surf.getMeasurementRaster().breakAllLocks();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    private void resetParticle(Particle p) {
+        p.setSurrounding_actual(null);
+//                p.setPosition1d_actual(p.injectionPosition1D);
+//                p.surfaceCellID = p.getInjectionCellID();
+        if (p.getClass().equals(HistoryParticle.class)) {
+            ((HistoryParticle) p).clearHistory();
         }
+//                p.deposited = false;
+        p.toPipenetwork = null;
+        p.toSoil = null;
+        p.toSurface = null;
+//                p.posToSurface = 0;
+        p.resetMovementLengths();
+        p.setWaiting();
+    }
 
-        try {
-            //wait until hopefully all threads have finished their simulation
-            Thread.sleep(500);
-        } catch (InterruptedException ex) {
-            Logger.getLogger(ThreadController.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        if (actualLoop != steps) {
-            //that was enough. simulation is running again. 
-            System.out.println("Continue Simulation after Surface Measurements were unlocked.");
+    /**
+     * Break locks of the surface measurement, that hold ParticleThreads inside
+     * their loop. The step barrier itself can not lose a signal and needs no
+     * recovery.
+     */
+    public void breakBarrierLocks() {
+        System.out.println("call to break measurement locks in step " + steps);
+        Surface surf = control.getSurface();
+        if (surf == null || surf.getMeasurementRaster() == null) {
             return;
         }
-        //that was not enough. threads are still blocking
-        for (int i = 0; i < barrier_particle.getThreads().size(); i++) {
-            ParticleThread pt = barrier_particle.getThreads().get(i);
-            if (pt.getState() == Thread.State.BLOCKED) {
-                System.out.println("Replace blocked Thread " + i);
-                ParticleThread ptnew = new ParticleThread(pt);
-                barrier_particle.getThreads().set(i, ptnew);
-                ptnew.start();
-
+        for (ParticleThread pt : barrier_particle.getThreads()) {
+            if (pt.getState() == Thread.State.RUNNABLE && surf.getMeasurementRaster() instanceof SurfaceMeasurementTriangleRaster) {
+                TriangleMeasurement tm = ((SurfaceMeasurementTriangleRaster) surf.getMeasurementRaster()).monitor[pt.threadIndex];
+                System.out.println("Break lock of " + pt + "  on " + tm);
                 try {
-                    pt.stopThread();
-                    pt.interrupt();
-                    pt.stop();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            } else if (pt.getState() == Thread.State.RUNNABLE) {
-                if (control.getSurface().getMeasurementRaster() instanceof SurfaceMeasurementTriangleRaster) {
-                    TriangleMeasurement tm = ((SurfaceMeasurementTriangleRaster) control.getSurface().getMeasurementRaster()).monitor[pt.threadIndex];
-                    System.out.println("Break lock of " + pt + "  on " + tm);
                     if (tm != null) {
                         tm.lock.unlock();
                     }
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
             }
         }
+        try {
+            surf.getMeasurementRaster().breakAllLocks();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -671,7 +849,6 @@ public class ThreadController implements ParticleListener, SimulationActionListe
         if (!initialized) {
             barrier_particle.initialize();
 //            barrier_positionUpdate.initialize();
-            barrier_sync.initialize();
             for (SimulationActionListener l : listener) {
                 try {
                     l.simulationINIT(this);
@@ -689,8 +866,6 @@ public class ThreadController implements ParticleListener, SimulationActionListe
         simulationNextTimeMS = simulationTimeMS + deltatimeMS;
         barrier_particle.setStepStartTime(simulationTimeMS);
         barrier_particle.setStepEndTime(simulationNextTimeMS);
-        barrier_sync.setStepStartTime(simulationTimeMS);
-        barrier_sync.setStepEndTime(simulationNextTimeMS);
 
         Date d3 = new Date(simulationTimeStart);
         GregorianCalendar dnorm = new GregorianCalendar();
@@ -734,147 +909,216 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     }
 
     /**
-     * The control thread receives finishing-signals of the working thread
-     * barriers and desides which threadbarriers to start next. This is for
-     * synchronization of the loop based calculation.
+     * Terminates the particle threads and the status thread. Must only be
+     * called while the simulation is not running. This ThreadController
+     * cannot be started again.
      */
-    public class ControlThread extends Thread {
-
-        BARRIERS barrier;
-        private int status = 0;
-        Object lastenvokenListener = null;
+    public void shutdown() {
+        if (run) {
+            throw new IllegalStateException("Can not shut down the threads while the simulation is running.");
+        }
+        shutdown = true;
+        for (ParticleThread thread : barrier_particle.getThreads()) {
+            thread.stopThread();
+        }
+        //Wake up the waiting threads, so they can leave their loop.
+        barrier_particle.startover();
+        statusThread.interrupt();
+        syncThread_pipes.prefetcher.shutdown();
+    }
 
-        public ControlThread() {
-            super("ThreadController");
+    /**
+     * Writes the complete state of the simulation (time, particles, random
+     * generators and measurements) behind the checkpoint header. Must only be
+     * called while no ParticleThread is calculating, e.g. from
+     * simulationSTEPFINISH.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeInt(Checkpoint_IO.MAGIC);
+        out.writeInt(Checkpoint_IO.VERSION);
+        out.writeLong(simulationTimeStart);
+        out.writeLong(simulationTimeEnd);
+        out.writeInt(deltatimeMS);
+        out.writeLong(seed);
+        out.writeInt(treatblocksize);
+        out.writeBoolean(counterBasedRandomNumbers);
+
+        out.writeInt(steps);
+        out.writeLong(simulationTimeMS);
+        out.writeLong(simulationNextTimeMS);
+        out.writeInt(waitingParticleIndex);
+        out.writeBoolean(particlesReachedOutlet);
+        out.writeLong(calculationTimeElapsed);
+        syncThread_pipes.writeState(out);
+
+        Checkpoint_IO.CapacityTable capacities = new Checkpoint_IO.CapacityTable(control.getSurface(), control.getNetwork());
+        capacities.writeDimensions(out);
+        //Particles
+        int n = getNumberOfParticles();
+        out.writeInt(n);
+        if (particleStore != null) {
+            ParticleView view = new ParticleView(particleStore);
+            for (int i = 0; i < n; i++) {
+                Checkpoint_IO.writeParticle(out, particleStore.get(i, view), capacities);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                Checkpoint_IO.writeParticle(out, particles[i], capacities);
+            }
+        }
+        //Random numbers
+        if (randomNumberGenerators == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(randomNumberGenerators.length);
+            for (RandomGenerator rng : randomNumberGenerators) {
+                out.writeUTF(rng.getClass().getName());
+                rng.writeState(out);
+            }
         }
+        //Pipe measurements
+        MeasurementContainer mp = control.getScenario() == null ? null : control.getScenario().getMeasurementsPipe();
+        out.writeBoolean(mp != null);
+        if (mp != null) {
+            mp.writeState(out);
+            for (Pipe pipe : capacities.getPipes()) {
+                MeasurementTimeline tl = pipe.getMeasurementTimeLine();
+                out.writeBoolean(tl != null);
+                if (tl != null) {
+                    tl.writeState(out);
+                }
+            }
+        }
+        //Surface measurements
+        SurfaceMeasurementRaster smr = control.getSurface() == null ? null : control.getSurface().getMeasurementRaster();
+        out.writeBoolean(smr != null);
+        if (smr != null) {
+            out.writeUTF(smr.getClass().getName());
+            smr.writeState(out);
+        }
+    }
 
-        @Override
-        public void run() {
-            while (true) {
-//                status = 1;
+    /**
+     * Continues the simulation from a checkpoint. The same setup has to be
+     * loaded and the particles injected (as for a new start) before. Call
+     * {@link #start()} afterwards to continue with the step after the
+     * checkpoint.
+     *
+     * @param in
+     * @throws IOException if the checkpoint does not fit to the loaded
+     * simulation. The state of the simulation is undefined then and it has to
+     * be reset.
+     */
+    public void readCheckpoint(DataInput in) throws IOException {
+        if (run) {
+            throw new IllegalStateException("Can not restore a checkpoint while the simulation is running.");
+        }
+        if (in.readInt() != Checkpoint_IO.MAGIC) {
+            throw new IOException("Not a simulation checkpoint.");
+        }
+        int version = in.readInt();
+        if (version != Checkpoint_IO.VERSION) {
+            throw new IOException("Checkpoint has version " + version + ", only version " + Checkpoint_IO.VERSION + " is supported.");
+        }
+        long start = in.readLong();
+        //The end of the loaded scenario is kept, so a simulation can be extended.
+        in.readLong();
+        int dt = in.readInt();
+        if (start != simulationTimeStart || dt != deltatimeMS) {
+            throw new IOException("Checkpoint starts at " + start + " with dt=" + dt + "ms, the loaded simulation at " + simulationTimeStart + " with dt=" + deltatimeMS + "ms.");
+        }
+        long cpSeed = in.readLong();
+        int blocksize = in.readInt();
+        boolean counterBased = in.readBoolean();
+        if (cpSeed != seed || blocksize != treatblocksize || counterBased != counterBasedRandomNumbers) {
+            //Recreate the generators with the parameters of the checkpoint.
+            this.counterBasedRandomNumbers = counterBased;
+            this.treatblocksize = blocksize;
+            this.seed = cpSeed;
+            recalculateRandomNumberGenerators();
+            setSeed(cpSeed);
+        }
 
-                synchronized (this) {
-//                    status = 2;
-                    finishedLoop(barrier);
-//                    status = 3;
-                    try {
-                        this.wait();
-//                        status = 99;
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(ThreadController.class.getName()).log(Level.SEVERE, null, ex);
-                    }
+        steps = in.readInt();
+        simulationTimeMS = in.readLong();
+        simulationNextTimeMS = in.readLong();
+        waitingParticleIndex = in.readInt();
+        particlesReachedOutlet = in.readBoolean();
+        calculationTimeElapsed = in.readLong();
+        syncThread_pipes.readState(in);
+
+        Checkpoint_IO.CapacityTable capacities = new Checkpoint_IO.CapacityTable(control.getSurface(), control.getNetwork());
+        capacities.checkDimensions(in);
+        //Particles
+        int n = in.readInt();
+        if (n != getNumberOfParticles()) {
+            throw new IOException("Checkpoint contains " + n + " particles, the loaded scenario " + getNumberOfParticles() + ". Inject the particles of the same setup before restoring.");
+        }
+        if (particleStore != null) {
+            ParticleView view = new ParticleView(particleStore);
+            for (int i = 0; i < n; i++) {
+                Particle p = particleStore.get(i, view);
+                Checkpoint_IO.readParticle(in, p, capacities);
+                particleStore.store(i, p);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                if (particles[i] instanceof HistoryParticle) {
+                    ((HistoryParticle) particles[i]).clearHistory();
                 }
-//                status = 100;
+                Checkpoint_IO.readParticle(in, particles[i], capacities);
             }
         }
-
-        /**
-         * Which barrier has just finished its calculatio. Revokes the control
-         * thread to handle ongiong calculation.
-         *
-         * @param barrier
-         */
-        private void setBarrier(BARRIERS barrier) {
-            //set the barrier, that has send theifinish-signal and start theto start next.            
-            synchronized (this) {
-                this.barrier = barrier;
-                this.notifyAll();
+        //Random numbers
+        int rngs = in.readInt();
+        int expected = randomNumberGenerators == null ? -1 : randomNumberGenerators.length;
+        Checkpoint_IO.checkLength(rngs, expected, "random number generators");
+        for (int i = 0; i < rngs; i++) {
+            String type = in.readUTF();
+            if (!type.equals(randomNumberGenerators[i].getClass().getName())) {
+                throw new IOException("Checkpoint uses random generators of type " + type + ", the simulation " + randomNumberGenerators[i].getClass().getName());
             }
+            randomNumberGenerators[i].readState(in);
         }
-
-        private void finishedLoop(BARRIERS finishedBarrier) {
-            if (!run) {
-                return;
+        //Pipe measurements
+        MeasurementContainer mp = control.getScenario() == null ? null : control.getScenario().getMeasurementsPipe();
+        if (in.readBoolean()) {
+            if (mp == null) {
+                throw new IOException("Checkpoint contains pipe measurements, but the loaded scenario has none.");
             }
-//            status = 4;
-            switch (finishedBarrier) {
-                case PARTICLE:
-//                    status = 10;
-                    /*@todo move particle thread after synchr.-thread. */
-                    barrier_sync.setStepStartTime(simulationTimeMS);
-                    barrier_sync.setStepEndTime(simulationNextTimeMS);
-                    calledObject = barrier_sync;
-                    steps++;
-//                    System.out.println("finisched step " + steps + " ended at " + simulationNextTimeMS / 1000 + "s\t " + getNumberOfActiveParticles() + " active particles.");
-//                    status = 11;
-                    barrier_sync.startover();
-//                    status = 12;
-                    return;
-                case SYNC:
-//                    status = 20;
-                    long calcStepTime = System.currentTimeMillis() - calculationLoopStarttime;
-                    calculationTimeHistory[steps % calculationTimeHistory.length] = calcStepTime;
-
-                    calculationTimeElapsed += calcStepTime;
-                    calculationLoopStarttime = System.currentTimeMillis();
-
-                    simulationTimeMS = simulationNextTimeMS;
-                    simulationNextTimeMS += deltatimeMS;
-//                    status = 22;
-                    if (simulationTimeMS >= simulationTimeEnd) {
-//                        System.out.println("Simulation time end reached!");
-                        calculationFinished = true;
-                    }
-                    checkWaitingParticleIndex();
-//                    status = 24;
-                    //Send new Timeinformation to all timelines pipe/manhole/surface/soil
-                    control.getScenario().setActualTime(simulationTimeMS);
-//                    status = 28;
-                case POSITION:
-//                    status = 30;
-                    try {
-                        for (SimulationActionListener l : listener) {
-                            try {
-                                lastenvokenListener = l;
-                                l.simulationSTEPFINISH(steps, this);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-//                    status = 31;
-                    if (calculationFinished) {
-                        run = false;
-                        System.out.println("Stopped after " + (System.currentTimeMillis() - calculationStartTime) / 1000 + "sec computation time.\telapsed calculation time=" + calculationTimeElapsed + "ms,  loops:" + steps);
-
-                        for (SimulationActionListener l : listener) {
-                            l.simulationFINISH(simulationTimeMS >= simulationTimeEnd, particlesReachedOutlet);
-                        }
-
-//                        long totalPipeTime=0,totalSurfaceTime=0;
-//                        for (ParticleThread thread : barrier_particle.getThreads()) {
-//                            totalPipeTime+=thread.timePipe;
-//                            totalSurfaceTime+=thread.timeSurface;
-//                        }
-//                        if(totalPipeTime>0){
-//                            System.out.println("CPU time for pipe transport: "+totalPipeTime/1000+" s.");
-//                        }
-//                        if(totalSurfaceTime>0){
-//                            System.out.println("CPU time for surf transport: "+totalSurfaceTime/1000+" s.");
-//                        }
-                        return;
-                    }
-//                    status = 32;
-                case HYDRODYNAMICS:
-                    barrier_sync.setStepStartTime(simulationTimeMS);
-                    barrier_sync.setStepEndTime(simulationNextTimeMS);
-                    barrier_sync.getThread().checkMeasurementsBeforeParticleLoop();
-
-                    barrier_particle.setStepStartTime(simulationTimeMS);
-                    barrier_particle.setStepEndTime(simulationNextTimeMS);
-                    calledObject = barrier_particle;
-                    nextParticleBlockStartIndex = 0;
-                    nextRandomNumberBlockStartIndex = 0;
-                    barrier_particle.startover();
-                    return;
-                default:
-                    status = 50;
-                    break;
+            mp.readState(in);
+            for (Pipe pipe : capacities.getPipes()) {
+                if (!in.readBoolean()) {
+                    continue;
+                }
+                MeasurementTimeline tl = pipe.getMeasurementTimeLine();
+                if (tl == null) {
+                    throw new IOException("Checkpoint contains measurements for pipe " + pipe.getName() + ", which has no measurement timeline.");
+                }
+                tl.readState(in);
             }
-            System.out.println("ThreadController.finishedLoop(): this should never be reached.");
         }
+        //Surface measurements
+        SurfaceMeasurementRaster smr = control.getSurface() == null ? null : control.getSurface().getMeasurementRaster();
+        if (in.readBoolean()) {
+            String type = in.readUTF();
+            if (smr == null || !type.equals(smr.getClass().getName())) {
+                throw new IOException("Checkpoint contains surface measurements of type " + type + ", the loaded surface uses " + (smr == null ? "none" : smr.getClass().getName()));
+            }
+            smr.readState(in);
+        }
+
+        calculationFinished = false;
+        particleBlocksReset = true;
+        barrier_particle.setStepStartTime(simulationTimeMS);
+        barrier_particle.setStepEndTime(simulationNextTimeMS);
+        if (control.getScenario() != null) {
+            control.getScenario().setActualTime(simulationTimeMS);
+        }
+        lastUsed = this;
     }
 
     /**
@@ -882,6 +1126,8 @@ public class ThreadController implements ParticleListener, SimulationActionListe
      */
     public void cleanFromParticles() {
         this.particles = null;
+        this.particleStore = null;
+        this.blockScheduler.clear();
     }
 
     public long getStartOffset() {
@@ -889,6 +1135,15 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     }
 
     public int getNumberOfActiveParticles() {
+        if (this.particleStore != null) {
+            int active = 0;
+            for (int i = 0; i < particleStore.size; i++) {
+                if (particleStore.isActive(i)) {
+                    active++;
+                }
+            }
+            return active;
+        }
         if (this.particles == null) {
             return 0;
         }
@@ -907,6 +1162,15 @@ public class ThreadController implements ParticleListener, SimulationActionListe
      * @return
      */
     public int getNumberOfWaitingParticles() {
+        if (this.particleStore != null) {
+            int waiting = 0;
+            for (int i = 0; i < particleStore.size; i++) {
+                if (particleStore.isWaiting(i)) {
+                    waiting++;
+                }
+            }
+            return waiting;
+        }
         if (this.particles == null) {
             return 0;
         }
@@ -920,10 +1184,10 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     }
 
     public int getNumberOfTotalParticles() {
-        if (this.particles == null) {
+        if (this.particles == null && this.particleStore == null) {
             return -1;
         }
-        return particles.length;
+        return getNumberOfParticles();
     }
 
     /**
@@ -932,7 +1196,16 @@ public class ThreadController implements ParticleListener, SimulationActionListe
      * until the end of this simulation timestep.
      */
     private void checkWaitingParticleIndex() {
-        if (particles != null) {
+        if (particleStore != null) {
+            for (int i = waitingParticleIndex; i < particleStore.size; i++) {
+                if (particleStore.getInsertionTime(i) < simulationNextTimeMS) {
+                    waitingParticleIndex = i + 1;
+                } else {
+                    waitingParticleIndex = i;
+                    break;
+                }
+            }
+        } else if (particles != null) {
             for (int i = waitingParticleIndex; i < particles.length; i++) {
                 if (particles[i].getInsertionTime() < simulationNextTimeMS) {
                     waitingParticleIndex = i + 1;
@@ -953,9 +1226,9 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     }
 
     /**
-     * Starts the Statusthread, that can revoke barriers, when they come to a
-     * hanging lock problem. (Problem should be solved by october 2019). Checks
-     * the running state of the simulation every 10 seconds.
+     * Starts the Statusthread, that reports the state of all threads to the
+     * console, if a simulation step takes unusually long. Checks the running
+     * state of the simulation every 15 seconds.
      *
      * @return
      */
@@ -966,19 +1239,20 @@ public class ThreadController implements ParticleListener, SimulationActionListe
         statusThread = new Thread("StatusThreadController") {
             private int laststep = -1;
             long lastworkingTimestamp = 0;
+            long lastProfileReport = System.currentTimeMillis();
 
             @Override
             public void run() {
                 boolean informed = false;
-                while (true) {
+                while (!shutdown) {
                     try {
 
                         if (tc.barrier_particle != null) {
                             int running = 0, waiting = 0;
-                            if (!pauseRevokerThread && steps > 0 && (run && steps == laststep)) {
+                            if (!configuration.pauseRevokerThread && steps > 0 && (run && steps == laststep)) {
                                 // something is incredibly slow. prepare output to console
                                 StringBuilder str = new StringBuilder("--" + getClass() + "--detected hanging at loop " + steps + " called barrier: " + (calledObject) + "   :");
-                                str.append("\n lastfinishedBarrier: " + lastFinishedBarrier + "  :  " + controlThread.barrier + ",," + "\t control.status=" + controlThread.status + " (" + controlThread.getState() + ")  listener: " + controlThread.lastenvokenListener);
+                                str.append("\n lastfinishedBarrier: " + lastFinishedBarrier + "  :  " + barrier_particle + "  listener: " + lastenvokenListener);
                                 int someoneblocked = -1;
                                 int someoneRunning = -1;
 
@@ -1015,42 +1289,31 @@ public class ThreadController implements ParticleListener, SimulationActionListe
 
                                 SynchronizationThreadPipe st = syncThread_pipes;
                                 str.append("\n ");
-                                str.append(st.getClass().getSimpleName()).append(" ").append(st.getState()).append(", status=").append(st.status).append(", Lock is ").append((barrier_sync.getLock().isLocked() ? ("locked, waiting:" + barrier_sync.getLock().getQueueLength()) : "free"));
+                                str.append(st.getClass().getSimpleName()).append(", status=").append(st.status);
+                                if (SimulationProfiler.enabled) {
+                                    str.append("\n ").append(profiler.getSummary());
+                                }
 
                                 if (someoneRunning >= 0) {
                                     System.out.println("Slow simulation, but Thread " + someoneRunning + " is still working.");
                                 }
 
                                 System.out.println(str.toString());
-                                int actualloop = steps;
-                                if (someoneblocked >= 0 && someoneRunning < 0 && !informed) {
-//                                    JOptionPane.showMessageDialog(null, "Blocked Thread " + someoneblocked, "Blovked Thread", JOptionPane.INFORMATION_MESSAGE);// str.append(" Restart Thread "+pt.threadIndex);
-//                                    informed = true;
-                                }
-                                if (someoneRunning < 0 && steps == actualloop) {
-                                    if (lockbreaker == null || lockbreaker.getState() == State.TERMINATED) {
-                                        lockbreaker = new Thread("Lockbreaker") {
-                                            @Override
-                                            public void run() {
-                                                breakBarrierLocks();
-                                            }
-                                        };
-                                        lockbreaker.start();
-                                    } else {
-                                        System.out.println("Lockbreaker: " + lockbreaker.getState());
-                                        if (lockbreaker.getState() == State.BLOCKED || lockbreaker.getState() == State.WAITING) {
-                                            lockbreaker.interrupt();
-                                        }
-                                    }
-                                }
                             } else {
                                 lastworkingTimestamp = System.currentTimeMillis();
+                                if (run && SimulationProfiler.enabled && SimulationProfiler.liveReportIntervalSeconds > 0 && lastworkingTimestamp - lastProfileReport >= SimulationProfiler.liveReportIntervalSeconds * 1000L) {
+                                    lastProfileReport = lastworkingTimestamp;
+                                    System.out.println(profiler.getSummary());
+                                }
                             }
                             laststep = steps;
                         }
                         Thread.sleep(15000);
 
                     } catch (Exception ex) {
+                        if (shutdown) {
+                            break;
+                        }
                         Logger.getLogger(ThreadController.class
                                 .getName()).log(Level.SEVERE, null, ex);
                     }
@@ -1134,58 +1397,76 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     }
 
     ////////////////If Particles are stored and controlled in this object
+    /**
+     * Distributes all released particles [0,waitingParticleIndex) to the
+     * ParticleThreads, if the blocks have been reset since the last particle
+     * loop. Must only be called while the particle threads are waiting.
+     */
+    private void scheduleParticleBlocks() {
+        if (particleBlocksReset) {
+            blockScheduler.prepareStep(getNumberOfParticles() == 0 ? 0 : waitingParticleIndex, treatblocksize);
+            particleBlocksReset = false;
+        }
+    }
+
     /**
      * returns the first and last index of particles to be thretened by the
-     * requesting thread. return null if the Thread can go to sleep because
-     * there is nothing to do at the moment.; [0] first index of particle from
-     * ThreadController to calculate; [1] last index (exclude) of particle to
-     * calculate; [2] index of Random number generator to select to calculate
-     * the particles
+     * requesting thread. The block is taken from the thread's own queue or
+     * stolen from another thread, if the own queue is empty. [0] first index of
+     * particle from ThreadController to calculate; [1] last index (exclude) of
+     * particle to calculate; [2] index of Random number generator to select to
+     * calculate the particles. The generator index only depends on the
+     * particle index, not on the requesting thread.
      *
+     * @param threadIndex index of the requesting ParticleThread
      * @param values optional array to be filled and returned. insert the
      * 3-element long array of the previous step to prevent allocation of new
      * space.
      * @return [0]=-1 if there is nothing to do and thread should wait.
      */
-    public int[] getNextParticlesToTreat(int[] values) {
+    public int[] getNextParticlesToTreat(int threadIndex, int[] values) {
         int[] retur = values;
         if (retur == null) {
             retur = new int[3];
         }
-        lock.lock();
-        try {
-            if (nextParticleBlockStartIndex >= waitingParticleIndex) {
-//                System.out.println("return null,  start:" + nextParticleBlockStartIndex + ",  waiting: " + waitingParticleIndex);
-                retur[0] = -1;
-                return retur;
-            }
-
-            retur[0] = nextParticleBlockStartIndex;
-            nextParticleBlockStartIndex += treatblocksize;
-            if (nextParticleBlockStartIndex >= waitingParticleIndex) {
-                nextParticleBlockStartIndex = waitingParticleIndex;
-            }
-            retur[1] = nextParticleBlockStartIndex; //exclude this index
-            retur[2] = nextRandomNumberBlockStartIndex;
-            nextRandomNumberBlockStartIndex++;
-//            System.out.println("return " + retur[0] + ", " + retur[1] + ", " + retur[2] + " waiting: " + waitingParticleIndex);
-
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        } finally {
-            lock.unlock();
+        if (!blockScheduler.nextBlock(threadIndex, retur)) {
+            retur[0] = -1;
         }
         return retur;
     }
 
+    public ParticleBlockScheduler getBlockScheduler() {
+        return blockScheduler;
+    }
+
     public long getSeed() {
         return seed;
     }
 
+    /**
+     * The particles of this simulation in the order of their release. If the
+     * particles are held in a {@link ParticleStore}, this returns detached
+     * copies of the current state.
+     *
+     * @return
+     */
     public Particle[] getParticles() {
+        if (particleStore != null) {
+            return particleStore.toParticles();
+        }
         return particles;
     }
 
+    /**
+     * Structure of arrays storage of the particles or null if the particles
+     * are held as objects.
+     *
+     * @return
+     */
+    public ParticleStore getParticleStore() {
+        return particleStore;
+    }
+
     /**
      * Number of particles processed by a Particlethread before asking for the
      * next block.
@@ -1197,9 +1478,10 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     }
 
     /**
-     * Set number of particles that are processed by a Thread in one call. This
-     * should be about 1/20 of the total particle number to allow effective
-     * multithreading without waiting for each other of the ParticleThreads.
+     * Set number of particles in one block. Each block uses its own random
+     * number generator. The number of blocks a thread processes in one call
+     * adapts to the measured calculation time, so this value does not need to
+     * be tuned to the total particle number anymore.
      *
      * @param treatblocksize
      */
@@ -1228,6 +1510,7 @@ public class ThreadController implements ParticleListener, SimulationActionListe
     }
 
     public String reportTravelStatistics() {
+        Particle[] particles = getParticles();
         double maxStay = 0;
         double maxLeft = 0;
         int nbLeft = 0, nbStay = 0;
@@ -0,0 +1,522 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.io;
+
+import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.surface.Surface;
+import com.saemann.gulli.core.model.topology.Capacity;
+import com.saemann.gulli.core.model.topology.Manhole;
+import com.saemann.gulli.core.model.topology.Network;
+import com.saemann.gulli.core.model.topology.Pipe;
+import com.saemann.gulli.core.model.topology.Position3D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Binary checkpoint files of a running simulation. The file starts with
+ * {@link #MAGIC} and {@link #VERSION}, followed by the state written by
+ * ThreadController#writeCheckpoint. This class provides the encoding of
+ * particles, references to capacities and arrays, that is shared by the
+ * model classes writing their part of the state.
+ *
+ * References to pipes and manholes are stored as index in the list of all
+ * pipes/manholes sorted by name, so a checkpoint can be applied to the same
+ * network, loaded in another session.
+ *
+ * @author saemann
+ */
+public class Checkpoint_IO {
+
+    public static final int MAGIC = 0x47434B50;//"GCKP"
+    public static final int VERSION = 1;
+
+    private static final byte FLAG_DRY = 1, FLAG_DEPOSITED = 2, FLAG_BLOCKED = 4, FLAG_POSITION = 8;
+
+    private static final byte CAPACITY_NULL = 0, CAPACITY_SURFACE = 1, CAPACITY_PIPE = 2, CAPACITY_MANHOLE = 3;
+
+    /**
+     * Writes the content to the file. The content is written to a temporary
+     * file first, forced to the disk and then moved, so an existing checkpoint
+     * is never replaced by an incomplete one, also not after a power loss.
+     *
+     * The blocks of the content are released while they are written.
+     *
+     * @param file
+     * @param content state, starting with magic and version
+     * @throws IOException
+     */
+    public static void write(File file, ChunkedBuffer content) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream os = new FileOutputStream(tmp)) {
+            content.drainTo(os);
+            os.flush();
+            os.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * In-memory copy of a checkpoint, stored in a list of blocks. Unlike a
+     * ByteArrayOutputStream it is not limited to 2 GB and never copies its
+     * content to grow. Block sizes double from 64 kB up to 8 MB. Not thread
+     * safe; the content is filled by one thread and drained by another after
+     * filling has finished.
+     */
+    public static class ChunkedBuffer extends OutputStream {
+
+        private static final int FIRST_CHUNK = 1 << 16, MAX_CHUNK = 1 << 23;
+
+        private final ArrayList<byte[]> chunks = new ArrayList<>();
+        private byte[] current;
+        private int position;
+        private long size;
+
+        @Override
+        public void write(int b) {
+            if (current == null || position == current.length) {
+                nextChunk();
+            }
+            current[position++] = (byte) b;
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                if (current == null || position == current.length) {
+                    nextChunk();
+                }
+                int n = Math.min(len, current.length - position);
+                System.arraycopy(b, off, current, position, n);
+                position += n;
+                off += n;
+                len -= n;
+                size += n;
+            }
+        }
+
+        private void nextChunk() {
+            current = new byte[current == null ? FIRST_CHUNK : Math.min(MAX_CHUNK, current.length * 2)];
+            chunks.add(current);
+            position = 0;
+        }
+
+        /**
+         *
+         * @return number of bytes written
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Writes the content to the stream. Every block is released after it
+         * has been written, the buffer is empty afterwards.
+         *
+         * @param os
+         * @throws IOException
+         */
+        public void drainTo(OutputStream os) throws IOException {
+            int last = chunks.size() - 1;
+            for (int i = 0; i <= last; i++) {
+                os.write(chunks.get(i), 0, i == last ? position : chunks.get(i).length);
+                chunks.set(i, null);
+            }
+            chunks.clear();
+            current = null;
+            position = 0;
+            size = 0;
+        }
+    }
+
+    /**
+     * Lookup of the capacities a particle can refer to.
+     */
+    public static class CapacityTable {
+
+        private final Surface surface;
+        private final Pipe[] pipes;
+        private final Manhole[] manholes;
+        private final IdentityHashMap<Capacity, Integer> index = new IdentityHashMap<>();
+
+        public CapacityTable(Surface surface, Network network) {
+            this.surface = surface;
+            if (network != null) {
+                pipes = sorted(network.getPipes()).toArray(new Pipe[0]);
+                manholes = sorted(network.getManholes()).toArray(new Manhole[0]);
+            } else {
+                pipes = new Pipe[0];
+                manholes = new Manhole[0];
+            }
+            for (int i = 0; i < pipes.length; i++) {
+                index.put(pipes[i], i);
+            }
+            for (int i = 0; i < manholes.length; i++) {
+                index.put(manholes[i], i);
+            }
+        }
+
+        private static <C extends Capacity> ArrayList<C> sorted(Collection<C> capacities) {
+            ArrayList<C> list = new ArrayList<>(capacities);
+            list.sort(Comparator.comparing((C c) -> String.valueOf(c.getName())).thenComparingLong(c -> c.getManualID()));
+            return list;
+        }
+
+        /**
+         * Pipes in the order of their index.
+         *
+         * @return
+         */
+        public Pipe[] getPipes() {
+            return pipes;
+        }
+
+        public void write(DataOutput out, Capacity c) throws IOException {
+            if (c == null) {
+                out.writeByte(CAPACITY_NULL);
+            } else if (c == surface) {
+                out.writeByte(CAPACITY_SURFACE);
+            } else {
+                Integer i = index.get(c);
+                if (i == null) {
+                    throw new IOException("Capacity " + c + " (" + c.getClass().getSimpleName() + ") can not be stored in a checkpoint.");
+                }
+                out.writeByte(c instanceof Pipe ? CAPACITY_PIPE : CAPACITY_MANHOLE);
+                out.writeInt(i);
+            }
+        }
+
+        public Capacity read(DataInput in) throws IOException {
+            byte type = in.readByte();
+            switch (type) {
+                case CAPACITY_NULL:
+                    return null;
+                case CAPACITY_SURFACE:
+                    if (surface == null) {
+                        throw new IOException("Checkpoint refers to a surface, but no surface is loaded.");
+                    }
+                    return surface;
+                case CAPACITY_PIPE:
+                    return pipes[in.readInt()];
+                case CAPACITY_MANHOLE:
+                    return manholes[in.readInt()];
+                default:
+                    throw new IOException("Unknown capacity type " + type + " in checkpoint.");
+            }
+        }
+
+        /**
+         * Number of pipes, manholes and surface cells to check, if a
+         * checkpoint fits to the loaded model.
+         *
+         * @param out
+         * @throws IOException
+         */
+        public void writeDimensions(DataOutput out) throws IOException {
+            out.writeInt(pipes.length);
+            out.writeInt(manholes.length);
+            out.writeInt(surface == null ? -1 : surface.getTriangleMids().length);
+        }
+
+        public void checkDimensions(DataInput in) throws IOException {
+            int p = in.readInt(), m = in.readInt(), t = in.readInt();
+            int tris = surface == null ? -1 : surface.getTriangleMids().length;
+            if (p != pipes.length || m != manholes.length || t != tris) {
+                throw new IOException("Checkpoint was written for " + p + " pipes, " + m + " manholes, " + t + " surface cells. Loaded are " + pipes.length + " pipes, " + manholes.length + " manholes, " + tris + " surface cells.");
+            }
+        }
+    }
+
+    /**
+     * Writes the transport state of the particle. Material and injection are
+     * not stored, they are recreated from the scenario.
+     *
+     * @param out
+     * @param p
+     * @param capacities
+     * @throws IOException
+     */
+    public static void writeParticle(DataOutput out, Particle p, CapacityTable capacities) throws IOException {
+        out.writeInt(p.getId());
+        out.writeByte(p.status);
+        Coordinate pos = p.getPosition3d();
+        byte f = 0;
+        if (p.drymovement) {
+            f |= FLAG_DRY;
+        }
+        if (p.deposited) {
+            f |= FLAG_DEPOSITED;
+        }
+        if (p.blocked) {
+            f |= FLAG_BLOCKED;
+        }
+        if (pos != null) {
+            f |= FLAG_POSITION;
+        }
+        out.writeByte(f);
+        if (pos != null) {
+            out.writeDouble(pos.x);
+            out.writeDouble(pos.y);
+            out.writeDouble(pos.z);
+        }
+        out.writeDouble(p.blockVelocity);
+        out.writeFloat(p.getPosition1d_actual());
+        out.writeFloat((float) p.getVelocity1d());
+        out.writeFloat(p.particleMass);
+        out.writeFloat((float) p.getTravelledPathLength());
+        out.writeLong(p.getInsertionTime());
+        out.writeLong(p.toSurfaceTimestamp);
+        out.writeInt(p.surfaceCellID);
+        out.writeInt(p.lastSurfaceCellID);
+        out.writeInt(p.soilNodeIndex);
+        capacities.write(out, p.getSurrounding_actual());
+        capacities.write(out, p.toSurface);
+        capacities.write(out, p.toPipenetwork);
+        capacities.write(out, p.toSoil);
+    }
+
+    /**
+     * Applies the state written by
+     * {@link #writeParticle(DataOutput, Particle, CapacityTable)} to the
+     * particle at the same position of the recreated particle list.
+     *
+     * @param in
+     * @param p
+     * @param capacities
+     * @throws IOException if the particle has another injection time.
+     */
+    public static void readParticle(DataInput in, Particle p, CapacityTable capacities) throws IOException {
+        int id = in.readInt();
+        byte status = in.readByte();
+        byte f = in.readByte();
+        if ((f & FLAG_POSITION) != 0) {
+            p.setPosition3D(new Coordinate(in.readDouble(), in.readDouble(), in.readDouble()));
+        } else {
+            p.setPosition3D((Position3D) null);
+        }
+        p.drymovement = (f & FLAG_DRY) != 0;
+        p.deposited = (f & FLAG_DEPOSITED) != 0;
+        p.blocked = (f & FLAG_BLOCKED) != 0;
+        p.blockVelocity = in.readDouble();
+        p.setPosition1d_actual(in.readFloat());
+        p.setVelocity1d(in.readFloat());
+        p.particleMass = in.readFloat();
+        float travelled = in.readFloat();
+        long injectionTime = in.readLong();
+        if (injectionTime != p.getInsertionTime()) {
+            throw new IOException("Particle " + id + " of the checkpoint is injected at " + injectionTime + ", but the scenario injects it at " + p.getInsertionTime() + ". The checkpoint does not belong to this scenario.");
+        }
+        p.toSurfaceTimestamp = in.readLong();
+        p.surfaceCellID = in.readInt();
+        p.lastSurfaceCellID = in.readInt();
+        p.soilNodeIndex = in.readInt();
+        p.setSurrounding_actual(capacities.read(in));
+        p.toSurface = capacities.read(in);
+        p.toPipenetwork = capacities.read(in);
+        p.toSoil = capacities.read(in);
+        p.restoreState(id, status, travelled);
+    }
+
+    public static void writeArray(DataOutput out, int[] array) throws IOException {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        for (int v : array) {
+            out.writeInt(v);
+        }
+    }
+
+    public static void writeArray(DataOutput out, long[] array) throws IOException {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        for (long v : array) {
+            out.writeLong(v);
+        }
+    }
+
+    public static void writeArray(DataOutput out, float[] array) throws IOException {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        for (float v : array) {
+            out.writeFloat(v);
+        }
+    }
+
+    public static void writeArray(DataOutput out, double[] array) throws IOException {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        for (double v : array) {
+            out.writeDouble(v);
+        }
+    }
+
+    public static void writeArray(DataOutput out, float[][] array) throws IOException {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        for (float[] v : array) {
+            writeArray(out, v);
+        }
+    }
+
+    public static void writeArray(DataOutput out, double[][] array) throws IOException {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        for (double[] v : array) {
+            writeArray(out, v);
+        }
+    }
+
+    public static int[] readIntArray(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            return null;
+        }
+        int[] array = new int[n];
+        for (int i = 0; i < n; i++) {
+            array[i] = in.readInt();
+        }
+        return array;
+    }
+
+    public static long[] readLongArray(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            return null;
+        }
+        long[] array = new long[n];
+        for (int i = 0; i < n; i++) {
+            array[i] = in.readLong();
+        }
+        return array;
+    }
+
+    public static float[] readFloatArray(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            return null;
+        }
+        float[] array = new float[n];
+        for (int i = 0; i < n; i++) {
+            array[i] = in.readFloat();
+        }
+        return array;
+    }
+
+    public static double[] readDoubleArray(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            return null;
+        }
+        double[] array = new double[n];
+        for (int i = 0; i < n; i++) {
+            array[i] = in.readDouble();
+        }
+        return array;
+    }
+
+    public static float[][] readFloatArray2D(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            return null;
+        }
+        float[][] array = new float[n][];
+        for (int i = 0; i < n; i++) {
+            array[i] = readFloatArray(in);
+        }
+        return array;
+    }
+
+    public static double[][] readDoubleArray2D(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            return null;
+        }
+        double[][] array = new double[n][];
+        for (int i = 0; i < n; i++) {
+            array[i] = readDoubleArray(in);
+        }
+        return array;
+    }
+
+    /**
+     * Reads an array and checks its length.
+     *
+     * @param in
+     * @param expectedLength
+     * @param name for the error message
+     * @return
+     * @throws IOException if the length differs.
+     */
+    public static int[] readIntArray(DataInput in, int expectedLength, String name) throws IOException {
+        int[] array = readIntArray(in);
+        checkLength(array == null ? -1 : array.length, expectedLength, name);
+        return array;
+    }
+
+    public static long[] readLongArray(DataInput in, int expectedLength, String name) throws IOException {
+        long[] array = readLongArray(in);
+        checkLength(array == null ? -1 : array.length, expectedLength, name);
+        return array;
+    }
+
+    public static double[] readDoubleArray(DataInput in, int expectedLength, String name) throws IOException {
+        double[] array = readDoubleArray(in);
+        checkLength(array == null ? -1 : array.length, expectedLength, name);
+        return array;
+    }
+
+    public static void checkLength(int length, int expectedLength, String name) throws IOException {
+        if (length != expectedLength) {
+            throw new IOException("Checkpoint contains " + length + " values for " + name + ", expected " + expectedLength + ".");
+        }
+    }
+}
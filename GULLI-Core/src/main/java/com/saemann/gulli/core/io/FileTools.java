@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.io;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Helpers for files read by several io classes.
+ *
+ * @author saemann
+ */
+public class FileTools {
+
+    /**
+     * Key to detect changes of the source. Built from names, sizes and
+     * modification times of the file or all files in the directory (*.gdb).
+     * Used to check if cache files stored beside a result are still up to
+     * date.
+     *
+     * @param source
+     * @return
+     */
+    public static long sourceKey(File source) {
+        long h = 1125899906842597L;
+        h = 31 * h + source.getName().hashCode();
+        if (source.isDirectory()) {
+            File[] files = source.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File f : files) {
+                    h = 31 * h + sourceKey(f);
+                }
+            }
+        } else {
+            h = 31 * h + source.length();
+            h = 31 * h + source.lastModified();
+        }
+        return h;
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.io;
+
+import com.saemann.gulli.core.control.Action.Action;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses large line based number files (e.g. X.dat, TRIMOD2.dat, surface
+ * CSVs) in parallel. The file is memory mapped and split at line boundaries
+ * into chunks, which are parsed on a ForkJoinPool. Every worker uses its own
+ * {@link NumberConverter} for the allocation-free decoding of the numbers and
+ * writes directly into the target arrays of the {@link LineHandler}.
+ *
+ * @author saemann
+ */
+public class ParallelNumberParser implements AutoCloseable {
+
+    /**
+     * Size of the chunks in bytes, that are parsed by one task.
+     */
+    public static int chunkSize = 16 * 1024 * 1024;
+
+    public static boolean verbose = false;
+
+    /**
+     * Receives the tokens of every non-empty line. Lines that contain only
+     * blanks or tabs are treated as empty. Implementations are
+     * called from several threads at once and should only write to the
+     * positions belonging to the line.
+     */
+    public interface LineHandler {
+
+        /**
+         *
+         * @param lineIndex index of the non-empty line counted from the start
+         * offset, or -1 if the line indices were not requested.
+         * @param line tokens of this line
+         * @throws Exception
+         */
+        public void parseLine(long lineIndex, Line line) throws Exception;
+    }
+
+    /**
+     * Tokens of one line. The object is reused for all lines of a chunk.
+     */
+    public static class Line {
+
+        private char[] chars = new char[256];
+        private int length;
+        private int[] starts = new int[16], ends = new int[16];
+        private int tokens;
+        private final NumberConverter nc = new NumberConverter(null);
+
+        public int getNumberOfTokens() {
+            return tokens;
+        }
+
+        public boolean isEmptyToken(int token) {
+            checkToken(token);
+            return ends[token] < starts[token];
+        }
+
+        /**
+         * The bounds arrays are reused for all lines. Tokens behind the end of
+         * a short line would return values of a previous line.
+         *
+         * @param token
+         */
+        private void checkToken(int token) {
+            if (token < 0 || token >= tokens) {
+                throw new ArrayIndexOutOfBoundsException("Column " + token + " requested, but the line has only " + tokens + " columns: '" + new String(chars, 0, Math.min(length, 80)) + "'");
+            }
+        }
+
+        public double getDouble(int token) {
+            checkToken(token);
+            int from = starts[token], to = ends[token];
+            if (to < from) {
+                return 0;
+            }
+            if (chars[from] == '-') {
+                return -getDouble(from + 1, to);
+            }
+            return getDouble(from, to);
+        }
+
+        public float getFloat(int token) {
+            return (float) getDouble(token);
+        }
+
+        public int getInt(int token) {
+            checkToken(token);
+            int from = starts[token], to = ends[token];
+            if (to < from) {
+                return 0;
+            }
+            return nc.parseIntegerFromToInclude(chars, from, to);
+        }
+
+        public String getString(int token) {
+            checkToken(token);
+            return new String(chars, starts[token], ends[token] - starts[token] + 1);
+        }
+
+        /**
+         * Fills the array with the values of the tokens, starting at token
+         * 'firstToken'. Remaining positions are set to 0.
+         *
+         * @param firstToken
+         * @param toFill
+         * @return number of values read
+         */
+        public int fillDoubles(int firstToken, double[] toFill) {
+            int n = Math.max(0, Math.min(toFill.length, tokens - firstToken));
+            for (int i = 0; i < n; i++) {
+                toFill[i] = getDouble(firstToken + i);
+            }
+            for (int i = n; i < toFill.length; i++) {
+                toFill[i] = 0;
+            }
+            return n;
+        }
+
+        public int fillFloats(int firstToken, float[] toFill) {
+            int n = Math.max(0, Math.min(toFill.length, tokens - firstToken));
+            for (int i = 0; i < n; i++) {
+                toFill[i] = getFloat(firstToken + i);
+            }
+            for (int i = n; i < toFill.length; i++) {
+                toFill[i] = 0;
+            }
+            return n;
+        }
+
+        public int fillIntegers(int firstToken, int[] toFill) {
+            int n = Math.max(0, Math.min(toFill.length, tokens - firstToken));
+            for (int i = 0; i < n; i++) {
+                toFill[i] = getInt(firstToken + i);
+            }
+            for (int i = n; i < toFill.length; i++) {
+                toFill[i] = 0;
+            }
+            return n;
+        }
+
+        private double getDouble(int from, int to) {
+            for (int i = from; i <= to; i++) {
+                char c = chars[i];
+                if (c == 'e' || c == 'E') {
+                    //Scientific notation is not supported by the NumberConverter.
+                    return Double.parseDouble(new String(chars, from, to - from + 1));
+                }
+            }
+            return nc.parseDoubleFromToInclude(chars, from, to);
+        }
+
+        private void append(char c) {
+            if (length == chars.length) {
+                char[] n = new char[chars.length * 2];
+                System.arraycopy(chars, 0, n, 0, length);
+                chars = n;
+            }
+            chars[length++] = c;
+        }
+
+        private void addToken(int from, int toIncluded) {
+            if (tokens == starts.length) {
+                int[] ns = new int[starts.length * 2];
+                int[] ne = new int[ns.length];
+                System.arraycopy(starts, 0, ns, 0, tokens);
+                System.arraycopy(ends, 0, ne, 0, tokens);
+                starts = ns;
+                ends = ne;
+            }
+            starts[tokens] = from;
+            ends[tokens] = toIncluded;
+            tokens++;
+        }
+
+        /**
+         * Splits the characters of the line into tokens. Repeated blanks are
+         * treated as one splitter, all other splitters separate exactly two
+         * tokens, so that empty columns keep their position.
+         *
+         * @param splitters
+         */
+        private void tokenize(char[] splitters) {
+            tokens = 0;
+            int start = -1;
+            for (int i = 0; i < length; i++) {
+                char c = chars[i];
+                boolean split = false;
+                for (char s : splitters) {
+                    if (c == s) {
+                        split = true;
+                        break;
+                    }
+                }
+                if (split) {
+                    if (start >= 0) {
+                        addToken(start, i - 1);
+                        start = -1;
+                    } else if (c != ' ' && c != '\t') {
+                        //empty column
+                        addToken(i, i - 1);
+                    }
+                } else if (start < 0) {
+                    if (c == ' ' || c == '\t') {
+                        //leading blanks of a column
+                        continue;
+                    }
+                    start = i;
+                }
+            }
+            if (start >= 0) {
+                int end = length - 1;
+                while (end > start && (chars[end] == ' ' || chars[end] == '\t')) {
+                    end--;
+                }
+                addToken(start, end);
+            }
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final long size;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private Action action;
+
+    private long lastParsedBytes;
+    private long lastParseNanos;
+
+    public ParallelNumberParser(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    /**
+     * Reads the line starting at the byte offset.
+     *
+     * @param offset
+     * @return the line without line break or null if the end of file is
+     * reached.
+     * @throws IOException
+     */
+    public String readLine(long offset) throws IOException {
+        if (offset >= size) {
+            return null;
+        }
+        long end = nextLineStart(offset);
+        int length = (int) (end - offset);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.read(buffer, offset);
+        int l = length;
+        while (l > 0 && (buffer.get(l - 1) == '\n' || buffer.get(l - 1) == '\r')) {
+            l--;
+        }
+        return new String(buffer.array(), 0, l, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Byte offset of the line following the line that contains the offset.
+     *
+     * @param offset
+     * @return offset of the next line or the file size.
+     * @throws IOException
+     */
+    public long nextLineStart(long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long position = offset;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Parses all lines from the start offset to the end of the file in
+     * parallel.
+     *
+     * @param fromOffset byte offset of the first line to parse
+     * @param splitters characters separating the numbers of a line
+     * @param countLines if true, the handler receives the index of each
+     * non-empty line. This needs an additional pass over the file to count
+     * the lines of each chunk.
+     * @param handler
+     * @return number of parsed non-empty lines
+     * @throws IOException
+     */
+    public long parse(long fromOffset, String splitters, boolean countLines, LineHandler handler) throws IOException {
+        long start = System.nanoTime();
+        final long[] bounds = chunkBounds(fromOffset);
+        final int chunks = bounds.length - 1;
+        final long[] firstLine = new long[chunks];
+        if (countLines) {
+            long[] counts = invoke(chunks, (int c) -> countLines(bounds[c], bounds[c + 1]));
+            long sum = 0;
+            for (int i = 0; i < chunks; i++) {
+                firstLine[i] = sum;
+                sum += counts[i];
+            }
+        }
+        final char[] split = splitters.toCharArray();
+        final AtomicInteger finished = new AtomicInteger();
+        long[] lines = invoke(chunks, (int c) -> {
+            long n = parseChunk(bounds[c], bounds[c + 1], countLines ? firstLine[c] : -1, split, handler);
+            if (action != null) {
+                action.progress = finished.incrementAndGet() / (float) chunks;
+                action.updateProgress();
+            }
+            return n;
+        });
+        long total = 0;
+        for (long l : lines) {
+            total += l;
+        }
+        lastParsedBytes = size - fromOffset;
+        lastParseNanos = System.nanoTime() - start;
+        if (verbose) {
+            System.out.println(file.getName() + ": parsed " + total + " lines in " + chunks + " chunks, " + (lastParseNanos / 1000000) + "ms, " + String.format("%.1f", getMegabytesPerSecond()) + " MB/s");
+        }
+        return total;
+    }
+
+    private interface ChunkTask {
+
+        public long run(int chunk) throws Exception;
+    }
+
+    private long[] invoke(int chunks, ChunkTask task) throws IOException {
+        List<Callable<Long>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int c = i;
+            tasks.add(() -> task.run(c));
+        }
+        long[] results = new long[chunks];
+        List<Future<Long>> futures = pool.invokeAll(tasks);
+        try {
+            for (int i = 0; i < chunks; i++) {
+                results[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Parsing of " + file.getName() + " was interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Error while parsing " + file.getName() + ": " + ex.getCause().getLocalizedMessage(), ex.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Splits the file into chunks that start at the beginning of a line.
+     *
+     * @param fromOffset
+     * @return chunk borders incl. start and end offset
+     * @throws IOException
+     */
+    private long[] chunkBounds(long fromOffset) throws IOException {
+        ArrayList<Long> bounds = new ArrayList<>();
+        long position = fromOffset;
+        bounds.add(position);
+        while (position < size) {
+            long next = position + Math.max(1024, chunkSize);
+            if (next >= size) {
+                position = size;
+            } else {
+                position = nextLineStart(next);
+            }
+            bounds.add(position);
+        }
+        long[] b = new long[bounds.size()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = bounds.get(i);
+        }
+        return b;
+    }
+
+    private long countLines(long from, long to) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        long lines = 0;
+        boolean inLine = false;
+        int length = (int) (to - from);
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                if (inLine) {
+                    lines++;
+                    inLine = false;
+                }
+            } else if (b != ' ' && b != '\t') {
+                //Lines of blanks have no tokens and are skipped by parseChunk.
+                inLine = true;
+            }
+        }
+        if (inLine) {
+            lines++;
+        }
+        return lines;
+    }
+
+    private long parseChunk(long from, long to, long firstLineIndex, char[] splitters, LineHandler handler) throws Exception {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        Line line = new Line();
+        long lines = 0;
+        int length = (int) (to - from);
+        for (int i = 0; i <= length; i++) {
+            byte b = i < length ? buffer.get(i) : (byte) '\n';
+            if (b == '\n' || b == '\r') {
+                if (line.length > 0) {
+                    line.tokenize(splitters);
+                    if (line.tokens > 0) {
+                        handler.parseLine(firstLineIndex < 0 ? -1 : firstLineIndex + lines, line);
+                        lines++;
+                    }
+                    line.length = 0;
+                }
+            } else {
+                line.append((char) (b & 0xFF));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Throughput of the last call of parse(...) in MB/s.
+     *
+     * @return
+     */
+    public double getMegabytesPerSecond() {
+        if (lastParseNanos == 0) {
+            return 0;
+        }
+        return (lastParsedBytes / (1024. * 1024.)) / (lastParseNanos / 1000000000.);
+    }
+
+    public long getFileSize() {
+        return size;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Progress of the chunks is reported to this action.
+     *
+     * @param action
+     */
+    public void setAction(Action action) {
+        this.action = action;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming sink for particle traces. Every ParticleThread appends fixed size
+ * binary records into its own buffer. Full buffers are written to one shared
+ * file channel. Records of different threads are interleaved in the file, the
+ * sequence number of each record gives the order inside the trace of one
+ * particle.
+ *
+ * Record layout (big endian, {@link #RECORD_BYTES} bytes): int particle id,
+ * int sequence, long simulation time [ms], byte capacity type, long capacity
+ * id, double x (longitude), double y (latitude).
+ *
+ * @author saemann
+ */
+public class ParticleTraceWriter implements AutoCloseable {
+
+    public static final int RECORD_BYTES = 4 + 4 + 8 + 1 + 8 + 8 + 8;
+
+    /**
+     * Capacity types stored in the records.
+     */
+    public static final byte TYPE_POSITION = 0, TYPE_PIPE = 1, TYPE_MANHOLE = 2, TYPE_SURFACE_CELL = 3, TYPE_OTHER = 4;
+
+    /**
+     * Number of records per thread buffer.
+     */
+    public static int bufferRecords = 8192;
+
+    public static boolean verbose = false;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    /**
+     * All buffers ever handed out, to flush them at the end of a step.
+     */
+    private final ArrayList<ByteBuffer> buffers = new ArrayList<>();
+
+    private final ThreadLocal<ByteBuffer> threadBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            ByteBuffer b = ByteBuffer.allocateDirect(bufferRecords * RECORD_BYTES);
+            synchronized (buffers) {
+                buffers.add(b);
+            }
+            return b;
+        }
+    };
+
+    private final AtomicLong records = new AtomicLong(0);
+
+    private volatile boolean closed = false;
+
+    /**
+     * Receives the records when reading a trace file.
+     */
+    public interface RecordConsumer {
+
+        public void record(int particleID, int sequence, long time, byte capacityType, long capacityID, double x, double y);
+    }
+
+    public ParticleTraceWriter(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Append one record to the buffer of the calling thread.
+     *
+     * @param particleID
+     * @param sequence index of this record in the trace of the particle
+     * @param time simulation time [ms]
+     * @param capacityType one of the TYPE_ constants
+     * @param capacityID id of pipe/manhole/cell or -1
+     * @param x longitude
+     * @param y latitude
+     */
+    public void write(int particleID, int sequence, long time, byte capacityType, long capacityID, double x, double y) {
+        if (closed) {
+            return;
+        }
+        ByteBuffer b = threadBuffer.get();
+        synchronized (b) {
+            if (b.remaining() < RECORD_BYTES) {
+                writeBuffer(b);
+            }
+            b.putInt(particleID);
+            b.putInt(sequence);
+            b.putLong(time);
+            b.put(capacityType);
+            b.putLong(capacityID);
+            b.putDouble(x);
+            b.putDouble(y);
+        }
+        records.incrementAndGet();
+    }
+
+    /**
+     * Writes the content of the buffer to the file and clears it. Caller must
+     * hold the lock of the buffer.
+     *
+     * @param b
+     */
+    private void writeBuffer(ByteBuffer b) {
+        b.flip();
+        try {
+            synchronized (channel) {
+                while (b.hasRemaining()) {
+                    channel.write(b);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        b.clear();
+    }
+
+    /**
+     * Write the buffers of all threads to the file.
+     */
+    public void flush() {
+        ArrayList<ByteBuffer> list;
+        synchronized (buffers) {
+            list = new ArrayList<>(buffers);
+        }
+        for (ByteBuffer b : list) {
+            synchronized (b) {
+                if (b.position() > 0) {
+                    writeBuffer(b);
+                }
+            }
+        }
+        try {
+            synchronized (channel) {
+                if (channel.isOpen()) {
+                    channel.force(false);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        synchronized (channel) {
+            channel.close();
+        }
+        if (verbose) {
+            System.out.println("Closed trace file " + file.getAbsolutePath() + " with " + records.get() + " records (" + (records.get() * RECORD_BYTES / 1024) + " kB).");
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getNumberOfRecords() {
+        return records.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Reads all records of a trace file in file order.
+     *
+     * @param file trace file
+     * @param consumer receives every record
+     * @return number of records read
+     * @throws IOException
+     */
+    public static long read(File file, RecordConsumer consumer) throws IOException {
+        long count = 0;
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocateDirect(bufferRecords * RECORD_BYTES);
+            boolean eof = false;
+            while (!eof) {
+                eof = fc.read(b) < 0;
+                b.flip();
+                //An incomplete record at the end of the file is ignored
+                while (b.remaining() >= RECORD_BYTES) {
+                    consumer.record(b.getInt(), b.getInt(), b.getLong(), b.get(), b.getLong(), b.getDouble(), b.getDouble());
+                    count++;
+                }
+                b.compact();
+            }
+        }
+        return count;
+    }
+}
@@ -194,6 +194,8 @@ public class Setup_IO {
         bw.newLine();
         bw.write("\t\t\t<Synchronize Writing>" + setup.isSurfaceMeasurementSynchronize() + "</>");
         bw.newLine();
+        bw.write("\t\t\t<Threadlocal Buffer>" + setup.isSurfaceMeasurementThreadLocal() + "</>");
+        bw.newLine();
         bw.write("\t\t</Surface>");
         bw.newLine();
         bw.write("\t\t<Trace>");
@@ -902,6 +904,11 @@ public class Setup_IO {
                         if (surfaceRelation) {
                             setup.setSurfaceMeasurementSynchronize(sync);
                         }
+                    } else if (line.contains("Threadlocal")) {
+                        boolean threadlocal = Boolean.parseBoolean(line.substring(line.indexOf(">") + 1, line.indexOf("</")));
+                        if (surfaceRelation) {
+                            setup.setSurfaceMeasurementThreadLocal(threadlocal);
+                        }
                     }
                 }
             } catch (Exception exception) {
@@ -0,0 +1,414 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.io;
+
+import com.saemann.gulli.core.model.surface.Surface;
+import com.saemann.gulli.core.model.surface.SurfaceVelocityLoader;
+import com.saemann.gulli.core.model.surface.SurfaceWaterlevelLoader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary cache of the surface flow field (triangle velocities, waterlevels and
+ * elevation) next to the source result file. After the first run, the values
+ * are read through memory mapped buffers instead of parsing the source format
+ * again. The surface only holds the triangles that have been requested.
+ *
+ * Layout (little endian, cell major):
+ * <pre>
+ * header (64 bytes): magic, version, source key, triangles, times
+ * velocities  [triangle][time][x,y] float
+ * waterlevels [triangle][time]      float
+ * elevation   [triangle]            float
+ * </pre> Triangles without information start with NaN.
+ *
+ * @author saemann
+ */
+public class SurfaceFlowFieldCache implements SurfaceVelocityLoader, SurfaceWaterlevelLoader {
+
+    public static final String FILE_EXTENSION = ".gflow";
+
+    private static final int MAGIC = 0x47464C57;//"GFLW"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    public static boolean verbose = true;
+
+    private final File file;
+    private final int numberOfTriangles;
+    private final int numberOfTimes;
+
+    private final Section velocities, waterlevels, elevation;
+
+    private SurfaceFlowFieldCache(File file, FileChannel channel, int numberOfTriangles, int numberOfTimes) throws IOException {
+        this.file = file;
+        this.numberOfTriangles = numberOfTriangles;
+        this.numberOfTimes = numberOfTimes;
+        long offset = HEADER_BYTES;
+        velocities = new Section(channel, offset, numberOfTriangles, numberOfTimes * 8);
+        offset += velocities.length();
+        waterlevels = new Section(channel, offset, numberOfTriangles, numberOfTimes * 4);
+        offset += waterlevels.length();
+        elevation = new Section(channel, offset, numberOfTriangles, 4);
+    }
+
+    /**
+     * Part of the file with a fixed number of bytes per triangle. Split into
+     * several mapped buffers, because one buffer can only address 2GB.
+     */
+    private static class Section {
+
+        final MappedByteBuffer[] buffers;
+        final int trianglesPerBuffer;
+        final int bytesPerTriangle;
+        final int numberOfTriangles;
+
+        Section(FileChannel channel, long offset, int numberOfTriangles, int bytesPerTriangle) throws IOException {
+            this.bytesPerTriangle = bytesPerTriangle;
+            this.numberOfTriangles = numberOfTriangles;
+            this.trianglesPerBuffer = Math.max(1, Integer.MAX_VALUE / bytesPerTriangle);
+            int n = (numberOfTriangles + trianglesPerBuffer - 1) / trianglesPerBuffer;
+            buffers = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                int triangles = Math.min(trianglesPerBuffer, numberOfTriangles - i * trianglesPerBuffer);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + (long) i * trianglesPerBuffer * bytesPerTriangle, (long) triangles * bytesPerTriangle);
+                buffers[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        long length() {
+            return (long) numberOfTriangles * bytesPerTriangle;
+        }
+
+        /**
+         * Absolute read, can be used by several threads at the same time.
+         */
+        float get(int triangleID, int floatIndex) {
+            return buffers[triangleID / trianglesPerBuffer].getFloat((triangleID % trianglesPerBuffer) * bytesPerTriangle + floatIndex * 4);
+        }
+    }
+
+    /**
+     * File of the cache for a given result file/directory.
+     *
+     * @param source
+     * @return
+     */
+    public static File getCacheFile(File source) {
+        return new File(source.getAbsoluteFile().getParentFile(), source.getName() + FILE_EXTENSION);
+    }
+
+    /**
+     * Opens the cache of the source file if it exists and is up to date.
+     *
+     * @param source result file, the values were read from.
+     * @param numberOfTriangles of the surface
+     * @return the cache or null if there is no valid cache.
+     */
+    public static SurfaceFlowFieldCache open(File source, int numberOfTriangles) {
+        File cacheFile = getCacheFile(source);
+        if (!cacheFile.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            if (header.getLong() != FileTools.sourceKey(source)) {
+                if (verbose) {
+                    System.out.println("Flow field cache " + cacheFile.getName() + " is outdated.");
+                }
+                return null;
+            }
+            int triangles = header.getInt();
+            int times = header.getInt();
+            if (times < 1) {
+                return null;
+            }
+            if (triangles != numberOfTriangles) {
+                System.err.println("Flow field cache " + cacheFile.getName() + " has " + triangles + " triangles, surface has " + numberOfTriangles);
+                return null;
+            }
+            //Mapped buffers stay valid after the channel is closed.
+            return new SurfaceFlowFieldCache(cacheFile, channel, triangles, times);
+        } catch (IOException ex) {
+            System.err.println("Cannot read flow field cache " + cacheFile + ": " + ex.getLocalizedMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Writes the cache for the surface flow field. Values that are in memory
+     * of the surface are taken from there, all others are requested from the
+     * loaders. The file is written to a temporary file first and renamed when
+     * complete.
+     *
+     * @param source result file, the values were read from.
+     * @param surface
+     * @param velocityLoader can be null
+     * @param waterlevelLoader can be null
+     * @return the written cache file
+     * @throws IOException
+     */
+    public static File write(File source, Surface surface, SurfaceVelocityLoader velocityLoader, SurfaceWaterlevelLoader waterlevelLoader) throws IOException {
+        long start = System.currentTimeMillis();
+        File cacheFile = getCacheFile(source);
+        File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        int triangles = surface.getTriangleNodes().length;
+        int times = surface.getNumberOfTimestamps();
+        if (times < 1) {
+            throw new IOException("Surface has no timesteps to cache.");
+        }
+        long offsetVelocity = HEADER_BYTES;
+        long offsetWaterlevel = offsetVelocity + (long) triangles * times * 8;
+        long offsetElevation = offsetWaterlevel + (long) triangles * times * 4;
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+            FileChannel channel = raf.getChannel();
+            raf.setLength(offsetElevation + triangles * 4L);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(FileTools.sourceKey(source)).putInt(triangles).putInt(times);
+            header.clear();
+            channel.write(header, 0);
+
+            ByteBuffer bv = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer bw = ByteBuffer.allocateDirect(1 << 19).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer bz = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            long[] positions = new long[]{offsetVelocity, offsetWaterlevel, offsetElevation};
+
+            float[][][] memoryVelocity = surface.getTriangleVelocity();
+            float[][] memoryWaterlevel = surface.getWaterlevels();
+            double[][] mids = surface.getTriangleMids();
+            //Waterlevels are loaded in blocks
+            int block = 256;
+            int[] ids = new int[block];
+            float[] z = new float[block];
+            float[][] wlBlock = null;
+            int blockStart = -block;
+            for (int i = 0; i < triangles; i++) {
+                //Velocity
+                float[][] v = null;
+                if (memoryVelocity != null && memoryVelocity[i] != null) {
+                    v = memoryVelocity[i];
+                } else if (velocityLoader != null) {
+                    try {
+                        if (velocityLoader.isThreadSafe()) {
+                            v = velocityLoader.loadVelocity(i);
+                        } else {
+                            //Particle threads might use the same loader.
+                            synchronized (velocityLoader) {
+                                v = velocityLoader.loadVelocity(i);
+                            }
+                        }
+                    } catch (Exception e) {
+                        //Triangle not in source
+                    }
+                }
+                for (int t = 0; t < times; t++) {
+                    if (bv.remaining() < 8) {
+                        positions[0] = flush(channel, bv, positions[0]);
+                    }
+                    if (v == null || t >= v.length) {
+                        bv.putFloat(t == 0 ? Float.NaN : 0f).putFloat(0f);
+                    } else {
+                        bv.putFloat(v[t][0]).putFloat(v[t][1]);
+                    }
+                }
+                //Waterlevel and elevation
+                float[] wl = null;
+                float zi = Float.NaN;
+                if (memoryWaterlevel != null && memoryWaterlevel[i] != null) {
+                    wl = memoryWaterlevel[i];
+                    zi = (float) mids[i][2];
+                } else if (waterlevelLoader != null) {
+                    if (i >= blockStart + block) {
+                        blockStart = i;
+                        int n = Math.min(block, triangles - i);
+                        if (ids.length != n) {
+                            ids = new int[n];
+                            z = new float[n];
+                        }
+                        for (int j = 0; j < n; j++) {
+                            ids[j] = i + j;
+                        }
+                        Arrays.fill(z, Float.NaN);
+                        if (waterlevelLoader.isThreadSafe()) {
+                            wlBlock = waterlevelLoader.loadWaterlevlvalues(ids, z);
+                        } else {
+                            synchronized (waterlevelLoader) {
+                                wlBlock = waterlevelLoader.loadWaterlevlvalues(ids, z);
+                            }
+                        }
+                    }
+                    wl = wlBlock[i - blockStart];
+                    zi = z[i - blockStart];
+                }
+                for (int t = 0; t < times; t++) {
+                    if (bw.remaining() < 4) {
+                        positions[1] = flush(channel, bw, positions[1]);
+                    }
+                    if (wl == null || t >= wl.length) {
+                        bw.putFloat(t == 0 ? Float.NaN : 0f);
+                    } else {
+                        bw.putFloat(wl[t]);
+                    }
+                }
+                if (bz.remaining() < 4) {
+                    positions[2] = flush(channel, bz, positions[2]);
+                }
+                bz.putFloat(zi);
+            }
+            flush(channel, bv, positions[0]);
+            flush(channel, bw, positions[1]);
+            flush(channel, bz, positions[2]);
+        }
+        Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (verbose) {
+            System.out.println("Wrote flow field cache " + cacheFile.getName() + " (" + (cacheFile.length() / 1000000) + " MB) in " + (System.currentTimeMillis() - start) / 1000 + "s.");
+        }
+        return cacheFile;
+    }
+
+    private static long flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        return position;
+    }
+
+    /**
+     * Writes the cache in a background thread, so the simulation can start
+     * with the source loaders. Loaders that are not thread safe are locked
+     * for every request, as the surface does for the particle threads.
+     *
+     * @param source
+     * @param surface
+     * @param velocityLoader
+     * @param waterlevelLoader
+     * @return the started thread
+     */
+    public static Thread writeInBackground(final File source, final Surface surface, final SurfaceVelocityLoader velocityLoader, final SurfaceWaterlevelLoader waterlevelLoader) {
+        Thread t = new Thread("FlowFieldCacheWriter") {
+            @Override
+            public void run() {
+                try {
+                    write(source, surface, velocityLoader, waterlevelLoader);
+                } catch (Exception ex) {
+                    System.err.println("Could not write flow field cache for " + source + ": " + ex.getLocalizedMessage());
+                    File temp = new File(getCacheFile(source).getAbsolutePath() + ".tmp");
+                    if (temp.exists()) {
+                        temp.delete();
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        return t;
+    }
+
+    @Override
+    public float[][] loadVelocity(int triangleID) {
+        if (Float.isNaN(velocities.get(triangleID, 0))) {
+            throw new NoSuchElementException("No velocity for triangle " + triangleID + " in " + file.getName());
+        }
+        float[][] v = new float[numberOfTimes][2];
+        for (int t = 0; t < numberOfTimes; t++) {
+            v[t][0] = velocities.get(triangleID, 2 * t);
+            v[t][1] = velocities.get(triangleID, 2 * t + 1);
+        }
+        return v;
+    }
+
+    @Override
+    public float[] loadWaterlevlvalues(int triangleID) {
+        if (Float.isNaN(waterlevels.get(triangleID, 0))) {
+            return null;
+        }
+        float[] wl = new float[numberOfTimes];
+        for (int t = 0; t < numberOfTimes; t++) {
+            wl[t] = waterlevels.get(triangleID, t);
+        }
+        return wl;
+    }
+
+    @Override
+    public float loadZElevation(int triangleID) {
+        float z = elevation.get(triangleID, 0);
+        if (Float.isNaN(z)) {
+            throw new NoSuchElementException("No elevation for triangle " + triangleID + " in " + file.getName());
+        }
+        return z;
+    }
+
+    @Override
+    public float[][] loadWaterlevlvalues(int[] triangleIDs, float[] zElevation) {
+        float[][] wls = new float[triangleIDs.length][];
+        for (int i = 0; i < triangleIDs.length; i++) {
+            wls[i] = loadWaterlevlvalues(triangleIDs[i]);
+            float z = elevation.get(triangleIDs[i], 0);
+            if (!Float.isNaN(z)) {
+                zElevation[i] = z;
+            }
+        }
+        return wls;
+    }
+
+    /**
+     * Only absolute reads on the mapped buffers are used.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    public int getNumberOfTimes() {
+        return numberOfTimes;
+    }
+
+    public int getNumberOfTriangles() {
+        return numberOfTriangles;
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
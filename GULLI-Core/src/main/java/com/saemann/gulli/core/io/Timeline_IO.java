@@ -91,7 +91,7 @@ public class Timeline_IO {
             int nbtimes = pipe.getMeasurementTimeLine().getContainer().getTimes().getNumberOfTimes();
             bw.write("Times:" + nbtimes);
             bw.newLine();
-            bw.write("ContinuousSampling:" + tlm.getContainer().timecontinuousMeasures);
+            bw.write("ContinuousSampling:" + tlm.getContainer().timecontinuous);
             bw.newLine();
             bw.write("TimeMS;Massflux[kg/s]");
             bw.newLine();
@@ -139,7 +139,7 @@ public class Timeline_IO {
             int nbtimes = pipe.getMeasurementTimeLine().getContainer().getTimes().getNumberOfTimes();
             bw.write("Times:" + nbtimes);
             bw.newLine();
-            bw.write("ContinuousSampling:" + tlm.getContainer().timecontinuousMeasures);
+            bw.write("ContinuousSampling:" + tlm.getContainer().timecontinuous);
             bw.newLine();
             bw.write("TimeMS;Concentration[kg/m³]");
             bw.newLine();
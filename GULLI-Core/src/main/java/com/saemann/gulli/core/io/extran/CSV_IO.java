@@ -3,6 +3,7 @@ package com.saemann.gulli.core.io.extran;
 import com.saemann.gulli.core.control.Action.Action;
 import com.saemann.gulli.core.control.StartParameters;
 import com.saemann.gulli.core.io.NumberConverter;
+import com.saemann.gulli.core.io.ParallelNumberParser;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -11,6 +12,7 @@ import java.io.IOException;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.saemann.gulli.core.model.topology.profile.CircularProfile;
@@ -31,6 +33,17 @@ import org.locationtech.jts.geom.Coordinate;
  */
 public class CSV_IO {
 
+    /**
+     * Parse the large surface result CSV files in parallel chunks of a memory
+     * mapped file.
+     */
+    public static boolean parallelParsing = true;
+
+    /**
+     * Print the throughput of the parallel parsing.
+     */
+    public static boolean verbose = false;
+
     public static Network loadNetwork(File directory) throws FileNotFoundException {
         if (!directory.isDirectory()) {
             if (directory.getName().toLowerCase().endsWith(".txt")) {
@@ -336,8 +349,10 @@ public class CSV_IO {
             boolean filteredSurface = false; //if true: IDs of triangles have to be mapped to the surface IDs.
             int numberOfTimes = 0;
             String splitchar = ",";
+            int headerLines = 0;
             while (br.ready()) {
                 line = br.readLine();
+                headerLines++;
                 if (line.startsWith("ID")) {
                     if (line.contains(";")) {
                         splitchar = ";";
@@ -379,23 +394,27 @@ public class CSV_IO {
                 throw new Exception("Number of 'WL_*' could not be found. Waterlevels can not be initialized.");
             }
 
-            //Start going through all lines.
-            while (br.ready()) {
-                line = br.readLine();
-                split = line.split(splitchar);
-                int id = Integer.parseInt(split[0]);
-                if (filteredSurface) {
-                    if (!surf.mapIndizes.containsKey(id)) {
-                        //This triangle is not part of the Surface. 
-                        continue;
+            if (parallelParsing) {
+                readTriangleWaterlevelsParallel(surf, csvFile, headerLines, splitchar, waterlevels, maxWaterlevels, zIndex, wlmaxIndex, wl0index, filteredSurface);
+            } else {
+                //Start going through all lines.
+                while (br.ready()) {
+                    line = br.readLine();
+                    split = line.split(splitchar);
+                    int id = Integer.parseInt(split[0]);
+                    if (filteredSurface) {
+                        if (!surf.mapIndizes.containsKey(id)) {
+                            //This triangle is not part of the Surface. 
+                            continue;
+                        }
+                        id = surf.mapIndizes.get(id); //Map triangle to surface's triangle id.
+                    }
+                    float z = Float.parseFloat(split[zIndex]);
+                    maxWaterlevels[id] = Float.parseFloat(split[wlmaxIndex]);
+                    surf.getTriangleMids()[id][2] = z;
+                    for (int i = 0; i < numberOfTimes; i++) {
+                        waterlevels[id][i] = Float.parseFloat(split[i + wl0index]);
                     }
-                    id = surf.mapIndizes.get(id); //Map triangle to surface's triangle id.
-                }
-                float z = Float.parseFloat(split[zIndex]);
-                maxWaterlevels[id] = Float.parseFloat(split[wlmaxIndex]);
-                surf.getTriangleMids()[id][2] = z;
-                for (int i = 0; i < numberOfTimes; i++) {
-                    waterlevels[id][i] = Float.parseFloat(split[i + wl0index]);
                 }
             }
             if (Thread.currentThread().isInterrupted()) {
@@ -478,52 +497,56 @@ public class CSV_IO {
             }
             System.out.println("Reading " + numberOfTimes + " timesteps.");
 
-            //Start going through all lines.
-            int linenumber = 0;
-            int index = 0;
-            NumberConverter nc = new NumberConverter(br);
-            nc.setBufferLength(1024);
-            nc.setSplitter(';');
-            float[] toFill = new float[numberOfTimes * 2];
-            int id = 0;
             int counter = 0;
-            while (br.ready()) {
-                linenumber++;
-                try {
-                    id = nc.readNextInteger();
-                    if (id < 0) {
-                        //Error or last element detected.
-                        break;
-                    }
-                    if (filteredSurface) {
-                        if (!surf.mapIndizes.containsKey(id)) {
-                            //This triangle is not part of the Surface. 
-                            continue;
-                        }
-                        id = surf.mapIndizes.get(id); //Map triangle to surface's triangle id.
-                    }
-                    maxVelocity[id] = (float) nc.readNextDouble();//Float.parseFloat(split[vmaxIndex]);
-                    velocities[id] = new float[numberOfTimes][2]; //Only create this array at positions where it is necessary.
-                    counter++;
-                    nc.readNextLineFloats(toFill);
-                    for (int i = 0; i < numberOfTimes; i++) {
-                        velocities[id][i][0] = toFill[i * 2];
-                        velocities[id][i][1] = toFill[i * 2 + 1];
-                    }
-                    if (linenumber % 50000 == 1) {
-                        System.out.println("   " + (int) ((id * 100) / velocities.length) + " %");
-                        action.progress = ((id) / (float) velocities.length);
-                        action.updateProgress();
-                        if (Thread.currentThread().isInterrupted()) {
-                            System.out.println("   LoadingThread is interrupted -> break CSV_IO for velocities");
-                            surf.loadingWaterlevels = false;
+            if (parallelParsing) {
+                counter = readCellVelocitiesParallel(surf, csvFile, splitchar, velocities, maxVelocity, numberOfTimes, false, filteredSurface, action);
+            } else {
+                //Start going through all lines.
+                int linenumber = 0;
+                int index = 0;
+                NumberConverter nc = new NumberConverter(br);
+                nc.setBufferLength(1024);
+                nc.setSplitter(';');
+                float[] toFill = new float[numberOfTimes * 2];
+                int id = 0;
+                while (br.ready()) {
+                    linenumber++;
+                    try {
+                        id = nc.readNextInteger();
+                        if (id < 0) {
+                            //Error or last element detected.
                             break;
                         }
+                        if (filteredSurface) {
+                            if (!surf.mapIndizes.containsKey(id)) {
+                                //This triangle is not part of the Surface. 
+                                continue;
+                            }
+                            id = surf.mapIndizes.get(id); //Map triangle to surface's triangle id.
+                        }
+                        maxVelocity[id] = (float) nc.readNextDouble();//Float.parseFloat(split[vmaxIndex]);
+                        velocities[id] = new float[numberOfTimes][2]; //Only create this array at positions where it is necessary.
+                        counter++;
+                        nc.readNextLineFloats(toFill);
+                        for (int i = 0; i < numberOfTimes; i++) {
+                            velocities[id][i][0] = toFill[i * 2];
+                            velocities[id][i][1] = toFill[i * 2 + 1];
+                        }
+                        if (linenumber % 50000 == 1) {
+                            System.out.println("   " + (int) ((id * 100) / velocities.length) + " %");
+                            action.progress = ((id) / (float) velocities.length);
+                            action.updateProgress();
+                            if (Thread.currentThread().isInterrupted()) {
+                                System.out.println("   LoadingThread is interrupted -> break CSV_IO for velocities");
+                                surf.loadingWaterlevels = false;
+                                break;
+                            }
+                        }
+                    } catch (Exception ex) {
+                        System.err.println("Error reading information for cell " + id + "in line " + linenumber + " ");
+                        ex.printStackTrace();
+                        break;
                     }
-                } catch (Exception ex) {
-                    System.err.println("Error reading information for cell " + id + "in line " + linenumber + " ");
-                    ex.printStackTrace();
-                    break;
                 }
             }
             action.progress = 1;
@@ -610,53 +633,57 @@ public class CSV_IO {
             }
             System.out.println("Reading " + numberOfTimes + " timesteps.");
 
-            //Start going through all lines.
-            int linenumber = 0;
-            int index = 0;
-            NumberConverter nc = new NumberConverter(br);
-            nc.setBufferLength(1024);
-            nc.setSplitter(';');
-            float[] toFill = new float[numberOfTimes * 2];
-            int id = 0;
             int counter = 0;
-            int lastInterestingIndex = 0;
-            while (br.ready()) {
-                linenumber++;
-                try {
-                    id = nc.readNextInteger();
-                    if (id < 0) {
-                        //Error or last element detected.
-                        break;
-                    }
-                    if (filteredSurface) {
-                        if (!surf.mapIndizes.containsKey(id)) {
-                            //This triangle is not part of the Surface. 
-                            continue;
-                        }
-                        id = surf.mapIndizes.get(id); //Map triangle to surface's triangle id.
-                    }
-                    maxVelocity[id] = (float) nc.readNextDouble();//Float.parseFloat(split[vmaxIndex]);
-                    counter++;
-                    lastInterestingIndex = nc.readNextLineFloats(toFill)/2;
-                    velocities[id] = new float[lastInterestingIndex][2]; //Only create this array at positions where it is necessary.
-                    for (int i = 0; i < lastInterestingIndex; i++) {
-                        velocities[id][i][0] = toFill[i * 2];
-                        velocities[id][i][1] = toFill[i * 2 + 1];
-                    }
-                    if (linenumber % 50000 == 1) {
-                        System.out.println("   " + (int) ((id * 100) / velocities.length) + " %");
-                        action.progress = ((id) / (float) velocities.length);
-                        action.updateProgress();
-                        if (Thread.currentThread().isInterrupted()) {
-                            System.out.println("   LoadingThread is interrupted -> break CSV_IO for velocities");
-                            surf.loadingWaterlevels = false;
+            if (parallelParsing) {
+                counter = readCellVelocitiesParallel(surf, csvFile, splitchar, velocities, maxVelocity, numberOfTimes, true, filteredSurface, action);
+            } else {
+                //Start going through all lines.
+                int linenumber = 0;
+                int index = 0;
+                NumberConverter nc = new NumberConverter(br);
+                nc.setBufferLength(1024);
+                nc.setSplitter(';');
+                float[] toFill = new float[numberOfTimes * 2];
+                int id = 0;
+                int lastInterestingIndex = 0;
+                while (br.ready()) {
+                    linenumber++;
+                    try {
+                        id = nc.readNextInteger();
+                        if (id < 0) {
+                            //Error or last element detected.
                             break;
                         }
+                        if (filteredSurface) {
+                            if (!surf.mapIndizes.containsKey(id)) {
+                                //This triangle is not part of the Surface. 
+                                continue;
+                            }
+                            id = surf.mapIndizes.get(id); //Map triangle to surface's triangle id.
+                        }
+                        maxVelocity[id] = (float) nc.readNextDouble();//Float.parseFloat(split[vmaxIndex]);
+                        counter++;
+                        lastInterestingIndex = nc.readNextLineFloats(toFill)/2;
+                        velocities[id] = new float[lastInterestingIndex][2]; //Only create this array at positions where it is necessary.
+                        for (int i = 0; i < lastInterestingIndex; i++) {
+                            velocities[id][i][0] = toFill[i * 2];
+                            velocities[id][i][1] = toFill[i * 2 + 1];
+                        }
+                        if (linenumber % 50000 == 1) {
+                            System.out.println("   " + (int) ((id * 100) / velocities.length) + " %");
+                            action.progress = ((id) / (float) velocities.length);
+                            action.updateProgress();
+                            if (Thread.currentThread().isInterrupted()) {
+                                System.out.println("   LoadingThread is interrupted -> break CSV_IO for velocities");
+                                surf.loadingWaterlevels = false;
+                                break;
+                            }
+                        }
+                    } catch (Exception ex) {
+                        System.err.println("Error reading information for cell " + id + "in line " + linenumber + " ");
+                        ex.printStackTrace();
+                        break;
                     }
-                } catch (Exception ex) {
-                    System.err.println("Error reading information for cell " + id + "in line " + linenumber + " ");
-                    ex.printStackTrace();
-                    break;
                 }
             }
             action.progress = 1;
@@ -672,4 +699,75 @@ public class CSV_IO {
             surf.loadingWaterlevels = false;
         }
     }
+
+    private static void readTriangleWaterlevelsParallel(Surface surf, File csvFile, int headerLines, String splitchar, float[][] waterlevels, double[] maxWaterlevels, int zIndex, int wlmaxIndex, int wl0index, boolean filteredSurface) throws IOException {
+        try (ParallelNumberParser parser = new ParallelNumberParser(csvFile)) {
+            long start = 0;
+            for (int i = 0; i < headerLines; i++) {
+                start = parser.nextLineStart(start);
+            }
+            final double[][] mids = surf.getTriangleMids();
+            parser.parse(start, splitchar, false, (long index, ParallelNumberParser.Line line) -> {
+                int id = line.getInt(0);
+                if (filteredSurface) {
+                    Integer mapped = surf.mapIndizes.get(id);
+                    if (mapped == null) {
+                        //This triangle is not part of the Surface.
+                        return;
+                    }
+                    id = mapped; //Map triangle to surface's triangle id.
+                }
+                maxWaterlevels[id] = line.getFloat(wlmaxIndex);
+                mids[id][2] = line.getFloat(zIndex);
+                float[] wl = waterlevels[id];
+                for (int i = 0; i < wl.length; i++) {
+                    wl[i] = line.getFloat(i + wl0index);
+                }
+            });
+            if (verbose) {
+                System.out.println("Parsed waterlevels with " + (int) parser.getMegabytesPerSecond() + " MB/s.");
+            }
+        }
+    }
+
+    /**
+     * Parses the lines "ID;VMAX;VX_0;VY_0;VX_1;..." of a velocity CSV in
+     * parallel.
+     *
+     * @return number of cells with velocity information
+     */
+    private static int readCellVelocitiesParallel(Surface surf, File csvFile, String splitchar, float[][][] velocities, float[] maxVelocity, int numberOfTimes, boolean variableLength, boolean filteredSurface, Action action) throws IOException {
+        final AtomicInteger counter = new AtomicInteger();
+        try (ParallelNumberParser parser = new ParallelNumberParser(csvFile)) {
+            parser.setAction(action);
+            parser.parse(parser.nextLineStart(0), splitchar, false, (long index, ParallelNumberParser.Line line) -> {
+                int id = line.getInt(0);
+                if (id < 0) {
+                    return;
+                }
+                if (filteredSurface) {
+                    Integer mapped = surf.mapIndizes.get(id);
+                    if (mapped == null) {
+                        //This triangle is not part of the Surface.
+                        return;
+                    }
+                    id = mapped; //Map triangle to surface's triangle id.
+                }
+                maxVelocity[id] = line.getFloat(1);
+                int values = Math.min(numberOfTimes, (line.getNumberOfTokens() - 2) / 2);
+                //Only create this array at positions where it is necessary.
+                float[][] v = new float[variableLength ? values : numberOfTimes][2];
+                for (int i = 0; i < values; i++) {
+                    v[i][0] = line.getFloat(2 + i * 2);
+                    v[i][1] = line.getFloat(3 + i * 2);
+                }
+                velocities[id] = v;
+                counter.incrementAndGet();
+            });
+            if (verbose) {
+                System.out.println("Parsed velocities with " + (int) parser.getMegabytesPerSecond() + " MB/s.");
+            }
+        }
+        return counter.get();
+    }
 }
@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.io.extran;
+
+import com.saemann.gulli.core.io.FileTools;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import main.java.io.zrz.jgdb.GeoFieldValue;
+import main.java.io.zrz.jgdb.GeoTable;
+
+/**
+ * Maps the triangle ID to the feature row of a table in a HE result GDB. With
+ * this index a feature is read directly instead of searching for it in the
+ * table. The index is immutable and can be used by several threads without
+ * locking.
+ *
+ * @author saemann
+ */
+public class GDBRowIndex {
+
+    private static final int MAGIC = 0x47524f57;//"GROW"
+    private static final int VERSION = 1;
+
+    public static final String FILE_EXTENSION = ".rows";
+
+    /**
+     * [triangle ID] -> feature row (starting at 1). 0 if the ID is not
+     * contained in the table.
+     */
+    private final int[] rowOfID;
+
+    private final int numberOfRows;
+
+    private GDBRowIndex(int[] rowOfID, int numberOfRows) {
+        this.rowOfID = rowOfID;
+        this.numberOfRows = numberOfRows;
+    }
+
+    /**
+     * Feature row of the triangle.
+     *
+     * @param id triangle ID
+     * @return row (starting at 1) or -1 if the table does not contain the ID.
+     */
+    public int getRow(int id) {
+        if (id < 0 || id >= rowOfID.length || rowOfID[id] == 0) {
+            return -1;
+        }
+        return rowOfID[id];
+    }
+
+    /**
+     * Number of triangles found in the table.
+     *
+     * @return
+     */
+    public int getNumberOfRows() {
+        return numberOfRows;
+    }
+
+    public int getMaxID() {
+        return rowOfID.length - 1;
+    }
+
+    /**
+     * Reads the ID column of all rows once.
+     *
+     * @param table
+     * @param idColumn index of the ID field
+     * @param maxID highest triangle ID in the table
+     * @return
+     * @throws IOException
+     */
+    public static GDBRowIndex build(GeoTable table, int idColumn, int maxID) throws IOException {
+        int[] rows = new int[maxID + 1];
+        int featureCount = table.getFeatureCount();
+        int found = 0;
+        for (int row = 1; row <= featureCount; row++) {
+            GeoFieldValue value = table.readFeatureValue(row, idColumn);
+            if (value == null) {
+                //deleted row
+                continue;
+            }
+            int id = value.intValue();
+            if (id < 0) {
+                continue;
+            }
+            if (id >= rows.length) {
+                //The maximum was taken from the last row. IDs are not sorted.
+                int[] larger = new int[Math.max(id + 1, rows.length + rows.length / 2)];
+                System.arraycopy(rows, 0, larger, 0, rows.length);
+                rows = larger;
+            }
+            if (rows[id] == 0) {
+                found++;
+            }
+            rows[id] = row;
+        }
+        return new GDBRowIndex(rows, found);
+    }
+
+    /**
+     * File beside the *.gdb directory to store the index of one table.
+     *
+     * @param gdbDirectory
+     * @param layerName
+     * @return
+     */
+    public static File getCacheFile(File gdbDirectory, String layerName) {
+        return new File(gdbDirectory.getAbsoluteFile().getParentFile(), gdbDirectory.getName() + "." + layerName + FILE_EXTENSION);
+    }
+
+    public void write(File file, File gdbDirectory, int idColumn) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(FileTools.sourceKey(gdbDirectory));
+            dos.writeInt(idColumn);
+            dos.writeInt(numberOfRows);
+            dos.writeInt(rowOfID.length);
+            for (int row : rowOfID) {
+                dos.writeInt(row);
+            }
+        }
+    }
+
+    /**
+     * Read an index from file.
+     *
+     * @param file
+     * @param gdbDirectory the index was built for
+     * @param idColumn the index was built for
+     * @return the index or null if the gdb has changed since the index was
+     * written.
+     * @throws IOException
+     */
+    public static GDBRowIndex read(File file, File gdbDirectory, int idColumn) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("File " + file + " is not a GDB row index.");
+            }
+            if (dis.readInt() != VERSION) {
+                return null;
+            }
+            if (dis.readLong() != FileTools.sourceKey(gdbDirectory)) {
+                return null;
+            }
+            if (dis.readInt() != idColumn) {
+                return null;
+            }
+            int found = dis.readInt();
+            int[] rows = new int[dis.readInt()];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = dis.readInt();
+            }
+            return new GDBRowIndex(rows, found);
+        }
+    }
+
+    /**
+     * Load the index from the file beside the gdb or build it and try to
+     * store it there.
+     *
+     * @param table
+     * @param gdbDirectory
+     * @param layerName
+     * @param idColumn
+     * @param maxID
+     * @param useCache
+     * @return
+     * @throws IOException
+     */
+    public static GDBRowIndex loadOrBuild(GeoTable table, File gdbDirectory, String layerName, int idColumn, int maxID, boolean useCache) throws IOException {
+        File cacheFile = null;
+        if (useCache && gdbDirectory != null) {
+            cacheFile = getCacheFile(gdbDirectory, layerName);
+            if (cacheFile.exists()) {
+                try {
+                    GDBRowIndex index = read(cacheFile, gdbDirectory, idColumn);
+                    if (index != null) {
+                        return index;
+                    }
+                } catch (IOException ex) {
+                    System.err.println("Could not read GDB row index " + cacheFile + ": " + ex.getLocalizedMessage());
+                }
+            }
+        }
+        long start = System.currentTimeMillis();
+        GDBRowIndex index = build(table, idColumn, maxID);
+        if (HE_GDB_IO.verbose) {
+            System.out.println("Built row index for " + layerName + " (" + index.numberOfRows + " rows) in " + (System.currentTimeMillis() - start) + "ms.");
+        }
+        if (cacheFile != null) {
+            try {
+                index.write(cacheFile, gdbDirectory, idColumn);
+            } catch (IOException ex) {
+                System.err.println("Could not write GDB row index " + cacheFile + ": " + ex.getLocalizedMessage());
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.io.extran;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of read-only connections to a HYSTEM EXTRAN result database.
+ * At most maxConnections connections are opened. Further requests wait until
+ * a connection is returned. Requests for the same element (e.g. pipe ID) are
+ * serialized, so that the second request can use the timeline that was loaded
+ * by the first one.
+ *
+ * Every pooled connection caches its prepared statements. The pool counts
+ * waiting time, queries and rows for benchmarking.
+ *
+ * @author saemann
+ */
+public class HEConnectionPool {
+
+    /**
+     * Opens a new connection to the database.
+     */
+    public interface ConnectionFactory {
+
+        public Connection open() throws SQLException, IOException;
+    }
+
+    /**
+     * Connection handed out by the pool. Has to be returned with
+     * {@link HEConnectionPool#release(PooledConnection)}.
+     */
+    public static class PooledConnection {
+
+        public final Connection con;
+        /**
+         * ID of the element that is loaded with this connection.
+         */
+        public long id = -1;
+        private RequestLock requestLock;
+        private final HashMap<String, PreparedStatement> statements = new HashMap<>(8);
+
+        private PooledConnection(Connection con) {
+            this.con = con;
+        }
+
+        /**
+         * Prepared statement for the sql query. Is created once per
+         * connection.
+         *
+         * @param sql
+         * @return
+         * @throws SQLException
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = con.prepareStatement(sql);
+                statements.put(sql, ps);
+            }
+            return ps;
+        }
+
+        private void close() throws SQLException {
+            for (PreparedStatement ps : statements.values()) {
+                ps.close();
+            }
+            statements.clear();
+            if (!con.isClosed()) {
+                con.close();
+            }
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private int maxConnections;
+
+    private final LinkedBlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<>();
+    private final ArrayList<PooledConnection> all = new ArrayList<>(4);
+    /**
+     * Serializes requests for the same element ID.
+     */
+    private final ConcurrentHashMap<Long, RequestLock> requestLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Lock for one element ID. Counts the threads that hold or wait for it,
+     * so it is only removed from the map when no thread uses it any more.
+     * The counter is only changed inside the atomic compute functions of the
+     * map.
+     */
+    private static class RequestLock extends ReentrantLock {
+
+        private int users = 0;
+    }
+
+    private final AtomicLong waitNanos = new AtomicLong(), waits = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong(), queries = new AtomicLong(), rows = new AtomicLong();
+
+    public HEConnectionPool(ConnectionFactory factory, int maxConnections) {
+        this.factory = factory;
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    /**
+     * Get a connection for loading the element with the id. Blocks while
+     * another thread loads the same element or if all connections are in use.
+     *
+     * @param id element ID or -1 if the request does not need to be
+     * serialized.
+     * @return connection, that has to be released
+     * @throws SQLException
+     * @throws IOException
+     */
+    public PooledConnection acquire(long id) throws SQLException, IOException {
+        long start = System.nanoTime();
+        RequestLock requestLock = null;
+        if (id >= 0) {
+            requestLock = requestLocks.compute(id, (k, lock) -> {
+                if (lock == null) {
+                    lock = new RequestLock();
+                }
+                lock.users++;
+                return lock;
+            });
+            requestLock.lock();
+        }
+        try {
+            PooledConnection pc = idle.poll();
+            if (pc == null) {
+                pc = openIfAllowed();
+            }
+            while (pc == null) {
+                pc = idle.poll(100, TimeUnit.MILLISECONDS);
+                if (pc == null) {
+                    //Maybe the pool has been resized or a connection was closed.
+                    pc = openIfAllowed();
+                }
+            }
+            pc.id = id;
+            pc.requestLock = requestLock;
+            long waited = System.nanoTime() - start;
+            if (waited > 1000000) {
+                waits.incrementAndGet();
+                waitNanos.addAndGet(waited);
+            }
+            return pc;
+        } catch (InterruptedException ex) {
+            releaseRequestLock(id, requestLock);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a database connection.", ex);
+        } catch (SQLException | IOException | RuntimeException ex) {
+            releaseRequestLock(id, requestLock);
+            throw ex;
+        }
+    }
+
+    private PooledConnection openIfAllowed() throws SQLException, IOException {
+        synchronized (all) {
+            if (all.size() >= maxConnections) {
+                return null;
+            }
+            Connection c = factory.open();
+            if (c == null) {
+                throw new NullPointerException("Could not create a new Connection to the HYSTEM EXTRAN database.");
+            }
+            PooledConnection pc = new PooledConnection(c);
+            all.add(pc);
+            return pc;
+        }
+    }
+
+    /**
+     * Return the connection to the pool.
+     *
+     * @param pc
+     */
+    public void release(PooledConnection pc) {
+        if (pc == null) {
+            return;
+        }
+        RequestLock requestLock = pc.requestLock;
+        long id = pc.id;
+        pc.requestLock = null;
+        pc.id = -1;
+        boolean keep;
+        synchronized (all) {
+            keep = all.size() <= maxConnections && all.contains(pc);
+            if (!keep) {
+                all.remove(pc);
+            }
+        }
+        if (keep) {
+            idle.offer(pc);
+        } else {
+            try {
+                pc.close();
+            } catch (SQLException ex) {
+                ex.printStackTrace();
+            }
+        }
+        releaseRequestLock(id, requestLock);
+    }
+
+    private void releaseRequestLock(long id, RequestLock requestLock) {
+        if (requestLock == null) {
+            return;
+        }
+        requestLock.unlock();
+        requestLocks.computeIfPresent(id, (k, lock) -> --lock.users <= 0 ? null : lock);
+    }
+
+    /**
+     * Count a query for the statistics.
+     *
+     * @param startNanos System.nanoTime() before the query
+     * @param numberOfRows rows read from the result
+     */
+    public void countQuery(long startNanos, long numberOfRows) {
+        queryNanos.addAndGet(System.nanoTime() - startNanos);
+        queries.incrementAndGet();
+        rows.addAndGet(numberOfRows);
+    }
+
+    /**
+     * Change the maximum number of open connections. Surplus connections are
+     * closed when they are released.
+     *
+     * @param maxConnections
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getNumberOfOpenConnections() {
+        synchronized (all) {
+            return all.size();
+        }
+    }
+
+    public int getNumberOfIdleConnections() {
+        return idle.size();
+    }
+
+    /**
+     * Number of requests that had to wait for a connection or for another
+     * thread loading the same element.
+     *
+     * @return
+     */
+    public long getNumberOfWaits() {
+        return waits.get();
+    }
+
+    /**
+     * Total time threads waited for a connection [ms]
+     *
+     * @return
+     */
+    public double getWaitingTimeMS() {
+        return waitNanos.get() / 1000000.;
+    }
+
+    public long getNumberOfQueries() {
+        return queries.get();
+    }
+
+    public long getNumberOfRows() {
+        return rows.get();
+    }
+
+    /**
+     * Queries per second of query execution time. Parallel queries are
+     * counted with their own duration each.
+     *
+     * @return
+     */
+    public double getQueriesPerSecond() {
+        long nanos = queryNanos.get();
+        return nanos == 0 ? 0 : queries.get() / (nanos / 1000000000.);
+    }
+
+    /**
+     * Rows per second of query execution time.
+     *
+     * @return
+     */
+    public double getRowsPerSecond() {
+        long nanos = queryNanos.get();
+        return nanos == 0 ? 0 : rows.get() / (nanos / 1000000000.);
+    }
+
+    public void resetStatistics() {
+        waitNanos.set(0);
+        waits.set(0);
+        queryNanos.set(0);
+        queries.set(0);
+        rows.set(0);
+    }
+
+    /**
+     * Closes all connections. Connections in use are closed when they are
+     * released.
+     */
+    public void close() {
+        synchronized (all) {
+            PooledConnection pc;
+            while ((pc = idle.poll()) != null) {
+                all.remove(pc);
+                try {
+                    pc.close();
+                } catch (SQLException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            //Connections in use are no longer part of the pool
+            all.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HEConnectionPool{" + getNumberOfOpenConnections() + "/" + maxConnections + " connections, " + queries.get() + " queries (" + (int) getQueriesPerSecond() + "/s), " + rows.get() + " rows (" + (int) getRowsPerSecond() + "/s), " + waits.get() + " waits (" + (int) getWaitingTimeMS() + "ms)}";
+    }
+}
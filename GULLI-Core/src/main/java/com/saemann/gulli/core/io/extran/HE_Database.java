@@ -23,6 +23,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -31,6 +32,7 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -41,7 +43,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.TimeZone;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.saemann.gulli.core.model.material.Material;
@@ -121,7 +122,27 @@ public class HE_Database implements SparseTimeLineDataProvider {
 
     protected Connection con;
 
-    protected final ArrayList<ThreadConnection> threadConnections = new ArrayList<>(2);
+    /**
+     * Maximum number of IDs in one bulk timeline query.
+     */
+    public static int bulkQueryChunkSize = 500;
+    /**
+     * If more elements are requested, the whole timeline table is read in one
+     * ordered scan instead of chunked ID queries.
+     */
+    public static int bulkFullScanLimit = 5000;
+
+    /**
+     * Default maximum number of parallel connections for loading timelines.
+     * More connections than this do not speed up the embedded database
+     * engines.
+     */
+    public static int maxConnections = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Read-only connections used for parallel loading of timelines.
+     */
+    protected final HEConnectionPool connectionPool = new HEConnectionPool(this::openReadOnlyConnection, maxConnections);
 
 //    private final HEConnectionSerializer serializer = new HEConnectionSerializer();
     protected boolean readOnly = false;
@@ -415,14 +436,7 @@ public class HE_Database implements SparseTimeLineDataProvider {
                 con.close();
                 con = null;
             }
-            for (ThreadConnection threadConnection : threadConnections) {
-                if (threadConnection != null && threadConnection.con != null && !threadConnection.con.isClosed()) {
-//                System.out.println("close threadconnection");
-                    threadConnection.con.close();
-                    threadConnection.con = null;
-                }
-            }
-            threadConnections.clear();
+            connectionPool.close();
         } catch (Exception exception) {
             exception.printStackTrace();
         }
@@ -465,58 +479,45 @@ public class HE_Database implements SparseTimeLineDataProvider {
     }
 
     /**
-     * Returns an open or reactivates a closed connection. connection is already
-     * locked for htreadsave queries. has to be unlocked manually at the end of
-     * the transaction.
+     * Returns a connection of the pool. Waits if all connections are in use or
+     * another thread is loading the same element. Has to be returned with
+     * {@link #releaseConnection(HEConnectionPool.PooledConnection)} at the end
+     * of the transaction.
      *
      * @param idToLoad (e.g. PipeID /ManholeID)
      * @return a Read-only Connection
      * @throws SQLException
      * @throws IOException
      */
-    public ThreadConnection getUnusedConnection(long idToLoad) throws SQLException, IOException {
-//        synchronized (serializer) {
-//        ListIterator<ThreadConnection> it = threadConnections.listIterator();
-
-//        while (it.hasNext()) {
-//            ThreadConnection threadConnection = it.next();
-        for (ThreadConnection threadConnection : threadConnections) {
-            if (threadConnection.id == idToLoad) {
-                threadConnection.lock.lock();
-                return threadConnection;
-            }
-        }
+    public HEConnectionPool.PooledConnection getUnusedConnection(long idToLoad) throws SQLException, IOException {
+        return connectionPool.acquire(idToLoad);
+    }
 
-//        it = threadConnections.listIterator();
-//        while (it.hasNext()) {
-//            ThreadConnection threadConnection = it.next();
-        try {
-            for (ThreadConnection threadConnection : threadConnections) {
-//            if (threadConnection.con == null) {
-//                continue;
-//            }
-                if (threadConnection.lock.tryLock()) {
-                    threadConnection.id = idToLoad;
-//                    System.out.println(" return free connection for "+idToLoad);
-                    return threadConnection;
-                }
-            }
-        } catch (Exception e) {
-        }
-//            System.out.println("need another connection on top of the existing " + threadConnections.size());
-        //No free threadconnection was found. create a new one
-        ThreadConnection toAdd = null;
+    public void releaseConnection(HEConnectionPool.PooledConnection connection) {
+        connectionPool.release(connection);
+    }
+
+    public HEConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Opens a new read-only connection for the pool.
+     *
+     * @return
+     * @throws SQLException
+     * @throws IOException
+     */
+    private Connection openReadOnlyConnection() throws SQLException, IOException {
         if (isSQLite) {
             SQLiteConfig config = new SQLiteConfig();
             config.setEncoding(SQLiteConfig.Encoding.UTF8);
             config.setReadOnly(true);
             Connection c = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath(), config.toProperties());
             if (c == null) {
-//                System.err.println("Problem with connection to " + databaseFile.getAbsolutePath());
                 throw new NullPointerException("Cannot create Connection to 'jdbc:sqlite:" + databaseFile.getAbsolutePath() + "'");
-            } else {
-                toAdd = new ThreadConnection(c);
             }
+            return c;
         } else {
             //Firebird
             try {
@@ -526,24 +527,11 @@ public class HE_Database implements SparseTimeLineDataProvider {
                 String url = "jdbc:firebirdsql:embedded:" + this.localFile.getAbsolutePath().replaceAll("\\\\", "/").toLowerCase();
                 Connection c = DriverManager.getConnection(url, connectionProperties);
                 c.setReadOnly(true);
-                toAdd = new ThreadConnection(c);
+                return c;
             } catch (Exception e) {
                 throw new IOException("Remote File '" + localFile.getAbsolutePath() + "' can not be used directly. Copy to local or temporal file did not work. " + e.getLocalizedMessage());
             }
         }
-        if (toAdd != null) {
-            toAdd.lock.lock();
-//            synchronized (threadConnections) {
-            this.threadConnections.add(toAdd);
-            toAdd.id = idToLoad;
-//            it.add(toAdd);
-
-//            }
-//            System.out.println("add new HE Connection" + this.threadConnections.size());
-            return toAdd;
-        }
-//        }
-        throw new NullPointerException("Could not create a new Connection to the HYSTEM EXTRAN database.");
     }
 
     private static DateFormat sqlUTCFormat() {
@@ -2944,7 +2932,7 @@ public class HE_Database implements SparseTimeLineDataProvider {
 
     public float[] loadTimeLineValuesManhole(long manholeMaualID, String manholeName, int numberOfTimes, String columname) {
         float[] values = new float[numberOfTimes];
-        ThreadConnection uc = null;
+        HEConnectionPool.PooledConnection uc = null;
         try {
             uc = getUnusedConnection(manholeMaualID);
 
@@ -2974,9 +2962,7 @@ public class HE_Database implements SparseTimeLineDataProvider {
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
-            if (uc != null) {
-                uc.lock.unlock();
-            }
+            releaseConnection(uc);
         }
         return null;
     }
@@ -3227,14 +3213,14 @@ public class HE_Database implements SparseTimeLineDataProvider {
     @Override
     public float[] loadTimeLineWaterheightManhole(long manholeMaualID, String manholeName, int numberOfTimes) {
         float[] values = new float[numberOfTimes];
-        ThreadConnection tc = null;
+        HEConnectionPool.PooledConnection tc = null;
         try {
             tc = getUnusedConnection(manholeMaualID);
-            Connection c = tc.con;
+            long queryStart = System.nanoTime();
             //in HE Database only use Manhole ID.
-            try (Statement st = c.createStatement()) {
-                //in HE Database only use Manhole ID.
-                ResultSet rs = st.executeQuery("SELECT WASSERSTAND,ID,ZEITPUNKT FROM LAU_GL_S WHERE ID=" + manholeMaualID + " ORDER BY ZEITPUNKT ");
+            PreparedStatement ps = tc.prepare("SELECT WASSERSTAND FROM LAU_GL_S WHERE ID=? ORDER BY ZEITPUNKT");
+            ps.setLong(1, manholeMaualID);
+            try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.isBeforeFirst()) {
                     //No Data
                     System.err.println(getClass() + " could not load wasserstand for manhole id:" + manholeMaualID + ". It is not found in the database.");
@@ -3245,14 +3231,13 @@ public class HE_Database implements SparseTimeLineDataProvider {
                     values[index] = rs.getFloat(1);
                     index++;
                 }
+                connectionPool.countQuery(queryStart, index);
             }
             return values;
         } catch (Exception ex) {
             Logger.getLogger(HE_Database.class.getName()).log(Level.SEVERE, null, ex);
         } finally {
-            if (tc != null) {
-                tc.lock.unlock();
-            }
+            releaseConnection(tc);
         }
         return null;
     }
@@ -3321,26 +3306,26 @@ public class HE_Database implements SparseTimeLineDataProvider {
     public float[] loadTimeLineSpilloutFlux(long manholeID, String manholeName, int numberOfTimes) {
         // Read Spillout Flow from Manhole to Surface
         //NEW SCHEME INCLUDING 2D SURFACEx
-        ThreadConnection tc = null;
+        HEConnectionPool.PooledConnection tc = null;
         try {
             tc = getUnusedConnection(manholeID);
-            Connection c = tc.con;
             float[] flux;
+            long queryStart = System.nanoTime();
             //ABFLUSS: Flow from Surface to Pipesystem
-            try (Statement st = c.createStatement()) {
-                ResultSet res = st.executeQuery("SELECT ID,"
-                        + "KNOTEN, "
-                        + "ZEITPUNKT, "
-                        + "(ABFLUSS-ZUFLUSS) AS NETTO "
-                        + "FROM KNOTENLAUFEND2D "
-                        + "WHERE ID=" + manholeID + " "
-                        + "ORDER BY  ZEITPUNKT;");
+            PreparedStatement ps = tc.prepare("SELECT "
+                    + "(ABFLUSS-ZUFLUSS) AS NETTO "
+                    + "FROM KNOTENLAUFEND2D "
+                    + "WHERE ID=? "
+                    + "ORDER BY  ZEITPUNKT");
+            ps.setLong(1, manholeID);
+            try (ResultSet res = ps.executeQuery()) {
                 flux = new float[numberOfTimes];
                 int index = 0;
                 while (res.next()) {
-                    flux[index] = res.getFloat(4);
+                    flux[index] = res.getFloat(1);
                     index++;
                 }
+                connectionPool.countQuery(queryStart, index);
             }
             return flux;
 
@@ -3348,9 +3333,7 @@ public class HE_Database implements SparseTimeLineDataProvider {
             Logger.getLogger(HE_Database.class
                     .getName()).log(Level.SEVERE, null, ex);
         } finally {
-            if (tc != null) {
-                tc.lock.unlock();
-            }
+            releaseConnection(tc);
         }
 
         return new float[numberOfTimes];
@@ -3430,119 +3413,63 @@ public class HE_Database implements SparseTimeLineDataProvider {
         if (pipes == null || pipes.isEmpty()) {
             return;
         }
-        //Order Pipes
-        ArrayList<Pipe> list = new ArrayList<>(pipes);
-        Collections.sort(list, new Comparator<Pipe>() {
-            @Override
-            public int compare(Pipe t, Pipe t1) {
-                if (t.getManualID() == t1.getManualID()) {
-                    return 0;
-                }
-                if (t.getManualID() < t1.getManualID()) {
-                    return -1;
-                }
-                return 1;
-            }
-        });
-
-        try {
-            Connection c = getConnection();
-            Statement st = c.createStatement();
-            //in HE Database only use Pipe ID.
-            ResultSet rs = st.executeQuery("SELECT GESCHWINDIGKEIT,DURCHFLUSS,WASSERSTAND,KANTE,ID,ZEITPUNKT FROM LAU_GL_EL ORDER BY ID,ZEITPUNKT ");
-
-            int lastID;
-
-            float[] velocity = null, flux = null, waterlevel = null;
-            Iterator<Pipe> it = list.iterator();
-            Pipe p = null;
-
-            //Initialize Timeline for first pipe
-            p = it.next();
-            velocity = new float[container.getNumberOfTimes()];
-            flux = new float[container.getNumberOfTimes()];
-            waterlevel = new float[container.getNumberOfTimes()];
+        //Order Pipes by their ID to match the order of the resultset.
+        final Pipe[] sorted = sortedByManualID(pipes.toArray(new Pipe[pipes.size()]));
+        long[] ids = new long[sorted.length];
+        final float[][] velocity = new float[sorted.length][];
+        final float[][] flux = new float[sorted.length][];
+        final float[][] waterlevel = new float[sorted.length][];
+        int times = container.getNumberOfTimes();
+        for (int i = 0; i < sorted.length; i++) {
+            Pipe p = sorted[i];
+            ids[i] = p.getManualID();
+            velocity[i] = new float[times];
+            flux[i] = new float[times];
+            waterlevel[i] = new float[times];
             SparseTimelinePipe tl = new SparseTimelinePipe(container, p);
+            tl.setVelocity(velocity[i]);
+            tl.setFlux(flux[i]);
+            tl.setWaterlevel(waterlevel[i]);
             p.setStatusTimeLine(tl);
-            tl.setFlux(flux);
-            tl.setVelocity(velocity);
-            tl.setWaterlevel(waterlevel);
-
-            //Go through the pipes to assemble and load only their values
-//            rs.next();
-            lastID = -1;//rs.getInt(5);
-
-            int index = 0;
-            boolean lastpipeTLset = false;
-            while (true) {
-                //Test if actual pair is matching 
-                if (lastID == p.getManualID()) {
-                    //If pipe id = resultset id. Read timeline values and store them
-                    velocity[index] = rs.getFloat(1);
-                    flux[index] = rs.getFloat(2);
-                    waterlevel[index] = rs.getFloat(3);
-                    if (p.getBuildType() != Pipe.TYPE.CONDUIT) {
-                        //Pumps do only have a flux but no velocity. Calculate substitute velocity.
-                        if (velocity[index] == 0 && flux[index] != 0) {
-                            velocity[index] = (float) (flux[index] / p.getProfile().getTotalArea());
-//                            if(p.getEndConnection().getHeight()>p.getStartConnection().getHeight()){
-//                                velocity[index]=-velocity[index];
-//                            }
-                            waterlevel[index] = 1f;
-                        }
-                    }
-
-                    lastpipeTLset = true;
-                    index++;
-                    if (!rs.next()) {
-                        //this was the last resultset entry.
-                        break;
-                    }
-                    lastID = rs.getInt(5);
-                } else {
-                    //If pipe ID != resultset id. Find next matching pair
-                    if (p.getManualID() > lastID) {
-                        while (rs.next()) {
-                            lastID = rs.getInt(5);
-                            if (lastID == p.getManualID()) {
-                                //Found resultset that represents pipe
-                                //continue loop and read timestamp values
-                                break;
-                            }
-                        }
-                    } else {
-                        //pipe.manualid<resultset.id
-                        // pipe is ready. 
-                        // go to next pipe
-                        if (it.hasNext()) {
-                            if (!lastpipeTLset) {
-                                System.out.println("No timeline set for Pipe " + p);
-                            }
-                            lastpipeTLset = false;
-                            p = it.next();
-                            tl = new SparseTimelinePipe(container, p);
-                            p.setStatusTimeLine(tl);
-                            velocity = new float[container.getNumberOfTimes()];
-                            flux = new float[container.getNumberOfTimes()];
-                            waterlevel = new float[container.getNumberOfTimes()];
-                            tl.setFlux(flux);
-                            tl.setVelocity(velocity);
-                            tl.setWaterlevel(waterlevel);
-                            index = 0;
-                        } else {
-                            //All pipes set
-                            break;
-
+        }
+        final boolean[] found = new boolean[sorted.length];
+        HEConnectionPool.PooledConnection pooled = null;
+        try {
+            pooled = getUnusedConnection(-1);
+            //in HE Database only use Pipe ID.
+            long rows = bulkLoadTimelines(pooled, "GESCHWINDIGKEIT,DURCHFLUSS,WASSERSTAND", "LAU_GL_EL", ids, times, (int slot, int t, ResultSet rs) -> {
+                velocity[slot][t] = rs.getFloat(2);
+                flux[slot][t] = rs.getFloat(3);
+                waterlevel[slot][t] = rs.getFloat(4);
+                found[slot] = true;
+            });
+            for (int i = 0; i < sorted.length; i++) {
+                if (!found[i]) {
+                    System.out.println("No timeline set for Pipe " + sorted[i]);
+                    continue;
+                }
+                Pipe p = sorted[i];
+                if (p.getBuildType() != Pipe.TYPE.CONDUIT) {
+                    //Pumps do only have a flux but no velocity. Calculate substitute velocity.
+                    for (int t = 0; t < times; t++) {
+                        if (velocity[i][t] == 0 && flux[i][t] != 0) {
+                            velocity[i][t] = (float) (flux[i][t] / p.getProfile().getTotalArea());
+                            waterlevel[i][t] = 1f;
                         }
                     }
                 }
             }
+            if (verbose) {
+                System.out.println("Loaded " + rows + " timeline entries for " + sorted.length + " pipes. " + connectionPool);
+            }
         } catch (SQLException ex) {
             Logger.getLogger(HE_Database.class
                     .getName()).log(Level.SEVERE, null, ex);
         } catch (IOException ex) {
             Logger.getLogger(HE_Database.class
                     .getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            releaseConnection(pooled);
         }
     }
 
@@ -3552,170 +3479,44 @@ public class HE_Database implements SparseTimeLineDataProvider {
             return;
         }
         boolean verboseNotFound = false;
-        //Order Pipes
-        ArrayList<StorageVolume> list = new ArrayList<>(manholes);
-        Collections.sort(list, new Comparator<Capacity>() {
-            @Override
-            public int compare(Capacity t, Capacity t1) {
-                if (t.getManualID() == t1.getManualID()) {
-                    return 0;
-                }
-                if (t.getManualID() < t1.getManualID()) {
-                    return -1;
-                }
-                return 1;
-            }
-        });
-
+        //Order Manholes by their ID to match the order of the resultset.
+        final StorageVolume[] sorted = sortedByManualID(manholes.toArray(new StorageVolume[manholes.size()]));
+        long[] ids = new long[sorted.length];
+        final float[][] waterlevel = new float[sorted.length][];
+        final float[][] flux = new float[sorted.length][];
+        int times = container.getNumberOfTimes();
+        for (int i = 0; i < sorted.length; i++) {
+            StorageVolume mh = sorted[i];
+            ids[i] = mh.getManualID();
+            waterlevel[i] = new float[times];
+            flux[i] = new float[times];
+            SparseTimelineManhole tl = new SparseTimelineManhole(container, mh);
+            tl.setWaterHeight(waterlevel[i]);
+            tl.setSpilloutFlux(flux[i]);
+            mh.setStatusTimeline(tl);
+        }
+        final boolean[] found = new boolean[sorted.length];
+        HEConnectionPool.PooledConnection pooled = null;
         try {
-            Connection connection = getConnection();
-            Statement st = connection.createStatement();
-            //in HE Database only use Pipe ID.
-            ResultSet rs = st.executeQuery("SELECT ID,ZEITPUNKT,WASSERSTAND FROM LAU_GL_S ORDER BY ID,ZEITPUNKT ");
-
-            int lastID;
-
-            float[] flux = null, waterlevel = null;
-            Iterator<StorageVolume> it = list.iterator();
-            Capacity c;
-
-            //Go through the pipes to assemble and load only their values
-//            rs.next();
-            lastID = -1;
-            c = it.next();
-            SparseTimelineManhole tl = new SparseTimelineManhole(container, ((Manhole) c));
-            ((Manhole) c).setStatusTimeline(tl);
-            waterlevel = new float[container.getNumberOfTimes()];
-            tl.setWaterHeight(waterlevel);
-
-            int index = 0;
-            boolean lastpipeTLset = false;
-            while (true) {
-                //Test if actual pair is matching 
-                if (lastID == c.getManualID()) {
-                    //If pipe id = resultset id. Read timeline values and store them
-                    waterlevel[index] = rs.getFloat(3);
-                    lastpipeTLset = true;
-                    index++;
-                    if (!rs.next()) {
-                        //this was the last resultset entry.
-                        break;
-                    }
-                    lastID = rs.getInt(1);
-                } else {
-                    //If pipe ID != resultset id. Find next matching pair
-                    if (c.getManualID() > lastID) {
-                        while (rs.next()) {
-                            lastID = rs.getInt(1);
-                            if (lastID == c.getManualID()) {
-                                //Found resultset that represents pipe
-                                //continue loop and read timestamp values
-                                break;
-                            }
-                        }
-                    } else {
-                        //pipe.manualid<resultset.id
-                        // pipe is ready. 
-                        // go to next pipe
-                        if (it.hasNext()) {
-                            if (!lastpipeTLset) {
-                                if (verboseNotFound) {
-                                    System.out.println("No timeline.waterheight set for Manhole " + c);
-                                }
-                            }
-                            lastpipeTLset = false;
-                            c = it.next();
-                            tl = new SparseTimelineManhole(container, ((Manhole) c));
-                            ((Manhole) c).setStatusTimeline(tl);
-
-                            waterlevel = new float[container.getNumberOfTimes()];
-                            tl.setWaterHeight(waterlevel);
-                            index = 0;
-                        } else {
-                            //All pipes set
-                            break;
-                        }
+            pooled = getUnusedConnection(-1);
+            long rows = bulkLoadTimelines(pooled, "WASSERSTAND", "LAU_GL_S", ids, times, (int slot, int t, ResultSet rs) -> {
+                waterlevel[slot][t] = rs.getFloat(2);
+                found[slot] = true;
+            });
+            if (verboseNotFound) {
+                for (int i = 0; i < sorted.length; i++) {
+                    if (!found[i]) {
+                        System.out.println("No timeline.waterheight set for Manhole " + sorted[i]);
                     }
                 }
             }
-            rs.close();
             //Next: spillout fluxes
-            {
-                ResultSet rsF = st.executeQuery("SELECT ID,ZEITPUNKT, (ABFLUSS-ZUFLUSS) AS NETTO FROM KNOTENLAUFEND2D ORDER BY ID,ZEITPUNKT ");
-                it = list.iterator();
-
-                //Go through the pipes to assemble and load only their values
-//            rs.next();
-                lastID = -1;
-                //Initialize Timeline for first capacity
-                c = it.next();
-                tl = (SparseTimelineManhole) ((Manhole) c).getStatusTimeLine();
-                if (tl == null) {
-                    tl = new SparseTimelineManhole(container, (StorageVolume) c);
-                    ((Manhole) c).setStatusTimeline(tl);
-                }
-                flux = new float[container.getNumberOfTimes()];
-                tl.setSpilloutFlux(flux);
-
-                index = 0;
-                lastpipeTLset = false;
-                while (true) {
-                    //Test if actual pair is matching 
-                    if (lastID == c.getManualID()) {
-                        //If pipe id = resultset id. Read timeline values and store them
-                        try {
-                            flux[index] = rsF.getFloat(3);
-                        } catch (SQLException sQLException) {
-                            System.err.println("lastID:" + lastID + "  manhole.id=" + c.getManualID());
-                            sQLException.printStackTrace();
-                        }
-                        lastpipeTLset = true;
-                        index++;
-                        if (!rsF.next()) {
-                            //this was the last resultset entry.
-                            break;
-                        }
-                        lastID = rsF.getInt(1);
-                    } else {
-                        //If pipe ID != resultset id. Find next matching pair
-                        if (c.getManualID() > lastID) {
-                            while (rsF.next()) {
-                                lastID = rsF.getInt(1);
-                                if (lastID >= c.getManualID()) {
-                                    //Found resultset that represents pipe
-                                    //continue loop and read timestamp values
-                                    break;
-                                }
-                            }
-                            if (rsF.isClosed()) {
-                                //Result set empty
-                                System.out.println(getClass() + "::loadTimelineManholes: resultset is empty when searching for manhole with id:" + c.getManualID() + "  (resultset.id:" + lastID + ")");
-                                break;
-                            }
-                        } else {
-                            //pipe.manualid<resultset.id
-                            // pipe is ready. 
-                            // go to next pipe
-                            if (it.hasNext()) {
-                                if (!lastpipeTLset) {
-                                    if (verboseNotFound) {
-                                        System.out.println("No timeline.spilloutFlux set for Manhole " + c);
-                                    }
-                                }
-                                lastpipeTLset = false;
-                                c = it.next();
-                                tl = (SparseTimelineManhole) ((Manhole) c).getStatusTimeLine();
-                                flux = new float[container.getNumberOfTimes()];
-                                tl.setSpilloutFlux(flux);
-                                index = 0;
-                            } else {
-                                //All pipes set
-                                break;
-
-                            }
-                        }
-                    }
-                }
+            //ABFLUSS: Flow from Surface to Pipesystem
+            rows += bulkLoadTimelines(pooled, "(ABFLUSS-ZUFLUSS) AS NETTO", "KNOTENLAUFEND2D", ids, times, (int slot, int t, ResultSet rs) -> {
+                flux[slot][t] = rs.getFloat(2);
+            });
+            if (verbose) {
+                System.out.println("Loaded " + rows + " timeline entries for " + sorted.length + " manholes. " + connectionPool);
             }
         } catch (SQLException ex) {
             Logger.getLogger(HE_Database.class
@@ -3723,9 +3524,108 @@ public class HE_Database implements SparseTimeLineDataProvider {
         } catch (IOException ex) {
             Logger.getLogger(HE_Database.class
                     .getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            releaseConnection(pooled);
         }
     }
 
+    /**
+     * Receives the values of one row of a bulk timeline query.
+     */
+    private interface TimelineRowConsumer {
+
+        /**
+         *
+         * @param slot index of the element in the requested ID array
+         * @param timeindex index of the timestep
+         * @param rs resultset positioned on the row. Column 1 is the ID,
+         * the requested columns follow.
+         * @throws SQLException
+         */
+        public void accept(int slot, int timeindex, ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Streams the timeline values of all requested elements with as few
+     * queries as possible. Small sets are requested in chunks of
+     * {@link #bulkQueryChunkSize} IDs, large sets are read in one ordered scan
+     * of the whole table.
+     *
+     * @param pc connection
+     * @param columns columns to select (after the ID column)
+     * @param table table with ID and ZEITPUNKT columns
+     * @param sortedIDs ascending IDs of the requested elements
+     * @param numberOfTimes length of the timeline arrays
+     * @param consumer receives the matching rows
+     * @return number of rows read into the timelines
+     * @throws SQLException
+     */
+    private long bulkLoadTimelines(HEConnectionPool.PooledConnection pc, String columns, String table, long[] sortedIDs, int numberOfTimes, TimelineRowConsumer consumer) throws SQLException {
+        long rows = 0;
+        if (sortedIDs.length > bulkFullScanLimit) {
+            long queryStart = System.nanoTime();
+            try (Statement st = pc.con.createStatement();
+                    ResultSet rs = st.executeQuery("SELECT ID," + columns + " FROM " + table + " ORDER BY ID,ZEITPUNKT")) {
+                rows = consumeTimelineRows(rs, sortedIDs, numberOfTimes, consumer);
+            }
+            connectionPool.countQuery(queryStart, rows);
+            return rows;
+        }
+        int chunk = Math.max(1, bulkQueryChunkSize);
+        for (int from = 0; from < sortedIDs.length; from += chunk) {
+            int to = Math.min(sortedIDs.length, from + chunk);
+            StringBuilder sql = new StringBuilder(64 + (to - from) * 2);
+            sql.append("SELECT ID,").append(columns).append(" FROM ").append(table).append(" WHERE ID IN (");
+            for (int i = from; i < to; i++) {
+                sql.append(i == from ? "?" : ",?");
+            }
+            sql.append(") ORDER BY ID,ZEITPUNKT");
+            long queryStart = System.nanoTime();
+            PreparedStatement ps = pc.prepare(sql.toString());
+            for (int i = from; i < to; i++) {
+                ps.setLong(i - from + 1, sortedIDs[i]);
+            }
+            long chunkRows;
+            try (ResultSet rs = ps.executeQuery()) {
+                chunkRows = consumeTimelineRows(rs, sortedIDs, numberOfTimes, consumer);
+            }
+            connectionPool.countQuery(queryStart, chunkRows);
+            rows += chunkRows;
+        }
+        return rows;
+    }
+
+    private static long consumeTimelineRows(ResultSet rs, long[] sortedIDs, int numberOfTimes, TimelineRowConsumer consumer) throws SQLException {
+        long rows = 0;
+        long lastID = Long.MIN_VALUE;
+        int slot = -1;
+        int timeindex = 0;
+        while (rs.next()) {
+            long id = rs.getLong(1);
+            if (id != lastID) {
+                lastID = id;
+                slot = Arrays.binarySearch(sortedIDs, id);
+                timeindex = 0;
+            }
+            if (slot >= 0 && timeindex < numberOfTimes) {
+                consumer.accept(slot, timeindex, rs);
+                rows++;
+            }
+            timeindex++;
+        }
+        return rows;
+    }
+
+    private static <C extends Capacity> C[] sortedByManualID(C[] elements) {
+        Arrays.sort(elements, new Comparator<Capacity>() {
+            @Override
+            public int compare(Capacity t, Capacity t1) {
+                return Long.compare(t.getManualID(), t1.getManualID());
+            }
+        });
+        return elements;
+    }
+
     @Override
     public SparseTimelinePipe loadTimelinePipe(Pipe pipe, SparseTimeLinePipeContainer container) {
         SparseTimelinePipe tl = new SparseTimelinePipe(container, pipe);
@@ -3777,11 +3677,10 @@ public class HE_Database implements SparseTimeLineDataProvider {
     @Override
     public boolean fillTimelineManhole(long manholeManualID, String manholeName, SparseTimelineManhole timeline) {
         long starttime = System.currentTimeMillis();
-        ThreadConnection tc = null;
+        HEConnectionPool.PooledConnection tc = null;
 
         try {
             tc = getUnusedConnection(manholeManualID);
-            Connection c = tc.con;
             if (timeline.isInitialized()) {
                 //Does not need to be loaded any more. another Thread did that for us, while this thread was waiting for the monitor.
                 waitingForMHRequestCount++;
@@ -3792,10 +3691,12 @@ public class HE_Database implements SparseTimeLineDataProvider {
             float[] flux = new float[timeline.getNumberOfTimes()];
             float[] waterheight = new float[flux.length];
             float[] inflow = new float[flux.length];
-            Statement st = c.createStatement();
+            long queryStart = System.nanoTime();
             //in HE Database only use Manhole ID.
             //ZUFLUSS: FLow from HYSTEM TO pipe system
-            ResultSet rs = st.executeQuery("SELECT WASSERSTAND,ZUFLUSS FROM LAU_GL_S WHERE ID=" + manholeManualID + " ORDER BY ZEITPUNKT ASC");
+            PreparedStatement ps = tc.prepare("SELECT WASSERSTAND,ZUFLUSS FROM LAU_GL_S WHERE ID=? ORDER BY ZEITPUNKT ASC");
+            ps.setLong(1, manholeManualID);
+            ResultSet rs = ps.executeQuery();
             if (!rs.isBeforeFirst()) {
                 //No Data
                 System.err.println(getClass() + " could not load wasserstand for manhole id:" + manholeManualID + ". It is not found in the database.");
@@ -3807,20 +3708,23 @@ public class HE_Database implements SparseTimeLineDataProvider {
                 index++;
             }
             rs.close();
+            connectionPool.countQuery(queryStart, index);
             //ABFLUSS: Flow from Surface to Pipesystem
-
-            ResultSet res = st.executeQuery("SELECT "
+            queryStart = System.nanoTime();
+            PreparedStatement psFlux = tc.prepare("SELECT "
                     + "(ABFLUSS-ZUFLUSS) AS NETTO "
                     + "FROM KNOTENLAUFEND2D "
-                    + "WHERE ID=" + manholeManualID + " "
-                    + "ORDER BY  ZEITPUNKT ASC;");
+                    + "WHERE ID=? "
+                    + "ORDER BY  ZEITPUNKT ASC");
+            psFlux.setLong(1, manholeManualID);
+            ResultSet res = psFlux.executeQuery();
             index = 0;
             while (res.next()) {
                 flux[index] = res.getFloat(1);
                 index++;
             }
-            rs.close();
-            st.close();
+            res.close();
+            connectionPool.countQuery(queryStart, index);
             timeline.setSpilloutFlux(flux);
             timeline.setWaterHeight(waterheight);
             timeline.setInflow(inflow);
@@ -3832,9 +3736,7 @@ public class HE_Database implements SparseTimeLineDataProvider {
         } catch (IOException ex) {
             Logger.getLogger(HE_Database.class.getName()).log(Level.SEVERE, null, ex);
         } finally {
-            if (tc != null) {
-                tc.lock.unlock();
-            }
+            releaseConnection(tc);
             sqlMHRequestCount++;
             sqlMHRequestTime += System.currentTimeMillis() - starttime;
         }
@@ -3844,11 +3746,10 @@ public class HE_Database implements SparseTimeLineDataProvider {
     @Override
     public boolean fillTimelinePipe(long pipeManualID, String pipeName, SparseTimelinePipe timeline) {
 
-        ThreadConnection tc = null;
+        HEConnectionPool.PooledConnection tc = null;
         long starttime = System.currentTimeMillis();
         try {
             tc = getUnusedConnection(pipeManualID);
-            Connection c = tc.con;
             if (timeline.isInitialized()) {
                 //Does not need to be loaded any more. another Thread did that for us, while this thread was waiting for the monitor.
                 waitingForRequestCount++;
@@ -3857,9 +3758,11 @@ public class HE_Database implements SparseTimeLineDataProvider {
             }
             try {
 
-                try ( //in HE Database only use Pipe ID.
-                        Statement st = c.createStatement();
-                        ResultSet rs = st.executeQuery("SELECT GESCHWINDIGKEIT,DURCHFLUSS,WASSERSTAND FROM LAU_GL_EL WHERE ID=" + pipeManualID + " ORDER BY ZEITPUNKT ")) {
+                long queryStart = System.nanoTime();
+                //in HE Database only use Pipe ID.
+                PreparedStatement ps = tc.prepare("SELECT GESCHWINDIGKEIT,DURCHFLUSS,WASSERSTAND FROM LAU_GL_EL WHERE ID=? ORDER BY ZEITPUNKT");
+                ps.setLong(1, pipeManualID);
+                try (ResultSet rs = ps.executeQuery()) {
                     int times = timeline.getNumberOfTimes();
                     float[] velocity, flux, waterlevel;//, runoffVolume;
                     velocity = new float[times];
@@ -3884,7 +3787,7 @@ public class HE_Database implements SparseTimeLineDataProvider {
                     timeline.setVelocity(velocity);
                     timeline.setFlux(flux);
                     timeline.setWaterlevel(waterlevel);
-                    st.close();
+                    connectionPool.countQuery(queryStart, index);
                 }
                 return true;
             } catch (SQLException ex) {
@@ -3899,7 +3802,7 @@ public class HE_Database implements SparseTimeLineDataProvider {
             Logger.getLogger(HE_Database.class.getName()).log(Level.SEVERE, null, ex);
         } finally {
             if (tc != null) {
-                tc.lock.unlock();
+                releaseConnection(tc);
                 sqlRequestCount++;
                 sqlRequestTime += System.currentTimeMillis() - starttime;
             }
@@ -3944,19 +3847,6 @@ public class HE_Database implements SparseTimeLineDataProvider {
         return false;
     }
 
-    public class ThreadConnection {
-
-        private final ReentrantLock lock = new ReentrantLock();
-//        public boolean inUse = false;
-        public Connection con;
-        public long id = -1;
-
-        public ThreadConnection(Connection con) {
-            this.con = con;
-        }
-
-    }
-
     public class HEConnectionSerializer {
     };
 
@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.logging.Level;
@@ -123,6 +124,23 @@ public class HE_GDB_IO implements SurfaceWaterlevelLoader, SurfaceVelocityLoader
     final private ArrayList<GDBHandle> velocityHandles = new ArrayList<>(8);
     final private ArrayList<GDBHandle> waterlevelHandles = new ArrayList<>(8);
 
+    /**
+     * Lookup triangles through a triangleID-&gt;feature row index instead of
+     * searching them in the table. If building the index of a table fails,
+     * only this table of this gdb falls back to the search.
+     */
+    public static boolean useRowIndex = true;
+    /**
+     * Store the row index beside the gdb directory for the next opening.
+     */
+    public static boolean cacheRowIndex = true;
+
+    private volatile GDBRowIndex waterlevelRows, velocityRows;
+    /**
+     * Building the row index of the table failed, do not try again.
+     */
+    private volatile boolean waterlevelRowsFailed = false, velocityRowsFailed = false;
+
     public static boolean isReadyInstalled() {
         try {
             FileGDBFactory f = new FileGDBFactory();
@@ -850,6 +868,87 @@ public class HE_GDB_IO implements SurfaceWaterlevelLoader, SurfaceVelocityLoader
 
     }
 
+    /**
+     * Reads the feature of the triangle directly from its row if the index is
+     * available. The table must not be used by other threads at the same time
+     * (use a handle).
+     *
+     * @param table
+     * @param rows row index of the table or null to search the feature
+     * @param IDindex
+     * @param id
+     * @return
+     * @throws IDnotFoundException
+     */
+    private GeoFeature getFeature(GeoTable table, GDBRowIndex rows, int IDindex, int id) throws IDnotFoundException {
+        if (rows == null) {
+            return getFeature(table, IDindex, id);
+        }
+        int row = rows.getRow(id);
+        if (row < 1) {
+            throw new IDnotFoundException(id);
+        }
+        GeoFeature feature = table.getFeature(row);
+        if (feature == null) {
+            throw new IDnotFoundException(id);
+        }
+        return feature;
+    }
+
+    /**
+     * Index of the waterlevel table. Is loaded or built with the first call.
+     *
+     * @return the index or null if not available.
+     */
+    public GDBRowIndex getWaterlevelRowIndex() {
+        if (!useRowIndex || waterlevelRowsFailed || layerWaterlevels == null) {
+            return null;
+        }
+        if (waterlevelRows == null) {
+            synchronized (waterlevelHandles) {
+                if (waterlevelRows == null && !waterlevelRowsFailed) {
+                    GDBHandle handle = acquireWaterlevelHandle();
+                    try {
+                        waterlevelRows = GDBRowIndex.loadOrBuild(handle.table, directory, layerWaterHeight, indexWLid, (int) maxTriangleID, cacheRowIndex);
+                    } catch (Exception ex) {
+                        System.err.println("Could not build row index for " + layerWaterHeight + ": " + ex.getLocalizedMessage());
+                        waterlevelRowsFailed = true;
+                    } finally {
+                        handle.busy = false;
+                    }
+                }
+            }
+        }
+        return waterlevelRows;
+    }
+
+    /**
+     * Index of the velocity table. Is loaded or built with the first call.
+     *
+     * @return the index or null if not available.
+     */
+    public GDBRowIndex getVelocityRowIndex() {
+        if (!useRowIndex || velocityRowsFailed || layerVelocities == null) {
+            return null;
+        }
+        if (velocityRows == null) {
+            synchronized (velocityHandles) {
+                if (velocityRows == null && !velocityRowsFailed) {
+                    GDBHandle handle = acquireVelocityHandle();
+                    try {
+                        velocityRows = GDBRowIndex.loadOrBuild(handle.table, directory, layerVelocity, indexVid, (int) maxTriangleID, cacheRowIndex);
+                    } catch (Exception ex) {
+                        System.err.println("Could not build row index for " + layerVelocity + ": " + ex.getLocalizedMessage());
+                        velocityRowsFailed = true;
+                    } finally {
+                        handle.busy = false;
+                    }
+                }
+            }
+        }
+        return velocityRows;
+    }
+
     public static void main0(String[] args) {
         File file = new File(".\\2D_Model\\Extr2D_E2D1T50_mBK.result\\Result2D.gdb");
         HE_GDB_IO.verbose = true;
@@ -1047,6 +1146,16 @@ public class HE_GDB_IO implements SurfaceWaterlevelLoader, SurfaceVelocityLoader
 
     public HashMap<Integer, Long> getWaterlevelFeatureIDs(int[] triangleIDs) {
         HashMap<Integer, Long> map = new HashMap<>(triangleIDs.length);
+        GDBRowIndex rows = getWaterlevelRowIndex();
+        if (rows != null) {
+            for (int tid : triangleIDs) {
+                int row = rows.getRow(tid);
+                if (row > 0) {
+                    map.put(tid, (long) row);
+                }
+            }
+            return map;
+        }
         GeoLayer layer = db.layer(layerWaterHeight);
         for (GeoFeature f : layer) {
             int id = f.getValue(indexWLid).intValue();
@@ -1061,42 +1170,150 @@ public class HE_GDB_IO implements SurfaceWaterlevelLoader, SurfaceVelocityLoader
     }
 
     /**
+     * Search for a free handle on the waterlevel table or open a new one.
      *
-     * @param triangleID
-     * @return
+     * @return handle marked as busy
      */
-    @Override
-    public float[] loadWaterlevlvalues(int triangleID) {
-        GDBHandle handle = null;
-        long starttime = System.currentTimeMillis();
-        //Search for free handles on this file.
+    private GDBHandle acquireWaterlevelHandle() {
         synchronized (waterlevelHandles) {
             for (GDBHandle h : waterlevelHandles) {
                 if (!h.busy) {
-                    handle = h;
-                    handle.busy = true;
-                    handle.th = Thread.currentThread();
-                    break;
+                    h.busy = true;
+                    h.th = Thread.currentThread();
+                    return h;
                 }
             }
+            //create new handle
+            GeoTable tableWL = new GeoTable((GeoTable) layerWaterlevels);
+            tableWL.open();
+            GDBHandle handle = new GDBHandle(tableWL);
+            handle.busy = true;
+            handle.th = Thread.currentThread();
+            waterlevelHandles.add(handle);
+
+            if (verbose) {
+                System.out.println("New Handle for WaterlevelGDB " + waterlevelHandles.size());
+            }
+            return handle;
         }
-        if (handle == null) {
-            synchronized (waterlevelHandles) {
-                //create new handle
+    }
 
-                GeoTable tableWL = new GeoTable((GeoTable) layerWaterlevels);
-                tableWL.open();
-                handle = new GDBHandle(tableWL);
-                handle.busy = true;
-                waterlevelHandles.add(handle);
+    /**
+     * Search for a free handle on the velocity table or open a new one.
+     *
+     * @return handle marked as busy
+     */
+    private GDBHandle acquireVelocityHandle() {
+        synchronized (velocityHandles) {
+            for (GDBHandle h : velocityHandles) {
+                if (!h.busy) {
+                    h.busy = true;
+                    h.th = Thread.currentThread();
+                    return h;
+                }
+            }
+            //create new handle
+            GeoTable tableVelocity = new GeoTable((GeoTable) layerVelocities);
+            tableVelocity.open();
+            GDBHandle handle = new GDBHandle(tableVelocity);
+            handle.busy = true;
+            handle.th = Thread.currentThread();
+            velocityHandles.add(handle);
+
+            if (verbose) {
+                System.out.println("New Handle for VelocityGDB " + velocityHandles.size());
+            }
+            return handle;
+        }
+    }
 
-                if (verbose) {
-                    System.out.println("New Handle for WaterlevelGDB " + waterlevelHandles.size());
+    /**
+     * Loads waterlevels and elevation of all triangles with one table handle.
+     * Both values are read from the same feature. If the row index is
+     * available, the rows are read in ascending order of the file. Triangles
+     * not contained in the database get zero waterlevels like in
+     * {@link #loadWaterlevlvalues(int)}.
+     *
+     * @param triangleIDs
+     * @param zElevation
+     * @return
+     */
+    @Override
+    public float[][] loadWaterlevlvalues(int[] triangleIDs, float[] zElevation) {
+        long starttime = System.currentTimeMillis();
+        float[][] wls = new float[triangleIDs.length][];
+        GDBRowIndex rows = getWaterlevelRowIndex();
+        //Order of reading: row in upper, position in lower bits
+        long[] order = new long[triangleIDs.length];
+        for (int j = 0; j < triangleIDs.length; j++) {
+            long row = rows == null ? 0 : Math.max(0, rows.getRow(triangleIDs[j]));
+            order[j] = (row << 32) | j;
+        }
+        if (rows != null) {
+            Arrays.sort(order);
+        }
+        GDBHandle handle = acquireWaterlevelHandle();
+        try {
+            for (long o : order) {
+                int j = (int) o;
+                GeoFeature feature;
+                try {
+                    feature = getFeature(handle.table, rows, indexWLid, triangleIDs[j]);
+                } catch (NullPointerException e) {
+                    feature = null;
+                }
+                if (feature == null) {
+                    //The Database does not contain information on triangle with this id.
+                    wls[j] = new float[waterheightTimeSteps];
+                    continue;
+                }
+                float[] wl = new float[waterheightTimeSteps];
+                for (int i = 0; i < wl.length; i++) {
+                    wl[i] = (float) feature.getValue(indexWL0 + i).doubleValue();
                 }
+                wls[j] = wl;
+                zElevation[j] = (float) feature.getValue(indexWLZ).doubleValue();
+                sqlRequestCount++;
             }
+        } finally {
+            handle.busy = false;
         }
+        sqlRequestTime += System.currentTimeMillis() - starttime;
+        return wls;
+    }
+
+    /**
+     * Loads waterlevels of all triangles, reading the rows in ascending order.
+     *
+     * @param triangleIDs
+     * @return [triangle][timeindex]
+     */
+    public float[][] loadWaterlevlvalues(int[] triangleIDs) {
+        return loadWaterlevlvalues(triangleIDs, new float[triangleIDs.length]);
+    }
+
+    /**
+     * Waterlevels and velocities are read through pools of table handles.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     *
+     * @param triangleID
+     * @return
+     */
+    @Override
+    public float[] loadWaterlevlvalues(int triangleID) {
+        long starttime = System.currentTimeMillis();
+        GDBRowIndex rows = getWaterlevelRowIndex();
+        GDBHandle handle = acquireWaterlevelHandle();
         try {
-            GeoFeature feature = getFeature(handle.table, indexWLid, triangleID);
+            GeoFeature feature = getFeature(handle.table, rows, indexWLid, triangleID);
             handle.busy = false;
             float[] wl = new float[waterheightTimeSteps];
 
@@ -1121,7 +1338,7 @@ public class HE_GDB_IO implements SurfaceWaterlevelLoader, SurfaceVelocityLoader
      */
     @Override
     public float loadZElevation(int triangleID) throws IDnotFoundException {
-        GeoFeature feature = getFeature(layerWaterlevels, indexWLid, triangleID);
+        GeoFeature feature = getWaterlevelFeature(triangleID);
         if (feature == null) {
             throw new IDnotFoundException(triangleID);
         }
@@ -1130,53 +1347,50 @@ public class HE_GDB_IO implements SurfaceWaterlevelLoader, SurfaceVelocityLoader
     }
 
     public float loadMaxVelocity(int triangleID) throws IDnotFoundException {
-
-        GeoFeature feature = getFeature(layerVelocities, indexVid, triangleID);
-        float vmax = (float) feature.getValue(indexVMax).doubleValue();
-        return vmax;
+        GDBRowIndex rows = getVelocityRowIndex();
+        GDBHandle handle = acquireVelocityHandle();
+        try {
+            GeoFeature feature = getFeature(handle.table, rows, indexVid, triangleID);
+            float vmax = (float) feature.getValue(indexVMax).doubleValue();
+            return vmax;
+        } finally {
+            handle.busy = false;
+        }
     }
 
     public float loadMaxWaterlevel(int triangleID) throws IDnotFoundException {
 
-        GeoFeature feature = getFeature(layerWaterlevels, indexWLid, triangleID);
+        GeoFeature feature = getWaterlevelFeature(triangleID);
         float wlmax = (float) feature.getValue(indexWLmax).doubleValue();
         return wlmax;
     }
 
+    /**
+     * Reads the feature of a triangle from the waterlevel table through a
+     * handle.
+     *
+     * @param triangleID
+     * @return
+     * @throws IDnotFoundException
+     */
+    private GeoFeature getWaterlevelFeature(int triangleID) throws IDnotFoundException {
+        GDBRowIndex rows = getWaterlevelRowIndex();
+        GDBHandle handle = acquireWaterlevelHandle();
+        try {
+            return getFeature(handle.table, rows, indexWLid, triangleID);
+        } finally {
+            handle.busy = false;
+        }
+    }
+
     @Override
     public float[][] loadVelocity(int triangleID) throws IDnotFoundException {
         long starttime = System.currentTimeMillis();
-        GDBHandle handle = null;
-        //Search for free handles on this file.
-        synchronized (velocityHandles) {
-            for (GDBHandle h : velocityHandles) {
-                if (!h.busy) {
-                    handle = h;
-                    handle.busy = true;
-                    handle.th = Thread.currentThread();
-                    break;
-                }
-            }
-        }
-        if (handle == null) {
-            synchronized (velocityHandles) {
-                //create new handle
-                GeoTable tableVelocity = new GeoTable((GeoTable) layerVelocities);
-                tableVelocity.open();
-                handle = new GDBHandle(tableVelocity);
-                handle.busy = true;
-//                handle.table = tableVelocity;
-                velocityHandles.add(handle);
-
-                if (verbose) {
-                    System.out.println("New Handle for VelocityGDB " + velocityHandles.size());
-                }
-            }
-        }
-
+        GDBRowIndex rows = getVelocityRowIndex();
+        GDBHandle handle = acquireVelocityHandle();
         try {
 
-            GeoFeature feature = getFeature(handle.table, indexVid, triangleID);
+            GeoFeature feature = getFeature(handle.table, rows, indexVid, triangleID);
             handle.busy = false;
             float[][] v = new float[velocityTimeSteps][2];
 //            System.out.println("loadvelocity directed velocities only? "+velocities_directed_only);
@@ -1212,7 +1426,7 @@ public class HE_GDB_IO implements SurfaceWaterlevelLoader, SurfaceVelocityLoader
     }
 
     public Geometry loadGeometry(int triangleID) {
-        GeoFeature feature = getFeature(layerWaterlevels, indexWLid, triangleID);
+        GeoFeature feature = getWaterlevelFeature(triangleID);
         GeometryValue gv = feature.getValue(0).geometryValue();
         if (gv.getClass().equals(MultiPoint.class)) {
             MultiPoint mp = (MultiPoint) gv;
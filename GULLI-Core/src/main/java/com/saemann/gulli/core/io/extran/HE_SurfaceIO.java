@@ -5,6 +5,7 @@ import com.saemann.gulli.core.control.LoadingCoordinator;
 import com.saemann.gulli.core.control.StartParameters;
 import com.saemann.gulli.core.control.maths.GeometryTools;
 import com.saemann.gulli.core.io.NumberConverter;
+import com.saemann.gulli.core.io.ParallelNumberParser;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -71,6 +72,12 @@ public class HE_SurfaceIO {
      */
     public static Action loadingAction = null;
 
+    /**
+     * Parse the large text files of the surface (X.dat, TRIMOD2.dat,
+     * neighbours) in parallel chunks of a memory mapped file.
+     */
+    public static boolean parallelParsing = true;
+
     /**
      * Reorder the array of vertices, if there are unused ones. Exclude them and
      * set new indices in the triangle reference. This is performed in the
@@ -372,6 +379,9 @@ public class HE_SurfaceIO {
     }
 
     public static double[][] readVertices(File xdatFile) throws IOException {
+        if (parallelParsing) {
+            return readVerticesParallel(xdatFile);
+        }
         FileReader fr = new FileReader(xdatFile);
         BufferedReader br = new BufferedReader(fr);
         String line = br.readLine();
@@ -415,6 +425,32 @@ public class HE_SurfaceIO {
         return vertices;
     }
 
+    private static double[][] readVerticesParallel(File xdatFile) throws IOException {
+        try (ParallelNumberParser parser = new ParallelNumberParser(xdatFile)) {
+            //Number of vertices is the first entry in the first line.
+            int numberofVertices = Integer.parseInt(parser.readLine(0).split(" ")[0]);
+            double[][] vertices = new double[numberofVertices][3];
+            if (loadingAction != null) {
+                loadingAction.progress = 0.f;
+                loadingAction.hasProgress = true;
+                loadingAction.description = "Surface: " + LoadingCoordinator.df1k.format(numberofVertices) + " Vertices...";
+                loadingAction.updateProgress();
+            }
+            parser.setAction(loadingAction);
+            parser.parse(parser.nextLineStart(0), " ", true, (long index, ParallelNumberParser.Line line) -> {
+                if (index < numberofVertices) {
+                    line.fillDoubles(0, vertices[(int) index]);
+                }
+            });
+            if (loadingAction != null) {
+                loadingAction.progress = 1;
+                loadingAction.description = "Surface: " + LoadingCoordinator.df1k.format(numberofVertices) + " Vertices (" + (int) parser.getMegabytesPerSecond() + " MB/s)";
+                loadingAction.updateProgress();
+            }
+            return vertices;
+        }
+    }
+
     /**
      * Read the node index for each triangle
      *
@@ -443,6 +479,18 @@ public class HE_SurfaceIO {
 //        }
 //        return trianglenodes;
 
+        if (parallelParsing) {
+            try (ParallelNumberParser parser = new ParallelNumberParser(trimod2dat)) {
+                int numberOfTriangles = Integer.parseInt(parser.readLine(0).trim().split(" +")[0]);
+                final int[][] nodes = new int[numberOfTriangles][3];
+                parser.parse(parser.nextLineStart(0), " ", true, (long index, ParallelNumberParser.Line line) -> {
+                    if (index < numberOfTriangles) {
+                        line.fillIntegers(0, nodes[(int) index]);
+                    }
+                });
+                return nodes;
+            }
+        }
         FileReader fr = new FileReader(trimod2dat);
         BufferedReader br = new BufferedReader(fr);
         NumberConverter nc = new NumberConverter(br);
@@ -839,8 +887,8 @@ public class HE_SurfaceIO {
     }
 
     /**
-     * Very slow version of mapping manholes and surface triangles. it is better
-     * to load the references instead of looping over every triangle.
+     * Maps manholes to the surface triangle containing their position. It is
+     * still better to load the references from the model files if they exist.
      *
      * @param nw
      * @param surface
@@ -875,30 +923,18 @@ public class HE_SurfaceIO {
 
         int counterManholes = 0;//, counterInlets = 0;
 
-//        starttime = System.currentTimeMillis();
-        for (int i = 0; i < surface.triangleNodes.length; i++) {
-//            poly = null;
-            Coordinate c0 = new Coordinate(surface.vertices[surface.triangleNodes[i][0]][0], surface.vertices[surface.triangleNodes[i][0]][1]);
-            Coordinate c1 = new Coordinate(surface.vertices[surface.triangleNodes[i][1]][0], surface.vertices[surface.triangleNodes[i][1]][1]);
-            Coordinate c2 = new Coordinate(surface.vertices[surface.triangleNodes[i][2]][0], surface.vertices[surface.triangleNodes[i][2]][1]);
-
-            for (int j = 0; j < m.length; j++) {
-                Coordinate m1 = m[j];
-//                Point p1 = null;
-                if (Math.abs(c0.x - m1.x) < 30) {
-                    if (Math.abs(c0.y - m1.y) < 30) {
-                        if (c0.distance(m1) < 30) {
-                            //Closer look
-                            boolean contains = GeometryTools.triangleContainsPoint(c0.x, c1.x, c2.x, c0.y, c1.y, c2.y, m1.x, m1.y);
-                            if (contains) {
-                                Manhole mh = manholes[j];
-                                mh.setSurfaceTriangle(i);
-                                counterManholes++;
-                                break;
-                            }
-                        }
-                    }
-                }
+        //Locate all manholes in one call via the surface grid index
+        double[] xs = new double[m.length];
+        double[] ys = new double[m.length];
+        for (int j = 0; j < m.length; j++) {
+            xs[j] = m[j].x;
+            ys[j] = m[j].y;
+        }
+        int[] triangleIDs = surface.findContainingTriangles(xs, ys);
+        for (int j = 0; j < triangleIDs.length; j++) {
+            if (triangleIDs[j] >= 0) {
+                manholes[j].setSurfaceTriangle(triangleIDs[j]);
+                counterManholes++;
             }
         }
         System.out.println("found manholes and inlets after " + (System.currentTimeMillis() - start) / 1000 + "s. Manholes:" + counterManholes + "/" + nw.getManholes().size());
@@ -1426,6 +1462,19 @@ public class HE_SurfaceIO {
     }
 
     public static int[][] readMooreNeighbours(File file) throws FileNotFoundException, IOException {
+        if (parallelParsing) {
+            try (ParallelNumberParser parser = new ParallelNumberParser(file)) {
+                int numberOfTriangles = Integer.parseInt(parser.readLine(0).trim());
+                final int[][] neighbours = new int[numberOfTriangles][];
+                //Lines like "ID, n1 n2 n3"
+                parser.parse(parser.nextLineStart(0), ", ", false, (long index, ParallelNumberParser.Line line) -> {
+                    int[] ids = new int[line.getNumberOfTokens() - 1];
+                    line.fillIntegers(1, ids);
+                    neighbours[line.getInt(0)] = ids;
+                });
+                return neighbours;
+            }
+        }
         int[][] neumann = null;
         FileReader fr = new FileReader(file);
         try (BufferedReader br = new BufferedReader(fr)) {
@@ -34,10 +34,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -74,10 +80,100 @@ public class SWMM_Out_Reader implements SparseTimeLineDataProvider {
     private double startDate;
     private long[] times;
 
+    private HashMap<String, Integer> nodeIndices, linkIndices;
+
+    /**
+     * Memory mapped period blocks of the file. Split into several buffers for
+     * files larger than 2GB.
+     */
+    private MappedByteBuffer[] periodBuffers;
+    private int periodsPerBuffer;
+    /**
+     * Number of periods that are contained in the file. Can be smaller than
+     * nbPeriods if the simulation was aborted.
+     */
+    private int mappedPeriods;
+
     public SWMM_Out_Reader(File file) throws IOException {
         this.file = file;
         readFileParameters();
         readHeader();
+        nodeIndices = new HashMap<>(nbNodes);
+        for (int i = 0; i < nodeNames.length; i++) {
+            nodeIndices.put(nodeNames[i], i);
+        }
+        linkIndices = new HashMap<>(nbLinks);
+        for (int i = 0; i < linkNames.length; i++) {
+            linkIndices.put(linkNames[i], i);
+        }
+    }
+
+    /**
+     * Maps the period blocks of the result file into memory. Is called once
+     * before the first values are read.
+     *
+     * @throws IOException
+     */
+    private synchronized void mapPeriods() throws IOException {
+        if (periodBuffers != null) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long available = Math.max(0, (channel.size() - startPointer) / periodBytes);
+            mappedPeriods = (int) Math.min(nbPeriods, available);
+            if (mappedPeriods < nbPeriods) {
+                System.err.println("SWMM out file " + file.getName() + " contains only " + mappedPeriods + " of " + nbPeriods + " periods.");
+            }
+            periodsPerBuffer = Math.max(1, Integer.MAX_VALUE / periodBytes);
+            MappedByteBuffer[] buffers = new MappedByteBuffer[(mappedPeriods + periodsPerBuffer - 1) / periodsPerBuffer];
+            for (int i = 0; i < buffers.length; i++) {
+                int periods = Math.min(periodsPerBuffer, mappedPeriods - i * periodsPerBuffer);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, startPointer + (long) i * periodsPerBuffer * periodBytes, (long) periods * periodBytes);
+                buffers[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            //Mapped buffers stay valid after the channel is closed.
+            periodBuffers = buffers;
+        }
+    }
+
+    /**
+     * Byte position of a node variable inside a period block.
+     */
+    int nodeOffset(int nodeIndex, int valueIndex) {
+        return 2 * 4 + (4 * nbsubcatchments * sizeSubcatchments) + (4 * nodeIndex * sizeNodes) + (4 * valueIndex);
+    }
+
+    /**
+     * Byte position of a link variable inside a period block.
+     */
+    int linkOffset(int linkIndex, int valueIndex) {
+        return 2 * 4 + (4 * nbsubcatchments * sizeSubcatchments) + 4 * (nbNodes * sizeNodes) + (4 * linkIndex * sizeLinks) + (4 * valueIndex);
+    }
+
+    /**
+     * Reads the values at the given byte positions for all periods in one
+     * sequential pass over the period blocks.
+     *
+     * @param offsets byte positions inside a period block
+     * @return [offset index][period]
+     * @throws IOException
+     */
+    private float[][] readPeriodValues(int[] offsets) throws IOException {
+        mapPeriods();
+        float[][] values = new float[offsets.length][nbPeriods];
+        for (int b = 0; b < periodBuffers.length; b++) {
+            MappedByteBuffer buffer = periodBuffers[b];
+            int firstPeriod = b * periodsPerBuffer;
+            int periods = Math.min(periodsPerBuffer, mappedPeriods - firstPeriod);
+            for (int p = 0; p < periods; p++) {
+                int base = p * periodBytes;
+                for (int i = 0; i < offsets.length; i++) {
+                    values[i][firstPeriod + p] = buffer.getFloat(base + offsets[i]);
+                }
+            }
+        }
+        return values;
     }
 
     private void readFileParameters() throws IOException {
@@ -374,13 +470,7 @@ public class SWMM_Out_Reader implements SparseTimeLineDataProvider {
      * @throws IOException
      */
     public float[] getNodeValues(String nodeName, int valueIndex) throws FileNotFoundException, IOException {
-        int index = -1;
-        for (int i = 0; i < nodeNames.length; i++) {
-            if (nodeNames[i].equals(nodeName)) {
-                index = i;
-                break;
-            }
-        }
+        int index = getNodeIndex(nodeName);
         if (index < 0) {
             throw new NullPointerException("There is no node with name '" + nodeName + "'");
         }
@@ -397,26 +487,36 @@ public class SWMM_Out_Reader implements SparseTimeLineDataProvider {
      * @throws IOException
      */
     public float[] getNodeValues(int nodeIndex, int valueIndex) throws FileNotFoundException, IOException {
-        float[] values = new float[nbPeriods];
-        byte[] buffer = new byte[4];
-        ByteBuffer bb = ByteBuffer.wrap(buffer);
-        FileInputStream is = new FileInputStream(file);
-        long toskip = startPointer + (0 * periodBytes + 2 * 4) + (4 * nbsubcatchments * sizeSubcatchments) + (4 * nodeIndex * sizeNodes) + (4 * valueIndex);
-        while (toskip > 0) {
-            toskip = toskip - is.skip(toskip);
+        return readPeriodValues(new int[]{nodeOffset(nodeIndex, valueIndex)})[0];
+    }
+
+    /**
+     * Extracts several variables of several nodes in one pass over the file.
+     *
+     * @param nodeIndices
+     * @param valueIndices 0:Depth, 1:Head, 2:Volume, 3: Lateral Inflow, 4:Total
+     * Inflow, 5:Flooding, 6+: pollutants
+     * @return [node][variable][period]
+     * @throws IOException
+     */
+    public float[][][] getNodeValues(int[] nodeIndices, int[] valueIndices) throws IOException {
+        int[] offsets = new int[nodeIndices.length * valueIndices.length];
+        for (int n = 0; n < nodeIndices.length; n++) {
+            for (int v = 0; v < valueIndices.length; v++) {
+                offsets[n * valueIndices.length + v] = nodeOffset(nodeIndices[n], valueIndices[v]);
+            }
         }
-        for (int i = 0; i < values.length; i++) {
+        return group(readPeriodValues(offsets), nodeIndices.length, valueIndices.length);
+    }
 
-            is.read(buffer);
-            bb = ByteBuffer.wrap(buffer);
-            bb.order(ByteOrder.LITTLE_ENDIAN);
-            values[i] = bb.getFloat();
-            toskip = periodBytes - 4;
-            while (toskip > 0) {
-                toskip = toskip - is.skip(toskip);
+    private static float[][][] group(float[][] values, int elements, int variables) {
+        float[][][] grouped = new float[elements][variables][];
+        for (int e = 0; e < elements; e++) {
+            for (int v = 0; v < variables; v++) {
+                grouped[e][v] = values[e * variables + v];
             }
         }
-        return values;
+        return grouped;
     }
 
     /**
@@ -429,13 +529,7 @@ public class SWMM_Out_Reader implements SparseTimeLineDataProvider {
      * @throws IOException
      */
     public float[] getLinkValues(String name, int valueIndex) throws FileNotFoundException, IOException {
-        int index = -1;
-        for (int i = 0; i < linkNames.length; i++) {
-            if (linkNames[i].equals(name)) {
-                index = i;
-                break;
-            }
-        }
+        int index = getLinkIndex(name);
         if (index < 0) {
             throw new NullPointerException("There is no link with name '" + name + "'");
         }
@@ -451,26 +545,64 @@ public class SWMM_Out_Reader implements SparseTimeLineDataProvider {
      * @throws IOException
      */
     public float[] getLinkValues(int linkIndex, int valueIndex) throws FileNotFoundException, IOException {
-        float[] values = new float[nbPeriods];
-        byte[] buffer = new byte[4];
-        ByteBuffer bb = ByteBuffer.wrap(buffer);
-        FileInputStream is = new FileInputStream(file);
-        long toskip = startPointer + (0 * periodBytes + 2 * 4) + (4 * nbsubcatchments * sizeSubcatchments) + 4 * (nbNodes * sizeNodes) + (4 * linkIndex * sizeLinks) + (4 * valueIndex);
-        while (toskip > 0) {
-            toskip = toskip - is.skip(toskip);
-        }
-        for (int i = 0; i < values.length; i++) {
+        return readPeriodValues(new int[]{linkOffset(linkIndex, valueIndex)})[0];
+    }
 
-            is.read(buffer);
-            bb = ByteBuffer.wrap(buffer);
-            bb.order(ByteOrder.LITTLE_ENDIAN);
-            values[i] = bb.getFloat();
-            toskip = periodBytes - 4;
-            while (toskip > 0) {
-                toskip = toskip - is.skip(toskip);
+    /**
+     * Extracts several variables of several links in one pass over the file.
+     *
+     * @param linkIndices
+     * @param valueIndices 0:Flow, 1:Depth, 2:Velocity, 3: Volume, 4:capacity,
+     * 5+: pollutants
+     * @return [link][variable][period]
+     * @throws IOException
+     */
+    public float[][][] getLinkValues(int[] linkIndices, int[] valueIndices) throws IOException {
+        int[] offsets = new int[linkIndices.length * valueIndices.length];
+        for (int l = 0; l < linkIndices.length; l++) {
+            for (int v = 0; v < valueIndices.length; v++) {
+                offsets[l * valueIndices.length + v] = linkOffset(linkIndices[l], valueIndices[v]);
             }
         }
-        return values;
+        return group(readPeriodValues(offsets), linkIndices.length, valueIndices.length);
+    }
+
+    /**
+     * Index of the node in the file.
+     *
+     * @param nodeName
+     * @return index or -1 if not found
+     */
+    public int getNodeIndex(String nodeName) {
+        Integer index = nodeIndices.get(nodeName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Index of the link in the file.
+     *
+     * @param linkName
+     * @return index or -1 if not found
+     */
+    public int getLinkIndex(String linkName) {
+        Integer index = linkIndices.get(linkName);
+        return index == null ? -1 : index;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getNumberOfLinks() {
+        return nbLinks;
+    }
+
+    public int getNumberOfNodes() {
+        return nbNodes;
+    }
+
+    public int getNumberOfPeriods() {
+        return nbPeriods;
     }
 
     public static void main1(String[] args) {
@@ -548,10 +680,21 @@ public class SWMM_Out_Reader implements SparseTimeLineDataProvider {
     public float[][] loadTimeLineMassflux(long pipeMaualID, String pipeName, int numberOfTimes) {
         float[][] values = new float[nbPeriods][nbPollutants];
         try {
-            float[] discharge = getLinkValues(pipeName, 0);//m^3/s?
+            int index = getLinkIndex(pipeName);
+            if (index < 0) {
+                throw new NullPointerException("There is no link with name '" + pipeName + "'");
+            }
+            //discharge and all pollutants in one pass
+            int[] variables = new int[nbPollutants + 1];
+            variables[0] = 0;
+            for (int i = 0; i < nbPollutants; i++) {
+                variables[i + 1] = i + 5;
+            }
+            float[][] linkValues = getLinkValues(new int[]{index}, variables)[0];
+            float[] discharge = linkValues[0];//m^3/s?
 
             for (int i = 0; i < nbPollutants; i++) {
-                float[] c = getLinkValues(pipeName, i + 5);//mg/L
+                float[] c = linkValues[i + 1];//mg/L
                 for (int t = 0; t < nbPeriods; t++) {
                     values[t][i] = c[t] * discharge[t] / 1000f;// -> kg/s
                 }
@@ -601,9 +744,41 @@ public class SWMM_Out_Reader implements SparseTimeLineDataProvider {
         return false;
     }
 
+    /**
+     * Loads waterheight and spillout flux of all given manholes in one pass
+     * over the result file.
+     *
+     * @param manholes
+     * @param container
+     */
     @Override
     public void loadTimelineManholes(Collection<StorageVolume> manholes, SparseTimeLineManholeContainer container) {
-
+        if (manholes == null || manholes.isEmpty()) {
+            return;
+        }
+        ArrayList<StorageVolume> found = new ArrayList<>(manholes.size());
+        int[] indices = new int[manholes.size()];
+        for (StorageVolume manhole : manholes) {
+            int index = getNodeIndex(manhole.getName());
+            if (index < 0) {
+                System.err.println("Node '" + manhole.getName() + "' could not be found in SWMM out file.");
+                continue;
+            }
+            indices[found.size()] = index;
+            found.add(manhole);
+        }
+        try {
+            float[][][] values = getNodeValues(Arrays.copyOf(indices, found.size()), new int[]{1, 5});
+            for (int i = 0; i < found.size(); i++) {
+                StorageVolume sv = found.get(i);
+                SparseTimelineManhole tl = new SparseTimelineManhole(container, sv);
+                sv.setStatusTimeline(tl);
+                tl.setWaterHeight(values[i][0]);
+                tl.setSpilloutFlux(values[i][1]);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(SWMM_Out_Reader.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 
     @Override
@@ -616,29 +791,7 @@ public class SWMM_Out_Reader implements SparseTimeLineDataProvider {
         try {
             float[] q = getLinkValues(pipeName, 0);
             timeline.setFlux(q);
-            float[] v = getLinkValues(pipeName, 2);
-            boolean onlyNull = true;
-            for (float f : v) {
-                if (f != 0) {
-                    onlyNull = false;
-                    break;
-                }
-            }
-            // in putfalls, the velocity is 0 also if the discharge is !=0
-            if (onlyNull) {
-                //Check, if q is not null 
-                for (int i = 0; i < q.length; i++) {
-                    if (q[i] == 0) {
-                        continue;
-                    }
-                    if (q[i] > 0) {
-                        v[i] = 0.5f;
-                    } else {
-                        v[i] = -0.5f;
-                    }
-                }
-            }
-            timeline.setVelocity(v);
+            timeline.setVelocity(substituteOutfallVelocity(getLinkValues(pipeName, 2), q));
             timeline.setWaterlevel(getLinkValues(pipeName, 1));
 
             return true;
@@ -653,9 +806,70 @@ public class SWMM_Out_Reader implements SparseTimeLineDataProvider {
         return false;
     }
 
+    /**
+     * In outfalls the velocity is 0 also if the discharge is !=0. Replace the
+     * velocity by +/-0.5 m/s according to the flow direction in this case.
+     *
+     * @param v velocity
+     * @param q discharge
+     * @return the (modified) velocity array
+     */
+    private static float[] substituteOutfallVelocity(float[] v, float[] q) {
+        for (float f : v) {
+            if (f != 0) {
+                return v;
+            }
+        }
+        //Check, if q is not null 
+        for (int i = 0; i < q.length; i++) {
+            if (q[i] == 0) {
+                continue;
+            }
+            if (q[i] > 0) {
+                v[i] = 0.5f;
+            } else {
+                v[i] = -0.5f;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Loads flux, velocity and waterlevel of all given pipes in one pass over
+     * the result file.
+     *
+     * @param pipesToLoad
+     * @param container
+     */
     @Override
     public void loadTimelinePipes(Collection<Pipe> pipesToLoad, SparseTimeLinePipeContainer container) {
-
+        if (pipesToLoad == null || pipesToLoad.isEmpty()) {
+            return;
+        }
+        ArrayList<Pipe> found = new ArrayList<>(pipesToLoad.size());
+        int[] indices = new int[pipesToLoad.size()];
+        for (Pipe pipe : pipesToLoad) {
+            int index = getLinkIndex(pipe.getName());
+            if (index < 0) {
+                System.err.println("Link '" + pipe.getName() + "' could not be found in SWMM out file.");
+                continue;
+            }
+            indices[found.size()] = index;
+            found.add(pipe);
+        }
+        try {
+            float[][][] values = getLinkValues(Arrays.copyOf(indices, found.size()), new int[]{0, 2, 1});
+            for (int i = 0; i < found.size(); i++) {
+                Pipe p = found.get(i);
+                SparseTimelinePipe tl = new SparseTimelinePipe(container, p);
+                p.setStatusTimeLine(tl);
+                tl.setFlux(values[i][0]);
+                tl.setVelocity(substituteOutfallVelocity(values[i][1], values[i][0]));
+                tl.setWaterlevel(values[i][2]);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(SWMM_Out_Reader.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 
     @Override
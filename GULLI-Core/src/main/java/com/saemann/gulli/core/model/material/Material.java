@@ -126,6 +126,19 @@ public class Material {
         this.dispersionSurface=dispersion_surface;
     }
     
+    /**
+     * Copy of the template's properties with a new name. The calculators for
+     * routing and dispersion are shared with the template.
+     *
+     * @param name
+     * @param template
+     */
+    public Material(String name, Material template) {
+        this(name, template.density, template.materialIndex, template.routing, template.dispersionPipe, template.dispersionSurface);
+        this.solute = template.solute;
+        this.travellengthToMeasure = template.travellengthToMeasure;
+    }
+
     public String getName() {
         return name;
     }
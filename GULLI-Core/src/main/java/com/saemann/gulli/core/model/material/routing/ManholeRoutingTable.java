@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.model.material.routing;
+
+import com.saemann.gulli.core.model.timeline.array.TimeContainer;
+import com.saemann.gulli.core.model.timeline.array.TimeLineManhole;
+import com.saemann.gulli.core.model.topology.Connection_Manhole_Pipe;
+
+/**
+ * Cumulative outflow probabilities of a manhole for one hydraulic state (one
+ * actual simulation time). Built once by {@link Routing_Homogene} and reused
+ * for all particles passing the manhole until the hydraulic time or the loaded
+ * timelines change.
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author saemann
+ */
+public class ManholeRoutingTable {
+
+    /**
+     * No connection can be chosen. No random number is used.
+     */
+    public static final byte NONE = 0;
+    /**
+     * Only one connection is possible. No random number is used.
+     */
+    public static final byte SINGLE = 1;
+    /**
+     * Choose with one uniform random number.
+     */
+    public static final byte DRAW = 2;
+
+    /**
+     * Actual time of the hydraulic timelines this table was calculated for.
+     */
+    final long actualTime;
+    /**
+     * State of the spill out option at creation time.
+     */
+    final boolean spillOutToSurface;
+    /**
+     * Timeline of the manhole and its time container at creation time. New
+     * results can be loaded onto the same manhole objects.
+     */
+    final TimeLineManhole timeline;
+    final TimeContainer timeContainer;
+
+    final byte forwardMode;
+    final Connection_Manhole_Pipe[] forwardConnections;
+    /**
+     * Cumulative discharges of the forward connections.
+     */
+    final float[] forwardCumulative;
+    /**
+     * Sum of all forward discharges incl. spill out to the surface.
+     */
+    final float forwardTotal;
+    /**
+     * Discharge sum of the pipes. Random thresholds above lead to the surface.
+     */
+    final float forwardPipeTotal;
+
+    final byte backwardMode;
+    final Connection_Manhole_Pipe[] backwardConnections;
+    final float[] backwardCumulative;
+    final float backwardTotal;
+
+    /**
+     * Table of a dry manhole without any possible connection.
+     *
+     * @param actualTime
+     * @param spillOutToSurface
+     * @param timeline
+     */
+    ManholeRoutingTable(long actualTime, boolean spillOutToSurface, TimeLineManhole timeline) {
+        this(actualTime, spillOutToSurface, timeline, NONE, null, null, 0, 0, NONE, null, null, 0);
+    }
+
+    ManholeRoutingTable(long actualTime, boolean spillOutToSurface, TimeLineManhole timeline,
+            byte forwardMode, Connection_Manhole_Pipe[] forwardConnections, float[] forwardCumulative, float forwardTotal, float forwardPipeTotal,
+            byte backwardMode, Connection_Manhole_Pipe[] backwardConnections, float[] backwardCumulative, float backwardTotal) {
+        this.actualTime = actualTime;
+        this.spillOutToSurface = spillOutToSurface;
+        this.timeline = timeline;
+        this.timeContainer = timeline.getTimeContainer();
+        this.forwardMode = forwardMode;
+        this.forwardConnections = forwardConnections;
+        this.forwardCumulative = forwardCumulative;
+        this.forwardTotal = forwardTotal;
+        this.forwardPipeTotal = forwardPipeTotal;
+        this.backwardMode = backwardMode;
+        this.backwardConnections = backwardConnections;
+        this.backwardCumulative = backwardCumulative;
+        this.backwardTotal = backwardTotal;
+    }
+
+    /**
+     *
+     * @param actualTime
+     * @param spillOutToSurface
+     * @param timeline
+     * @return true if this table was calculated for the given state.
+     */
+    boolean isValidFor(long actualTime, boolean spillOutToSurface, TimeLineManhole timeline) {
+        return this.actualTime == actualTime
+                && this.spillOutToSurface == spillOutToSurface
+                && this.timeline == timeline
+                && this.timeContainer == timeline.getTimeContainer();
+    }
+
+    public long getActualTime() {
+        return actualTime;
+    }
+
+    public byte getForwardMode() {
+        return forwardMode;
+    }
+
+    public byte getBackwardMode() {
+        return backwardMode;
+    }
+
+    /**
+     * Index of the first connection whose cumulative discharge exceeds the
+     * threshold.
+     *
+     * @param cumulative
+     * @param threshold
+     * @return index or -1 if no connection is found.
+     */
+    static int search(float[] cumulative, double threshold) {
+        if (cumulative.length < 8) {
+            for (int i = 0; i < cumulative.length; i++) {
+                if (cumulative[i] > threshold) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int low = 0, high = cumulative.length - 1;
+        if (!(cumulative[high] > threshold)) {
+            return -1;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] > threshold) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+}
@@ -26,12 +26,15 @@ package com.saemann.gulli.core.model.material.routing;
 import com.saemann.gulli.core.control.maths.RandomGenerator;
 import com.saemann.gulli.core.control.particlecontrol.ParticlePipeComputing;
 import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.timeline.array.TimeIndexCalculator;
+import com.saemann.gulli.core.model.timeline.array.TimeLineManhole;
 import com.saemann.gulli.core.model.topology.Capacity;
 import com.saemann.gulli.core.model.topology.Connection_Manhole;
 import com.saemann.gulli.core.model.topology.Connection_Manhole_Pipe;
 import com.saemann.gulli.core.model.topology.Connection_Manhole_Surface;
 import com.saemann.gulli.core.model.topology.Manhole;
 import com.saemann.gulli.core.model.topology.Manhole_SurfaceBucket;
+import java.util.Arrays;
 
 /**
  * This class calculates the probabilities of particle movement. Where they
@@ -49,6 +52,13 @@ public class Routing_Homogene implements Routing_Calculator {
      */
     public static float dryWaterlevel = 0.001f;
 
+    /**
+     * Cache the cumulative outflow probabilities of every manhole for the
+     * actual hydraulic time. The choice of a connection is then a lookup with
+     * one random number instead of a loop over all connections and timelines.
+     */
+    public static boolean useRoutingTables = true;
+
     public static int numberOfWettedConnections(Manhole mh) {
         int number = 0;
         /*Connections are ordered from bottom to top. Therefore we can easily go
@@ -82,7 +92,12 @@ public class Routing_Homogene implements Routing_Calculator {
 
     @Override
     public Connection_Manhole whichConnection(Manhole mh, RandomGenerator probability, boolean forward) {
-
+        if (useRoutingTables) {
+            ManholeRoutingTable table = getRoutingTable(mh);
+            if (table != null) {
+                return whichConnection(mh, table, probability, forward);
+            }
+        }
         if (mh.getWaterlevel() < dryWaterlevel && !mh.pumpsump) {
             if (verbose) {
                 System.out.println("waterlevel<" + dryWaterlevel + "m\t wL:" + mh.getWaterlevel() + "\t h:" + mh.getWaterHeight() + " --> null");
@@ -137,20 +152,7 @@ public class Routing_Homogene implements Routing_Calculator {
             if (threashold > spillthreashold) {
 //                System.out.println("spill to surface through connection " + mh.getTopConnection());
                 //Spill out to surface
-                if (mh.getTopConnection() == null) {
-                    if (mh.getSurfaceTriangleID() < 0) {
-//                        System.out.println("Create replacements for real surface connection, because manhole referenced surface cell id is "+mh.getSurfaceTriangleID());
-                        //There is no surface attached
-                        Manhole_SurfaceBucket ch = new Manhole_SurfaceBucket(mh, mh.getPosition3D(0));
-                        mh.setTopConnection(ch);
-                        return ch;
-                    } else {
-                        Connection_Manhole_Surface ch = new Connection_Manhole_Surface(mh, mh.getPosition3D(0), mh.getSurfaceTriangleID(), null);
-                        mh.setTopConnection(ch);
-                        return ch;
-                    }
-                }
-                return mh.getTopConnection();
+                return getSurfaceConnection(mh);
             }
             //search in outgoing pipes.
             qsum = 0;
@@ -225,6 +227,167 @@ public class Routing_Homogene implements Routing_Calculator {
         return null;
     }
 
+    /**
+     * The connection to the surface. It is created if it does not exist yet.
+     *
+     * @param mh
+     * @return
+     */
+    private static Connection_Manhole getSurfaceConnection(Manhole mh) {
+        if (mh.getTopConnection() == null) {
+            if (mh.getSurfaceTriangleID() < 0) {
+//                System.out.println("Create replacements for real surface connection, because manhole referenced surface cell id is "+mh.getSurfaceTriangleID());
+                //There is no surface attached
+                Manhole_SurfaceBucket ch = new Manhole_SurfaceBucket(mh, mh.getPosition3D(0));
+                mh.setTopConnection(ch);
+                return ch;
+            } else {
+                Connection_Manhole_Surface ch = new Connection_Manhole_Surface(mh, mh.getPosition3D(0), mh.getSurfaceTriangleID(), null);
+                mh.setTopConnection(ch);
+                return ch;
+            }
+        }
+        return mh.getTopConnection();
+    }
+
+    /**
+     * Same decision as the loop based whichConnection, but with the
+     * precalculated cumulative discharges of the manhole. Uses the same
+     * number of random draws.
+     */
+    private Connection_Manhole whichConnection(Manhole mh, ManholeRoutingTable table, RandomGenerator probability, boolean forward) {
+        if (forward) {
+            if (table.forwardMode == ManholeRoutingTable.NONE) {
+                return null;
+            }
+            if (table.forwardMode == ManholeRoutingTable.SINGLE) {
+                return table.forwardConnections[0];
+            }
+            float p = (float) probability.nextDouble();
+            float threashold = p * table.forwardTotal;
+            if (threashold > table.forwardPipeTotal) {
+                //Spill out to surface
+                return getSurfaceConnection(mh);
+            }
+            int index = ManholeRoutingTable.search(table.forwardCumulative, threashold);
+            if (index < 0) {
+                if (verbose) {
+                    System.err.println(this.getClass() + "::whichConnection()::No outflow connection found! qsum=" + table.forwardPipeTotal + " threshold:" + threashold);
+                }
+                return null;
+            }
+            return table.forwardConnections[index];
+        } else {
+            if (table.backwardMode == ManholeRoutingTable.NONE) {
+                return null;
+            }
+            double p = probability.nextDouble();
+            double threashold = p * table.backwardTotal;
+            int index = ManholeRoutingTable.search(table.backwardCumulative, threashold);
+            if (index < 0) {
+                System.err.println(this.getClass() + "whichConnection()::No inflow connection found! qsum=" + table.backwardTotal + " threshold:" + threashold);
+                return null;
+            }
+            return table.backwardConnections[index];
+        }
+    }
+
+    /**
+     * Returns the routing table of the manhole for the actual hydraulic time.
+     * The table is recalculated if the time, the spill out option or the
+     * timeline of the manhole has changed since the last request.
+     *
+     * @param mh
+     * @return null if the manhole has no indexed timeline.
+     */
+    public static ManholeRoutingTable getRoutingTable(Manhole mh) {
+        TimeLineManhole tl = mh.getStatusTimeLine();
+        if (tl == null || !(tl.getTimeContainer() instanceof TimeIndexCalculator)) {
+            return null;
+        }
+        long actualTime = ((TimeIndexCalculator) tl.getTimeContainer()).getActualTime();
+        ManholeRoutingTable table = mh.getRoutingTable();
+        if (table == null || !table.isValidFor(actualTime, ParticlePipeComputing.spillOutToSurface, tl)) {
+            //Concurrent threads might calculate the same table. Both results are equal.
+            table = createRoutingTable(mh, tl, actualTime);
+            mh.setRoutingTable(table);
+        }
+        return table;
+    }
+
+    private static ManholeRoutingTable createRoutingTable(Manhole mh, TimeLineManhole tl, long actualTime) {
+        boolean spillOut = ParticlePipeComputing.spillOutToSurface;
+        if (mh.getWaterlevel() < dryWaterlevel && !mh.pumpsump) {
+            return new ManholeRoutingTable(actualTime, spillOut, tl);
+        }
+        float h = (float) mh.getWaterHeight();
+        Connection_Manhole_Pipe[] connections = mh.getConnections();
+        //Forward: Connections are odereder first-low.
+        Connection_Manhole_Pipe[] cons = new Connection_Manhole_Pipe[connections.length];
+        float[] cumulative = new float[connections.length];
+        int counter = 0;
+        float qsum = 0;
+        for (Connection_Manhole_Pipe connection : connections) {
+            if (connection.getHeight() > h) {
+                break;
+            }
+            if (connection.isFlowInletToPipe()) {
+                qsum += Math.abs(connection.getPipe().getFlowActual());
+                cons[counter] = connection;
+                cumulative[counter] = qsum;
+                counter++;
+            }
+        }
+        Connection_Manhole_Pipe[] forwardConnections = Arrays.copyOf(cons, counter);
+        float[] forwardCumulative = Arrays.copyOf(cumulative, counter);
+        float forwardPipeTotal = qsum;
+        boolean single = false;
+        if (spillOut) {
+            float toSurface = mh.getStatusTimeLine().getActualFlowToSurface();
+            if (toSurface > 0) {
+                qsum += toSurface;
+                counter++;
+            } else if (counter == 1) {
+                single = true;
+            }
+        } else if (counter == 1) {
+            single = true;
+        }
+        float forwardTotal = qsum;
+        byte forwardMode;
+        if (single) {
+            forwardMode = ManholeRoutingTable.SINGLE;
+        } else if (counter == 0 || qsum < 0.00001) {
+            forwardMode = ManholeRoutingTable.NONE;
+        } else {
+            forwardMode = ManholeRoutingTable.DRAW;
+        }
+
+        //Backward: Particle will go to an upstream pipe
+        counter = 0;
+        qsum = 0;
+        for (Connection_Manhole_Pipe connection : connections) {
+            if (connection.getHeight() > h) {
+                break;
+            }
+            if (connection.isFlowOutletFromPipe()) {
+                qsum += Math.abs(connection.getPipe().getFlowActual());
+                cons[counter] = connection;
+                cumulative[counter] = qsum;
+                counter++;
+            }
+        }
+        byte backwardMode;
+        if (counter == 0 || qsum < 0.00001) {
+            backwardMode = ManholeRoutingTable.NONE;
+        } else {
+            backwardMode = ManholeRoutingTable.DRAW;
+        }
+        return new ManholeRoutingTable(actualTime, spillOut, tl,
+                forwardMode, forwardConnections, forwardCumulative, forwardTotal, forwardPipeTotal,
+                backwardMode, Arrays.copyOf(cons, counter), Arrays.copyOf(cumulative, counter), qsum);
+    }
+
     @Override
     public boolean useDeposition() {
         return false;
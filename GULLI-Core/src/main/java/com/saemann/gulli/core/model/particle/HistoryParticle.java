@@ -7,10 +7,14 @@ package com.saemann.gulli.core.model.particle;
 
 import com.saemann.gulli.core.model.material.Material;
 import com.saemann.gulli.core.control.particlecontrol.injection.ParticleInjection;
+import com.saemann.gulli.core.io.ParticleTraceWriter;
 import com.saemann.gulli.core.model.GeoPosition2D;
 import java.util.LinkedList;
+import com.saemann.gulli.core.model.surface.SurfaceTriangle;
 import com.saemann.gulli.core.model.topology.Capacity;
+import com.saemann.gulli.core.model.topology.Pipe;
 import com.saemann.gulli.core.model.topology.Position3D;
+import com.saemann.gulli.core.model.topology.StorageVolume;
 import org.locationtech.jts.geom.Coordinate;
 
 /**
@@ -28,6 +32,23 @@ public class HistoryParticle extends Particle {
 
     protected double lastUTMX, lastUTMy;
 
+    /**
+     * If set, the trace is streamed into this sink instead of being kept in
+     * the history lists of the particle. Is set by the Controller that runs
+     * the simulation of this particle.
+     */
+    protected ParticleTraceWriter traceSink = null;
+
+    /**
+     * Last visited capacity, also known when the trace is streamed.
+     */
+    protected Capacity lastCapacity;
+
+    /**
+     * Index of the next record in the streamed trace.
+     */
+    protected int traceSequence = 0;
+
     public HistoryParticle(Material material, ParticleInjection injectionInformation, float mass, long injectionTime) {
         super(material, injectionInformation, mass, injectionTime);
     }
@@ -36,37 +57,105 @@ public class HistoryParticle extends Particle {
         super(material, injectionInformation, mass);
     }
 
-    public void addToHistory(Capacity cap) {
-        if (!history.isEmpty() && history.getLast().equals(cap)) {
+    /**
+     * Stream the trace into this sink instead of keeping it in memory. null
+     * to keep the history lists.
+     *
+     * @param sink
+     */
+    public void setTraceSink(ParticleTraceWriter sink) {
+        this.traceSink = sink;
+    }
+
+    public ParticleTraceWriter getTraceSink() {
+        return traceSink;
+    }
+
+    /**
+     *
+     * @param cap visited capacity
+     * @param simulationTimeMS time of the current simulation step
+     */
+    public void addToHistory(Capacity cap, long simulationTimeMS) {
+        if (lastCapacity != null && lastCapacity.equals(cap)) {
             return;
         }
         Position3D pos = cap.getPosition3D(position1d_actual);
-        this.addToHistory(pos,pos.getX(),pos.getY());
-        this.history.add(cap);
+        ParticleTraceWriter sink = traceSink;
+        if (sink != null) {
+            sink.write(id, traceSequence++, simulationTimeMS, getTraceType(cap), getTraceID(cap), pos.getLongitude(), pos.getLatitude());
+            this.lastUTMX = pos.getX();
+            this.lastUTMy = pos.getY();
+        } else {
+            this.addToHistory(pos, pos.getX(), pos.getY(), simulationTimeMS);
+            this.history.add(cap);
+        }
+        this.lastCapacity = cap;
     }
 
-    public void addToHistory(GeoPosition2D longlat, double utmX, double utmY) {
+    public void addToHistory(GeoPosition2D longlat, double utmX, double utmY, long simulationTimeMS) {
 //        if(longlat.getLongitude()==0)return;
-        this.positions.add(new Coordinate(longlat.getLongitude(), longlat.getLatitude()));
+        ParticleTraceWriter sink = traceSink;
+        if (sink != null) {
+            sink.write(id, traceSequence++, simulationTimeMS, ParticleTraceWriter.TYPE_POSITION, surfaceCellID, longlat.getLongitude(), longlat.getLatitude());
+        } else {
+            this.positions.add(new Coordinate(longlat.getLongitude(), longlat.getLatitude()));
+        }
         this.lastUTMX = utmX;
         this.lastUTMy = utmY;
     }
 
-    public void addToHistory(Coordinate longlat, double utmX, double utmY) {
-        this.positions.add(longlat);
+    public void addToHistory(Coordinate longlat, double utmX, double utmY, long simulationTimeMS) {
+        ParticleTraceWriter sink = traceSink;
+        if (sink != null) {
+            sink.write(id, traceSequence++, simulationTimeMS, ParticleTraceWriter.TYPE_POSITION, surfaceCellID, longlat.x, longlat.y);
+        } else {
+            this.positions.add(longlat);
+        }
         this.lastUTMX = utmX;
         this.lastUTMy = utmY;
     }
 
+    /**
+     * Type of the capacity as stored in the streamed trace records.
+     *
+     * @param cap
+     * @return one of ParticleTraceWriter.TYPE_
+     */
+    public static byte getTraceType(Capacity cap) {
+        if (cap instanceof Pipe) {
+            return ParticleTraceWriter.TYPE_PIPE;
+        }
+        if (cap instanceof StorageVolume) {
+            return ParticleTraceWriter.TYPE_MANHOLE;
+        }
+        if (cap instanceof SurfaceTriangle) {
+            return ParticleTraceWriter.TYPE_SURFACE_CELL;
+        }
+        return ParticleTraceWriter.TYPE_OTHER;
+    }
+
+    /**
+     * ID of the capacity as stored in the streamed trace records. Network
+     * elements use their autoID, surface cells their manualID (cell index).
+     *
+     * @param cap
+     * @return
+     */
+    public static long getTraceID(Capacity cap) {
+        if (cap instanceof SurfaceTriangle) {
+            return cap.getManualID();
+        }
+        return cap.getAutoID();
+    }
+
     public void clearHistory() {
         this.history.clear();
+        this.lastCapacity = null;
     }
 
     public Capacity getLastVisitedCapacity() {
-        if (history.isEmpty()) {
-            return null;
-        }
-        return history.getLast();
+        return lastCapacity;
     }
 
     public LinkedList<Capacity> getHistory() {
@@ -95,6 +184,8 @@ public class HistoryParticle extends Particle {
         super.resetMovementLengths();
         history.clear();
         positions.clear();
+        lastCapacity = null;
+        traceSequence = 0;
         lastUTMX=-1;
         lastUTMy=-1;
     }
@@ -26,7 +26,7 @@ public class Particle {
     /**
      * An Id for every particle to track this one easily.
      */
-    protected final int id = counterID++;
+    protected int id;
 
     /**
      * Material of this particle with more information about physical attributes
@@ -99,6 +99,12 @@ public class Particle {
      * If particle stays on this cell, do not count it again.
      */
     public int lastSurfaceCellID = -1;
+
+    /**
+     * Index of the nearest node in the soil domain found in the last timestep.
+     * Used as the starting point for the next nearest node search.
+     */
+    public int soilNodeIndex = -1;
     public boolean blocked = false;
     public double blockVelocity = -1;
 
@@ -108,11 +114,27 @@ public class Particle {
     }
 
     public Particle(Material material, ParticleInjection injectionInformation, float mass) {
+        this.id = counterID++;
         this.material = material;
         this.injectionInformation = injectionInformation;
         this.particleMass = mass;
     }
 
+    /**
+     * Constructor for views on a {@link ParticleStore}. Does not consume an
+     * ID.
+     *
+     * @param id
+     */
+    protected Particle(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Restarts the numbering of new particles at 0. Controller serializes the
+     * creation of particles so that concurrent simulations get consecutive
+     * IDs.
+     */
     public static void resetCounterID() {
         counterID = 0;
     }
@@ -184,6 +206,32 @@ public class Particle {
         active = false;
     }
 
+    /**
+     * Sets the status code and the active flag according to the code.
+     *
+     * @param status -10:leftSimulation, -1:waiting, 0:inactive; 10:
+     * pipenetwork 20:surface; 30:underground.
+     */
+    void setStatus(byte status) {
+        this.status = status;
+        this.active = status > 0;
+    }
+
+    /**
+     * Restores identity, status and travelled path length, e.g. when a
+     * simulation is continued from a checkpoint. The id selects the random
+     * sequence of counter based generators.
+     *
+     * @param id
+     * @param status see {@link #setStatus(byte)}
+     * @param travelledPathLength [m]
+     */
+    public void restoreState(int id, byte status, float travelledPathLength) {
+        this.id = id;
+        setStatus(status);
+        this.moveLengthCummulative = travelledPathLength;
+    }
+
     public float getPosition1d_actual() {
         return position1d_actual; //position3d.x;//
     }
@@ -0,0 +1,433 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.model.particle;
+
+import com.saemann.gulli.core.control.particlecontrol.injection.ParticleInjection;
+import com.saemann.gulli.core.model.material.Material;
+import com.saemann.gulli.core.model.topology.Capacity;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Structure of arrays storage for a large number of particles. All values
+ * needed during the transport are stored in primitive arrays indexed by the
+ * position in the ThreadController's particle order. References to
+ * capacities, materials and injections are stored as indices into small
+ * lookup tables.
+ *
+ * ParticleThreads work on a {@link ParticleView}, that is loaded from and
+ * stored back into the arrays, so the transport calculation does not need to
+ * know about this storage. Tracing particles ({@link Particle#tracing()}) keep
+ * their history in the original object, which is stored beside the arrays.
+ *
+ * @author saemann
+ */
+public class ParticleStore {
+
+    static final byte FLAG_DRY = 1;
+    static final byte FLAG_DEPOSITED = 2;
+    static final byte FLAG_BLOCKED = 4;
+
+    /**
+     * Number of particles in this store.
+     */
+    public final int size;
+
+    final int[] id;
+    final double[] x, y, z, blockVelocity;
+    final byte[] status;
+    final byte[] flags;
+    final int[] surfaceCellID, lastSurfaceCellID, soilNodeIndex;
+    final float[] position1d, velocity1d, mass, travelled;
+    final long[] injectionTime, toSurfaceTimestamp;
+    /**
+     * Index of capacity in the capacity table, -1 for null.
+     */
+    final int[] capacity, toSurface, toPipenetwork, toSoil;
+    final short[] material;
+    final int[] injection;
+
+    /**
+     * Original objects of tracing particles. null if no particle is tracing.
+     */
+    private Particle[] tracers;
+
+    private final ConcurrentHashMap<Capacity, Integer> capacityIndex = new ConcurrentHashMap<>();
+    private volatile Capacity[] capacities = new Capacity[0];
+
+    private volatile Object[] materials = new Object[0];
+    private volatile Object[] injections = new Object[0];
+
+    public ParticleStore(int size) {
+        this.size = size;
+        id = new int[size];
+        x = new double[size];
+        y = new double[size];
+        z = new double[size];
+        status = new byte[size];
+        flags = new byte[size];
+        surfaceCellID = new int[size];
+        lastSurfaceCellID = new int[size];
+        soilNodeIndex = new int[size];
+        position1d = new float[size];
+        velocity1d = new float[size];
+        mass = new float[size];
+        travelled = new float[size];
+        blockVelocity = new double[size];
+        injectionTime = new long[size];
+        toSurfaceTimestamp = new long[size];
+        capacity = new int[size];
+        toSurface = new int[size];
+        toPipenetwork = new int[size];
+        toSoil = new int[size];
+        material = new short[size];
+        injection = new int[size];
+    }
+
+    /**
+     * Copies the particles into a new store. The order of the array is kept.
+     *
+     * @param particles
+     * @param knownCapacities capacities to register in advance (e.g. all pipes
+     * and manholes), so that lookups during the simulation do not need to
+     * register new entries. may be null.
+     * @return
+     */
+    public static ParticleStore fromParticles(Particle[] particles, Iterable<? extends Capacity> knownCapacities) {
+        ParticleStore store = new ParticleStore(particles.length);
+        if (knownCapacities != null) {
+            for (Capacity c : knownCapacities) {
+                store.indexOf(c);
+            }
+        }
+        for (int i = 0; i < particles.length; i++) {
+            Particle p = particles[i];
+            if (p.tracing()) {
+                if (store.tracers == null) {
+                    store.tracers = new Particle[particles.length];
+                }
+                store.tracers[i] = p;
+            }
+            store.store(i, p);
+        }
+        return store;
+    }
+
+    /**
+     * Writes the state of the particle into the arrays at the index.
+     *
+     * @param i
+     * @param p
+     */
+    public void store(int i, Particle p) {
+        id[i] = p.id;
+        if (p.position3d != null) {
+            x[i] = p.position3d.x;
+            y[i] = p.position3d.y;
+            z[i] = p.position3d.z;
+        }
+        status[i] = p.status;
+        byte f = 0;
+        if (p.drymovement) {
+            f |= FLAG_DRY;
+        }
+        if (p.deposited) {
+            f |= FLAG_DEPOSITED;
+        }
+        if (p.blocked) {
+            f |= FLAG_BLOCKED;
+        }
+        flags[i] = f;
+        surfaceCellID[i] = p.surfaceCellID;
+        lastSurfaceCellID[i] = p.lastSurfaceCellID;
+        soilNodeIndex[i] = p.soilNodeIndex;
+        position1d[i] = p.position1d_actual;
+        velocity1d[i] = p.velocity1d;
+        mass[i] = p.particleMass;
+        travelled[i] = p.moveLengthCummulative;
+        blockVelocity[i] = p.blockVelocity;
+        injectionTime[i] = p.injectionTime;
+        toSurfaceTimestamp[i] = p.toSurfaceTimestamp;
+        if (p instanceof ParticleView) {
+            //Only look up references that have changed since loading
+            ParticleView v = (ParticleView) p;
+            capacity[i] = p.capacity == v.loadedCapacity ? v.loadedCapacityIndex : indexOf(p.capacity);
+            toSurface[i] = p.toSurface == v.loadedToSurface ? v.loadedToSurfaceIndex : indexOf(p.toSurface);
+            toPipenetwork[i] = p.toPipenetwork == v.loadedToPipenetwork ? v.loadedToPipenetworkIndex : indexOf(p.toPipenetwork);
+            toSoil[i] = p.toSoil == v.loadedToSoil ? v.loadedToSoilIndex : indexOf(p.toSoil);
+            material[i] = p.material == v.loadedMaterial ? material[i] : (short) indexOfMaterial(p.material);
+            injection[i] = p.injectionInformation == v.loadedInjection ? injection[i] : indexOfInjection(p.injectionInformation);
+        } else {
+            capacity[i] = indexOf(p.capacity);
+            toSurface[i] = indexOf(p.toSurface);
+            toPipenetwork[i] = indexOf(p.toPipenetwork);
+            toSoil[i] = indexOf(p.toSoil);
+            material[i] = (short) indexOfMaterial(p.material);
+            injection[i] = indexOfInjection(p.injectionInformation);
+        }
+    }
+
+    /**
+     * Fills the view with the state of the particle at the index.
+     *
+     * @param i
+     * @param v
+     */
+    void load(int i, ParticleView v) {
+        v.index = i;
+        v.id = id[i];
+        v.position3d = v.ownPosition;
+        v.ownPosition.x = x[i];
+        v.ownPosition.y = y[i];
+        v.ownPosition.z = z[i];
+        v.setStatus(status[i]);
+        byte f = flags[i];
+        v.drymovement = (f & FLAG_DRY) != 0;
+        v.deposited = (f & FLAG_DEPOSITED) != 0;
+        v.blocked = (f & FLAG_BLOCKED) != 0;
+        v.surfaceCellID = surfaceCellID[i];
+        v.lastSurfaceCellID = lastSurfaceCellID[i];
+        v.soilNodeIndex = soilNodeIndex[i];
+        v.position1d_actual = position1d[i];
+        v.velocity1d = velocity1d[i];
+        v.particleMass = mass[i];
+        v.moveLengthCummulative = travelled[i];
+        v.blockVelocity = blockVelocity[i];
+        v.injectionTime = injectionTime[i];
+        v.toSurfaceTimestamp = toSurfaceTimestamp[i];
+        Capacity[] caps = capacities;
+        v.loadedCapacityIndex = capacity[i];
+        v.loadedCapacity = v.loadedCapacityIndex < 0 ? null : caps[v.loadedCapacityIndex];
+        v.capacity = v.loadedCapacity;
+        v.loadedToSurfaceIndex = toSurface[i];
+        v.loadedToSurface = v.loadedToSurfaceIndex < 0 ? null : caps[v.loadedToSurfaceIndex];
+        v.toSurface = v.loadedToSurface;
+        v.loadedToPipenetworkIndex = toPipenetwork[i];
+        v.loadedToPipenetwork = v.loadedToPipenetworkIndex < 0 ? null : caps[v.loadedToPipenetworkIndex];
+        v.toPipenetwork = v.loadedToPipenetwork;
+        v.loadedToSoilIndex = toSoil[i];
+        v.loadedToSoil = v.loadedToSoilIndex < 0 ? null : caps[v.loadedToSoilIndex];
+        v.toSoil = v.loadedToSoil;
+        v.loadedMaterial = material[i] < 0 ? null : (Material) materials[material[i]];
+        v.material = v.loadedMaterial;
+        v.loadedInjection = injection[i] < 0 ? null : (ParticleInjection) injections[injection[i]];
+        v.injectionInformation = v.loadedInjection;
+    }
+
+    /**
+     * Returns the particle object to calculate the particle at index i. For
+     * tracing particles this is the original object, otherwise the given view
+     * is loaded with the particle's state. Write back with
+     * {@link #store(int, Particle)} after the calculation.
+     *
+     * @param i
+     * @param view
+     * @return
+     */
+    public Particle get(int i, ParticleView view) {
+        if (tracers != null && tracers[i] != null) {
+            return tracers[i];
+        }
+        load(i, view);
+        return view;
+    }
+
+    /**
+     * Creates a detached copy of the particle at index i. Tracing particles
+     * are returned as their original object.
+     *
+     * @param i
+     * @return
+     */
+    public Particle createParticle(int i) {
+        if (tracers != null && tracers[i] != null) {
+            return tracers[i];
+        }
+        ParticleView v = new ParticleView(this);
+        load(i, v);
+        return v;
+    }
+
+    /**
+     * Detached copies of all particles. Changes to the returned objects are
+     * not written back into this store.
+     *
+     * @return
+     */
+    public Particle[] toParticles() {
+        Particle[] ps = new Particle[size];
+        for (int i = 0; i < size; i++) {
+            ps[i] = createParticle(i);
+        }
+        return ps;
+    }
+
+    public byte getStatus(int i) {
+        return status[i];
+    }
+
+    public boolean isActive(int i) {
+        return status[i] > 0;
+    }
+
+    public boolean isWaiting(int i) {
+        return status[i] == -1;
+    }
+
+    public long getInsertionTime(int i) {
+        return injectionTime[i];
+    }
+
+    public float getTravelledPathLength(int i) {
+        return travelled[i];
+    }
+
+    public int getSurfaceCellID(int i) {
+        return surfaceCellID[i];
+    }
+
+    public double getX(int i) {
+        return x[i];
+    }
+
+    public double getY(int i) {
+        return y[i];
+    }
+
+    public int getId(int i) {
+        return id[i];
+    }
+
+    public Capacity getCapacity(int i) {
+        int c = capacity[i];
+        return c < 0 ? null : capacities[c];
+    }
+
+    private int indexOf(Capacity c) {
+        if (c == null) {
+            return -1;
+        }
+        Integer index = capacityIndex.get(c);
+        if (index != null) {
+            return index;
+        }
+        synchronized (capacityIndex) {
+            index = capacityIndex.get(c);
+            if (index != null) {
+                return index;
+            }
+            Capacity[] caps = capacities;
+            Capacity[] newcaps = new Capacity[caps.length + 1];
+            System.arraycopy(caps, 0, newcaps, 0, caps.length);
+            newcaps[caps.length] = c;
+            //Publish the table before the index can be read by other threads
+            capacities = newcaps;
+            capacityIndex.put(c, caps.length);
+            return caps.length;
+        }
+    }
+
+    private int indexOfMaterial(Material m) {
+        if (m == null) {
+            return -1;
+        }
+        synchronized (this) {
+            int index = indexOf(materials, m);
+            if (index < 0) {
+                materials = append(materials, m);
+                index = materials.length - 1;
+            }
+            return index;
+        }
+    }
+
+    private int indexOfInjection(ParticleInjection inj) {
+        if (inj == null) {
+            return -1;
+        }
+        synchronized (this) {
+            int index = indexOf(injections, inj);
+            if (index < 0) {
+                injections = append(injections, inj);
+                index = injections.length - 1;
+            }
+            return index;
+        }
+    }
+
+    private static int indexOf(Object[] table, Object o) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] == o) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Object[] append(Object[] table, Object o) {
+        Object[] newtable = new Object[table.length + 1];
+        System.arraycopy(table, 0, newtable, 0, table.length);
+        newtable[table.length] = o;
+        return newtable;
+    }
+
+    /**
+     * Estimated heap size of one particle in this store [bytes].
+     *
+     * @return
+     */
+    public static int getBytesPerParticle() {
+        //id,cell,lastcell,soilnode,capacity,toSurface,toPipe,toSoil,injection
+        int ints = 9 * 4;
+        //x,y,z,blockVelocity
+        int doubles = 4 * 8;
+        //pos1d,velocity1d,mass,travelled
+        int floats = 4 * 4;
+        //injectionTime,toSurfaceTimestamp
+        int longs = 2 * 8;
+        //status,flags + material
+        int small = 2 + 2;
+        return ints + doubles + floats + longs + small;
+    }
+
+    /**
+     * Estimated heap size of one particle as Particle object incl. its
+     * Coordinate and the reference in the particle array [bytes] (64bit JVM
+     * with compressed references).
+     *
+     * @return
+     */
+    public static int getBytesPerParticleObject() {
+        //Header 12 + fields 85 -> 104 aligned
+        int particle = 104;
+        //Header 12 + 3 doubles -> 40 aligned
+        int coordinate = 40;
+        int reference = 4;
+        return particle + coordinate + reference;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" + size + " particles, " + capacities.length + " capacities}";
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.model.particle;
+
+import com.saemann.gulli.core.control.particlecontrol.injection.ParticleInjection;
+import com.saemann.gulli.core.model.material.Material;
+import com.saemann.gulli.core.model.topology.Capacity;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Reusable particle object, that represents one entry of a
+ * {@link ParticleStore} at a time. Each ParticleThread owns one view and
+ * loads the next particle into it, so the transport computation can work on
+ * the familiar Particle interface without one object per particle.
+ *
+ * @author saemann
+ */
+public class ParticleView extends Particle {
+
+    private final ParticleStore store;
+
+    /**
+     * Index in the store, which is currently loaded.
+     */
+    int index = -1;
+
+    final Coordinate ownPosition = new Coordinate(0, 0, 0);
+
+    //References at the time of loading. Indices only need to be looked up, if these change.
+    Capacity loadedCapacity, loadedToSurface, loadedToPipenetwork, loadedToSoil;
+    int loadedCapacityIndex = -1, loadedToSurfaceIndex = -1, loadedToPipenetworkIndex = -1, loadedToSoilIndex = -1;
+    Material loadedMaterial;
+    ParticleInjection loadedInjection;
+
+    public ParticleView(ParticleStore store) {
+        super(-1);
+        this.store = store;
+        this.position3d = ownPosition;
+    }
+
+    /**
+     * Index of the represented particle in the store.
+     *
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public ParticleStore getStore() {
+        return store;
+    }
+}
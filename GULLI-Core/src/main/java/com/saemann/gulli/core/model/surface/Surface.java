@@ -7,14 +7,18 @@ import org.locationtech.jts.geom.MultiPoint;
 import org.locationtech.jts.geom.Polygon;
 import com.saemann.gulli.core.control.StartParameters;
 import com.saemann.gulli.core.control.maths.GeometryTools;
+import com.saemann.gulli.core.control.threads.SimulationProfiler;
 import com.saemann.gulli.core.io.extran.HE_GDB_IO;
 import com.saemann.gulli.core.io.extran.HE_InletReference;
 import java.io.File;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.saemann.gulli.core.model.GeoPosition2D;
@@ -51,6 +55,22 @@ public class Surface extends Capacity implements TimeIndexCalculator {
     public final int[][] triangleNodes;
     private double[][] triangleMids;
 
+    /**
+     * Spatial grid for point location. Built on first request.
+     */
+    private volatile TriangleGridIndex triangleIndex;
+
+    /**
+     * Read/write the triangle grid index from/to the surface directory.
+     */
+    public static boolean cacheTriangleIndex = true;
+
+    /**
+     * Locate batches of positions by walking over the neumannNeighbours (see
+     * {@link TrianglePointLocator}) instead of independent grid searches.
+     */
+    public static boolean useWalkingLocator = true;
+
     /**
      * Indices of von Neumann (always 3) Neighbour Triangles.
      */
@@ -75,7 +95,7 @@ public class Surface extends Capacity implements TimeIndexCalculator {
     public boolean timeInterpolatedValues = true;
     public boolean calculateWeighted = false;
 
-    private float[][] neighbourDistances;
+    private volatile float[][] neighbourDistances;
     public final HashMap<Integer, SurfaceTrianglePath[]> paths;
 
     volatile protected SurfaceMeasurementRaster measurementRaster;
@@ -103,6 +123,11 @@ public class Surface extends Capacity implements TimeIndexCalculator {
 
     public SurfaceWaterlevelLoader waterlevelLoader;
 
+    /**
+     * Triangles whose waterlevels are currently loaded by a thread.
+     */
+    private final ConcurrentHashMap<Integer, CompletableFuture<float[]>> waterlevelRequests = new ConcurrentHashMap<>();
+
     public SurfaceVelocityLoader velocityLoader;
 
     /**
@@ -402,7 +427,7 @@ public class Surface extends Capacity implements TimeIndexCalculator {
      * surface path
      */
     protected void calculateDistances() {
-        neighbourDistances = new float[neumannNeighbours.length][3];
+        float[][] neighbourDistances = new float[neumannNeighbours.length][3];
 
         for (int i = 0; i < neumannNeighbours.length; i++) {
 
@@ -426,11 +451,13 @@ public class Surface extends Capacity implements TimeIndexCalculator {
             }
 
         }
+        this.neighbourDistances = neighbourDistances;
     }
 
     public float getActualWaterlevel(int ID) {
         if (waterlevels[ID] == null) {
             if (waterlevelLoader != null) {
+                long loadStart = SimulationProfiler.lazyLoadingStart();
                 try {
                     waterlevels[ID] = waterlevelLoader.loadWaterlevlvalues(ID);
                 } catch (HE_GDB_IO.IDnotFoundException e) {
@@ -444,6 +471,8 @@ public class Surface extends Capacity implements TimeIndexCalculator {
                 } catch (Exception e) {
                     e.printStackTrace();
                     waterlevels[ID] = new float[numberOfTimestamps];
+                } finally {
+                    SimulationProfiler.lazyLoadingFinished(loadStart);
                 }
             } else {
                 return 0;
@@ -711,9 +740,31 @@ public class Surface extends Capacity implements TimeIndexCalculator {
             System.out.println("Surface: Triangle Mid Points trying to be set (" + triangleMids.length + ") have not the same size as number of triangles (" + this.triangleNodes.length + ")");
         }
         this.triangleMids = triangleMids;
+        this.triangleIndex = null;
+        this.neighbourDistances = null;
 //        calculateDistances();
     }
 
+    /**
+     * Spatial grid index over the triangles. Loaded from the cache file in the
+     * surface directory or built on first call.
+     *
+     * @return
+     */
+    public TriangleGridIndex getTriangleIndex() {
+        TriangleGridIndex index = triangleIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = triangleIndex;
+                if (index == null) {
+                    index = TriangleGridIndex.loadOrBuild(this, cacheTriangleIndex);
+                    triangleIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
     /**
      * @deprecated
      */
@@ -899,64 +950,135 @@ public class Surface extends Capacity implements TimeIndexCalculator {
     }
 
     /**
+     * Calculates the velocities from this triangle to its neighbours. Missing
+     * waterlevels are requested from the {@link #waterlevelLoader}. Different
+     * triangles are loaded in parallel if the loader is thread safe.
+     *
      * @param triangleIndex
      */
     private void initVelocityToNeighbours(int triangleIndex) {
         //Load velocitiy values
-        if (waterlevelLoader != null) {
-            synchronized (waterlevelLoader) {
-                if (neighbourvelocity[triangleIndex] != null) {
-                    //Seems to be loaded from another thread while this one was waiting to finish.
-                    //Everything should be on its place. Can Return 
-                    return;
-                }
-                int id = triangleIndex;
-                float[] wls = this.waterlevels[id];
-                if (wls == null) {
-                    try {
-                        wls = waterlevelLoader.loadWaterlevlvalues(id);
-                        this.waterlevels[id] = wls;
-                        this.triangleMids[id][2] = waterlevelLoader.loadZElevation(id);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        this.waterlevels[id] = new float[numberOfTimestamps];
-                    }
-                }
-                neighbourvelocity[id] = new float[3][numberOfTimestamps];
-                calculateDistances();
-                if (wls == null) {
-                    //This triangle Id has net been in the database. Initialize as 0 values
+        if (waterlevelLoader == null) {
+            return;
+        }
+        if (neighbourvelocity[triangleIndex] != null) {
+            //Seems to be loaded from another thread.
+            return;
+        }
+        int id = triangleIndex;
+        float[] wls = requestWaterlevels(id);
+        if (neighbourDistances == null) {
+            calculateDistances();
+        }
+        float[][] velocities = new float[3][numberOfTimestamps];
+        if (wls == null) {
+            //This triangle Id has net been in the database. Initialize as 0 values
 //                    System.err.println("waterlevels on "+id+" == null");
-                } else {
-                    //Neighbour values
-                    for (int n = 0; n < 3; n++) {
-                        int nbID = neumannNeighbours[id][n];
-                        if (nbID < 0) {
-                            continue;
-                        }
+        } else {
+            //Neighbour values
+            for (int n = 0; n < 3; n++) {
+                int nbID = neumannNeighbours[id][n];
+                if (nbID < 0) {
+                    continue;
+                }
 
-                        //Load neighbour if it not yet loaded.
-                        float[] wlsNB = this.waterlevels[nbID];
-                        if (wlsNB == null) {
-                            wlsNB = waterlevelLoader.loadWaterlevlvalues(nbID);
-                            this.waterlevels[nbID] = wlsNB;
-                            try {
-                                this.triangleMids[nbID][2] = waterlevelLoader.loadZElevation(nbID);
-                            } catch (NullPointerException e) {
-                                //Triangle with this id is not found in database.
-                            }
-                        }
-                        double ds = neighbourDistances[id][n];
-//                ds = Math.sqrt((triangleMids[id][0] - triangleMids[nbID][0]) * (triangleMids[id][0] - triangleMids[nbID][0]) + (triangleMids[id][1] - triangleMids[nbID][1]) * (triangleMids[id][1] - triangleMids[nbID][1]));
+                //Load neighbour if it not yet loaded. Usually it has been loaded together with this triangle.
+                float[] wlsNB = requestWaterlevels(nbID);
+                if (wlsNB == null) {
+                    continue;
+                }
+                double ds = neighbourDistances[id][n];
 
-                        //Calculate velocities
-                        for (int t = 0; t < wls.length; t++) {
-                            neighbourvelocity[id][n][t] = (float) velocity(ds, triangleMids[id][2], triangleMids[nbID][2], wls[t], wlsNB[t]);
-                        }
-                    }
+                //Calculate velocities
+                for (int t = 0; t < wls.length; t++) {
+                    velocities[n][t] = (float) velocity(ds, triangleMids[id][2], triangleMids[nbID][2], wls[t], wlsNB[t]);
+                }
+            }
+        }
+        //Publish only the completely calculated values to the other threads.
+        neighbourvelocity[id] = velocities;
+    }
+
+    /**
+     * Returns the waterlevels of the triangle. If they are not yet known, they
+     * are loaded together with the missing values of the neighbour triangles.
+     * If another thread is already loading this triangle, this thread waits
+     * for its result instead of sending a second request.
+     *
+     * @param triangleID
+     * @return waterlevels [timeindex] or null if the triangle is unknown to
+     * the loader.
+     */
+    private float[] requestWaterlevels(int triangleID) {
+        float[] wls = waterlevels[triangleID];
+        if (wls != null) {
+            return wls;
+        }
+        CompletableFuture<float[]> request = new CompletableFuture<>();
+        CompletableFuture<float[]> running = waterlevelRequests.putIfAbsent(triangleID, request);
+        if (running != null) {
+            //Another thread is already loading this triangle.
+            return running.join();
+        }
+        if (waterlevels[triangleID] != null) {
+            //Has been finished while this thread registered the request.
+            waterlevelRequests.remove(triangleID, request);
+            request.complete(waterlevels[triangleID]);
+            return waterlevels[triangleID];
+        }
+        //Take over the missing neighbours, to load them in the same batch.
+        int[] ids = new int[4];
+        ArrayList<CompletableFuture<float[]>> requests = new ArrayList<>(4);
+        ids[0] = triangleID;
+        requests.add(request);
+        int count = 1;
+        if (neumannNeighbours != null) {
+            for (int nbID : neumannNeighbours[triangleID]) {
+                if (nbID < 0 || waterlevels[nbID] != null) {
+                    continue;
                 }
+                CompletableFuture<float[]> nbRequest = new CompletableFuture<>();
+                if (waterlevelRequests.putIfAbsent(nbID, nbRequest) == null) {
+                    ids[count++] = nbID;
+                    requests.add(nbRequest);
+                }
+            }
+        }
+        if (count < ids.length) {
+            ids = Arrays.copyOf(ids, count);
+        }
+        float[][] loaded = null;
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            float[] z = new float[count];
+            Arrays.fill(z, Float.NaN);
+            if (waterlevelLoader.isThreadSafe()) {
+                loaded = waterlevelLoader.loadWaterlevlvalues(ids, z);
+            } else {
+                synchronized (waterlevelLoader) {
+                    loaded = waterlevelLoader.loadWaterlevlvalues(ids, z);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (!Float.isNaN(z[i])) {
+                    this.triangleMids[ids[i]][2] = z[i];
+                }
+                if (loaded[i] != null) {
+                    this.waterlevels[ids[i]] = loaded[i];
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            this.waterlevels[triangleID] = new float[numberOfTimestamps];
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+            //Wake up waiting threads in any case.
+            for (int i = 0; i < count; i++) {
+                waterlevelRequests.remove(ids[i], requests.get(i));
+                requests.get(i).complete(loaded == null ? null : loaded[i]);
             }
         }
+        return loaded == null ? null : loaded[0];
     }
 
     public float[] loadWaterlevels(int triangleID) {
@@ -968,6 +1090,7 @@ public class Surface extends Capacity implements TimeIndexCalculator {
             this.waterlevels[triangleID] = wlsNB;
             return wlsNB;
         }
+        long loadStart = SimulationProfiler.lazyLoadingStart();
         float[] wlsNB = waterlevelLoader.loadWaterlevlvalues(triangleID);
         if (wlsNB == null) {
             wlsNB = new float[numberOfTimestamps];
@@ -977,6 +1100,8 @@ public class Surface extends Capacity implements TimeIndexCalculator {
             this.triangleMids[triangleID][2] = waterlevelLoader.loadZElevation(triangleID);
         } catch (NullPointerException e) {
             //Triangle with this id is not found in database.
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
         }
 
         return wlsNB;
@@ -1366,19 +1491,73 @@ public class Surface extends Capacity implements TimeIndexCalculator {
      */
     private float[][] getTriangleVelocity(int triangleID) {
         if (triangleVelocity[triangleID] == null) {
+            long loadStart = SimulationProfiler.lazyLoadingStart();
             try {
-                triangleVelocity[triangleID] = velocityLoader.loadVelocity(triangleID);
+                if (velocityLoader.isThreadSafe()) {
+                    triangleVelocity[triangleID] = velocityLoader.loadVelocity(triangleID);
+                } else {
+                    synchronized (velocityLoader) {
+                        triangleVelocity[triangleID] = velocityLoader.loadVelocity(triangleID);
+                    }
+                }
             } catch (Exception e) {
                 //Id Not found or equal exception. This triangle has no velocity information -> set everything to zero.
 //                if (zeroVelocityinTimesteps == null) {
 //                    zeroVelocityinTimesteps = new float[numberOfTimestamps][2];
 //                }
                 triangleVelocity[triangleID] = zeroVelocityinTimesteps;
+            } finally {
+                SimulationProfiler.lazyLoadingFinished(loadStart);
             }
         }
         return triangleVelocity[triangleID];
     }
 
+    /**
+     * Test if the triangle velocity is available without loading it.
+     *
+     * @param triangleID
+     * @return true if it is in memory or there is no loader to fetch it.
+     */
+    public boolean isTriangleVelocityLoaded(int triangleID) {
+        return velocityLoader == null || triangleVelocity == null || triangleVelocity[triangleID] != null;
+    }
+
+    /**
+     * Test if the velocities to the neighbours are available without loading
+     * the waterlevels.
+     *
+     * @param triangleID
+     * @return true if it is in memory or there is no loader to fetch it.
+     */
+    public boolean isNeighbourVelocityLoaded(int triangleID) {
+        return waterlevelLoader == null || neighbourvelocity == null || neighbourvelocity[triangleID] != null;
+    }
+
+    /**
+     * Load the triangle velocity in advance, so a particle entering this
+     * triangle does not have to wait for the loader.
+     *
+     * @param triangleID
+     */
+    public void prefetchTriangleVelocity(int triangleID) {
+        if (!isTriangleVelocityLoaded(triangleID)) {
+            getTriangleVelocity(triangleID);
+        }
+    }
+
+    /**
+     * Load the waterlevels and calculate the velocities to the neighbours in
+     * advance.
+     *
+     * @param triangleID
+     */
+    public void prefetchNeighbourVelocity(int triangleID) {
+        if (!isNeighbourVelocityLoaded(triangleID)) {
+            initVelocityToNeighbours(triangleID);
+        }
+    }
+
     public float[] getTriangleVelocity(int triangleID, double indexDouble) {
         return getTriangleVelocity(triangleID, indexDouble, new float[2]);
     }
@@ -2216,7 +2395,7 @@ public class Surface extends Capacity implements TimeIndexCalculator {
     }
 
     /**
-     * Checks every triangle for contining the given point. The test via
+     * Checks the triangles in the grid cell of the given point. The test via
      * barycnetric coordinates is only done, when the midpoint distance is below
      * the minDistance parameter.
      *
@@ -2226,70 +2405,29 @@ public class Surface extends Capacity implements TimeIndexCalculator {
      * @return triangle id or -1 if nothing was found.
      */
     public int findContainingTriangle(double x, double y, double minDistance) {
-//        double jumpdistance = 10 * minDistance;
-//        int jumped = 0;
-//        int lastchecked = -1;
-        double[] mid, p0, p1, p2;
-        int[] nodeIDs;
-        for (int i = 0; i < triangleMids.length; i++) {
-            mid = triangleMids[i];
-//            if (jumped <= 0 || jumped == 10) {
-//                
-//                if (Math.abs(mid[0] - x) > jumpdistance && Math.abs(mid[1] - y) > jumpdistance) {
-//                    //This node is very far away, we can skip some tests because they all of them are around here
-//                    lastchecked=i;
-//                    i = i + 10;
-//                    jumped = 10;
-//                    continue;
-//                } else {
-//                    //This index is close to the one that we need to investigate. 
-//                    //Stop jumping und also scan the 9 previous cells
-//                    if (jumped == 10) {
-//                        i = lastchecked;
-//                        jumped = 9;
-//                        continue;
-//                    }
-//                }
-//            } else {
-//                jumped--;
-//            }
-//            lastchecked=i;
-            if (Math.abs(mid[0] - x) > minDistance) {
-                continue;
-            }
-            if (Math.abs(mid[1] - y) > minDistance) {
-                continue;
-            }
-            //is coordinate in triangle?
-            nodeIDs = triangleNodes[i];
-            p0 = vertices[nodeIDs[0]];
-            p1 = vertices[nodeIDs[1]];
-            p2 = vertices[nodeIDs[2]];
-
-            // if triangles are build incorrect, they are skipped. The barycentric check will incorrectly detect that a point is contained in a triangle, if it is 1D.
-            if (p0[0] == p1[0] && p0[1] == p1[1]) {
-                continue;
-            }
-            if (p0[0] == p2[0] && p0[1] == p2[1]) {
-                continue;
-            }
-            if (p1[0] == p2[0] && p1[1] == p2[1]) {
-                continue;
-            }
-
+        return getTriangleIndex().findContainingTriangle(x, y, minDistance, false);
+    }
 
-            if (GeometryTools.triangleContainsPoint(p0[0], p1[0], p2[0], p0[1], p1[1], p2[1], x, y)) {
-                return i;
-            }
+    /**
+     * Locates many positions in one call.
+     *
+     * @param x
+     * @param y
+     * @return triangle id for every position or -1 if it is not on the
+     * surface.
+     */
+    public int[] findContainingTriangles(double[] x, double[] y) {
+        if (useWalkingLocator && neumannNeighbours != null) {
+            return new TrianglePointLocator(this).locate(x, y);
         }
-        return -1;
+        return getTriangleIndex().findContainingTriangles(x, y);
     }
 
     /**
-     * Checks every triangle for contining the given point. The test via
+     * Checks the triangles in the grid cell of the given point. The test via
      * barycnetric coordinates is only done, when the midpoint distance is below
-     * the minDistance parameter. Search in Reverse order. Should be called if
-     * you know that the triangle is in the second half of the triangle list.
+     * the minDistance parameter. Search in Reverse order: if the point lies on
+     * an edge, the triangle with the higher id is returned.
      *
      * @param x
      * @param y
@@ -2297,33 +2435,13 @@ public class Surface extends Capacity implements TimeIndexCalculator {
      * @return triangle id or -1 if nothing was found.
      */
     public int findContainingTriangleReverse(double x, double y, double minDistance) {
-
-        double[] mid, p0, p1, p2;
-        int[] nodeIDs;
-        for (int i = triangleMids.length - 1; i >= 0; i--) {
-            mid = triangleMids[i];
-            if (Math.abs(mid[0] - x) > minDistance) {
-                continue;
-            }
-            if (Math.abs(mid[1] - y) > minDistance) {
-                continue;
-            }
-            //is coordinate in triangle?
-            nodeIDs = triangleNodes[i];
-            p0 = vertices[nodeIDs[0]];
-            p1 = vertices[nodeIDs[1]];
-            p2 = vertices[nodeIDs[2]];
-            if (GeometryTools.triangleContainsPoint(p0[0], p1[0], p2[0], p0[1], p1[1], p2[1], x, y)) {
-                return i;
-            }
-        }
-        return -1;
+        return getTriangleIndex().findContainingTriangle(x, y, minDistance, true);
     }
 
     /**
-     * Checks every triangle center distance to the given position. The
-     * tposition is only tested, when the midpoint distance is below the
-     * minDistance parameter.
+     * Searches the closest triangle center to the given position in the
+     * grid index. Only centers with x and y distance below the minDistance
+     * parameter are considered.
      *
      * @param x
      * @param y
@@ -2331,26 +2449,19 @@ public class Surface extends Capacity implements TimeIndexCalculator {
      * @return id of closest triangle
      */
     public int findClosestTriangleMid(double x, double y, double minDistance) {
-        int bestID = -1;
-        double bestDistance = Double.POSITIVE_INFINITY;
-        double dist = 0;
-        double[] mid = null;
-        for (int i = 0; i < triangleMids.length; i++) {
-            mid = triangleMids[i];
-            if (Math.abs(mid[0] - x) > minDistance) {
-                continue;
-            }
-            if (Math.abs(mid[1] - y) > minDistance) {
-                continue;
-            }
-            dist = (x - mid[0]) * (x - mid[0]) + (y - mid[1]) * (y - mid[1]);
-            if (dist < bestDistance) {
-                bestDistance = dist;
-                bestID = i;
-            }
+        return getTriangleIndex().findNearestMid(x, y, minDistance, false);
+    }
 
-        }
-        return bestID;
+    /**
+     * The k triangles with the closest mid points.
+     *
+     * @param x
+     * @param y
+     * @param k
+     * @return triangle ids ordered by increasing distance
+     */
+    public int[] findClosestTriangleMids(double x, double y, int k) {
+        return getTriangleIndex().findNearestMids(x, y, k);
     }
 
     public int crawlNearestTriangle(double x, double y, int startTriangleID) {
@@ -3539,18 +3650,7 @@ public class Surface extends Capacity implements TimeIndexCalculator {
         if (triangleMids == null) {
             return -2;
         }
-        int bestID = -1;
-        double bestdistance = Double.POSITIVE_INFINITY;
-
-        for (int i = 0; i < triangleMids.length; i++) {
-            double[] tm = triangleMids[i];
-            double tempdist = Math.abs(tm[0] - x) + Math.abs(tm[1] - y);
-            if (tempdist < bestdistance) {
-                bestdistance = tempdist;
-                bestID = i;
-            }
-        }
-        return bestID;
+        return getTriangleIndex().findNearestMid(x, y, Double.POSITIVE_INFINITY, true);
     }
 
     /**
@@ -3585,6 +3685,7 @@ public class Surface extends Capacity implements TimeIndexCalculator {
 //        this.weight = null;
         this.neumannNeighbours = null;
         this.triangleMids = null;
+        this.triangleIndex = null;
         this.triangleCapacitys = null;
         this.manholes = null;
         this.inletArray = null;
@@ -6,6 +6,7 @@ import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Polygon;
 import com.saemann.gulli.core.control.StartParameters;
 import com.saemann.gulli.core.control.maths.GeometryTools;
+import com.saemann.gulli.core.control.threads.SimulationProfiler;
 import com.saemann.gulli.core.io.extran.HE_GDB_IO;
 import com.saemann.gulli.core.io.extran.HE_InletReference;
 import java.util.ArrayList;
@@ -367,6 +368,7 @@ public class SurfaceRect2D extends Capacity implements TimeIndexCalculator {
     public float getActualWaterlevel(int ID) {
         if (waterlevels[ID] == null) {
             if (waterlevelLoader != null) {
+                long loadStart = SimulationProfiler.lazyLoadingStart();
                 try {
                     waterlevels[ID] = waterlevelLoader.loadWaterlevlvalues(ID);
                 } catch (HE_GDB_IO.IDnotFoundException e) {
@@ -380,6 +382,8 @@ public class SurfaceRect2D extends Capacity implements TimeIndexCalculator {
                 } catch (Exception e) {
                     e.printStackTrace();
                     waterlevels[ID] = new float[numberOfTimestamps];
+                } finally {
+                    SimulationProfiler.lazyLoadingFinished(loadStart);
                 }
             }
         }
@@ -674,6 +678,7 @@ public class SurfaceRect2D extends Capacity implements TimeIndexCalculator {
             this.waterlevels[triangleID] = wlsNB;
             return wlsNB;
         }
+        long loadStart = SimulationProfiler.lazyLoadingStart();
         float[] wlsNB = waterlevelLoader.loadWaterlevlvalues(triangleID);
         if (wlsNB == null) {
             wlsNB = new float[numberOfTimestamps];
@@ -683,6 +688,8 @@ public class SurfaceRect2D extends Capacity implements TimeIndexCalculator {
             this.cellMids[triangleID][2] = waterlevelLoader.loadZElevation(triangleID);
         } catch (NullPointerException e) {
             //Triangle with this id is not found in database.
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
         }
 
         return wlsNB;
@@ -697,11 +704,20 @@ public class SurfaceRect2D extends Capacity implements TimeIndexCalculator {
      */
     private float[][] getTriangleVelocity(int triangleID) {
         if (cellVelocity[triangleID] == null) {
+            long loadStart = SimulationProfiler.lazyLoadingStart();
             try {
-                cellVelocity[triangleID] = velocityLoader.loadVelocity(triangleID);
+                if (velocityLoader.isThreadSafe()) {
+                    cellVelocity[triangleID] = velocityLoader.loadVelocity(triangleID);
+                } else {
+                    synchronized (velocityLoader) {
+                        cellVelocity[triangleID] = velocityLoader.loadVelocity(triangleID);
+                    }
+                }
             } catch (Exception e) {
                 //Id Not found or equal exception. This triangle has no velocity information -> set everything to zero.
                 cellVelocity[triangleID] = new float[numberOfTimestamps][2];
+            } finally {
+                SimulationProfiler.lazyLoadingFinished(loadStart);
             }
         }
         return cellVelocity[triangleID];
@@ -36,4 +36,14 @@ public interface SurfaceVelocityLoader {
      * @return [times][2 (x,y)]
      */
     public float[][] loadVelocity(int triangleID);
+
+    /**
+     * If true, loadVelocity can be called from several threads at the same
+     * time. Otherwise the caller has to synchronize on the loader.
+     *
+     * @return
+     */
+    public default boolean isThreadSafe() {
+        return false;
+    }
 }
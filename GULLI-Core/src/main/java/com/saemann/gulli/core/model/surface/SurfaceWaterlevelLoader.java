@@ -32,4 +32,37 @@ public interface SurfaceWaterlevelLoader {
     public float[] loadWaterlevlvalues(int triangleID);
 
     public float loadZElevation(int triangleID);
+
+    /**
+     * Load waterlevels and elevation of several triangles in one request.
+     * Loaders with a faster bulk access should override this.
+     *
+     * @param triangleIDs
+     * @param zElevation output array for the elevation of each triangle. Stays
+     * untouched for triangles not found.
+     * @return [triangle][timeindex] waterlevels, null entries for triangles not
+     * found.
+     */
+    public default float[][] loadWaterlevlvalues(int[] triangleIDs, float[] zElevation) {
+        float[][] wls = new float[triangleIDs.length][];
+        for (int i = 0; i < triangleIDs.length; i++) {
+            try {
+                wls[i] = loadWaterlevlvalues(triangleIDs[i]);
+                zElevation[i] = loadZElevation(triangleIDs[i]);
+            } catch (Exception e) {
+                //Triangle with this id is not found in database.
+            }
+        }
+        return wls;
+    }
+
+    /**
+     * If true, the loading methods can be called from several threads at the
+     * same time. Otherwise the caller has to synchronize on the loader.
+     *
+     * @return
+     */
+    public default boolean isThreadSafe() {
+        return false;
+    }
 }
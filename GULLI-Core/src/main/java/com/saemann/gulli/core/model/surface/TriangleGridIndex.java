@@ -0,0 +1,605 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.model.surface;
+
+import com.saemann.gulli.core.control.maths.GeometryTools;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the triangle surface for fast point location and nearest
+ * neighbour search. Built once per Surface and stored in compressed row form
+ * (start index per cell + flat id array), so it can be written to a binary
+ * cache file next to the surface topology files.
+ *
+ * Two bucketings are held: triangles are registered in every cell their
+ * bounding box overlaps (containment queries), triangle mids are registered
+ * only in the cell they fall into (nearest mid queries). Ids inside a cell are
+ * sorted ascending, so the results are identical to a linear scan over all
+ * triangles.
+ *
+ * @author saemann
+ */
+public class TriangleGridIndex {
+
+    /**
+     * Name of the cache file inside the surface directory.
+     */
+    public static final String CACHE_FILENAME = "TRIANGLEGRID.idx";
+
+    private static final int MAGIC = 0x47524944;//"GRID"
+    private static final int VERSION = 1;
+
+    /**
+     * Target number of triangle mids per grid cell.
+     */
+    public static double midsPerCell = 2;
+
+    protected final double minX, minY, cellSize;
+    protected final int nx, ny;
+
+    /**
+     * start index in {@link #cellTriangles} for every cell. length nx*ny+1
+     */
+    protected final int[] cellTriangleStart;
+    protected final int[] cellTriangles;
+
+    /**
+     * start index in {@link #cellMids} for every cell. length nx*ny+1
+     */
+    protected final int[] cellMidStart;
+    protected final int[] cellMids;
+
+    /**
+     * Hash over the geometry this index was built from. Used to detect
+     * outdated cache files.
+     */
+    protected final long fingerprint;
+
+    private final double[][] vertices;
+    private final int[][] triangleNodes;
+    private final double[][] triangleMids;
+
+    private TriangleGridIndex(double[][] vertices, int[][] triangleNodes, double[][] triangleMids, double minX, double minY, double cellSize, int nx, int ny, int[] cellTriangleStart, int[] cellTriangles, int[] cellMidStart, int[] cellMids, long fingerprint) {
+        this.vertices = vertices;
+        this.triangleNodes = triangleNodes;
+        this.triangleMids = triangleMids;
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.nx = nx;
+        this.ny = ny;
+        this.cellTriangleStart = cellTriangleStart;
+        this.cellTriangles = cellTriangles;
+        this.cellMidStart = cellMidStart;
+        this.cellMids = cellMids;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Build a new index for the given triangulation.
+     *
+     * @param vertices [vertexID][x,y,(z)]
+     * @param triangleNodes [triangleID][3 vertexIDs]
+     * @param triangleMids [triangleID][x,y,(z)]
+     * @return
+     */
+    public static TriangleGridIndex build(double[][] vertices, int[][] triangleNodes, double[][] triangleMids) {
+        double minx = Double.POSITIVE_INFINITY, miny = Double.POSITIVE_INFINITY;
+        double maxx = Double.NEGATIVE_INFINITY, maxy = Double.NEGATIVE_INFINITY;
+        for (int[] nodes : triangleNodes) {
+            for (int n : nodes) {
+                double[] v = vertices[n];
+                minx = Math.min(minx, v[0]);
+                miny = Math.min(miny, v[1]);
+                maxx = Math.max(maxx, v[0]);
+                maxy = Math.max(maxy, v[1]);
+            }
+        }
+        for (double[] mid : triangleMids) {
+            minx = Math.min(minx, mid[0]);
+            miny = Math.min(miny, mid[1]);
+            maxx = Math.max(maxx, mid[0]);
+            maxy = Math.max(maxy, mid[1]);
+        }
+        if (triangleNodes.length == 0) {
+            minx = miny = maxx = maxy = 0;
+        }
+        double width = Math.max(maxx - minx, 1E-6);
+        double height = Math.max(maxy - miny, 1E-6);
+        double cellsize = Math.sqrt(width * height * midsPerCell / Math.max(1, triangleNodes.length));
+        //Very thin domains would get too many cells.
+        cellsize = Math.max(cellsize, Math.max(width, height) / Math.max(1, triangleNodes.length));
+        int nx = Math.max(1, (int) Math.ceil(width / cellsize));
+        int ny = Math.max(1, (int) Math.ceil(height / cellsize));
+        int cells = nx * ny;
+
+        //Triangles by bounding box
+        int[] triStart = new int[cells + 1];
+        int[] bounds = new int[4];
+        for (int i = 0; i < triangleNodes.length; i++) {
+            boundingCells(vertices, triangleNodes[i], minx, miny, cellsize, nx, ny, bounds);
+            for (int y = bounds[1]; y <= bounds[3]; y++) {
+                for (int x = bounds[0]; x <= bounds[2]; x++) {
+                    triStart[y * nx + x + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < cells; c++) {
+            triStart[c + 1] += triStart[c];
+        }
+        int[] tris = new int[triStart[cells]];
+        int[] fill = Arrays.copyOf(triStart, cells);
+        for (int i = 0; i < triangleNodes.length; i++) {
+            boundingCells(vertices, triangleNodes[i], minx, miny, cellsize, nx, ny, bounds);
+            for (int y = bounds[1]; y <= bounds[3]; y++) {
+                for (int x = bounds[0]; x <= bounds[2]; x++) {
+                    tris[fill[y * nx + x]++] = i;
+                }
+            }
+        }
+
+        //Mids by containing cell
+        int[] midStart = new int[cells + 1];
+        for (double[] mid : triangleMids) {
+            midStart[cellIndex(mid[0], mid[1], minx, miny, cellsize, nx, ny) + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            midStart[c + 1] += midStart[c];
+        }
+        int[] mids = new int[midStart[cells]];
+        fill = Arrays.copyOf(midStart, cells);
+        for (int i = 0; i < triangleMids.length; i++) {
+            mids[fill[cellIndex(triangleMids[i][0], triangleMids[i][1], minx, miny, cellsize, nx, ny)]++] = i;
+        }
+        return new TriangleGridIndex(vertices, triangleNodes, triangleMids, minx, miny, cellsize, nx, ny, triStart, tris, midStart, mids, fingerprint(vertices, triangleNodes, triangleMids));
+    }
+
+    /**
+     * Build the index for a surface.
+     *
+     * @param surface
+     * @return
+     */
+    public static TriangleGridIndex build(Surface surface) {
+        return build(surface.getVerticesPosition(), surface.getTriangleNodes(), surface.getTriangleMids());
+    }
+
+    private static void boundingCells(double[][] vertices, int[] nodes, double minx, double miny, double cellsize, int nx, int ny, int[] bounds) {
+        double[] p0 = vertices[nodes[0]], p1 = vertices[nodes[1]], p2 = vertices[nodes[2]];
+        bounds[0] = clamp((int) ((Math.min(p0[0], Math.min(p1[0], p2[0])) - minx) / cellsize), nx);
+        bounds[1] = clamp((int) ((Math.min(p0[1], Math.min(p1[1], p2[1])) - miny) / cellsize), ny);
+        bounds[2] = clamp((int) ((Math.max(p0[0], Math.max(p1[0], p2[0])) - minx) / cellsize), nx);
+        bounds[3] = clamp((int) ((Math.max(p0[1], Math.max(p1[1], p2[1])) - miny) / cellsize), ny);
+    }
+
+    private static int clamp(int i, int n) {
+        if (i < 0) {
+            return 0;
+        }
+        if (i >= n) {
+            return n - 1;
+        }
+        return i;
+    }
+
+    private static int cellIndex(double x, double y, double minx, double miny, double cellsize, int nx, int ny) {
+        return clamp((int) ((y - miny) / cellsize), ny) * nx + clamp((int) ((x - minx) / cellsize), nx);
+    }
+
+    /**
+     * Grid cell index for the position. Positions outside the grid are
+     * clamped to the border cells.
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    public int cellIndex(double x, double y) {
+        return cellIndex(x, y, minX, minY, cellSize, nx, ny);
+    }
+
+    private boolean isInsideGrid(double x, double y) {
+        return x >= minX && y >= minY && x <= minX + nx * cellSize && y <= minY + ny * cellSize;
+    }
+
+    /**
+     * Find the triangle containing the position. Degenerated triangles (two
+     * equal vertices) are skipped.
+     *
+     * @param x
+     * @param y
+     * @param maxMidDistance only triangles whose mid is closer than this (in x
+     * and y direction) are tested. Use Double.POSITIVE_INFINITY to test all.
+     * @param reverse if several triangles contain the position (on edges)
+     * return the one with the largest id instead of the smallest.
+     * @return triangle id or -1 if nothing was found.
+     */
+    public int findContainingTriangle(double x, double y, double maxMidDistance, boolean reverse) {
+        if (!isInsideGrid(x, y)) {
+            return -1;
+        }
+        int cell = cellIndex(x, y);
+        int start = cellTriangleStart[cell], end = cellTriangleStart[cell + 1];
+        if (reverse) {
+            for (int j = end - 1; j >= start; j--) {
+                if (contains(cellTriangles[j], x, y, maxMidDistance)) {
+                    return cellTriangles[j];
+                }
+            }
+        } else {
+            for (int j = start; j < end; j++) {
+                if (contains(cellTriangles[j], x, y, maxMidDistance)) {
+                    return cellTriangles[j];
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the triangle containing the position.
+     *
+     * @param x
+     * @param y
+     * @return triangle id or -1 if nothing was found.
+     */
+    public int findContainingTriangle(double x, double y) {
+        return findContainingTriangle(x, y, Double.POSITIVE_INFINITY, false);
+    }
+
+    private boolean contains(int triangleID, double x, double y, double maxMidDistance) {
+        double[] mid = triangleMids[triangleID];
+        if (Math.abs(mid[0] - x) > maxMidDistance) {
+            return false;
+        }
+        if (Math.abs(mid[1] - y) > maxMidDistance) {
+            return false;
+        }
+        int[] nodeIDs = triangleNodes[triangleID];
+        double[] p0 = vertices[nodeIDs[0]];
+        double[] p1 = vertices[nodeIDs[1]];
+        double[] p2 = vertices[nodeIDs[2]];
+        // The barycentric check will incorrectly detect that a point is contained in a triangle, if it is 1D.
+        if (p0[0] == p1[0] && p0[1] == p1[1]) {
+            return false;
+        }
+        if (p0[0] == p2[0] && p0[1] == p2[1]) {
+            return false;
+        }
+        if (p1[0] == p2[0] && p1[1] == p2[1]) {
+            return false;
+        }
+        return GeometryTools.triangleContainsPoint(p0[0], p1[0], p2[0], p0[1], p1[1], p2[1], x, y);
+    }
+
+    /**
+     * Locate many positions in one call. The queries are processed in grid
+     * cell order to keep the touched triangles in cache.
+     *
+     * @param xs
+     * @param ys
+     * @return triangle id for every position, -1 if not contained in any
+     * triangle.
+     */
+    public int[] findContainingTriangles(double[] xs, double[] ys) {
+        int[] result = new int[xs.length];
+        long[] order = new long[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            order[i] = ((long) cellIndex(xs[i], ys[i]) << 32) | i;
+        }
+        Arrays.sort(order);
+        for (long o : order) {
+            int i = (int) o;
+            result[i] = findContainingTriangle(xs[i], ys[i], Double.POSITIVE_INFINITY, false);
+        }
+        return result;
+    }
+
+    /**
+     * Find the triangle with the closest mid point. Ties are resolved to the
+     * smaller id.
+     *
+     * @param x
+     * @param y
+     * @param maxDistance only mids inside the square of +-maxDistance around
+     * the position are considered. Use Double.POSITIVE_INFINITY for no limit.
+     * @param manhattan use manhattan distance instead of euclidean.
+     * @return triangle id or -1 if no mid is in range.
+     */
+    public int findNearestMid(double x, double y, double maxDistance, boolean manhattan) {
+        int cx = clamp((int) Math.floor((x - minX) / cellSize), nx);
+        int cy = clamp((int) Math.floor((y - minY) / cellSize), ny);
+        int bestID = -1;
+        double best = Double.POSITIVE_INFINITY;
+        int maxRing = Math.max(nx, ny);
+        for (int r = 0; r <= maxRing; r++) {
+            for (int gy = cy - r; gy <= cy + r; gy++) {
+                if (gy < 0 || gy >= ny) {
+                    continue;
+                }
+                boolean rowBorder = (gy == cy - r || gy == cy + r);
+                for (int gx = cx - r; gx <= cx + r; gx += (rowBorder ? 1 : 2 * r)) {
+                    if (gx >= 0 && gx < nx) {
+                        int cell = gy * nx + gx;
+                        for (int j = cellMidStart[cell]; j < cellMidStart[cell + 1]; j++) {
+                            int id = cellMids[j];
+                            double[] mid = triangleMids[id];
+                            double dx = Math.abs(mid[0] - x), dy = Math.abs(mid[1] - y);
+                            if (dx > maxDistance || dy > maxDistance) {
+                                continue;
+                            }
+                            double d = manhattan ? dx + dy : dx * dx + dy * dy;
+                            if (d < best || (d == best && id < bestID)) {
+                                best = d;
+                                bestID = id;
+                            }
+                        }
+                    }
+                    if (r == 0) {
+                        break;
+                    }
+                }
+            }
+            double bound = ringDistance(x, y, cx, cy, r);
+            if (bound > maxDistance) {
+                break;
+            }
+            if (bestID >= 0 && (manhattan ? best : Math.sqrt(best)) < bound) {
+                break;
+            }
+        }
+        return bestID;
+    }
+
+    /**
+     * Find the k triangles with the closest (euclidean) mid points.
+     *
+     * @param x
+     * @param y
+     * @param k
+     * @return triangle ids ordered by increasing distance. Shorter than k if
+     * the surface has less triangles.
+     */
+    public int[] findNearestMids(double x, double y, int k) {
+        k = Math.min(k, triangleMids.length);
+        int[] ids = new int[k];
+        double[] dist = new double[k];
+        int found = 0;
+        if (k == 0) {
+            return ids;
+        }
+        int cx = clamp((int) Math.floor((x - minX) / cellSize), nx);
+        int cy = clamp((int) Math.floor((y - minY) / cellSize), ny);
+        int maxRing = Math.max(nx, ny);
+        for (int r = 0; r <= maxRing; r++) {
+            for (int gy = cy - r; gy <= cy + r; gy++) {
+                if (gy < 0 || gy >= ny) {
+                    continue;
+                }
+                boolean rowBorder = (gy == cy - r || gy == cy + r);
+                for (int gx = cx - r; gx <= cx + r; gx += (rowBorder ? 1 : 2 * r)) {
+                    if (gx >= 0 && gx < nx) {
+                        int cell = gy * nx + gx;
+                        for (int j = cellMidStart[cell]; j < cellMidStart[cell + 1]; j++) {
+                            int id = cellMids[j];
+                            double[] mid = triangleMids[id];
+                            double d = (mid[0] - x) * (mid[0] - x) + (mid[1] - y) * (mid[1] - y);
+                            if (found == k && d >= dist[k - 1]) {
+                                continue;
+                            }
+                            //insertion into sorted list
+                            int pos = found < k ? found++ : k - 1;
+                            while (pos > 0 && dist[pos - 1] > d) {
+                                dist[pos] = dist[pos - 1];
+                                ids[pos] = ids[pos - 1];
+                                pos--;
+                            }
+                            dist[pos] = d;
+                            ids[pos] = id;
+                        }
+                    }
+                    if (r == 0) {
+                        break;
+                    }
+                }
+            }
+            if (found == k && Math.sqrt(dist[k - 1]) < ringDistance(x, y, cx, cy, r)) {
+                break;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Minimum distance from the position to any cell outside of ring r around
+     * cell (cx,cy). 0 if the position is not inside the searched area.
+     */
+    private double ringDistance(double x, double y, int cx, int cy, int r) {
+        if (cx - r <= 0 && cy - r <= 0 && cx + r >= nx - 1 && cy + r >= ny - 1) {
+            //whole grid has been searched
+            return Double.POSITIVE_INFINITY;
+        }
+        double left = x - (minX + (cx - r) * cellSize);
+        double right = minX + (cx + r + 1) * cellSize - x;
+        double bottom = y - (minY + (cy - r) * cellSize);
+        double top = minY + (cy + r + 1) * cellSize - y;
+        return Math.max(0, Math.min(Math.min(left, right), Math.min(bottom, top)));
+    }
+
+    /**
+     * Simple hash over the geometry to check if a cached index still belongs
+     * to the surface.
+     */
+    private static long fingerprint(double[][] vertices, int[][] triangleNodes, double[][] triangleMids) {
+        long h = 1125899906842597L;
+        h = 31 * h + vertices.length;
+        h = 31 * h + triangleNodes.length;
+        h = 31 * h + triangleMids.length;
+        int step = Math.max(1, triangleNodes.length / 1024);
+        for (int i = 0; i < triangleNodes.length; i += step) {
+            int[] nodes = triangleNodes[i];
+            h = 31 * h + nodes[0];
+            h = 31 * h + nodes[1];
+            h = 31 * h + nodes[2];
+            h = 31 * h + Double.doubleToLongBits(triangleMids[i][0]);
+            h = 31 * h + Double.doubleToLongBits(triangleMids[i][1]);
+            double[] v = vertices[nodes[0]];
+            h = 31 * h + Double.doubleToLongBits(v[0]);
+            h = 31 * h + Double.doubleToLongBits(v[1]);
+        }
+        return h;
+    }
+
+    /**
+     * Write this index to a binary file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(fingerprint);
+            dos.writeDouble(minX);
+            dos.writeDouble(minY);
+            dos.writeDouble(cellSize);
+            dos.writeInt(nx);
+            dos.writeInt(ny);
+            writeArray(dos, cellTriangleStart);
+            writeArray(dos, cellTriangles);
+            writeArray(dos, cellMidStart);
+            writeArray(dos, cellMids);
+        }
+    }
+
+    private static void writeArray(DataOutputStream dos, int[] array) throws IOException {
+        dos.writeInt(array.length);
+        for (int v : array) {
+            dos.writeInt(v);
+        }
+    }
+
+    private static int[] readArray(DataInputStream dis) throws IOException {
+        int[] array = new int[dis.readInt()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = dis.readInt();
+        }
+        return array;
+    }
+
+    /**
+     * Read an index from a binary file.
+     *
+     * @param file
+     * @param vertices
+     * @param triangleNodes
+     * @param triangleMids
+     * @return the index or null if the file was built for a different
+     * geometry.
+     * @throws IOException
+     */
+    public static TriangleGridIndex read(File file, double[][] vertices, int[][] triangleNodes, double[][] triangleMids) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("File " + file + " is not a triangle grid index.");
+            }
+            if (dis.readInt() != VERSION) {
+                return null;
+            }
+            long fp = dis.readLong();
+            if (fp != fingerprint(vertices, triangleNodes, triangleMids)) {
+                return null;
+            }
+            double minx = dis.readDouble();
+            double miny = dis.readDouble();
+            double cellsize = dis.readDouble();
+            int nx = dis.readInt();
+            int ny = dis.readInt();
+            int[] triStart = readArray(dis);
+            int[] tris = readArray(dis);
+            int[] midStart = readArray(dis);
+            int[] mids = readArray(dis);
+            return new TriangleGridIndex(vertices, triangleNodes, triangleMids, minx, miny, cellsize, nx, ny, triStart, tris, midStart, mids, fp);
+        }
+    }
+
+    /**
+     * Load the cached index from the surface directory or build a new one
+     * and try to store it there.
+     *
+     * @param surface
+     * @param useCache read/write the cache file in
+     * {@link Surface#fileTriangles}
+     * @return
+     */
+    public static TriangleGridIndex loadOrBuild(Surface surface, boolean useCache) {
+        File cacheFile = null;
+        if (useCache && surface.fileTriangles != null && surface.fileTriangles.isDirectory()) {
+            cacheFile = new File(surface.fileTriangles, CACHE_FILENAME);
+            if (cacheFile.exists()) {
+                try {
+                    TriangleGridIndex index = read(cacheFile, surface.getVerticesPosition(), surface.getTriangleNodes(), surface.getTriangleMids());
+                    if (index != null) {
+                        return index;
+                    }
+                } catch (IOException ex) {
+                    System.err.println("Could not read triangle grid index " + cacheFile + ": " + ex.getLocalizedMessage());
+                }
+            }
+        }
+        long start = System.currentTimeMillis();
+        TriangleGridIndex index = build(surface);
+        System.out.println("Built triangle grid index (" + index.nx + "x" + index.ny + " cells) in " + (System.currentTimeMillis() - start) + "ms.");
+        if (cacheFile != null) {
+            try {
+                index.write(cacheFile);
+            } catch (IOException ex) {
+                System.err.println("Could not write triangle grid index " + cacheFile + ": " + ex.getLocalizedMessage());
+            }
+        }
+        return index;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public int getNumberOfCellsX() {
+        return nx;
+    }
+
+    public int getNumberOfCellsY() {
+        return ny;
+    }
+
+}
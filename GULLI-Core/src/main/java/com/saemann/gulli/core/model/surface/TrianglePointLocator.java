@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.model.surface;
+
+import java.util.Arrays;
+
+/**
+ * Batch point location on the triangle surface. The query positions are
+ * sorted along a Hilbert curve, so consecutive queries are close to each
+ * other. Each query walks over the neumannNeighbours, starting at the triangle
+ * found for the previous query. Only if the walk does not end in a triangle
+ * that strictly contains the position, the query falls back to the
+ * {@link TriangleGridIndex}.
+ *
+ * Positions strictly inside a triangle are contained in no other triangle of
+ * a conforming mesh. Therefore the result equals the grid index result.
+ * Positions on edges or vertices are always located by the grid index.
+ *
+ * @author saemann
+ */
+public class TrianglePointLocator {
+
+    /**
+     * Maximum number of neighbour steps of one walk before the grid index is
+     * used.
+     */
+    public static int maxWalkSteps = 64;
+
+    /**
+     * Print timings of every batch.
+     */
+    public static boolean verbose = false;
+
+    private final double[][] vertices;
+    private final int[][] triangleNodes;
+    private final double[][] triangleMids;
+    private final int[][] neighbours;
+    private final TriangleGridIndex index;
+
+    private long walkHits, fallbacks, steps;
+    private long lastBatchNanos;
+
+    public TrianglePointLocator(double[][] vertices, int[][] triangleNodes, double[][] triangleMids, int[][] neighbours, TriangleGridIndex index) {
+        this.vertices = vertices;
+        this.triangleNodes = triangleNodes;
+        this.triangleMids = triangleMids;
+        this.neighbours = neighbours;
+        this.index = index;
+    }
+
+    public TrianglePointLocator(Surface surface) {
+        this(surface.getVerticesPosition(), surface.getTriangleNodes(), surface.getTriangleMids(), surface.getNeumannNeighbours(), surface.getTriangleIndex());
+    }
+
+    /**
+     * Locate many positions in one call.
+     *
+     * @param xs
+     * @param ys
+     * @return triangle id for every position, -1 if not contained in any
+     * triangle.
+     */
+    public int[] locate(double[] xs, double[] ys) {
+        long start = System.nanoTime();
+        int[] result = new int[xs.length];
+        if (xs.length == 0) {
+            return result;
+        }
+        //Order of the queries along the Hilbert curve over their bounding box
+        double minx = Double.POSITIVE_INFINITY, miny = Double.POSITIVE_INFINITY;
+        double maxx = Double.NEGATIVE_INFINITY, maxy = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            minx = Math.min(minx, xs[i]);
+            miny = Math.min(miny, ys[i]);
+            maxx = Math.max(maxx, xs[i]);
+            maxy = Math.max(maxy, ys[i]);
+        }
+        int cells = 1 << 16;
+        double scalex = (cells - 1) / Math.max(maxx - minx, 1E-9);
+        double scaley = (cells - 1) / Math.max(maxy - miny, 1E-9);
+        //31 bit shift keeps the 32 bit curve index out of the sign bit.
+        long[] order = new long[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            int hx = clamp((int) ((xs[i] - minx) * scalex), cells);
+            int hy = clamp((int) ((ys[i] - miny) * scaley), cells);
+            order[i] = (hilbertIndex(hx, hy) << 31) | i;
+        }
+        Arrays.sort(order);
+
+        int last = -1;
+        for (long o : order) {
+            int i = (int) (o & 0x7FFFFFFFL);
+            result[i] = locate(xs[i], ys[i], last);
+            if (result[i] >= 0) {
+                last = result[i];
+            }
+        }
+        lastBatchNanos = System.nanoTime() - start;
+        if (verbose) {
+            System.out.println("Located " + xs.length + " positions in " + (lastBatchNanos / 1000000) + "ms. " + toString());
+        }
+        return result;
+    }
+
+    /**
+     * Locate a position by walking from the start triangle.
+     *
+     * @param x
+     * @param y
+     * @param startTriangleID triangle to start the walk or -1 to use the grid
+     * index directly.
+     * @return triangle id or -1 if the position is not on the surface.
+     */
+    public int locate(double x, double y, int startTriangleID) {
+        if (startTriangleID >= 0 && neighbours != null) {
+            int current = startTriangleID;
+            double currentDistance = midDistance(current, x, y);
+            for (int s = 0; s < maxWalkSteps; s++) {
+                if (containsStrictly(current, x, y)) {
+                    walkHits++;
+                    steps += s;
+                    return current;
+                }
+                int bestID = -1;
+                double bestDistance = currentDistance;
+                for (int nb : neighbours[current]) {
+                    if (nb < 0) {
+                        continue;
+                    }
+                    double d = midDistance(nb, x, y);
+                    if (d < bestDistance) {
+                        bestDistance = d;
+                        bestID = nb;
+                    }
+                }
+                if (bestID < 0) {
+                    //Local minimum of the mid distance. Position can be in a neighbour with a farther mid.
+                    for (int nb : neighbours[current]) {
+                        if (nb >= 0 && containsStrictly(nb, x, y)) {
+                            walkHits++;
+                            steps += s + 1;
+                            return nb;
+                        }
+                    }
+                    break;
+                }
+                current = bestID;
+                currentDistance = bestDistance;
+            }
+        }
+        fallbacks++;
+        return index.findContainingTriangle(x, y);
+    }
+
+    private double midDistance(int triangleID, double x, double y) {
+        double[] mid = triangleMids[triangleID];
+        double dx = mid[0] - x, dy = mid[1] - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Barycentric test without the edges. Degenerated triangles contain
+     * nothing.
+     */
+    private boolean containsStrictly(int triangleID, double px, double py) {
+        int[] nodeIDs = triangleNodes[triangleID];
+        double[] p1 = vertices[nodeIDs[0]];
+        double[] p2 = vertices[nodeIDs[1]];
+        double[] p3 = vertices[nodeIDs[2]];
+        double x1 = p1[0], y1 = p1[1], x2 = p2[0], y2 = p2[1], x3 = p3[0], y3 = p3[1];
+        double det = (y2 - y3) * (x1 - x3) + (x3 - x2) * (y1 - y3);
+        if (det == 0) {
+            return false;
+        }
+        double w0 = ((y2 - y3) * (px - x3) + (x3 - x2) * (py - y3)) / det;
+        if (!(w0 > 0)) {
+            return false;
+        }
+        double w1 = ((y3 - y1) * (px - x3) + (x1 - x3) * (py - y3)) / det;
+        if (!(w1 > 0)) {
+            return false;
+        }
+        return 1 - w0 - w1 > 0;
+    }
+
+    private static int clamp(int i, int n) {
+        if (i < 0) {
+            return 0;
+        }
+        if (i >= n) {
+            return n - 1;
+        }
+        return i;
+    }
+
+    /**
+     * Position of the cell (x,y) along the Hilbert curve of a 65536 x 65536
+     * grid. Branch free evaluation of the quadrant rotations as prefix scans
+     * over the bits of x and y.
+     *
+     * @param x [0,65535]
+     * @param y [0,65535]
+     * @return index along the curve [0,2^32)
+     */
+    public static long hilbertIndex(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+        int A = a | (b >>> 1);
+        int B = (a >>> 1) ^ a;
+        int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = ((a & (a >>> 2)) ^ (b & (b >>> 2)));
+        B = ((a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2)));
+        C ^= ((a & (c >>> 2)) ^ (b & (d >>> 2)));
+        D ^= ((b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2)));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = ((a & (a >>> 4)) ^ (b & (b >>> 4)));
+        B = ((a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4)));
+        C ^= ((a & (c >>> 4)) ^ (b & (d >>> 4)));
+        D ^= ((b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4)));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        C ^= ((a & (c >>> 8)) ^ (b & (d >>> 8)));
+        D ^= ((b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8)));
+
+        a = C ^ (C >>> 1);
+        b = D ^ (D >>> 1);
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+        return (((long) interleave(i1) << 1) | interleave(i0)) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Spreads the lower 16 bits to the even bit positions.
+     */
+    private static int interleave(int x) {
+        x = (x | (x << 8)) & 0x00FF00FF;
+        x = (x | (x << 4)) & 0x0F0F0F0F;
+        x = (x | (x << 2)) & 0x33333333;
+        x = (x | (x << 1)) & 0x55555555;
+        return x;
+    }
+
+    public long getLastBatchMillis() {
+        return lastBatchNanos / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{walked:" + walkHits + ", grid fallbacks:" + fallbacks + ", steps/walk:" + (walkHits > 0 ? (steps / (double) walkHits) : 0) + "}";
+    }
+}
@@ -23,8 +23,12 @@
  */
 package com.saemann.gulli.core.model.surface.measurement;
 
+import com.saemann.gulli.core.io.Checkpoint_IO;
 import com.saemann.gulli.core.model.particle.Particle;
 import com.saemann.gulli.core.model.timeline.array.TimeIndexContainer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import org.locationtech.jts.geom.Coordinate;
 
 /**
@@ -217,4 +221,34 @@ public abstract class SurfaceMeasurementRaster {
         this.writeIndex = writeIndex;
     }
 
+    /**
+     * Writes the samples for a checkpoint of the simulation. Must only be
+     * called while no ParticleThread is calculating.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(measurementsActive);
+        out.writeInt(writeIndex);
+        Checkpoint_IO.writeArray(out, measurementsInTimeinterval);
+        Checkpoint_IO.writeArray(out, durationInTimeinterval);
+        Checkpoint_IO.writeArray(out, measurementTimestamp);
+    }
+
+    /**
+     * Restores the samples written by {@link #writeState(DataOutput)}.
+     *
+     * @param in
+     * @throws IOException if the number of intervals differs.
+     */
+    public void readState(DataInput in) throws IOException {
+        int intervals = measurementsInTimeinterval.length;
+        measurementsActive = in.readBoolean();
+        writeIndex = in.readInt();
+        measurementsInTimeinterval = Checkpoint_IO.readIntArray(in, intervals, "surface measurement samples");
+        durationInTimeinterval = Checkpoint_IO.readDoubleArray(in, intervals, "surface measurement durations");
+        measurementTimestamp = Checkpoint_IO.readLongArray(in, intervals, "surface measurement timestamps");
+    }
+
 }
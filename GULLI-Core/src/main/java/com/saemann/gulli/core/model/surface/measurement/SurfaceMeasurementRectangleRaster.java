@@ -23,9 +23,13 @@
  */
 package com.saemann.gulli.core.model.surface.measurement;
 
+import com.saemann.gulli.core.io.Checkpoint_IO;
 import com.saemann.gulli.core.model.particle.Particle;
 import com.saemann.gulli.core.model.surface.Surface;
 import com.saemann.gulli.core.model.timeline.array.TimeIndexContainer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import org.locationtech.jts.geom.Coordinate;
 
 /**
@@ -603,4 +607,57 @@ public class SurfaceMeasurementRectangleRaster extends SurfaceMeasurementRaster
 
     }
 
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        super.writeState(out);
+        out.writeInt(numberOfMaterials);
+        out.writeInt(numberXIntervals);
+        out.writeInt(numberYIntervals);
+        writeRaster(out, mass);
+        writeRaster(out, particlecounter);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        super.readState(in);
+        Checkpoint_IO.checkLength(in.readInt(), numberOfMaterials, "materials of surface measurements");
+        Checkpoint_IO.checkLength(in.readInt(), numberXIntervals, "raster columns");
+        Checkpoint_IO.checkLength(in.readInt(), numberYIntervals, "raster rows");
+        mass = readRaster(in);
+        particlecounter = readRaster(in);
+    }
+
+    /**
+     * Writes the [x][y][time][material] array. Cells without samples are
+     * null.
+     */
+    private static void writeRaster(DataOutput out, double[][][][] raster) throws IOException {
+        out.writeInt(raster.length);
+        for (double[][][] column : raster) {
+            if (column == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            out.writeInt(column.length);
+            for (double[][] cell : column) {
+                Checkpoint_IO.writeArray(out, cell);
+            }
+        }
+    }
+
+    private static double[][][][] readRaster(DataInput in) throws IOException {
+        double[][][][] raster = new double[in.readInt()][][][];
+        for (int x = 0; x < raster.length; x++) {
+            int n = in.readInt();
+            if (n < 0) {
+                continue;
+            }
+            raster[x] = new double[n][][];
+            for (int y = 0; y < n; y++) {
+                raster[x][y] = Checkpoint_IO.readDoubleArray2D(in);
+            }
+        }
+        return raster;
+    }
+
 }
@@ -24,10 +24,14 @@
 package com.saemann.gulli.core.model.surface.measurement;
 
 import com.saemann.gulli.core.control.Controller;
+import com.saemann.gulli.core.io.Checkpoint_IO;
 import org.locationtech.jts.geom.Coordinate;
 import com.saemann.gulli.core.model.particle.Particle;
 import com.saemann.gulli.core.model.surface.Surface;
 import com.saemann.gulli.core.model.timeline.array.TimeIndexContainer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Standard Surface Measurement Raster thats measurements locations are the same
@@ -58,6 +62,21 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
 
     private boolean usedInCurrentStep = false;
 
+    /**
+     * If enabled, every particle thread sums up its samples in its own
+     * {@link TriangleMeasurementBuffer}. The buffers are merged into the
+     * measurements in {@link #synchronizeMeasurements()}, which is called by
+     * the synchronization step while no particle thread is running. No locks
+     * are needed in measureParticle then.
+     */
+    public static boolean threadLocalMeasures = false;
+
+    /**
+     * One sample buffer per particle thread, used if threadLocalMeasures is
+     * enabled.
+     */
+    protected TriangleMeasurementBuffer[] threadBuffers;
+
     public SurfaceMeasurementTriangleRaster(Surface surf, int numberOfMaterials, TimeIndexContainer time, int numberOfParticleThreads) {
         this.surf = surf;
         this.times = time;
@@ -68,6 +87,15 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
         this.durationInTimeinterval = new double[time.getNumberOfTimes()];
 
         measurementTimestamp = new long[measurementsInTimeinterval.length];
+        this.threadBuffers = createThreadBuffers(numberOfParticleThreads);
+    }
+
+    private static TriangleMeasurementBuffer[] createThreadBuffers(int threadCount) {
+        TriangleMeasurementBuffer[] buffers = new TriangleMeasurementBuffer[threadCount];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new TriangleMeasurementBuffer();
+        }
+        return buffers;
     }
 
     public static SurfaceMeasurementTriangleRaster init(Controller c) {
@@ -128,6 +156,17 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
         if (!usedInCurrentStep) {
             usedInCurrentStep = true;
         }
+        if (threadLocalMeasures && threadIndex >= 0 && threadIndex < threadBuffers.length) {
+            TriangleMeasurementBuffer buffer = threadBuffers[threadIndex];
+            if (buffer.timeindex < 0) {
+                buffer.timeindex = timeindex;
+            }
+            if (buffer.timeindex == timeindex) {
+                buffer.add(id * (long) numberOfMaterials + particle.getMaterial().materialIndex, particle.particleMass * residenceDuration, residenceDuration);
+                return;
+            }
+            //The buffer belongs to another sampling interval. Write directly.
+        }
         try {
             int materialIndex = particle.getMaterial().materialIndex;
             TriangleMeasurement m = measurements[id];
@@ -142,7 +181,7 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
 //                }
 //
 //            } else 
-            if (synchronizeMeasures) {
+            if (synchronizeMeasures || threadLocalMeasures) {
                 if (m == null) {
                     System.err.println("monitor object is null for cell triangle " + id);
                 } else {
@@ -195,19 +234,27 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
 
     @Override
     public void synchronizeMeasurements() {
-//        if (/*!synchronizeOnlyAtEnd*/true) {
-//            return;
-//        }
-//        if (!usedInCurrentStep) {
-//            return;//no need to go through the whole list.
-//        }
-////        for (TriangleMeasurement measurement : measurements) {
-////            if (measurement == null) {
-////                continue;
-////            }
-////            measurement.synchronizeMeasurements(timeindex);
-////        }
-//        usedInCurrentStep = false;
+        if (!usedInCurrentStep) {
+            return;
+        }
+        for (TriangleMeasurementBuffer buffer : threadBuffers) {
+            buffer.mergeInto(this, numberOfMaterials);
+        }
+        usedInCurrentStep = false;
+    }
+
+    /**
+     * Number of samples, that are buffered in the threads and not yet merged
+     * into the measurements.
+     *
+     * @return
+     */
+    public int getNumberOfBufferedSamples() {
+        int n = 0;
+        for (TriangleMeasurementBuffer buffer : threadBuffers) {
+            n += buffer.size();
+        }
+        return n;
     }
 
     @Override
@@ -215,6 +262,8 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
         if (this.numberOfMaterials == numberOfMaterials) {
             return;
         }
+        //Buffered keys are encoded with the old number of materials
+        synchronizeMeasurements();
         this.numberOfMaterials = numberOfMaterials;
         for (int i = 0; i < measurements.length; i++) {
             if (measurements[i] != null) {
@@ -230,6 +279,9 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
     @Override
     public void setTimeContainer(TimeIndexContainer times) {
         this.times = times;
+        for (TriangleMeasurementBuffer buffer : threadBuffers) {
+            buffer.clear();
+        }
 //        System.out.println(getClass() + "::setTimeContainer to " + this.times.getNumberOfTimes());
         for (int i = 0; i < measurements.length; i++) {
             if (measurements[i] != null) {
@@ -244,6 +296,9 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
     @Override
     public void reset() {
         usedInCurrentStep = false;
+        for (TriangleMeasurementBuffer buffer : threadBuffers) {
+            buffer.clear();
+        }
         measurements = new TriangleMeasurement[surf.getTriangleNodes().length];
         measurementsInTimeinterval = new int[times.getNumberOfTimes()];
         measurementTimestamp = new long[measurementsInTimeinterval.length];
@@ -282,6 +337,10 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
     public void setNumberOfThreads(int threadCount) {
         this.monitor = new TriangleMeasurement[threadCount];
         this.statuse = new int[threadCount];
+        if (threadBuffers.length != threadCount) {
+            synchronizeMeasurements();
+            this.threadBuffers = createThreadBuffers(threadCount);
+        }
     }
 
     @Override
@@ -323,4 +382,55 @@ public class SurfaceMeasurementTriangleRaster extends SurfaceMeasurementRaster {
         return measurements[cellIndex].particlecounter[materialIndex][timeindex] / durationInTimeinterval[timeindex];
     }
 
+    /**
+     * Writes the samples of all contaminated cells.
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        synchronizeMeasurements();
+        super.writeState(out);
+        out.writeInt(numberOfMaterials);
+        out.writeInt(measurements.length);
+        int contaminated = 0;
+        for (TriangleMeasurement m : measurements) {
+            if (m != null) {
+                contaminated++;
+            }
+        }
+        out.writeInt(contaminated);
+        for (int i = 0; i < measurements.length; i++) {
+            TriangleMeasurement m = measurements[i];
+            if (m == null) {
+                continue;
+            }
+            out.writeInt(i);
+            Checkpoint_IO.writeArray(out, m.massresidence);
+            Checkpoint_IO.writeArray(out, m.particlecounter);
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        super.readState(in);
+        Checkpoint_IO.checkLength(in.readInt(), numberOfMaterials, "materials of surface measurements");
+        Checkpoint_IO.checkLength(in.readInt(), measurements.length, "surface cells");
+        usedInCurrentStep = false;
+        for (TriangleMeasurementBuffer buffer : threadBuffers) {
+            buffer.clear();
+        }
+        TriangleMeasurement[] restored = new TriangleMeasurement[measurements.length];
+        int contaminated = in.readInt();
+        for (int j = 0; j < contaminated; j++) {
+            int i = in.readInt();
+            TriangleMeasurement m = new TriangleMeasurement(i, times.getNumberOfTimes(), numberOfMaterials, numberOfParticleThreads);
+            m.massresidence = Checkpoint_IO.readDoubleArray2D(in);
+            m.particlecounter = Checkpoint_IO.readDoubleArray2D(in);
+            restored[i] = m;
+        }
+        measurements = restored;
+    }
+
 }
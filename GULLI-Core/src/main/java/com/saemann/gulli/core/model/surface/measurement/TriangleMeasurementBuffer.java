@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.model.surface.measurement;
+
+import java.util.Arrays;
+
+/**
+ * Sparse accumulator for the surface measurements of one particle thread.
+ * Samples are summed up per (triangle, material) without any locking and
+ * merged into the {@link TriangleMeasurement}s of the raster during the
+ * synchronization step, when no particle thread is running.
+ *
+ * @author saemann
+ */
+public class TriangleMeasurementBuffer {
+
+    private static final long EMPTY = -1;
+
+    /**
+     * Open addressing table: key = triangleID * numberOfMaterials +
+     * materialIndex
+     */
+    private long[] keys;
+    private double[] mass;
+    private double[] counter;
+    /**
+     * Slots in order of their first use. Used to iterate and clear only the
+     * touched entries.
+     */
+    private int[] usedSlots;
+    private int size = 0;
+    private int mask;
+
+    /**
+     * The time index all buffered samples belong to. -1 if the buffer is
+     * empty.
+     */
+    int timeindex = -1;
+
+    public TriangleMeasurementBuffer() {
+        this(256);
+    }
+
+    public TriangleMeasurementBuffer(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity * 2 - 1));
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mass = new double[capacity];
+        counter = new double[capacity];
+        usedSlots = new int[capacity / 2];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param key triangleID * numberOfMaterials + materialIndex
+     * @param massresidence [kg*s]
+     * @param residence [s]
+     */
+    public void add(long key, double massresidence, double residence) {
+        int slot = slot(key);
+        if (keys[slot] == EMPTY) {
+            if (size == usedSlots.length) {
+                grow();
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            usedSlots[size++] = slot;
+        }
+        mass[slot] += massresidence;
+        counter[slot] += residence;
+    }
+
+    private int slot(long key) {
+        int slot = (int) (mix(key) & mask);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 32);
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldMass = mass, oldCounter = counter;
+        int[] oldUsed = usedSlots;
+        int oldSize = size;
+        allocate(keys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldSize; i++) {
+            int o = oldUsed[i];
+            int slot = slot(oldKeys[o]);
+            keys[slot] = oldKeys[o];
+            mass[slot] = oldMass[o];
+            counter[slot] = oldCounter[o];
+            usedSlots[size++] = slot;
+        }
+    }
+
+    /**
+     * Number of (triangle, material) entries in this buffer.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds all buffered samples to the measurements of the raster and clears
+     * the buffer.
+     *
+     * @param raster
+     * @param numberOfMaterials used to decode the keys
+     */
+    void mergeInto(SurfaceMeasurementTriangleRaster raster, int numberOfMaterials) {
+        if (size > 0 && timeindex >= 0) {
+            for (int i = 0; i < size; i++) {
+                int slot = usedSlots[i];
+                int triangleID = (int) (keys[slot] / numberOfMaterials);
+                int materialIndex = (int) (keys[slot] % numberOfMaterials);
+                TriangleMeasurement m = raster.measurements[triangleID];
+                if (m == null) {
+                    m = raster.createMeasurement(triangleID);
+                }
+                m.massresidence[materialIndex][timeindex] += mass[slot];
+                m.particlecounter[materialIndex][timeindex] += counter[slot];
+            }
+        }
+        clear();
+    }
+
+    /**
+     * Removes all samples without merging them.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            int slot = usedSlots[i];
+            keys[slot] = EMPTY;
+            mass[slot] = 0;
+            counter[slot] = 0;
+        }
+        size = 0;
+        timeindex = -1;
+    }
+}
@@ -23,7 +23,11 @@
  */
 package com.saemann.gulli.core.model.timeline;
 
+import com.saemann.gulli.core.io.Checkpoint_IO;
 import com.saemann.gulli.core.model.timeline.array.TimeContainer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Holds global information important for all Sparse Measurement Timeline
@@ -35,6 +39,9 @@ public abstract class MeasurementContainer {
 
     public static boolean synchronizeMeasures = true;
 
+    /**
+     * Default for {@link #timecontinuous}.
+     */
     public static boolean timecontinuousMeasures = true;
 
     public static boolean spatialConsistentMeasures = true;
@@ -45,6 +52,13 @@ public abstract class MeasurementContainer {
      */
     public boolean measurementsActive = true;
 
+    /**
+     * Sample in every simulation step (true) or only at the end of each
+     * measurement interval (false). Set from the simulation's configuration
+     * at start.
+     */
+    public boolean timecontinuous = timecontinuousMeasures;
+
     /**
      * Is it only recorded once per timeindex?
      */
@@ -159,4 +173,34 @@ public abstract class MeasurementContainer {
      * Clear all values before startng a new simulation run.
      */
     public abstract void clearValues();
+
+    /**
+     * Writes the sample counters of the intervals for a checkpoint of the
+     * simulation. The samples of the pipes are written by their
+     * {@link MeasurementTimeline}s.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(numberOfMaterials);
+        out.writeBoolean(measurementsActive);
+        out.writeInt(actualTimeIndex);
+        Checkpoint_IO.writeArray(out, measurementTimes);
+        Checkpoint_IO.writeArray(out, samplesInTimeInterval);
+    }
+
+    /**
+     * Restores the counters written by {@link #writeState(DataOutput)}.
+     *
+     * @param in
+     * @throws IOException if the number of intervals or materials differs.
+     */
+    public void readState(DataInput in) throws IOException {
+        Checkpoint_IO.checkLength(in.readInt(), numberOfMaterials, "materials of pipe measurements");
+        measurementsActive = in.readBoolean();
+        actualTimeIndex = in.readInt();
+        measurementTimes = Checkpoint_IO.readLongArray(in, times.getNumberOfTimes(), "pipe measurement timestamps");
+        samplesInTimeInterval = Checkpoint_IO.readIntArray(in, times.getNumberOfTimes(), "pipe measurement samples");
+    }
 }
@@ -24,6 +24,9 @@
 package com.saemann.gulli.core.model.timeline;
 
 import com.saemann.gulli.core.model.particle.Particle;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import com.saemann.gulli.core.model.timeline.array.TimeContainer;
 import com.saemann.gulli.core.model.timeline.array.TimeLinePipe;
 
@@ -142,4 +145,21 @@ public interface MeasurementTimeline {
     public MeasurementContainer getContainer();
     
     public float getReferenceLength();
+
+    /**
+     * Writes the collected samples of this timeline for a checkpoint of the
+     * simulation.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException;
+
+    /**
+     * Restores the samples written by {@link #writeState(DataOutput)}.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException;
 }
@@ -1,5 +1,9 @@
 package com.saemann.gulli.core.model.timeline.array;
 
+import com.saemann.gulli.core.io.Checkpoint_IO;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -60,11 +64,23 @@ public class ArrayTimeLineMeasurement implements MeasurementTimeline {
     private float pipelength;
 
     public ArrayTimeLineMeasurement(ArrayTimeLineMeasurementContainer container, int spatialIndex, float length) {
+        this(container, spatialIndex, length, useIDsharpParticleCounting);
+    }
+
+    /**
+     *
+     * @param container
+     * @param spatialIndex
+     * @param length
+     * @param idSharpCounting count every particle only once per interval
+     * (see {@link #useIDsharpParticleCounting})
+     */
+    public ArrayTimeLineMeasurement(ArrayTimeLineMeasurementContainer container, int spatialIndex, float length, boolean idSharpCounting) {
         this.container = container;
         this.spatialIndex = spatialIndex;
         this.startIndex = container.getNumberOfTimes() * spatialIndex;
         this.pipelength = length;
-        if (useIDsharpParticleCounting) {
+        if (idSharpCounting) {
             particles = new HashSet<>(0);
         } else {
             particles = null;
@@ -219,7 +235,7 @@ public class ArrayTimeLineMeasurement implements MeasurementTimeline {
         try {
             container.particles[index] += numberOfParticlesInTimestep;
 
-            if (useIDsharpParticleCounting) {
+            if (particles != null) {
                 container.particles_visited[index] = particles.size();
             }
             container.volumes[index] += volume;
@@ -309,12 +325,12 @@ public class ArrayTimeLineMeasurement implements MeasurementTimeline {
      */
     @Override
     public void addParticle(Particle particleToCount, float dtfactor) {
-        if (!container.measurementsActive && !container.timecontinuousMeasures) {
+        if (!container.measurementsActive && !container.timecontinuous) {
             //Skip if the paticles should only be sampled at the end of an interval and the sampling is not enabled for that last step.
             return;
         }
         if (MeasurementContainer.synchronizeMeasures) {
-            if (useIDsharpParticleCounting) {
+            if (particles != null) {
                 synchronized (particles) {
                     if (!particles.contains(particleToCount)) {
                         particles.add(particleToCount);
@@ -338,7 +354,7 @@ public class ArrayTimeLineMeasurement implements MeasurementTimeline {
 //                }
             }
         } else {
-            if (useIDsharpParticleCounting) {
+            if (particles != null) {
                 synchronized (particles) {
                     if (!particles.contains(particleToCount)) {
                         particles.add(particleToCount);
@@ -422,4 +438,50 @@ public class ArrayTimeLineMeasurement implements MeasurementTimeline {
         return pipelength;
     }
 
+    /**
+     * Writes the samples of this pipe from the container's arrays. The set of
+     * visited particles (id sharp counting) is not stored.
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        int times = container.getNumberOfTimes();
+        int start = getIndex(0);
+        out.writeInt(times);
+        out.writeDouble(maxMass);
+        out.writeDouble(maxConcentration);
+        for (int i = start; i < start + times; i++) {
+            out.writeInt(container.counts[i]);
+            out.writeFloat(container.particles[i]);
+            out.writeInt(container.particles_visited[i]);
+            out.writeFloat(container.volumes[i]);
+            out.writeFloat(container.mass_total[i]);
+            out.writeFloat(container.massflux_total[i]);
+            Checkpoint_IO.writeArray(out, container.mass_type[i]);
+            Checkpoint_IO.writeArray(out, container.massflux_type[i]);
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        int times = container.getNumberOfTimes();
+        Checkpoint_IO.checkLength(in.readInt(), times, "pipe measurement intervals");
+        int start = getIndex(0);
+        maxMass = in.readDouble();
+        maxConcentration = in.readDouble();
+        for (int i = start; i < start + times; i++) {
+            container.counts[i] = in.readInt();
+            container.particles[i] = in.readFloat();
+            container.particles_visited[i] = in.readInt();
+            container.volumes[i] = in.readFloat();
+            container.mass_total[i] = in.readFloat();
+            container.massflux_total[i] = in.readFloat();
+            container.mass_type[i] = Checkpoint_IO.readFloatArray(in);
+            container.massflux_type[i] = Checkpoint_IO.readFloatArray(in);
+        }
+        resetNumberOfParticles();
+    }
+
 }
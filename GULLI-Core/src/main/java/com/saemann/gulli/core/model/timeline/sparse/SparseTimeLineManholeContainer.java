@@ -23,6 +23,7 @@
  */
 package com.saemann.gulli.core.model.timeline.sparse;
 
+import com.saemann.gulli.core.control.threads.SimulationProfiler;
 import com.saemann.gulli.core.io.SparseTimeLineDataProvider;
 import com.saemann.gulli.core.model.timeline.array.TimeContainer;
 import com.saemann.gulli.core.model.timeline.array.TimeIndexContainer;
@@ -69,7 +70,12 @@ public class SparseTimeLineManholeContainer extends TimeIndexContainer {
             System.out.println(getClass() + ": request loading Waterlevel timeline for manhole '" + manholeName + "' / " + manholeManualId);
         }
 
-        tl.setWaterHeight(dataprovider.loadTimeLineWaterheightManhole(manholeManualId, manholeName, getNumberOfTimes()));
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            tl.setWaterHeight(dataprovider.loadTimeLineWaterheightManhole(manholeManualId, manholeName, getNumberOfTimes()));
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+        }
 
     }
 
@@ -78,7 +84,12 @@ public class SparseTimeLineManholeContainer extends TimeIndexContainer {
             System.out.println(getClass() + ": request loading Flux timeline for manhole '" + manholeName + "' / " + manholeManualId);
         }
 
-        tl.setSpilloutFlux(dataprovider.loadTimeLineSpilloutFlux(manholeManualId, manholeName, getNumberOfTimes()));
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            tl.setSpilloutFlux(dataprovider.loadTimeLineSpilloutFlux(manholeManualId, manholeName, getNumberOfTimes()));
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+        }
     }
     
      public void loadTimelineInflow(SparseTimelineManhole tl, long manholeManualId, String manholeName) {
@@ -86,14 +97,24 @@ public class SparseTimeLineManholeContainer extends TimeIndexContainer {
             System.out.println(getClass() + ": request loading inflow timeline for manhole '" + manholeName + "' / " + manholeManualId);
         }
 
-        tl.setInflow(dataprovider.loadTimeLineInlflow(manholeManualId, manholeName, getNumberOfTimes()));
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            tl.setInflow(dataprovider.loadTimeLineInlflow(manholeManualId, manholeName, getNumberOfTimes()));
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+        }
     }
 
     public void fillTimeline(SparseTimelineManhole tl, long manholeManualId, String manholeName) {
         if (verboseLaodingRequests) {
             System.out.println(getClass() + ": request fill timeline for manhole '" + manholeName + "' / " + manholeManualId);
         }
-        dataprovider.fillTimelineManhole(manholeManualId, manholeName, tl);
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            dataprovider.fillTimelineManhole(manholeManualId, manholeName, tl);
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+        }
     }
 
     public SparseTimeLineDataProvider getDataprovider() {
@@ -23,11 +23,15 @@
  */
 package com.saemann.gulli.core.model.timeline.sparse;
 
+import com.saemann.gulli.core.io.Checkpoint_IO;
 import com.saemann.gulli.core.model.timeline.MeasurementContainer;
 import com.saemann.gulli.core.model.particle.Particle;
 import com.saemann.gulli.core.model.timeline.MeasurementTimeline;
 import com.saemann.gulli.core.model.timeline.array.TimeContainer;
 import com.saemann.gulli.core.model.timeline.array.TimeLinePipe;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -512,4 +516,47 @@ public class SparseTimeLineMeasurement implements MeasurementTimeline {
         return length;
     }
 
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        Checkpoint_IO.writeArray(out, particleMassPerTypeLastTimestep);
+        out.writeBoolean(initialized);
+        if (!initialized) {
+            return;
+        }
+        Checkpoint_IO.writeArray(out, particles);
+        Checkpoint_IO.writeArray(out, samplesInTimeIntervalPipe);
+        Checkpoint_IO.writeArray(out, mass_total);
+        Checkpoint_IO.writeArray(out, mass_type);
+        Checkpoint_IO.writeArray(out, massflux_total);
+        Checkpoint_IO.writeArray(out, massflux_type);
+        Checkpoint_IO.writeArray(out, volumes);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        numberOfParticlesInTimestep = 0;
+        particleMassInTimestep = 0;
+        particleMassPerTypeLastTimestep = Checkpoint_IO.readFloatArray(in);
+        particleMassPerTypeinTimestep = particleMassPerTypeLastTimestep == null ? null : new float[particleMassPerTypeLastTimestep.length];
+        initialized = in.readBoolean();
+        if (!initialized) {
+            particles = null;
+            samplesInTimeIntervalPipe = null;
+            mass_total = null;
+            mass_type = null;
+            massflux_total = null;
+            massflux_type = null;
+            volumes = null;
+            return;
+        }
+        particles = Checkpoint_IO.readFloatArray(in);
+        samplesInTimeIntervalPipe = Checkpoint_IO.readIntArray(in);
+        mass_total = Checkpoint_IO.readFloatArray(in);
+        mass_type = Checkpoint_IO.readFloatArray2D(in);
+        massflux_total = Checkpoint_IO.readFloatArray(in);
+        massflux_type = Checkpoint_IO.readFloatArray2D(in);
+        volumes = Checkpoint_IO.readFloatArray(in);
+        Checkpoint_IO.checkLength(particles == null ? -1 : particles.length, container.getTimes().getNumberOfTimes(), "pipe measurement intervals");
+    }
+
 }
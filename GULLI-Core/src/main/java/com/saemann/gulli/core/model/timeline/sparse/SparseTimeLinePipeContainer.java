@@ -23,6 +23,7 @@
  */
 package com.saemann.gulli.core.model.timeline.sparse;
 
+import com.saemann.gulli.core.control.threads.SimulationProfiler;
 import com.saemann.gulli.core.io.SparseTimeLineDataProvider;
 import com.saemann.gulli.core.model.timeline.array.TimeContainer;
 import com.saemann.gulli.core.model.timeline.array.TimeIndexContainer;
@@ -89,7 +90,12 @@ public class SparseTimeLinePipeContainer extends TimeIndexContainer {
         if (verboseRequests) {
             System.out.println(getClass() + ": request loading Velocity timeline for pipe " + pipeName + " / " + pipeManualId);
         }
-        dataprovider.fillTimelinePipe(pipeManualId, pipeName, tl);
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            dataprovider.fillTimelinePipe(pipeManualId, pipeName, tl);
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+        }
 //        tl.setVelocity(dataprovider.loadTimeLineVelocity(pipeManualId, pipeName,getNumberOfTimes()));
     }
 
@@ -97,7 +103,12 @@ public class SparseTimeLinePipeContainer extends TimeIndexContainer {
         if (verboseRequests) {
             System.out.println(getClass() + ": request loading Waterlevel timeline for pipe " + pipeName + " / " + pipeManualId);
         }
-        dataprovider.fillTimelinePipe(pipeManualId, pipeName, tl);
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            dataprovider.fillTimelinePipe(pipeManualId, pipeName, tl);
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+        }
     }
 
     /**
@@ -112,7 +123,12 @@ public class SparseTimeLinePipeContainer extends TimeIndexContainer {
             System.out.println(getClass() + ": request loading discharge timeline for pipe " + pipeName + " / " + pipeManualId);
         }
 
-        dataprovider.fillTimelinePipe(pipeManualId, pipeName, tl);
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            dataprovider.fillTimelinePipe(pipeManualId, pipeName, tl);
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+        }
 //        tl.setFlux(dataprovider.loadTimeLineFlux(pipeManualId, pipeName, getNumberOfTimes()));
     }
 
@@ -127,7 +143,12 @@ public class SparseTimeLinePipeContainer extends TimeIndexContainer {
         if (verboseRequests) {
             System.out.println(getClass() + ": request loading Massflux timeline for pipe " + pipeName + " / " + pipeManualId);
         }
-        tl.setMassflux_reference(dataprovider.loadTimeLineMassflux(pipeManualId, pipeName, getNumberOfTimes()));
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            tl.setMassflux_reference(dataprovider.loadTimeLineMassflux(pipeManualId, pipeName, getNumberOfTimes()));
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+        }
     }
 
     /**
@@ -141,7 +162,12 @@ public class SparseTimeLinePipeContainer extends TimeIndexContainer {
         if (verboseRequests) {
             System.out.println(getClass() + ": request loading Concentration timeline for pipe " + pipeName + " / " + pipeManualId);
         }
-        tl.setConcentration_reference(dataprovider.loadTimeLineConcentration(pipeManualId, pipeName, getNumberOfTimes()));
+        long loadStart = SimulationProfiler.lazyLoadingStart();
+        try {
+            tl.setConcentration_reference(dataprovider.loadTimeLineConcentration(pipeManualId, pipeName, getNumberOfTimes()));
+        } finally {
+            SimulationProfiler.lazyLoadingFinished(loadStart);
+        }
     }
 
     public boolean hasReferencePollution() {
@@ -1,5 +1,7 @@
 package com.saemann.gulli.core.model.topology;
 
+import com.saemann.gulli.core.model.material.routing.ManholeRoutingTable;
+import com.saemann.gulli.core.model.timeline.array.TimeLineManhole;
 import com.saemann.gulli.core.model.topology.profile.Profile;
 
 /**
@@ -26,6 +28,11 @@ public class Manhole extends StorageVolume {
      */
     public boolean pumpsump = false;
 
+    /**
+     * Cached outflow probabilities for the actual hydraulic time.
+     */
+    protected volatile ManholeRoutingTable routingTable;
+
     public Manhole(Position position, String name, Profile profile) {
         super(profile);
         if (!(position instanceof Position3D)) {
@@ -44,6 +51,20 @@ public class Manhole extends StorageVolume {
         return topConnection;
     }
 
+    public ManholeRoutingTable getRoutingTable() {
+        return routingTable;
+    }
+
+    public void setRoutingTable(ManholeRoutingTable routingTable) {
+        this.routingTable = routingTable;
+    }
+
+    @Override
+    public void setStatusTimeline(TimeLineManhole statusTimeline) {
+        super.setStatusTimeline(statusTimeline);
+        this.routingTable = null;
+    }
+
     public Position getPosition() {
         return position;
     }
@@ -7,6 +7,7 @@ package com.saemann.gulli.core.model.topology;
 
 import com.saemann.gulli.core.model.GeoPosition2D;
 import com.saemann.gulli.core.control.StartParameters;
+import com.saemann.gulli.core.model.topology.graph.NetworkGraph;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,6 +33,10 @@ public class Network {
     protected HashMap<Long,Manhole> manholeMap;
     protected Collection<Inlet> streetInlets;
     protected String name;
+    /**
+     * Index based representation for graph searches. Created on first request.
+     */
+    protected NetworkGraph graph;
 
     /**
      * m^2 of runoff-relevant surface
@@ -66,6 +71,7 @@ public class Network {
 
     public void setPipes(HashSet<Pipe> pipes) {
         this.pipes = pipes;
+        this.graph = null;
     }
 
     public HashSet<Manhole> getManholes() {
@@ -75,6 +81,20 @@ public class Network {
     public void setCapacities(HashSet<Manhole> capacities) {
         this.manholes = capacities;
         fillManholeMap();
+        this.graph = null;
+    }
+
+    /**
+     * Compact index based graph of this network. It is built on the first call
+     * and reflects the topology at that time.
+     *
+     * @return
+     */
+    public synchronized NetworkGraph getGraph() {
+        if (graph == null) {
+            graph = new NetworkGraph(this);
+        }
+        return graph;
     }
 
     public void setStreetInlets(Collection<Inlet> streetInlets) {
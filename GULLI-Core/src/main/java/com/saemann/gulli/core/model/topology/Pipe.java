@@ -370,6 +370,15 @@ public class Pipe extends Capacity {
 
     public void setStatusTimeLine(TimeLinePipe tl) {
         this.timelineStatus = tl;
+        //The routing tables of the adjacent manholes use the discharge of this pipe.
+        resetRoutingTable(startConnection);
+        resetRoutingTable(endConnection);
+    }
+
+    private static void resetRoutingTable(Connection_Manhole_Pipe connection) {
+        if (connection != null && connection.getManhole() instanceof Manhole) {
+            ((Manhole) connection.getManhole()).setRoutingTable(null);
+        }
     }
 
     public double getVelocity() {
@@ -6,10 +6,11 @@
 package com.saemann.gulli.core.model.topology.graph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import com.saemann.gulli.core.model.topology.Connection_Manhole_Pipe;
 import com.saemann.gulli.core.model.topology.Manhole;
@@ -72,9 +73,8 @@ public class GraphSearch {
          */
         LinkedList<Manhole> manholes = new LinkedList<>();
         manholes.add(start);
-        LinkedList<Pipe> alreadySeenPipes = new LinkedList<>();
-        LinkedList<Pipe> turnOffs = new LinkedList<>();
-        LinkedList<Manhole> alreadySeen = new LinkedList<>();
+        LinkedHashSet<Pipe> alreadySeenPipes = new LinkedHashSet<>();
+        HashSet<Manhole> alreadySeen = new HashSet<>();
         while (!manholes.isEmpty()) {
             Manhole mh = manholes.pollLast();
             alreadySeen.add(mh);
@@ -131,9 +131,8 @@ public class GraphSearch {
          */
         LinkedList<Manhole> manholes = new LinkedList<>();
         manholes.add(start);
-        LinkedList<Pipe> alreadySeenPipes = new LinkedList<>();
-        LinkedList<Pipe> turnOffs = new LinkedList<>();
-        LinkedList<Manhole> alreadySeen = new LinkedList<>();
+        LinkedHashSet<Pipe> alreadySeenPipes = new LinkedHashSet<>();
+        HashSet<Manhole> alreadySeen = new HashSet<>();
         while (!manholes.isEmpty()) {
             Manhole mh = manholes.pollLast();
             alreadySeen.add(mh);
@@ -179,102 +178,68 @@ public class GraphSearch {
         return new ArrayList<>(alreadySeenPipes);
     }
 
+    /**
+     * Pipes that can be reached from the injection manhole, regarding the
+     * minimum and maximum velocity of the pipes.
+     *
+     * @param netzwerk
+     * @param injectionManhole
+     * @param minmaxVelocity [pipe]{manualID, min velocity, max velocity}
+     * @return pipes sorted by manual ID
+     */
     public static Pipe[] findDownstreamPipes(Network netzwerk, StorageVolume injectionManhole, float[][] minmaxVelocity) {
-        HashMap<Integer, float[]> map = new HashMap<>(minmaxVelocity.length);
-        for (float[] minmaxVelocity1 : minmaxVelocity) {
-            map.put((int) minmaxVelocity1[0], minmaxVelocity1);
-        }
-        LinkedList<Pipe> alreadySeenPipes = new LinkedList<>();
-        LinkedList<Pipe> downstreamPipes = new LinkedList<>();
-        LinkedList<Pipe> turnOffs = new LinkedList<>();
-        LinkedList<StorageVolume> alreadySeen = new LinkedList<>();
-        LinkedList<StorageVolume> manholes = new LinkedList<>();
-        manholes.add(injectionManhole);
-//        int verboseid=5380;
-        while (!manholes.isEmpty()) {
-            StorageVolume mh = manholes.pollLast();
-            alreadySeen.add(mh);
-            if (mh == null) {
-                continue;
-            }
-            for (Connection_Manhole_Pipe connection : mh.getConnections()) {
-                //Check Reverse Flown pipes
-                if (connection.isEndOfPipe()) {
-                    Pipe p = connection.getPipe();
+        NetworkGraph graph = netzwerk.getGraph();
+        return graph.toPipes(graph.findDownstreamPipes(graph.indexOf(injectionManhole), minmaxVelocity));
+    }
 
-                    //is backward flown?
-                    float[] minmax = map.get((int) p.getManualID());
+    public static ArrayList<Pipe> findDownstreamPipes(Network network, StorageVolume start) {
+        NetworkGraph graph = network.getGraph();
+        return new ArrayList<>(Arrays.asList(graph.toPipes(graph.findDownstreamPipes(graph.indexOf(start)))));
+    }
 
-//                    if (p.getManualID() == verboseid) {
-//                        System.out.println(p + "  minmax=" + minmax[0] + "," + minmax[1] + "," + minmax[2]);
-//                    }
-                    if (minmax == null) {
-//                        System.err.println(GraphSearch.class + ":: Could not read min/max Velocity for Pipe " + p);
-                        continue;
-                    }
-                    if (minmax[1] > -0.01) {
-                        //Pipe is never reverse flown
-                        continue;
-                    }
+    public static ArrayList<Pipe> findUpstreamPipes(Network network, StorageVolume start) {
+        NetworkGraph graph = network.getGraph();
+        return new ArrayList<>(Arrays.asList(graph.toPipes(graph.findUpstreamPipes(graph.indexOf(start)))));
+    }
 
-                    if (alreadySeenPipes.contains(p)) {
-                        continue;
-                    }
+    /**
+     * Shortest path length to all manholes that can be reached from the root.
+     * Longest paths first.
+     *
+     * @param network
+     * @param root
+     * @return
+     */
+    public static ArrayList<Pair<StorageVolume, Double>> findLongestPaths(Network network, StorageVolume root) {
+        return sortedByDistance(network.getGraph(), network.getGraph().shortestDistances(network.getGraph().indexOf(root), false));
+    }
 
-//                    if (p.getManualID() == verboseid) {
-//                        System.out.println(p + " add to list -");
-//                    }
-                    alreadySeenPipes.add(p);
-                    downstreamPipes.add(p);
-                    Manhole downstreamManhole = (Manhole) p.getStartConnection().getManhole();
-                    if (!alreadySeen.contains(downstreamManhole)) {
-                        manholes.addLast(downstreamManhole);
-                    }
-                } else {
-                    //Check straight forward flown pipes 
-                    Pipe p = connection.getPipe();
-                    float[] minmax = map.get((int) p.getManualID());
-                    if (minmax == null) {
-//                        System.err.println(GraphSearch.class + ":: Could not read min/max Velocity for Pipe " + p);
-                        continue;
-                    }
-                    if (minmax[2] < 0.001) {
-                        //Pipe is ONLY reverse flown
-                        continue;
-                    }
-                    if (alreadySeenPipes.contains(p)) {
-                        continue;
-                    }
-//                     if (p.getManualID() == verboseid) {
-//                        System.out.println(p + " add to list +");
-//                    }
-                    alreadySeenPipes.add(p);
-                    Manhole upstreamManhole = (Manhole) p.getEndConnection().getManhole();
-                    if (!alreadySeen.contains(upstreamManhole)) {
-                        manholes.addLast(upstreamManhole);
-                    }
-                }
+    /**
+     * Shortest path length to all manholes downstream of the start manhole.
+     * Longest paths first.
+     *
+     * @param network
+     * @param start
+     * @return
+     */
+    public static ArrayList<Pair<StorageVolume, Double>> findDownstreamManholes(Network network, StorageVolume start) {
+        return sortedByDistance(network.getGraph(), network.getGraph().shortestDistances(network.getGraph().indexOf(start), true));
+    }
+
+    private static ArrayList<Pair<StorageVolume, Double>> sortedByDistance(NetworkGraph graph, double[] distance) {
+        ArrayList<Pair<StorageVolume, Double>> retur = new ArrayList<>();
+        for (int i = 0; i < distance.length; i++) {
+            if (!Double.isInfinite(distance[i])) {
+                retur.add(new Pair<>(graph.getManhole(i), distance[i]));
             }
         }
-        Pipe[] pipes = new Pipe[alreadySeenPipes.size()];
-        Collections.sort(alreadySeenPipes, new Comparator<Pipe>() {
+        Collections.sort(retur, new Comparator<Pair<StorageVolume, Double>>() {
             @Override
-            public int compare(Pipe t, Pipe t1) {
-                if (t.getManualID() < t1.getManualID()) {
-                    return -1;
-                }
-                if (t.getManualID() == t1.getManualID()) {
-                    return 0;
-                }
-                return 0;
+            public int compare(Pair<StorageVolume, Double> t, Pair<StorageVolume, Double> t1) {
+                return Double.compare(t1.second, t.second);
             }
         });
-        int i = 0;
-        for (Pipe alreadySeenPipe : alreadySeenPipes) {
-            pipes[i] = alreadySeenPipe;
-            i++;
-        }
-        return pipes;
+        return retur;
     }
 
     public static ArrayList<Pair<Manhole, Double>> findDownstreamManholes(Manhole start) {
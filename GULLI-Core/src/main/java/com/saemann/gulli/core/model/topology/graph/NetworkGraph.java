@@ -0,0 +1,501 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.model.topology.graph;
+
+import com.saemann.gulli.core.model.topology.Connection_Manhole_Pipe;
+import com.saemann.gulli.core.model.topology.Network;
+import com.saemann.gulli.core.model.topology.Pipe;
+import com.saemann.gulli.core.model.topology.StorageVolume;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+/**
+ * Index based representation of the pipe network in compressed sparse row
+ * (CSR) format. Pipes and manholes are numbered by their manual ID; the
+ * connections of manhole m are stored at the positions connectionOffset[m]
+ * ... connectionOffset[m+1]-1 in the same order as
+ * {@link StorageVolume#getConnections()}. Graph searches work on primitive
+ * arrays without creating collections for every visited element.<br>
+ * The topology is fixed after construction and can be shared between threads.
+ *
+ * @author saemann
+ */
+public class NetworkGraph {
+
+    private final Pipe[] pipes;
+    private final StorageVolume[] manholes;
+    private final IdentityHashMap<Pipe, Integer> pipeIndex;
+    private final IdentityHashMap<StorageVolume, Integer> manholeIndex;
+
+    private final int[] pipeStart, pipeEnd;
+    private final float[] pipeLength;
+    private final boolean[] pipeHorizontal;
+
+    private final int[] connectionOffset;
+    private final int[] connectionPipe;
+    private final boolean[] connectionIsStart;
+    private final float[] connectionHeight;
+
+    /**
+     * Graph of the whole network.
+     *
+     * @param network
+     */
+    public NetworkGraph(Network network) {
+        this(network.getPipes(), new ArrayList<StorageVolume>(network.getManholes()));
+    }
+
+    public NetworkGraph(Collection<Pipe> pipeCollection, Collection<? extends StorageVolume> manholeCollection) {
+        this.pipes = pipeCollection.toArray(new Pipe[pipeCollection.size()]);
+        Arrays.sort(pipes, new Comparator<Pipe>() {
+            @Override
+            public int compare(Pipe t, Pipe t1) {
+                return Long.compare(t.getManualID(), t1.getManualID());
+            }
+        });
+        //Collect manholes incl. storage volumes that are only referenced by pipes.
+        IdentityHashMap<StorageVolume, Integer> mhs = new IdentityHashMap<>(manholeCollection.size() * 2);
+        for (StorageVolume mh : manholeCollection) {
+            mhs.put(mh, 0);
+        }
+        for (Pipe p : pipes) {
+            if (p.getStartConnection() != null && p.getStartConnection().getManhole() != null) {
+                mhs.put(p.getStartConnection().getManhole(), 0);
+            }
+            if (p.getEndConnection() != null && p.getEndConnection().getManhole() != null) {
+                mhs.put(p.getEndConnection().getManhole(), 0);
+            }
+        }
+        this.manholes = mhs.keySet().toArray(new StorageVolume[mhs.size()]);
+        Arrays.sort(manholes, new Comparator<StorageVolume>() {
+            @Override
+            public int compare(StorageVolume t, StorageVolume t1) {
+                return Long.compare(t.getManualID(), t1.getManualID());
+            }
+        });
+        manholeIndex = new IdentityHashMap<>(manholes.length * 2);
+        for (int i = 0; i < manholes.length; i++) {
+            manholeIndex.put(manholes[i], i);
+        }
+        pipeIndex = new IdentityHashMap<>(pipes.length * 2);
+        pipeStart = new int[pipes.length];
+        pipeEnd = new int[pipes.length];
+        pipeLength = new float[pipes.length];
+        pipeHorizontal = new boolean[pipes.length];
+        for (int i = 0; i < pipes.length; i++) {
+            Pipe p = pipes[i];
+            pipeIndex.put(p, i);
+            pipeStart[i] = p.getStartConnection() == null ? -1 : indexOf(p.getStartConnection().getManhole());
+            pipeEnd[i] = p.getEndConnection() == null ? -1 : indexOf(p.getEndConnection().getManhole());
+            pipeLength[i] = p.getLength();
+            pipeHorizontal[i] = p.isHorizontal();
+        }
+        //CSR adjacency
+        connectionOffset = new int[manholes.length + 1];
+        int total = 0;
+        for (int i = 0; i < manholes.length; i++) {
+            connectionOffset[i] = total;
+            Connection_Manhole_Pipe[] cons = manholes[i].getConnections();
+            if (cons != null) {
+                total += cons.length;
+            }
+        }
+        connectionOffset[manholes.length] = total;
+        connectionPipe = new int[total];
+        connectionIsStart = new boolean[total];
+        connectionHeight = new float[total];
+        for (int i = 0; i < manholes.length; i++) {
+            Connection_Manhole_Pipe[] cons = manholes[i].getConnections();
+            if (cons == null) {
+                continue;
+            }
+            int k = connectionOffset[i];
+            for (Connection_Manhole_Pipe con : cons) {
+                connectionPipe[k] = con.getPipe() == null ? -1 : indexOf(con.getPipe());
+                connectionIsStart[k] = con.isStartOfPipe();
+                connectionHeight[k] = con.getHeight();
+                k++;
+            }
+        }
+    }
+
+    public int getNumberOfPipes() {
+        return pipes.length;
+    }
+
+    public int getNumberOfManholes() {
+        return manholes.length;
+    }
+
+    public int getNumberOfConnections() {
+        return connectionPipe.length;
+    }
+
+    /**
+     *
+     * @param pipe
+     * @return index of the pipe or -1 if it is not part of this graph
+     */
+    public int indexOf(Pipe pipe) {
+        Integer i = pipeIndex.get(pipe);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     *
+     * @param manhole
+     * @return index of the manhole or -1 if it is not part of this graph
+     */
+    public int indexOf(StorageVolume manhole) {
+        if (manhole == null) {
+            return -1;
+        }
+        Integer i = manholeIndex.get(manhole);
+        return i == null ? -1 : i;
+    }
+
+    public Pipe getPipe(int index) {
+        return pipes[index];
+    }
+
+    public StorageVolume getManhole(int index) {
+        return manholes[index];
+    }
+
+    public int getPipeStart(int pipe) {
+        return pipeStart[pipe];
+    }
+
+    public int getPipeEnd(int pipe) {
+        return pipeEnd[pipe];
+    }
+
+    public float getPipeLength(int pipe) {
+        return pipeLength[pipe];
+    }
+
+    public boolean isPipeHorizontal(int pipe) {
+        return pipeHorizontal[pipe];
+    }
+
+    /**
+     * First connection index of the manhole.
+     *
+     * @param manhole
+     * @return
+     */
+    public int getFirstConnection(int manhole) {
+        return connectionOffset[manhole];
+    }
+
+    /**
+     * Connection index after the last connection of the manhole (exclusive).
+     *
+     * @param manhole
+     * @return
+     */
+    public int getEndConnection(int manhole) {
+        return connectionOffset[manhole + 1];
+    }
+
+    public int getConnectionPipe(int connection) {
+        return connectionPipe[connection];
+    }
+
+    /**
+     * @param connection
+     * @return true if the manhole is the start of the connected pipe.
+     */
+    public boolean isConnectionStartOfPipe(int connection) {
+        return connectionIsStart[connection];
+    }
+
+    public float getConnectionHeight(int connection) {
+        return connectionHeight[connection];
+    }
+
+    /**
+     * The manhole at the other end of the connected pipe.
+     *
+     * @param connection
+     * @return
+     */
+    public int getConnectedManhole(int connection) {
+        int p = connectionPipe[connection];
+        if (p < 0) {
+            return -1;
+        }
+        return connectionIsStart[connection] ? pipeEnd[p] : pipeStart[p];
+    }
+
+    /**
+     * Pipes downstream of the manhole by pipe orientation. Horizontal pipes
+     * are followed in both directions.
+     *
+     * @param manhole index
+     * @return indices of pipes in order of discovery
+     */
+    public int[] findDownstreamPipes(int manhole) {
+        return search(manhole, true);
+    }
+
+    /**
+     * Pipes upstream of the manhole by pipe orientation. Horizontal pipes are
+     * followed in both directions.
+     *
+     * @param manhole index
+     * @return indices of pipes in order of discovery
+     */
+    public int[] findUpstreamPipes(int manhole) {
+        return search(manhole, false);
+    }
+
+    private int[] search(int start, boolean downstream) {
+        if (start < 0) {
+            return new int[0];
+        }
+        boolean[] seenManhole = new boolean[manholes.length];
+        boolean[] seenPipe = new boolean[pipes.length];
+        int[] stack = new int[manholes.length];
+        int[] found = new int[pipes.length];
+        int numberFound = 0;
+        int top = 0;
+        stack[top++] = start;
+        seenManhole[start] = true;
+        while (top > 0) {
+            int mh = stack[--top];
+            for (int k = connectionOffset[mh]; k < connectionOffset[mh + 1]; k++) {
+                int p = connectionPipe[k];
+                if (p < 0 || seenPipe[p]) {
+                    continue;
+                }
+                boolean inDirection = connectionIsStart[k] == downstream;
+                if (!inDirection && !pipeHorizontal[p]) {
+                    //If slope is very less, water might go in opposite direction
+                    continue;
+                }
+                seenPipe[p] = true;
+                found[numberFound++] = p;
+                int next = connectionIsStart[k] ? pipeEnd[p] : pipeStart[p];
+                if (next >= 0 && !seenManhole[next]) {
+                    seenManhole[next] = true;
+                    stack[top++] = next;
+                }
+            }
+        }
+        return Arrays.copyOf(found, numberFound);
+    }
+
+    /**
+     * Pipes that might be flown through by particles starting in the manhole.
+     * A pipe is followed in its orientation if its maximum velocity is
+     * positive and against its orientation if its minimum velocity is
+     * negative.
+     *
+     * @param manhole index
+     * @param minmaxVelocity [pipe]{manualID, min velocity, max velocity}
+     * @return indices of pipes sorted ascending (=by manual ID)
+     */
+    public int[] findDownstreamPipes(int manhole, float[][] minmaxVelocity) {
+        if (manhole < 0) {
+            return new int[0];
+        }
+        float[] vmin = new float[pipes.length];
+        float[] vmax = new float[pipes.length];
+        boolean[] known = new boolean[pipes.length];
+        long[] ids = new long[pipes.length];
+        for (int i = 0; i < pipes.length; i++) {
+            ids[i] = pipes[i].getManualID();
+        }
+        for (float[] mm : minmaxVelocity) {
+            int p = Arrays.binarySearch(ids, (long) (int) mm[0]);
+            if (p >= 0) {
+                known[p] = true;
+                vmin[p] = mm[1];
+                vmax[p] = mm[2];
+            }
+        }
+        boolean[] seenManhole = new boolean[manholes.length];
+        boolean[] seenPipe = new boolean[pipes.length];
+        int[] stack = new int[manholes.length];
+        int top = 0;
+        int numberFound = 0;
+        stack[top++] = manhole;
+        seenManhole[manhole] = true;
+        while (top > 0) {
+            int mh = stack[--top];
+            for (int k = connectionOffset[mh]; k < connectionOffset[mh + 1]; k++) {
+                int p = connectionPipe[k];
+                if (p < 0 || !known[p] || seenPipe[p]) {
+                    continue;
+                }
+                int next;
+                if (connectionIsStart[k]) {
+                    if (vmax[p] < 0.001) {
+                        //Pipe is ONLY reverse flown
+                        continue;
+                    }
+                    next = pipeEnd[p];
+                } else {
+                    if (vmin[p] > -0.01) {
+                        //Pipe is never reverse flown
+                        continue;
+                    }
+                    next = pipeStart[p];
+                }
+                seenPipe[p] = true;
+                numberFound++;
+                if (next >= 0 && !seenManhole[next]) {
+                    seenManhole[next] = true;
+                    stack[top++] = next;
+                }
+            }
+        }
+        int[] result = new int[numberFound];
+        int index = 0;
+        for (int i = 0; i < seenPipe.length; i++) {
+            if (seenPipe[i]) {
+                result[index++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Shortest path length [m] along the pipes from the start manhole to all
+     * other manholes (Dijkstra).
+     *
+     * @param start manhole index
+     * @param downstreamOnly only follow pipes in their orientation
+     * @return distance for every manhole, Infinity if it can not be reached.
+     */
+    public double[] shortestDistances(int start, boolean downstreamOnly) {
+        double[] distance = new double[manholes.length];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        if (start < 0) {
+            return distance;
+        }
+        //Binary heap of manhole indices with the distance at insertion time.
+        int[] heap = new int[Math.max(1, connectionPipe.length + 1)];
+        double[] heapKey = new double[heap.length];
+        int size = 0;
+        boolean[] done = new boolean[manholes.length];
+        distance[start] = 0;
+        heap[size] = start;
+        heapKey[size] = 0;
+        size++;
+        while (size > 0) {
+            int mh = heap[0];
+            size--;
+            heap[0] = heap[size];
+            heapKey[0] = heapKey[size];
+            siftDown(heap, heapKey, size);
+            if (done[mh]) {
+                continue;
+            }
+            done[mh] = true;
+            for (int k = connectionOffset[mh]; k < connectionOffset[mh + 1]; k++) {
+                int p = connectionPipe[k];
+                if (p < 0 || (downstreamOnly && !connectionIsStart[k])) {
+                    continue;
+                }
+                int next = connectionIsStart[k] ? pipeEnd[p] : pipeStart[p];
+                if (next < 0 || done[next]) {
+                    continue;
+                }
+                double d = distance[mh] + pipeLength[p];
+                if (d < distance[next]) {
+                    distance[next] = d;
+                    if (size == heap.length) {
+                        heap = Arrays.copyOf(heap, heap.length * 2);
+                        heapKey = Arrays.copyOf(heapKey, heap.length);
+                    }
+                    heap[size] = next;
+                    heapKey[size] = d;
+                    siftUp(heap, heapKey, size);
+                    size++;
+                }
+            }
+        }
+        return distance;
+    }
+
+    private static void siftUp(int[] heap, double[] key, int index) {
+        int v = heap[index];
+        double kv = key[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (key[parent] <= kv) {
+                break;
+            }
+            heap[index] = heap[parent];
+            key[index] = key[parent];
+            index = parent;
+        }
+        heap[index] = v;
+        key[index] = kv;
+    }
+
+    private static void siftDown(int[] heap, double[] key, int size) {
+        if (size == 0) {
+            return;
+        }
+        int index = 0;
+        int v = heap[0];
+        double kv = key[0];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && key[child + 1] < key[child]) {
+                child++;
+            }
+            if (kv <= key[child]) {
+                break;
+            }
+            heap[index] = heap[child];
+            key[index] = key[child];
+            index = child;
+        }
+        heap[index] = v;
+        key[index] = kv;
+    }
+
+    /**
+     *
+     * @param indices
+     * @return the pipe objects of the indices
+     */
+    public Pipe[] toPipes(int[] indices) {
+        Pipe[] p = new Pipe[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            p[i] = pipes[indices[i]];
+        }
+        return p;
+    }
+}
@@ -85,6 +85,22 @@ public class Domain3D {
      */
     public final ArrayList<Obstacle3D> obstacles=new ArrayList<>(0);
 
+    /**
+     * Use a voxel grid for the nearest node search instead of looping over
+     * all nodes.
+     */
+    public static boolean useSpatialIndex = true;
+
+    /**
+     * Search box for nearest node queries of particle positions [m].
+     */
+    public static float maxdistanceXY = 50, maxdistanceZ = 250;
+
+    /**
+     * Lazy built voxel grid over all nodes.
+     */
+    private volatile Domain3DIndex index;
+
     /**
      * Create a 3D Domain
      *
@@ -117,6 +133,25 @@ public class Domain3D {
         maxZ = mz[1];
     }
 
+    /**
+     * Voxel grid over the node positions. Built at first request.
+     *
+     * @return spatial index of all nodes
+     */
+    public Domain3DIndex getIndex() {
+        Domain3DIndex i = index;
+        if (i == null) {
+            synchronized (this) {
+                i = index;
+                if (i == null) {
+                    i = new Domain3DIndex(position);
+                    index = i;
+                }
+            }
+        }
+        return i;
+    }
+
     /**
      * Find nearest Node for the given Coordinate
      *
@@ -124,25 +159,42 @@ public class Domain3D {
      * @return
      */
     public int getNearestCoordinateIndex(Coordinate c) {
+        return getNearestCoordinateIndex(c, -1);
+    }
+
+    /**
+     * Find nearest Node for the given Coordinate, starting the search at the
+     * node found last time for the same particle.
+     *
+     * @param c Coordinate in same CRS as nodes
+     * @param lastIndex node index of the last query for this particle or -1
+     * @return index of nearest node or -1 if no node is within the search box.
+     */
+    public int getNearestCoordinateIndex(Coordinate c, int lastIndex) {
+        return getNearestCoordinateIndex(c.x, c.y, c.z, maxdistanceXY, maxdistanceZ, lastIndex);
+    }
+
+    private int getNearestCoordinateIndex(double x, double y, double z, double maxdistanceXY, double maxdistanceZ, int lastIndex) {
+        if (useSpatialIndex) {
+            return getIndex().getNearestIndex(x, y, z, maxdistanceXY, maxdistanceZ, lastIndex);
+        }
         int bestindex = -1;
         double bestdistance = Double.POSITIVE_INFINITY;
-        float maxdistanceXY = 50;
-        float maxdistanceZ = 250;
         int i = -1;
         for (Coordinate p : position) {
             i++;
-            if (Math.abs(p.x - c.x) > maxdistanceXY) {
+            if (Math.abs(p.x - x) > maxdistanceXY) {
                 continue;
             }
-            if (Math.abs(p.y - c.y) > maxdistanceXY) {
+            if (Math.abs(p.y - y) > maxdistanceXY) {
                 continue;
             }
-            if (Math.abs(p.z - c.z) > maxdistanceZ) {
+            if (Math.abs(p.z - z) > maxdistanceZ) {
                 continue;
             }
-            double dx = (p.x - c.x);
-            double dy = (p.y - c.y);
-            double dz = (p.z - c.z);
+            double dx = (p.x - x);
+            double dy = (p.y - y);
+            double dz = (p.z - z);
             double distance = dx * dx + dy * dy + dz * dz;//No need for sqrt as it only slows the process
             if (distance < bestdistance) {
                 bestdistance = distance;
@@ -161,19 +213,35 @@ public class Domain3D {
      * @return
      */
     public float[] getVelocity(Coordinate utm, long time) {
-        int index = getNearestCoordinateIndex(utm);
+        return getVelocity(getNearestCoordinateIndex(utm), time, new float[3]);
+    }
+
+    /**
+     * Interpolates the velocity of a node at the given time without
+     * allocating a new array.
+     *
+     * @param nodeIndex index of the node
+     * @param time in ms as of Date
+     * @param target array [x,y,z] to be filled, needs length >=3
+     * @return the target array
+     */
+    public float[] getVelocity(int nodeIndex, long time, float[] target) {
         double interpolation = this.time.getTimeIndexDouble(time);
         int timeindex = (int) interpolation;
-        if (timeindex >= this.time.getNumberOfTimes()) {
-            return this.velocity[this.time.getNumberOfTimes() - 1][index];
+        if (timeindex >= this.time.getNumberOfTimes() - 1) {
+            float[] v = this.velocity[this.time.getNumberOfTimes() - 1][nodeIndex];
+            target[0] = v[0];
+            target[1] = v[1];
+            target[2] = v[2];
+            return target;
         }
-        double fraction = interpolation % 1;
-//        System.out.println(timeindex+ " + "+fraction);
-        float[] v = new float[3];
+        float fraction = (float) (interpolation % 1);
+        float[] v0 = this.velocity[timeindex][nodeIndex];
+        float[] v1 = this.velocity[timeindex + 1][nodeIndex];
         for (int i = 0; i < 3; i++) {
-            v[i] = (float) (this.velocity[timeindex][index][i] + fraction * this.velocity[timeindex + 1][index][i] - this.velocity[timeindex][index][i]);
+            target[i] = v0[i] + fraction * (v1[i] - v0[i]);
         }
-        return v;
+        return target;
     }
 
     /**
@@ -188,33 +256,8 @@ public class Domain3D {
         Coordinate c = geotools.toUTM(latlon.getLongitude(), latlon.getLatitude());
         System.out.println("Search converted from " + latlon + "\tto " + c);
         c.z = z;
-        int bestindex = -1;
-        double bestdistance = Double.POSITIVE_INFINITY;
-        float maxdistanceXY = 50;
-        float maxdistanceZ = 50;
-        int i = -1;
-        for (Coordinate p : position) {
-            i++;
-
-            if (Math.abs(p.x - c.x) > maxdistanceXY) {
-                continue;
-            }
-            if (Math.abs(p.y - c.y) > maxdistanceXY) {
-                continue;
-            }
-            if (Math.abs(p.z - c.z) > maxdistanceZ) {
-                continue;
-            }
-            double dx = (p.x - c.x);
-            double dy = (p.y - c.y);
-            double dz = (p.z - c.z);
-            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
-            if (distance < bestdistance) {
-                bestdistance = distance;
-                bestindex = i;
-            }
-
-        }
+        int bestindex = getNearestCoordinateIndex(c.x, c.y, c.z, 50, 50, -1);
+        double bestdistance = bestindex < 0 ? Double.POSITIVE_INFINITY : position[bestindex].distance3D(c);
 
         System.out.println("index= " + bestindex + "  best distance=" + bestdistance + "m  nothing found");
 
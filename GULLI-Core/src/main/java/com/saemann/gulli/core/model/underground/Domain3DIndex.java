@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.saemann.gulli.core.model.underground;
+
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Uniform voxel grid over the nodes of a {@link Domain3D}. Node indices are
+ * stored per voxel in a compressed array (voxelStart/voxelNodes), so a nearest
+ * node query only visits the voxels around the query position instead of
+ * looping over all nodes of the mesh.
+ *
+ * The search returns exactly the same node as the brute force loop in
+ * Domain3D: the nearest node inside the search box, ties resolved to the lower
+ * node index.
+ *
+ * @author saemann
+ */
+public class Domain3DIndex {
+
+    /**
+     * Desired average number of nodes per voxel when building the grid.
+     */
+    public static int nodesPerVoxel = 8;
+
+    private final Coordinate[] position;
+
+    private final double minX, minY, minZ;
+    private final double sizeX, sizeY, sizeZ, minSize;
+    private final int nx, ny, nz;
+
+    /**
+     * First position in voxelNodes for every voxel. Length is number of voxels
+     * +1.
+     */
+    private final int[] voxelStart;
+
+    /**
+     * Node indices ordered by voxel, ascending node index inside each voxel.
+     */
+    private final int[] voxelNodes;
+
+    public Domain3DIndex(Coordinate[] position) {
+        this.position = position;
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY, z0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY, z1 = Double.NEGATIVE_INFINITY;
+        for (Coordinate p : position) {
+            x0 = Math.min(x0, p.x);
+            y0 = Math.min(y0, p.y);
+            z0 = Math.min(z0, p.z);
+            x1 = Math.max(x1, p.x);
+            y1 = Math.max(y1, p.y);
+            z1 = Math.max(z1, p.z);
+        }
+        if (position.length == 0) {
+            x0 = y0 = z0 = x1 = y1 = z1 = 0;
+        }
+        this.minX = x0;
+        this.minY = y0;
+        this.minZ = z0;
+        double ex = x1 - x0, ey = y1 - y0, ez = z1 - z0;
+
+        //Edge length of a cube voxel, only using the dimensions with an extent
+        long targetVoxels = Math.max(1, position.length / Math.max(1, nodesPerVoxel));
+        double volume = 1;
+        int dimensions = 0;
+        for (double e : new double[]{ex, ey, ez}) {
+            if (e > 0) {
+                volume *= e;
+                dimensions++;
+            }
+        }
+        double s = dimensions == 0 ? 1 : Math.pow(volume / targetVoxels, 1. / dimensions);
+        int[] n = dimensionsFor(s, ex, ey, ez);
+        while ((long) n[0] * n[1] * n[2] > 2 * targetVoxels + 8) {
+            s *= 1.25;
+            n = dimensionsFor(s, ex, ey, ez);
+        }
+        this.nx = n[0];
+        this.ny = n[1];
+        this.nz = n[2];
+        this.sizeX = ex > 0 ? ex / nx : 1;
+        this.sizeY = ey > 0 ? ey / ny : 1;
+        this.sizeZ = ez > 0 ? ez / nz : 1;
+        this.minSize = Math.min(sizeX, Math.min(sizeY, sizeZ));
+
+        //Counting sort of the nodes into the voxels
+        int voxels = nx * ny * nz;
+        voxelStart = new int[voxels + 1];
+        int[] voxelOfNode = new int[position.length];
+        for (int i = 0; i < position.length; i++) {
+            Coordinate p = position[i];
+            int v = voxel(indexX(p.x), indexY(p.y), indexZ(p.z));
+            voxelOfNode[i] = v;
+            voxelStart[v + 1]++;
+        }
+        for (int v = 0; v < voxels; v++) {
+            voxelStart[v + 1] += voxelStart[v];
+        }
+        voxelNodes = new int[position.length];
+        int[] fill = new int[voxels];
+        for (int i = 0; i < position.length; i++) {
+            int v = voxelOfNode[i];
+            voxelNodes[voxelStart[v] + fill[v]] = i;
+            fill[v]++;
+        }
+    }
+
+    private static int[] dimensionsFor(double s, double ex, double ey, double ez) {
+        return new int[]{
+            ex > 0 ? (int) Math.max(1, Math.min(Integer.MAX_VALUE / 4, Math.ceil(ex / s))) : 1,
+            ey > 0 ? (int) Math.max(1, Math.min(Integer.MAX_VALUE / 4, Math.ceil(ey / s))) : 1,
+            ez > 0 ? (int) Math.max(1, Math.min(Integer.MAX_VALUE / 4, Math.ceil(ez / s))) : 1};
+    }
+
+    private int indexX(double x) {
+        return clamp((int) Math.floor((x - minX) / sizeX), nx);
+    }
+
+    private int indexY(double y) {
+        return clamp((int) Math.floor((y - minY) / sizeY), ny);
+    }
+
+    private int indexZ(double z) {
+        return clamp((int) Math.floor((z - minZ) / sizeZ), nz);
+    }
+
+    private static int clamp(int i, int n) {
+        if (i < 0) {
+            return 0;
+        }
+        if (i >= n) {
+            return n - 1;
+        }
+        return i;
+    }
+
+    private int voxel(int ix, int iy, int iz) {
+        return (iz * ny + iy) * nx + ix;
+    }
+
+    /**
+     * Find the nearest node inside the search box around (x,y,z).
+     *
+     * @param x query position
+     * @param y query position
+     * @param z query position
+     * @param maxdistanceXY half width of the search box in x and y
+     * @param maxdistanceZ half height of the search box in z
+     * @param hint index of a node that is probably near (e.g. the last result
+     * for the same particle) or -1. Only used to shorten the search.
+     * @return index of nearest node or -1 if no node is inside the box.
+     */
+    public int getNearestIndex(double x, double y, double z, double maxdistanceXY, double maxdistanceZ, int hint) {
+        int bestindex = -1;
+        double bestdistance = Double.POSITIVE_INFINITY;
+        if (hint >= 0 && hint < position.length) {
+            Coordinate p = position[hint];
+            if (Math.abs(p.x - x) <= maxdistanceXY && Math.abs(p.y - y) <= maxdistanceXY && Math.abs(p.z - z) <= maxdistanceZ) {
+                double dx = p.x - x, dy = p.y - y, dz = p.z - z;
+                bestdistance = dx * dx + dy * dy + dz * dz;
+                bestindex = hint;
+            }
+        }
+        //Voxel range covered by the search box
+        int ix0 = indexX(x - maxdistanceXY), ix1 = indexX(x + maxdistanceXY);
+        int iy0 = indexY(y - maxdistanceXY), iy1 = indexY(y + maxdistanceXY);
+        int iz0 = indexZ(z - maxdistanceZ), iz1 = indexZ(z + maxdistanceZ);
+        int cx = indexX(x), cy = indexY(y), cz = indexZ(z);
+        int kmax = Math.max(Math.max(Math.max(cx - ix0, ix1 - cx), Math.max(cy - iy0, iy1 - cy)), Math.max(cz - iz0, iz1 - cz));
+
+        //Visit shells of voxels around the center voxel until no closer node is possible
+        for (int k = 0; k <= kmax; k++) {
+            if (k > 1) {
+                double lowerBound = (k - 1) * minSize;
+                if (lowerBound * lowerBound > bestdistance) {
+                    break;
+                }
+            }
+            for (int iz = Math.max(iz0, cz - k); iz <= Math.min(iz1, cz + k); iz++) {
+                boolean zShell = Math.abs(iz - cz) == k;
+                for (int iy = Math.max(iy0, cy - k); iy <= Math.min(iy1, cy + k); iy++) {
+                    boolean yzShell = zShell || Math.abs(iy - cy) == k;
+                    int xStep = yzShell || k == 0 ? 1 : 2 * k;
+                    for (int ix = cx - k; ix <= cx + k; ix += xStep) {
+                        if (ix < ix0 || ix > ix1) {
+                            continue;
+                        }
+                        int v = voxel(ix, iy, iz);
+                        for (int j = voxelStart[v]; j < voxelStart[v + 1]; j++) {
+                            int i = voxelNodes[j];
+                            Coordinate p = position[i];
+                            if (Math.abs(p.x - x) > maxdistanceXY) {
+                                continue;
+                            }
+                            if (Math.abs(p.y - y) > maxdistanceXY) {
+                                continue;
+                            }
+                            if (Math.abs(p.z - z) > maxdistanceZ) {
+                                continue;
+                            }
+                            double dx = (p.x - x);
+                            double dy = (p.y - y);
+                            double dz = (p.z - z);
+                            double distance = dx * dx + dy * dy + dz * dz;
+                            if (distance < bestdistance || (distance == bestdistance && i < bestindex)) {
+                                bestdistance = distance;
+                                bestindex = i;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return bestindex;
+    }
+
+    public int getNumberOfVoxels() {
+        return nx * ny * nz;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" + position.length + " nodes in " + nx + "x" + ny + "x" + nz + " voxels}";
+    }
+}
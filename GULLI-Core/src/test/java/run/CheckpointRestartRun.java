@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package run;
+
+import com.saemann.gulli.core.control.CheckpointCoordinator;
+import com.saemann.gulli.core.control.Controller;
+import com.saemann.gulli.core.control.listener.SimulationActionAdapter;
+import com.saemann.gulli.core.control.threads.ThreadController;
+import com.saemann.gulli.core.io.AnalyticalChannel;
+import com.saemann.gulli.core.io.Checkpoint_IO;
+import com.saemann.gulli.core.model.material.dispersion.pipe.Dispersion1D_Constant;
+import com.saemann.gulli.core.model.particle.Particle;
+import com.saemann.gulli.core.model.timeline.MeasurementContainer;
+import com.saemann.gulli.core.model.timeline.array.ArrayTimeLineMeasurement;
+import com.saemann.gulli.core.model.topology.Network;
+import com.saemann.gulli.core.model.topology.Pipe;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Checks that a simulation continued from a checkpoint ends in the same state
+ * as the uninterrupted simulation. The analytical channel is calculated once
+ * with a checkpoint in between and once more in a new controller restored
+ * from this checkpoint file. Particles and pipe measurements at the end have
+ * to be bit-identical. Both storages of the particles (objects and
+ * ParticleStore) are checked.
+ *
+ * @author saemann
+ */
+public class CheckpointRestartRun {
+
+    private static final int PARTICLES = 5000;
+
+    private static final int CHECKPOINT_STEP = 200;
+
+    public static void main(String[] args) throws Exception {
+        ThreadController.pauseRevokerThread = true;
+        ArrayTimeLineMeasurement.useIDsharpParticleCounting = false;
+
+        File directory = Files.createTempDirectory("gulli_checkpoint").toFile();
+        boolean identical = compare(false, new File(directory, "objects"));
+        identical &= compare(true, new File(directory, "store"));
+        System.out.println(identical ? "Restarted simulations are identical." : "Restarted simulations differ.");
+        System.exit(identical ? 0 : 1);
+    }
+
+    /**
+     * Runs the simulation with and without restart from a checkpoint.
+     *
+     * @param particleStore use the ParticleStore instead of particle objects
+     * @param directory for the checkpoint file
+     * @return true if the final states are identical
+     * @throws Exception
+     */
+    private static boolean compare(boolean particleStore, File directory) throws Exception {
+        String name = particleStore ? "ParticleStore" : "Particle objects";
+        Controller control = createSimulation(particleStore);
+        final CheckpointCoordinator cc = control.getCheckpointCoordinator();
+        cc.setDirectory(directory);
+        control.addSimulationListener(new SimulationActionAdapter() {
+            @Override
+            public void simulationSTEPFINISH(long loop, Object caller) {
+                if (loop == CHECKPOINT_STEP) {
+                    cc.writeCheckpoint();
+                }
+            }
+        });
+        byte[] expected = runToEnd(control);
+        cc.waitForCheckpoint();
+        File checkpoint = cc.getLastCheckpoint();
+        control.getThreadController().shutdown();
+        if (checkpoint == null) {
+            System.err.println(name + ": no checkpoint written.");
+            return false;
+        }
+
+        Controller restarted = createSimulation(particleStore);
+        restarted.getCheckpointCoordinator().restore(checkpoint);
+        byte[] actual = runToEnd(restarted);
+        restarted.getThreadController().shutdown();
+
+        int diff = firstDifference(expected, actual);
+        if (diff < 0) {
+            System.out.println(name + ": restart from step " + CHECKPOINT_STEP + " is identical (" + expected.length + " bytes).");
+            return true;
+        }
+        System.err.println(name + ": restart from step " + CHECKPOINT_STEP + " differs at byte " + diff + " of " + expected.length + "/" + actual.length + ".");
+        return false;
+    }
+
+    private static Controller createSimulation(boolean particleStore) throws Exception {
+        AnalyticalChannel channel = new AnalyticalChannel(1, 1000, 600, 60);
+        channel.disp = 1f;
+        channel.massPerParticle = 0.001f;
+        Network network = channel.createNetwork(1f);
+        channel.material.setDispersionCalculatorPipe(new Dispersion1D_Constant(channel.disp));
+        channel.addContaminationSuperposition(100, 0, channel.massPerParticle * PARTICLES);
+
+        Controller control = new Controller(2);
+        ThreadController tc = control.getThreadController();
+        tc.useParticleStore = particleStore;
+        tc.counterBasedRandomNumbers = true;
+        tc.setSeed(1);
+        control.loadNetwork(network, control);
+        tc.setDeltaTime(1);
+        control.loadScenario(channel.getScenario(), control);
+        control.initMeasurementTimelines(control.getScenario(), false);
+        control.recalculateInjections();
+        control.resetScenario();
+        return control;
+    }
+
+    private static byte[] runToEnd(Controller control) throws InterruptedException, IOException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        control.addSimulationListener(new SimulationActionAdapter() {
+            @Override
+            public void simulationFINISH(boolean timeOut, boolean particlesOut) {
+                finished.countDown();
+            }
+        });
+        control.start();
+        finished.await();
+        return finalState(control);
+    }
+
+    /**
+     * Particles and pipe measurements in the checkpoint encoding. The
+     * calculation time is left out, it differs between two runs.
+     */
+    private static byte[] finalState(Controller control) throws IOException {
+        ThreadController tc = control.getThreadController();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeInt(tc.getSteps());
+            out.writeLong(tc.getSimulationTime());
+            Checkpoint_IO.CapacityTable capacities = new Checkpoint_IO.CapacityTable(control.getSurface(), control.getNetwork());
+            for (Particle p : tc.getParticles()) {
+                Checkpoint_IO.writeParticle(out, p, capacities);
+            }
+            MeasurementContainer mp = control.getScenario().getMeasurementsPipe();
+            mp.writeState(out);
+            for (Pipe pipe : capacities.getPipes()) {
+                if (pipe.getMeasurementTimeLine() != null) {
+                    pipe.getMeasurementTimeLine().writeState(out);
+                }
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    private static int firstDifference(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) {
+                return i;
+            }
+        }
+        return a.length == b.length ? -1 : n;
+    }
+}
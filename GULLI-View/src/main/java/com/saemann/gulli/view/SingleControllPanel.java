@@ -277,7 +277,7 @@ public class SingleControllPanel extends JPanel implements LoadingActionListener
         //timestep
         JPanel panelParameterTimestep = new JPanel(new BorderLayout());
         panelParameterTimestep.add(new JLabel("Timestep \u0394t :  "), BorderLayout.WEST);
-        textTimeStep = new JTextField(controler.getDeltaTime() + "");
+        textTimeStep = new JTextField(controler.getDeltaTimeSeconds() + "");
         panelParameterTimestep.add(textTimeStep, BorderLayout.CENTER);
         panelParameterTimestep.add(new JLabel("sec."), BorderLayout.EAST);
         panelParameter.add(panelParameterTimestep);
@@ -783,7 +783,7 @@ public class SingleControllPanel extends JPanel implements LoadingActionListener
                     double dt = Double.parseDouble(textTimeStep.getText());
                     controler.setDeltaTime(dt);
                 } catch (NumberFormatException numberFormatException) {
-                    textTimeStep.setText(controller.getDeltaTime() + "");
+                    textTimeStep.setText(controller.getDeltaTimeSeconds() + "");
                 }
             }
 
@@ -1760,7 +1760,7 @@ public class SingleControllPanel extends JPanel implements LoadingActionListener
 
         textSeed.setText(control.getThreadController().getSeed() + "");
 
-        textTimeStep.setText(ThreadController.getDeltaTime() + "");
+        textTimeStep.setText(control.getThreadController().getDeltaTimeSeconds() + "");
         checkDrawUpdateIntervall.setSelected(controler.paintOnMap);
         checkEnterdry.setSelected(!ParticleSurfaceComputing2D.preventEnteringDryCell);
         checkProjectAtObstacles.setSelected(ParticleSurfaceComputing2D.slidealongEdges);
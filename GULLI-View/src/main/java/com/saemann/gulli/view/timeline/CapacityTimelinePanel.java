@@ -10,7 +10,6 @@ import com.saemann.gulli.core.control.Controller;
 import com.saemann.gulli.core.control.StartParameters;
 import com.saemann.gulli.core.control.listener.CapacitySelectionListener;
 import com.saemann.gulli.core.control.multievents.PipeResultData;
-import com.saemann.gulli.core.control.threads.ThreadController;
 import com.saemann.gulli.view.io.timeline.TimeSeries_IO;
 import java.awt.BasicStroke;
 import java.awt.BorderLayout;
@@ -857,7 +856,7 @@ public class CapacityTimelinePanel extends JPanel implements CapacitySelectionLi
             }
 
             long moveVisiblePointToIntervalMid = 0;
-            if (tlm.getContainer().timecontinuousMeasures) {
+            if (tlm.getContainer().timecontinuous) {
                 moveVisiblePointToIntervalMid = (long) (-tlm.getTimes().getDeltaTimeMS() / 2);
 //                System.out.println(getClass()+":: move pointer to interval width @"+moveVisiblePointToIntervalMid/1000+"s");
             }
@@ -1281,7 +1280,7 @@ public class CapacityTimelinePanel extends JPanel implements CapacitySelectionLi
 
             double timescale = 1;
             if (raster.continousMeasurements) {
-                timescale = ThreadController.getDeltaTime() / (timecontainer.getDeltaTimeMS() / 1000.);
+                timescale = controller.getThreadController().getDeltaTimeSeconds() / (timecontainer.getDeltaTimeMS() / 1000.);
             }
 
             for (int i = 0; i < timecontainer.getNumberOfTimes(); i++) {
@@ -1383,7 +1382,7 @@ public class CapacityTimelinePanel extends JPanel implements CapacitySelectionLi
         }
         TimeIndexContainer timecontainer = surface.getMeasurementRaster().getIndexContainer();
 
-        double timescale = ThreadController.getDeltaTime() / (timecontainer.getDeltaTimeMS() / 1000.);
+        double timescale = controller.getThreadController().getDeltaTimeSeconds() / (timecontainer.getDeltaTimeMS() / 1000.);
 
         for (int i = 0; i < timecontainer.getNumberOfTimes(); i++) {
             Date d;
@@ -179,7 +179,7 @@ public class AnalyticalSurfaceRun {
                 TimeSeries tsdM2y = new TimeSeries(new SeriesKey("M2y delta", "", "m²", Color.blue, new AxisKey("M2y", "y")));
                 TimeSeries tsdrM2y = new TimeSeries(new SeriesKey("M2y relative delta", "", "", Color.black, new AxisKey("Mrel", "rel")));
 
-                double factorPerTimeindex = ThreadController.getDeltaTime() * 1000. / surface.getTimes().getDeltaTimeMS();
+                double factorPerTimeindex = c.getThreadController().getDeltaTimeSeconds() * 1000. / surface.getTimes().getDeltaTimeMS();
 
                 TimeIndexContainer tc = surface.getTimes();
                 TimeIndexContainer tcm = surface.getMeasurementRaster().getIndexContainer();